@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nu.nethome.coders;
+
+import nu.nethome.util.ps.ProtocolInfo;
+
+/**
+ * Creates decoders or encoders for a protocol and describes the protocol without loading the coder class.
+ * The description must be the same as the ProtocolInfo returned by the created coders, so tools can select
+ * coders by protocol name, modulation or length and only load and initialize the classes they use.
+ *
+ * @param <T> ProtocolDecoder or ProtocolEncoder
+ */
+public abstract class CoderFactory<T> {
+    private final String name;
+    private final String type;
+    private final String company;
+    private final int length;
+    private final int defaultRepeatCount;
+
+    protected CoderFactory(String name, String type, String company, int length, int defaultRepeatCount) {
+        this.name = name;
+        this.type = type;
+        this.company = company;
+        this.length = length;
+        this.defaultRepeatCount = defaultRepeatCount;
+    }
+
+    /**
+     * @return a new coder instance
+     */
+    public abstract T create();
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the modulation, like "Manchester" or "Space Length"
+     */
+    public String getType() {
+        return type;
+    }
+
+    public String getCompany() {
+        return company;
+    }
+
+    /**
+     * @return number of bits in a message
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public int getDefaultRepeatCount() {
+        return defaultRepeatCount;
+    }
+
+    public ProtocolInfo getInfo() {
+        return new ProtocolInfo(name, type, company, length, defaultRepeatCount);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nu.nethome.coders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The central table of the pulse length windows used by the decoders. Every {@link TunablePulseLength} has an entry
+ * in the table, named by its class and constant name like "nu.nethome.coders.decoders.NexaDecoder.NEXA_LONG_MARK",
+ * which is also the name of the system property that may give its initial length.
+ * <br>
+ * The table is an immutable snapshot referenced by a volatile field. Changes copy the snapshot and swap it in one
+ * write, so decoders see the new windows from their next pulse without any locking, and never see half of an
+ * update. The whole table can be exported to and imported from Properties, where each value is
+ * "length,lower,upper" in micro seconds.
+ * <br>
+ * Entries are registered when the class declaring them is initialized, which for a decoder is when it is first
+ * created. Imported windows for entries that are not registered yet are kept as pending and applied when the entry
+ * is registered, so a saved table can be restored at startup before any decoder exists.
+ * <br>
+ * Each entry also records the class that uses it, normally the class in its name. This is what tools like the
+ * pulse timing tuner use to find the windows of a decoder, since a few entries keep a name from another class.
+ */
+public class PulseTimings {
+
+    private static volatile Snapshot current = new Snapshot(new String[0], new int[0], new int[0], new int[0]);
+    private static Snapshot defaults = current;
+    private static final Map<String, Class<?>> owners = new HashMap<String, Class<?>>();
+    private static final Map<String, int[]> pending = new HashMap<String, int[]>();
+    private static volatile int changeCount;
+
+    private PulseTimings() {
+    }
+
+    static Snapshot getCurrent() {
+        return current;
+    }
+
+    /**
+     * Add an entry with its default window, or with a pending imported window if there is one. Returns its index
+     * in the snapshots.
+     */
+    static synchronized int register(Class<?> owner, String name, int length, int lower, int upper) {
+        int index = current.indexOf(name);
+        if (index >= 0) {
+            return index;
+        }
+        owners.put(name, owner);
+        int[] window = pending.remove(name);
+        if (window == null) {
+            window = new int[]{length, lower, upper};
+        }
+        current = current.with(name, window[0], window[1], window[2]);
+        defaults = defaults.with(name, length, lower, upper);
+        return current.names.length - 1;
+    }
+
+    /**
+     * @return names of all entries, in the order they were registered
+     */
+    public static String[] getNames() {
+        return current.names.clone();
+    }
+
+    /**
+     * @return names of the entries used by the class, in the order they were registered. Entries are registered
+     * when the class declaring them is initialized.
+     */
+    public static synchronized String[] getNames(Class<?> owner) {
+        List<String> result = new ArrayList<String>();
+        for (String name : current.names) {
+            if (owners.get(name) == owner) {
+                result.add(name);
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * @return the class recorded as using the entry, or null if there is no such entry
+     */
+    public static synchronized Class<?> getOwner(String name) {
+        return owners.get(name);
+    }
+
+    /**
+     * @return length, lower and upper limit of an entry, or null if there is no such entry
+     */
+    public static int[] get(String name) {
+        Snapshot snapshot = current;
+        int index = snapshot.indexOf(name);
+        return index < 0 ? null : new int[]{snapshot.lengths[index], snapshot.lowers[index], snapshot.uppers[index]};
+    }
+
+    /**
+     * Change the window of one entry
+     *
+     * @throws IllegalArgumentException if there is no such entry or the window is empty
+     */
+    public static synchronized void set(String name, int length, int lower, int upper) {
+        if (current.indexOf(name) < 0) {
+            throw new IllegalArgumentException("Unknown pulse length: " + name);
+        }
+        Properties update = new Properties();
+        update.setProperty(name, length + "," + lower + "," + upper);
+        importTimings(update);
+    }
+
+    /**
+     * @return number of times windows have been changed by set, importTimings or reset. It is increased after the
+     * new windows are in place, so pulses encoded after reading an unchanged count used the current windows.
+     */
+    public static int getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * @return all entries as name to "length,lower,upper", including pending ones
+     */
+    public static synchronized Properties exportTimings() {
+        Snapshot snapshot = current;
+        Properties result = new Properties();
+        for (Map.Entry<String, int[]> entry : pending.entrySet()) {
+            int[] window = entry.getValue();
+            result.setProperty(entry.getKey(), window[0] + "," + window[1] + "," + window[2]);
+        }
+        for (int i = 0; i < snapshot.names.length; i++) {
+            result.setProperty(snapshot.names[i], snapshot.lengths[i] + "," + snapshot.lowers[i] + "," +
+                    snapshot.uppers[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Change the entries given in the properties, all at once. Entries not given keep their values. Entries which
+     * are not registered yet are kept as pending until they are. Nothing is changed if any of the given entries is
+     * malformed.
+     *
+     * @throws IllegalArgumentException if an entry is malformed
+     */
+    public static synchronized void importTimings(Properties timings) {
+        Snapshot snapshot = current;
+        int[] lengths = snapshot.lengths.clone();
+        int[] lowers = snapshot.lowers.clone();
+        int[] uppers = snapshot.uppers.clone();
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (String name : timings.stringPropertyNames()) {
+            sorted.put(name, timings.getProperty(name));
+        }
+        Map<String, int[]> unregistered = new HashMap<String, int[]>();
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            int[] window = parse(entry.getKey(), entry.getValue());
+            int index = snapshot.indexOf(entry.getKey());
+            if (index < 0) {
+                unregistered.put(entry.getKey(), window);
+                continue;
+            }
+            lengths[index] = window[0];
+            lowers[index] = window[1];
+            uppers[index] = window[2];
+        }
+        pending.putAll(unregistered);
+        current = new Snapshot(snapshot.names, lengths, lowers, uppers);
+        changeCount++;
+    }
+
+    /**
+     * Set all entries back to their default windows and drop the pending ones
+     */
+    public static synchronized void reset() {
+        pending.clear();
+        current = defaults;
+        changeCount++;
+    }
+
+    private static int[] parse(String name, String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Bad pulse length " + name + ": " + value);
+        }
+        int[] result = new int[3];
+        try {
+            for (int i = 0; i < 3; i++) {
+                result[i] = Integer.parseInt(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad pulse length " + name + ": " + value);
+        }
+        if (result[1] > result[2] || result[0] < 0) {
+            throw new IllegalArgumentException("Bad pulse length " + name + ": " + value);
+        }
+        return result;
+    }
+
+    /**
+     * An immutable version of the table, the arrays are never changed once the snapshot is published
+     */
+    static class Snapshot {
+        final String[] names;
+        final int[] lengths;
+        final int[] lowers;
+        final int[] uppers;
+
+        Snapshot(String[] names, int[] lengths, int[] lowers, int[] uppers) {
+            this.names = names;
+            this.lengths = lengths;
+            this.lowers = lowers;
+            this.uppers = uppers;
+        }
+
+        int indexOf(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Snapshot with(String name, int length, int lower, int upper) {
+            int size = names.length;
+            Snapshot result = new Snapshot(Arrays.copyOf(names, size + 1), Arrays.copyOf(lengths, size + 1),
+                    Arrays.copyOf(lowers, size + 1), Arrays.copyOf(uppers, size + 1));
+            result.names[size] = name;
+            result.lengths[size] = length;
+            result.lowers[size] = lower;
+            result.uppers[size] = upper;
+            return result;
+        }
+    }
+}
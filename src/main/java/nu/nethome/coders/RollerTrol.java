@@ -31,26 +31,27 @@ public class RollerTrol {
     // This are the pulse length constants for the protocol. The default values may
     // be overridden by system properties
     public static final PulseLength LONG_PREAMBLE_MARK =
-            new PulseLength(RollerTrolDecoder.class, "LONG_PREAMBLE_MARK", 4885, 4000, 5000);
+            new TunablePulseLength(RollerTrolDecoder.class, "LONG_PREAMBLE_MARK", 4885, 4000, 5000);
     public static final PulseLength LONG_PREAMBLE_SPACE =
-            new PulseLength(RollerTrolDecoder.class, "LONG_PREAMBLE_SPACE", 2450, 2300, 2600);
+            new TunablePulseLength(RollerTrolDecoder.class, "LONG_PREAMBLE_SPACE", 2450, 2300, 2600);
     public static final PulseLength SHORT_PREAMBLE_MARK =
-            new PulseLength(RollerTrolDecoder.class, "SHORT_PREAMBLE_MARK", 1650, 1500, 1800);
+            new TunablePulseLength(RollerTrolDecoder.class, "SHORT_PREAMBLE_MARK", 1650, 1500, 1800);
     public static final PulseLength SHORT =
-            new PulseLength(RollerTrolDecoder.class, "SHORT", 300, 200, 490);
+            new TunablePulseLength(RollerTrolDecoder.class, "SHORT", 300, 200, 490);
     public static final PulseLength LONG =
-            new PulseLength(RollerTrolDecoder.class, "LONG", 600, 500, 800);
+            new TunablePulseLength(RollerTrolDecoder.class, "LONG", 600, 500, 800);
     public static final PulseLength SHORT_MARK =
-            new PulseLength(RollerTrolDecoder.class, "SHORT_MARK", 500, 300, 700);
+            new TunablePulseLength(RollerTrolDecoder.class, "SHORT_MARK", 500, 300, 700);
 
     public static final PulseLength SPACE =
-            new PulseLength(RollerTrolDecoder.class, "SPACE", 1000, 800, 1200);
+            new TunablePulseLength(RollerTrolDecoder.class, "SPACE", 1000, 800, 1200);
     // These are the fields in the binary message
     public static final BitString.Field HOUSE_CODE = new BitString.Field(0, 16);
     public static final BitString.Field DEVICE_CODE = new BitString.Field(16, 4);
     public static final BitString.Field COMMAND = new BitString.Field(20, 4);
     public static final BitString.Field CHECK_SUM = new BitString.Field(32, 8);
     public static final BitString.Field CONSTANT_FIELD = new BitString.Field(24, 8);
+    public static final int CONSTANT_FIELD_VALUE = 1;
 
     // Message field names
     public static final String HOUSE_CODE_NAME = "HouseCode";
@@ -18,15 +18,15 @@ public class RollerTrolG {
     public static final int COMMAND_LEARN = 0xCC;
 
     public static final PulseLength LONG_PREAMBLE_MARK =
-            new PulseLength(RollerTrolGDecoder.class, "LONG_PREAMBLE_MARK", 5170, 4000, 5900);
+            new TunablePulseLength(RollerTrolGDecoder.class, "LONG_PREAMBLE_MARK", 5170, 4000, 5900);
     public static final PulseLength LONG_PREAMBLE_SPACE =
-            new PulseLength(RollerTrolGDecoder.class, "LONG_PREAMBLE_SPACE", 1665, 1000, 2000);
+            new TunablePulseLength(RollerTrolGDecoder.class, "LONG_PREAMBLE_SPACE", 1665, 1000, 2000);
     public static final PulseLength SHORT =
-            new PulseLength(RollerTrolGDecoder.class, "SHORT", 360, 200, 500);
+            new TunablePulseLength(RollerTrolGDecoder.class, "SHORT", 360, 200, 500);
     public static final PulseLength LONG =
-            new PulseLength(RollerTrolGDecoder.class, "LONG", 770, 600, 900);
+            new TunablePulseLength(RollerTrolGDecoder.class, "LONG", 770, 600, 900);
     public static final PulseLength REPEAT_SPACE =
-            new PulseLength(RollerTrolGDecoder.class, "REPEAT_SPACE", 7400, 7000, 11000);
+            new TunablePulseLength(RollerTrolGDecoder.class, "REPEAT_SPACE", 7400, 7000, 11000);
 
     public static final BitString.Field COMMAND = new BitString.Field(0, 8);
     public static final BitString.Field CHANNEL = new BitString.Field(8, 4);
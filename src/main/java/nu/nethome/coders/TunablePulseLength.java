@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nu.nethome.coders;
+
+import nu.nethome.util.ps.PulseLength;
+
+/**
+ * A PulseLength whose window is kept in {@link PulseTimings}, so it can be changed while the decoders are running.
+ * The initial length is the one given by PulseLength, which may be overridden by a system property.
+ */
+public class TunablePulseLength extends PulseLength {
+    private final int index;
+
+    public TunablePulseLength(Class<?> protocolClass, String name, int length, int tolerance) {
+        this(protocolClass, protocolClass, name, length, length - tolerance, length + tolerance);
+    }
+
+    public TunablePulseLength(Class<?> protocolClass, String name, int length, int lower, int upper) {
+        this(protocolClass, protocolClass, name, length, lower, upper);
+    }
+
+    /**
+     * @param owner         the class using the pulse length, when its name is kept from another protocol class
+     * @param protocolClass the class giving the name of the pulse length
+     */
+    public TunablePulseLength(Class<?> owner, Class<?> protocolClass, String name, int length, int tolerance) {
+        this(owner, protocolClass, name, length, length - tolerance, length + tolerance);
+    }
+
+    public TunablePulseLength(Class<?> owner, Class<?> protocolClass, String name, int length, int lower,
+                              int upper) {
+        super(protocolClass, name, length, lower, upper);
+        index = PulseTimings.register(owner, protocolClass.getName() + "." + name, super.length(), lower, upper);
+    }
+
+    @Override
+    public int length() {
+        return PulseTimings.getCurrent().lengths[index];
+    }
+
+    @Override
+    public boolean matches(double pulse) {
+        PulseTimings.Snapshot timings = PulseTimings.getCurrent();
+        return pulse > timings.lowers[index] && pulse < timings.uppers[index];
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nu.nethome.coders.decoders;
+
+import nu.nethome.util.ps.BitString;
+
+/**
+ * Corrects single bit errors, and optionally errors in two adjacent bits, in frames protected by a checksum. The
+ * contribution of each bit to the checksum is given as a weight, and a table from syndrome to the bits that
+ * can explain it is calculated once, so a correction is a table lookup and a validation of each candidate.
+ * <br>
+ * XOR_CHECK is used for CRC and parity checks, where the syndrome is the XOR of the weights of the erroneous
+ * bits. SUM_CHECK is used for additive checksums, where a bit received as 1 adds its weight to the syndrome
+ * and a bit received as 0 subtracts it, modulo the checksum range. A sum only tells the weight of the error
+ * and not the position, so the correction is only made when the protocol validation leaves exactly one
+ * candidate. For all checks a correction is only made if exactly one candidate is valid.
+ * <br>
+ * Frames are given as arrays of longs, with bit n of the frame in bit (n % 64) of word n / 64.
+ */
+public class BitErrorCorrector {
+
+    public static final int XOR_CHECK = 0;
+    public static final int SUM_CHECK = 1;
+
+    /**
+     * Protocol specific validation of a corrected frame. It shall verify the checksum and, where the protocol
+     * allows, that the fields have possible values.
+     */
+    public interface Validator {
+        boolean isValid(long[] frame);
+    }
+
+    private final int checkType;
+    private final int modulus;
+    // Per syndrome, the positions which explain it. For SUM_CHECK ~position is a bit which must be received as 0
+    private final int[][] singles;
+    // Per syndrome, first positions of adjacent pairs, only for XOR_CHECK
+    private final int[][] doubles;
+
+    /**
+     * @param checkType      XOR_CHECK or SUM_CHECK
+     * @param weights        contribution to the syndrome of each bit in the frame, 0 for bits not covered
+     * @param modulus        number of possible syndromes, 2^bits for a XOR_CHECK
+     * @param correctDoubles true to also correct errors in two adjacent bits, only possible for XOR_CHECK.
+     *                       Arbitrary pairs are not tried since a short check can seldom tell them apart.
+     */
+    public BitErrorCorrector(int checkType, int[] weights, int modulus, boolean correctDoubles) {
+        this.checkType = checkType;
+        this.modulus = modulus;
+        int[] counts = new int[modulus];
+        for (int weight : weights) {
+            if (weight % modulus != 0) {
+                counts[weight % modulus]++;
+                if (checkType == SUM_CHECK) {
+                    counts[modulus - weight % modulus]++;
+                }
+            }
+        }
+        singles = allocate(counts);
+        for (int i = 0; i < weights.length; i++) {
+            int weight = weights[i] % modulus;
+            if (weight != 0) {
+                singles[weight][--counts[weight]] = i;
+                if (checkType == SUM_CHECK) {
+                    singles[modulus - weight][--counts[modulus - weight]] = ~i;
+                }
+            }
+        }
+        if (correctDoubles && checkType == XOR_CHECK) {
+            for (int i = 0; i + 1 < weights.length; i++) {
+                counts[(weights[i] ^ weights[i + 1]) % modulus]++;
+            }
+            doubles = allocate(counts);
+            for (int i = 0; i + 1 < weights.length; i++) {
+                int syndrome = (weights[i] ^ weights[i + 1]) % modulus;
+                doubles[syndrome][--counts[syndrome]] = i;
+            }
+        } else {
+            doubles = null;
+        }
+    }
+
+    private static int[][] allocate(int[] counts) {
+        int[][] result = new int[counts.length][];
+        for (int i = 0; i < counts.length; i++) {
+            result[i] = new int[counts[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Try to correct a frame which failed its check.
+     *
+     * @param frame     the received frame, corrected in place if possible
+     * @param syndrome  difference between the received and the calculated checksum, see the class description
+     * @param validator protocol validation of the candidates
+     * @return number of corrected bits, or 0 if the frame could not be corrected and is unchanged
+     */
+    public int correct(long[] frame, int syndrome, Validator validator) {
+        syndrome = ((syndrome % modulus) + modulus) % modulus;
+        if (syndrome == 0) {
+            return 0;
+        }
+        int found = -1;
+        for (int candidate : singles[syndrome]) {
+            int position = candidate >= 0 ? candidate : ~candidate;
+            if (checkType == SUM_CHECK && getBit(frame, position) != (candidate >= 0)) {
+                continue;
+            }
+            if (isValidWith(frame, position, -1, validator)) {
+                if (found >= 0) {
+                    return 0;
+                }
+                found = position;
+            }
+        }
+        if (found >= 0) {
+            flip(frame, found);
+            return 1;
+        }
+        if (doubles == null) {
+            return 0;
+        }
+        for (int position : doubles[syndrome]) {
+            if (isValidWith(frame, position, position + 1, validator)) {
+                if (found >= 0) {
+                    return 0;
+                }
+                found = position;
+            }
+        }
+        if (found >= 0) {
+            flip(frame, found);
+            flip(frame, found + 1);
+            return 2;
+        }
+        return 0;
+    }
+
+    private static boolean isValidWith(long[] frame, int first, int second, Validator validator) {
+        flip(frame, first);
+        if (second >= 0) {
+            flip(frame, second);
+        }
+        boolean valid = validator.isValid(frame);
+        flip(frame, first);
+        if (second >= 0) {
+            flip(frame, second);
+        }
+        return valid;
+    }
+
+    private static boolean getBit(long[] frame, int position) {
+        return ((frame[position >> 6] >> (position & 63)) & 1) != 0;
+    }
+
+    private static void flip(long[] frame, int position) {
+        frame[position >> 6] ^= 1L << (position & 63);
+    }
+
+    /**
+     * @return the bits of a BitString as a frame, the length must be a multiple of 8
+     */
+    public static long[] toFrame(BitString bits, int length) {
+        long[] frame = new long[(length + 63) / 64];
+        for (int i = 0; i < length; i += 8) {
+            frame[i >> 6] |= ((long) bits.extractInt(new BitString.Field(i, 8))) << (i & 63);
+        }
+        return frame;
+    }
+
+    /**
+     * @return the frame as a BitString, the length must be a multiple of 8
+     */
+    public static BitString toBitString(long[] frame, int length) {
+        BitString bits = new BitString(length);
+        for (int i = 0; i < length; i += 8) {
+            bits.insert(new BitString.Field(i, 8), (int) (frame[i >> 6] >> (i & 63)) & 0xFF);
+        }
+        return bits;
+    }
+}
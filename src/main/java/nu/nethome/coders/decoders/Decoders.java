@@ -19,12 +19,20 @@
 
 package nu.nethome.coders.decoders;
 
+import nu.nethome.coders.CoderFactory;
 import nu.nethome.util.ps.ProtocolDecoder;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 public class Decoders {
+    private static final List<CoderFactory<ProtocolDecoder>> FACTORIES = Collections.unmodifiableList(createFactories());
+
+    /**
+     * @return the classes of all decoders. Prefer {@link #getFactories()}, which does not load the classes
+     */
     public static Collection<Class<? extends ProtocolDecoder>> getAllTypes() {
         Collection<Class<? extends ProtocolDecoder>> result = new ArrayList<Class<? extends ProtocolDecoder>>();
         result.add(DeltronicDecoder.class);
@@ -52,4 +60,144 @@ public class Decoders {
         result.add(PrologueDecoder.class);
         return result;
     }
+
+    /**
+     * @return factories for all decoders, with the same protocols in the same order as {@link #getAllTypes()}
+     */
+    public static List<CoderFactory<ProtocolDecoder>> getFactories() {
+        return FACTORIES;
+    }
+
+    /**
+     * @param protocolName name of the protocol as given by the decoder's ProtocolInfo
+     * @return factory for the decoder of the protocol, or null if there is none
+     */
+    public static CoderFactory<ProtocolDecoder> getFactory(String protocolName) {
+        for (CoderFactory<ProtocolDecoder> factory : FACTORIES) {
+            if (factory.getName().equals(protocolName)) {
+                return factory;
+            }
+        }
+        return null;
+    }
+
+    private static List<CoderFactory<ProtocolDecoder>> createFactories() {
+        List<CoderFactory<ProtocolDecoder>> result = new ArrayList<CoderFactory<ProtocolDecoder>>();
+        result.add(new CoderFactory<ProtocolDecoder>("Deltronic", "Space Length", "Deltronic", 12, 5) {
+            public ProtocolDecoder create() {
+                return new DeltronicDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("Emotiva", "Space Length", "Emotiva", 24, 5) {
+            public ProtocolDecoder create() {
+                return new EmotivaDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("HK", "Space Length", "Harman/Kardon", 16, 5) {
+            public ProtocolDecoder create() {
+                return new HKDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("JVC", "Space Length", "JVC", 16, 5) {
+            public ProtocolDecoder create() {
+                return new JVCDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("Nexa", "Mark Length", "Nexa", 25, 5) {
+            public ProtocolDecoder create() {
+                return new NexaDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("NexaFire", "Space Length", "NexaFire", 24, 5) {
+            public ProtocolDecoder create() {
+                return new NexaFireDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("NexaL", "Space Length", "Nexa", 32, 5) {
+            public ProtocolDecoder create() {
+                return new NexaLDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("Pioneer", "Space Length", "Pioneer", 16, 5) {
+            public ProtocolDecoder create() {
+                return new PioneerDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("Pronto", "None", "Pronto", 0, 5) {
+            public ProtocolDecoder create() {
+                return new ProntoDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("RC5", "Manchester", "Philips", 14, 5) {
+            public ProtocolDecoder create() {
+                return new RC5Decoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("RC6", "Manchester", "Philips", 20, 5) {
+            public ProtocolDecoder create() {
+                return new RC6Decoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("RisingSun", "Mark Length", "RisingSun", 25, 5) {
+            public ProtocolDecoder create() {
+                return new RisingSunDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("SIRC20", "Mark Length", "Sony", 20, 5) {
+            public ProtocolDecoder create() {
+                return new SIRCDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("UPM", "Manchester", "UPM", 14, 5) {
+            public ProtocolDecoder create() {
+                return new UPMDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("Viasat", "Diff Manchester", "Viasat", 32, 5) {
+            public ProtocolDecoder create() {
+                return new ViasatDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("Waveman", "Mark Length", "Waveman", 25, 5) {
+            public ProtocolDecoder create() {
+                return new WavemanDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("X10", "Space Length", "X10", 16, 5) {
+            public ProtocolDecoder create() {
+                return new X10Decoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("Zhejiang", "Mark Length", "Zhejiang", 25, 5) {
+            public ProtocolDecoder create() {
+                return new ZhejiangDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("Oregon", "Manchester", "Oregon Scientific", 76, 2) {
+            public ProtocolDecoder create() {
+                return new OregonDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("Fineoffset", "Mark Length", "Fineoffset", 40, 1) {
+            public ProtocolDecoder create() {
+                return new FineOffsetDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("RollerTrol", "Mark Length", "RollerTrol", 40, 1) {
+            public ProtocolDecoder create() {
+                return new RollerTrolDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("RollerTrolG", "Mark Length", "RollerTrol", 40, 1) {
+            public ProtocolDecoder create() {
+                return new RollerTrolGDecoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolDecoder>("Prologue", "Space Length", "Prologue", 37, 1) {
+            public ProtocolDecoder create() {
+                return new PrologueDecoder();
+            }
+        });
+        return result;
+    }
 }
@@ -19,6 +19,7 @@
 
 package nu.nethome.coders.decoders;
 
+import nu.nethome.coders.TunablePulseLength;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
@@ -37,11 +38,11 @@ public class FineOffsetDecoder implements ProtocolDecoder {
     // This are the pulse length constants for the protocol. The default values may
     // be overridden by system properties
     public static final PulseLength FINE_OFFSET_LONG_MARK =
-            new PulseLength(FineOffsetDecoder.class, "FINE_OFFSET_LONG_MARK", 1500, 1000, 2000);
+            new TunablePulseLength(FineOffsetDecoder.class, "FINE_OFFSET_LONG_MARK", 1500, 1000, 2000);
     public static final PulseLength FINE_OFFSET_SHORT_MARK =
-            new PulseLength(FineOffsetDecoder.class, "FINE_OFFSET_SHORT_MARK", 500, 250, 1000);
+            new TunablePulseLength(FineOffsetDecoder.class, "FINE_OFFSET_SHORT_MARK", 500, 250, 1000);
     public static final PulseLength FINE_OFFSET_SPACE =
-            new PulseLength(FineOffsetDecoder.class, "FINE_OFFSET_SPACE", 1000, 500, 1500);
+            new TunablePulseLength(FineOffsetDecoder.class, "FINE_OFFSET_SPACE", 1000, 500, 1500);
 
     /**
      * I = sensor type (and identity)
@@ -95,15 +96,77 @@ public class FineOffsetDecoder implements ProtocolDecoder {
     public static final BitString.Field BYTE1 = new BitString.Field(8, 8);
     public static final BitString.Field BYTE0 = new BitString.Field(0, 8);
 
+    private static final int RAIN_SENSOR_TYPE = 3;
+
     protected ProtocolDecoderSink m_Sink = null;
     BitString data = new BitString();
     protected int state = IDLE;
     private int preambleCount;
+    private BitErrorCorrector corrector = null;
+    private BitErrorCorrector rainCorrector = null;
 
     public void setTarget(ProtocolDecoderSink sink) {
         m_Sink = sink;
     }
 
+    /**
+     * Correct bit errors in frames which fail the CRC, see {@link BitErrorCorrector}. Corrected messages get
+     * a field "Corrected" with the number of corrected bits, since an 8 bit CRC may also accept a wrong correction.
+     * Single bit corrections are always right, but two bit errors which are not adjacent may be mistaken for an
+     * adjacent pair, so messages with "Corrected" 2 should be treated as less reliable.
+     *
+     * @param maxBits 0 for no correction (default), 1 for single bit errors and 2 to also correct two adjacent bits
+     */
+    public void setErrorCorrection(int maxBits) {
+        if (maxBits > 0) {
+            corrector = new BitErrorCorrector(BitErrorCorrector.XOR_CHECK, crcWeights(4), 256, maxBits > 1);
+            rainCorrector = new BitErrorCorrector(BitErrorCorrector.XOR_CHECK, crcWeights(6), 256, maxBits > 1);
+        } else {
+            corrector = null;
+            rainCorrector = null;
+        }
+    }
+
+    /**
+     * The CRC has no initial value, so the CRC of a frame with a single bit set is that bit's contribution
+     */
+    private static int[] crcWeights(int dataBytes) {
+        int[] weights = new int[8 * (dataBytes + 1)];
+        for (int i = 0; i < weights.length; i++) {
+            if (i < 8) {
+                weights[i] = 1 << i;
+            } else {
+                byte[] bytes = new byte[dataBytes];
+                bytes[dataBytes - i / 8] = (byte) (1 << (i % 8));
+                weights[i] = crc.calc(bytes);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Calculate the CRC of the data bytes of a frame, which are sent in the order from the highest byte
+     */
+    private static int calculateChecksum(long[] frame, int dataBytes) {
+        byte[] bytes = new byte[dataBytes];
+        for (int i = 0; i < dataBytes; i++) {
+            bytes[i] = (byte) (frame[0] >> (8 * (dataBytes - i)));
+        }
+        return crc.calc(bytes);
+    }
+
+    private static final BitErrorCorrector.Validator FRAME_VALIDATOR = new BitErrorCorrector.Validator() {
+        public boolean isValid(long[] frame) {
+            return calculateChecksum(frame, 4) == (frame[0] & 0xFF) && ((frame[0] >> 36) & 0x0F) != RAIN_SENSOR_TYPE;
+        }
+    };
+
+    private static final BitErrorCorrector.Validator RAIN_FRAME_VALIDATOR = new BitErrorCorrector.Validator() {
+        public boolean isValid(long[] frame) {
+            return calculateChecksum(frame, 6) == (frame[0] & 0xFF) && ((frame[0] >> 52) & 0x0F) == RAIN_SENSOR_TYPE;
+        }
+    };
+
     public ProtocolInfo getInfo() {
         return new ProtocolInfo("Fineoffset", "Mark Length", "Fineoffset", 40, 1);
     }
@@ -119,6 +182,10 @@ public class FineOffsetDecoder implements ProtocolDecoder {
     }
 
     private void decodeRainMessage(BitString binaryMessage) {
+        decodeRainMessage(binaryMessage, 0);
+    }
+
+    private void decodeRainMessage(BitString binaryMessage, int correctedBits) {
         int rain = (binaryMessage.extractInt(RAIN_LO) + (binaryMessage.extractInt(RAIN_HI) << 8)) * 3;
         int temp = binaryMessage.extractInt(TEMP_RAIN) - 400;
         int identity = binaryMessage.extractInt(IDENTITY_RAIN);
@@ -131,6 +198,14 @@ public class FineOffsetDecoder implements ProtocolDecoder {
         bytes[4] = (byte) binaryMessage.extractInt(BYTE2);
         bytes[5] = (byte) binaryMessage.extractInt(BYTE1);
         int calculatedChecksum = crc.calc(bytes);
+        if (calculatedChecksum != checksum && rainCorrector != null) {
+            long[] frame = BitErrorCorrector.toFrame(binaryMessage, 56);
+            int corrected = rainCorrector.correct(frame, calculatedChecksum ^ checksum, RAIN_FRAME_VALIDATOR);
+            if (corrected > 0) {
+                decodeRainMessage(BitErrorCorrector.toBitString(frame, 56), corrected);
+                return;
+            }
+        }
         if (calculatedChecksum == checksum) {
             ProtocolMessage message = new ProtocolMessage("FineOffset", temp, identity, 7);
             message.setRawMessageByteAt(0, bytes[0]);
@@ -143,14 +218,19 @@ public class FineOffsetDecoder implements ProtocolDecoder {
             message.addField(new FieldValue("Temp", temp));
             message.addField(new FieldValue("Rain", rain));
             message.addField(new FieldValue("Identity", identity));
+            addCorrected(message, correctedBits);
             m_Sink.parsedMessage(message);
         }
         state = IDLE;
     }
 
     public void decodeMessage(BitString binaryMessage) {
+        decodeMessage(binaryMessage, 0);
+    }
+
+    private void decodeMessage(BitString binaryMessage, int correctedBits) {
         int sensorType = binaryMessage.extractInt(SENSOR_TYPE);
-        if (sensorType == 3) {
+        if (sensorType == RAIN_SENSOR_TYPE) {
             return;
         }
         int checksum = binaryMessage.extractInt(CHECKSUM);
@@ -164,6 +244,14 @@ public class FineOffsetDecoder implements ProtocolDecoder {
         bytes[2] = (byte) binaryMessage.extractInt(BYTE2);
         bytes[3] = (byte) binaryMessage.extractInt(BYTE1);
         int calculatedChecksum = crc.calc(bytes);
+        if (calculatedChecksum != checksum && corrector != null) {
+            long[] frame = BitErrorCorrector.toFrame(binaryMessage, 40);
+            int corrected = corrector.correct(frame, calculatedChecksum ^ checksum, FRAME_VALIDATOR);
+            if (corrected > 0) {
+                decodeMessage(BitErrorCorrector.toBitString(frame, 40), corrected);
+                return;
+            }
+        }
         if (calculatedChecksum == checksum) {
             ProtocolMessage message = new ProtocolMessage("FineOffset", temp, identity, 5);
             message.setRawMessageByteAt(0, bytes[0]);
@@ -176,6 +264,7 @@ public class FineOffsetDecoder implements ProtocolDecoder {
                 message.addField(new FieldValue("Moisture", humidity));
             }
             message.addField(new FieldValue("Identity", identity));
+            addCorrected(message, correctedBits);
             m_Sink.parsedMessage(message);
             if (isFooGadgetEnergy(identity)) {
                 int energy = binaryMessage.extractInt(ENERGY);
@@ -183,18 +272,26 @@ public class FineOffsetDecoder implements ProtocolDecoder {
                 fooMessage.addField(new FieldValue("Energy", energy));
                 fooMessage.addField(new FieldValue("Counter", humidity));
                 fooMessage.addField(new FieldValue("Identity", identity));
+                addCorrected(fooMessage, correctedBits);
                 m_Sink.parsedMessage(fooMessage);
             } else if (isFooGadgetPulseCounter(identity)) {
                 int energy = binaryMessage.extractInt(ENERGY) + (humidity << 12);
                 ProtocolMessage fooMessage = new ProtocolMessage("FooGadgetPulse", energy, identity, 0);
                 fooMessage.addField(new FieldValue("Pulses", energy));
                 fooMessage.addField(new FieldValue("Identity", identity));
+                addCorrected(fooMessage, correctedBits);
                 m_Sink.parsedMessage(fooMessage);
             }
         }
         state = IDLE;
     }
 
+    private static void addCorrected(ProtocolMessage message, int correctedBits) {
+        if (correctedBits > 0) {
+            message.addField(new FieldValue("Corrected", correctedBits));
+        }
+    }
+
     private boolean isFooGadgetPulseCounter(int identity) {
         return (identity == 1094);
     }
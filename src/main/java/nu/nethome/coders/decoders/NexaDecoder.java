@@ -19,6 +19,7 @@
 
 package nu.nethome.coders.decoders;
 
+import nu.nethome.coders.TunablePulseLength;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
@@ -62,15 +63,15 @@ public class NexaDecoder implements ProtocolDecoder {
 	// This are the pulse length constants for the protocol. The default values may
 	// be overridden by system properties
 	public static final PulseLength NEXA_LONG_MARK = 
-		new PulseLength(NexaDecoder.class,"NEXA_LONG_MARK", 1065, 243);
+		new TunablePulseLength(NexaDecoder.class,"NEXA_LONG_MARK", 1065, 243);
 	public static final PulseLength NEXA_SHORT_MARK = 
-		new PulseLength(NexaDecoder.class,"NEXA_SHORT_MARK", 345, 99);
+		new TunablePulseLength(NexaDecoder.class,"NEXA_SHORT_MARK", 345, 99);
 	public static final PulseLength NEXA_LONG_SPACE = 
-		new PulseLength(NexaDecoder.class,"NEXA_LONG_SPACE", 1105, 251);
+		new TunablePulseLength(NexaDecoder.class,"NEXA_LONG_SPACE", 1105, 251);
 	public static final PulseLength NEXA_SHORT_SPACE = 
-		new PulseLength(NexaDecoder.class,"NEXA_SHORT_SPACE", 385, 107);
+		new TunablePulseLength(NexaDecoder.class,"NEXA_SHORT_SPACE", 385, 107);
 	public static final PulseLength NEXA_REPEAT = 
-		new PulseLength(NexaDecoder.class,"NEXA_REPEAT", 11550, 2340);
+		new TunablePulseLength(NexaDecoder.class,"NEXA_REPEAT", 11550, 2340);
 
 	protected PulseLength LONG_MARK = NEXA_LONG_MARK;
 	protected PulseLength SHORT_MARK = NEXA_SHORT_MARK;
@@ -88,6 +89,7 @@ public class NexaDecoder implements ProtocolDecoder {
 	public StatePulseAnalyzer analyzer = new StatePulseAnalyzer();
 	private boolean m_PrintAnalyze = false;
 	protected String m_ProtocolName;
+	private RepeatVoter m_Voter = null;
 
 	public void setTarget(ProtocolDecoderSink sink) {
 		m_Sink = sink;
@@ -106,6 +108,16 @@ public class NexaDecoder implements ProtocolDecoder {
 		m_ProtocolName = "Nexa";
 	}
 
+	/**
+	 * In soft combining mode pulses out of tolerance do not abort the frame, and frames with such
+	 * pulses are replaced by the majority vote of the copies in the burst. See {@link RepeatVoter}.
+	 *
+	 * @param softCombining true to enable soft combining, default is false
+	 */
+	public void setSoftCombining(boolean softCombining) {
+		m_Voter = softCombining ? new RepeatVoter(25) : null;
+	}
+
 	public ProtocolInfo getInfo() {
 		return new ProtocolInfo(m_ProtocolName, "Mark Length", m_ProtocolName, 25, 5);
 	}
@@ -125,7 +137,7 @@ public class NexaDecoder implements ProtocolDecoder {
 		m_Data >>= 1;
 		m_Data |= (b << 24);
 		// Check if this is a complete message
-		if (m_BitCounter == 24){
+		if (m_BitCounter == 24 && acceptFrame()){
 			// It is, create the message
             decodeMessage(m_Data);
 		}
@@ -162,6 +174,44 @@ public class NexaDecoder implements ProtocolDecoder {
         }
     }
 
+	/**
+	 * Called with a complete frame in m_Data. In soft combining mode the frame is added to the vote, and
+	 * if it is suspect it is replaced by the voted frame or dropped if the vote is not decided yet.
+	 *
+	 * @return true if the frame in m_Data shall be decoded
+	 */
+	protected boolean acceptFrame() {
+		if (m_Voter == null) {
+			return true;
+		}
+		m_Voter.add(m_Data);
+		if (!m_Voter.isSuspect()) {
+			return true;
+		}
+		if (m_Voter.isDecided()) {
+			m_Data = (int) m_Voter.getFrame();
+			return true;
+		}
+		m_State = REPEAT_SCAN;
+		return false;
+	}
+
+	/**
+	 * In soft combining mode, check if a pulse which is out of tolerance may be used anyway
+	 */
+	private boolean acceptSuspect(double pulse) {
+		return m_Voter != null && pulse < REPEAT.length() / 2 && m_Voter.acceptSuspectPulse();
+	}
+
+	private void startFrame(int firstBit) {
+		m_Data = 0;
+		m_BitCounter = 0;
+		if (m_Voter != null) {
+			m_Voter.startCopy();
+		}
+		addBit(firstBit);
+	}
+
     /**
 	 * Report that part of a message was parsed, but aborted due to a non valid
 	 * pulse length.
@@ -179,18 +229,18 @@ public class NexaDecoder implements ProtocolDecoder {
 	 * @see ssg.ir.IRDecoder#parse(java.lang.Double)
 	 */
 	public int parse(double pulse, boolean state) {
+		if (m_Voter != null && pulse > REPEAT.length() * 2) {
+			// End of burst
+			m_Voter.reset();
+		}
 		switch (m_State) {
 			case IDLE: {
 				if (LONG_MARK.matches(pulse) && state && (m_LastPulse > (REPEAT.length() / 2))) {
 					m_State = READING_BIT_SHORT_SPACE;
-					m_Data = 0;
-					m_BitCounter = 0;
-					addBit(1);
+					startFrame(1);
 				} else if (SHORT_MARK.matches(pulse) && state && (m_LastPulse > (REPEAT.length() / 2))) {
 					m_State = READING_BIT_LONG_SPACE;
-					m_Data = 0;
-					m_BitCounter = 0;					
-					addBit(0);
+					startFrame(0);
 				}
 				break;
 			}
@@ -201,6 +251,11 @@ public class NexaDecoder implements ProtocolDecoder {
 				} else if (SHORT_MARK.matches(pulse) && state) {
 					m_State = READING_BIT_LONG_SPACE;
 					addBit(0);
+				} else if (state && acceptSuspect(pulse)) {
+					// Guess the bit from the nearest mark length
+					boolean isLong = pulse > (LONG_MARK.length() + SHORT_MARK.length()) / 2;
+					m_State = isLong ? READING_BIT_SHORT_SPACE : READING_BIT_LONG_SPACE;
+					addBit(isLong ? 1 : 0);
 				}
 				else {
 					partiallyParsed("M" ,pulse);
@@ -209,7 +264,7 @@ public class NexaDecoder implements ProtocolDecoder {
 				break;
 			}
 			case READING_BIT_SHORT_SPACE: {
-				if (SHORT_SPACE.matches(pulse)) {
+				if (SHORT_SPACE.matches(pulse) || acceptSuspect(pulse)) {
 					m_State = READING_BIT_MARK;
 				}
 				else {
@@ -224,6 +279,8 @@ public class NexaDecoder implements ProtocolDecoder {
 				} else if (SHORT_SPACE.matches(pulse)) {
 					// Special signalling - group sending
 					m_State = READING_BIT_MARK;
+				} else if (acceptSuspect(pulse)) {
+					m_State = READING_BIT_MARK;
 				} else {
 					partiallyParsed("LS", pulse);
 					m_State = IDLE;
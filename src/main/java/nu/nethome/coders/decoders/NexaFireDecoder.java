@@ -19,6 +19,7 @@
 
 package nu.nethome.coders.decoders;
 
+import nu.nethome.coders.TunablePulseLength;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
@@ -58,19 +59,19 @@ public class NexaFireDecoder implements ProtocolDecoder {
 	protected int m_State = IDLE;
 		
 	// This are the pulse length constants for the protocol. The default values may
-	// be overridden by system properties
+	// be overridden by system properties, which are named after NexaDecoder
 	public static final PulseLength NEXAF_HEADER_MARK = 
-		new PulseLength(NexaDecoder.class,"NEXAF_HEADER_MARK", 8100, 400);
+		new TunablePulseLength(NexaFireDecoder.class, NexaDecoder.class,"NEXAF_HEADER_MARK", 8100, 400);
 	public static final PulseLength NEXAF_HEADER_SPACE = 
-		new PulseLength(NexaDecoder.class,"NEXAF_HEADER_SPACE", 900, 100);
+		new TunablePulseLength(NexaFireDecoder.class, NexaDecoder.class,"NEXAF_HEADER_SPACE", 900, 100);
 	public static final PulseLength NEXAF_MARK = 
-		new PulseLength(NexaDecoder.class,"NEXAF_MARK", 800, 200);
+		new TunablePulseLength(NexaFireDecoder.class, NexaDecoder.class,"NEXAF_MARK", 800, 200);
 	public static final PulseLength NEXAF_LONG_SPACE = 
-		new PulseLength(NexaDecoder.class,"NEXAF_LONG_SPACE", 2740, 300);
+		new TunablePulseLength(NexaFireDecoder.class, NexaDecoder.class,"NEXAF_LONG_SPACE", 2740, 300);
 	public static final PulseLength NEXAF_SHORT_SPACE = 
-		new PulseLength(NexaDecoder.class,"NEXAF_SHORT_SPACE", 1400, 200);
+		new TunablePulseLength(NexaFireDecoder.class, NexaDecoder.class,"NEXAF_SHORT_SPACE", 1400, 200);
 	public static final PulseLength NEXAF_REPEAT = 
-		new PulseLength(NexaDecoder.class,"NEXAF_REPEAT", 14500, 2000);
+		new TunablePulseLength(NexaFireDecoder.class, NexaDecoder.class,"NEXAF_REPEAT", 14500, 2000);
 
 	protected PulseLength HEADER_MARK = NEXAF_HEADER_MARK;
 	protected PulseLength HEADER_SPACE = NEXAF_HEADER_SPACE;
@@ -19,6 +19,7 @@
 
 package nu.nethome.coders.decoders;
 
+import nu.nethome.coders.TunablePulseLength;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
@@ -62,21 +63,21 @@ public class NexaLDecoder implements ProtocolDecoder {
 	// This are the pulse length constants for the protocol. The default values may
 	// be overridden by system properties
 	public static final PulseLength NEXA_HEADER_MARK = 
-		new PulseLength(NexaLDecoder.class,"NEXA_HEADER_MARK", 290, 200, 410);
+		new TunablePulseLength(NexaLDecoder.class,"NEXA_HEADER_MARK", 290, 200, 410);
 	public static final PulseLength NEXA_HEADER_SPACE = 
-		new PulseLength(NexaLDecoder.class,"NEXA_HEADER_SPACE", 2615, 553);
+		new TunablePulseLength(NexaLDecoder.class,"NEXA_HEADER_SPACE", 2615, 553);
 	public static final PulseLength NEXA_MARK = 
-		new PulseLength(NexaLDecoder.class,"NEXA_MARK", 250, 170, 435); //365
+		new TunablePulseLength(NexaLDecoder.class,"NEXA_MARK", 250, 170, 435); //365
 	public static final PulseLength NEXA_LONG_SPACE = 
-		new PulseLength(NexaLDecoder.class,"NEXA_LONG_SPACE", 1100, 250);
+		new TunablePulseLength(NexaLDecoder.class,"NEXA_LONG_SPACE", 1100, 250);
 	public static final PulseLength NEXA_SHORT_SPACE = 
-		new PulseLength(NexaLDecoder.class,"NEXA_SHORT_SPACE", 280, 130, 366); // 180
+		new TunablePulseLength(NexaLDecoder.class,"NEXA_SHORT_SPACE", 280, 130, 366); // 180
 	public static final PulseLength NEXA_LONG_INTER_SPACE = 
-		new PulseLength(NexaLDecoder.class,"NEXA_LONG_INTER_SPACE", 1120, 254);	
+		new TunablePulseLength(NexaLDecoder.class,"NEXA_LONG_INTER_SPACE", 1120, 254);	
 	public static final PulseLength NEXA_SHORT_INTER_SPACE = 
-		new PulseLength(NexaLDecoder.class,"NEXA_SHORT_INTER_SPACE", 325, 150, 420); //200
+		new TunablePulseLength(NexaLDecoder.class,"NEXA_SHORT_INTER_SPACE", 325, 150, 420); //200
 	public static final PulseLength NEXA_REPEAT = 
-		new PulseLength(NexaLDecoder.class,"NEXA_REPEAT", 9600, 1950);
+		new TunablePulseLength(NexaLDecoder.class,"NEXA_REPEAT", 9600, 1950);
 	
 	
 	long m_Data = 0;
@@ -88,11 +89,22 @@ public class NexaLDecoder implements ProtocolDecoder {
 	public StatePulseAnalyzer analyzer = new StatePulseAnalyzer();
 	private double m_LastPulse = NEXA_REPEAT.length() / 2;
 	private boolean m_PrintAnalyze = false;
+	private RepeatVoter m_Voter = null;
 	
 	public void setTarget(ProtocolDecoderSink sink) {
 		m_Sink = sink;
 	}
 	
+	/**
+	 * In soft combining mode pulses out of tolerance do not abort the frame, and frames with such
+	 * pulses are replaced by the majority vote of the copies in the burst. See {@link RepeatVoter}.
+	 *
+	 * @param softCombining true to enable soft combining, default is false
+	 */
+	public void setSoftCombining(boolean softCombining) {
+		m_Voter = softCombining ? new RepeatVoter(32) : null;
+	}
+
 	public ProtocolInfo getInfo() {
 		return new ProtocolInfo("NexaL", "Space Length", "Nexa", 32, 5);
 	}
@@ -111,13 +123,42 @@ public class NexaLDecoder implements ProtocolDecoder {
 		m_Data <<= 1;
 		m_Data |= b;
 		// Check if this is a complete message
-		if (m_BitCounter == 31){
+		if (m_BitCounter == 31 && acceptFrame()){
 			// It is, create the message
             decodeMessage(m_Data);
 		}
 		m_BitCounter++;
 	}
 
+	/**
+	 * In soft combining mode the frame is added to the vote, and if it is suspect it is replaced by
+	 * the voted frame or dropped if the vote is not decided yet.
+	 *
+	 * @return true if the frame in m_Data shall be decoded
+	 */
+	private boolean acceptFrame() {
+		if (m_Voter == null) {
+			return true;
+		}
+		m_Voter.add(m_Data);
+		if (!m_Voter.isSuspect()) {
+			return true;
+		}
+		if (m_Voter.isDecided()) {
+			m_Data = m_Voter.getFrame();
+			return true;
+		}
+		m_State = READING_LAST_BIT_MARK;
+		return false;
+	}
+
+	/**
+	 * In soft combining mode, check if a pulse which is out of tolerance may be used anyway
+	 */
+	private boolean acceptSuspect(double pulse) {
+		return m_Voter != null && pulse < NEXA_REPEAT.length() / 2 && m_Voter.acceptSuspectPulse();
+	}
+
     public void decodeMessage(long binaryMessage) {
         int command = (int)(binaryMessage >> 4) & 0x1;
         int address = (int)((binaryMessage >> 6) & ((1<<26) - 1));
@@ -152,6 +193,10 @@ public class NexaLDecoder implements ProtocolDecoder {
      * @see ssg.ir.IRDecoder#parse(java.lang.Double)
      */
 	public int parse(double pulse, boolean state) {
+		if (m_Voter != null && pulse > NEXA_REPEAT.length() * 2) {
+			// End of burst
+			m_Voter.reset();
+		}
 		switch (m_State) {
 			case IDLE: {
 				if (NEXA_HEADER_MARK.matches(pulse)  && (m_LastPulse  > (NEXA_REPEAT.length() / 2))) {
@@ -164,6 +209,9 @@ public class NexaLDecoder implements ProtocolDecoder {
 					m_State = READING_BIT_MARK_BEFORE;
 					m_Data = 0;
 					m_BitCounter = 0;
+					if (m_Voter != null) {
+						m_Voter.startCopy();
+					}
 				}
 				else {
 					m_State = IDLE;
@@ -171,7 +219,7 @@ public class NexaLDecoder implements ProtocolDecoder {
 				break;
 			}
 			case READING_BIT_MARK_BEFORE: {
-				if (NEXA_MARK.matches(pulse)) {
+				if (NEXA_MARK.matches(pulse) || acceptSuspect(pulse)) {
 					m_State = READING_BIT_SPACE;
 				}
 				else {
@@ -188,6 +236,11 @@ public class NexaLDecoder implements ProtocolDecoder {
 				else if (NEXA_LONG_SPACE.matches(pulse)) {
 					m_State = READING_BIT_MARK_AFTER_LONG;
 					addBit(1);
+				} else if (acceptSuspect(pulse)) {
+					// Guess the bit from the nearest space length
+					boolean isLong = pulse > (NEXA_LONG_SPACE.length() + NEXA_SHORT_SPACE.length()) / 2;
+					m_State = isLong ? READING_BIT_MARK_AFTER_LONG : READING_BIT_MARK_AFTER_SHORT;
+					addBit(isLong ? 1 : 0);
 				} else {
 					m_Sink.partiallyParsedMessage("NexaL BS " + Double.toString(pulse), m_BitCounter);
 					m_State = IDLE;
@@ -195,7 +248,7 @@ public class NexaLDecoder implements ProtocolDecoder {
 				break;
 			}
 			case READING_BIT_MARK_AFTER_SHORT: {
-				if (NEXA_MARK.matches(pulse)) {
+				if (NEXA_MARK.matches(pulse) || acceptSuspect(pulse)) {
 					m_State = READING_INTER_SPACE_LONG;
 				}
 				else {
@@ -205,7 +258,7 @@ public class NexaLDecoder implements ProtocolDecoder {
 				break;
 			}
 			case READING_BIT_MARK_AFTER_LONG: {
-				if (NEXA_MARK.matches(pulse)) {
+				if (NEXA_MARK.matches(pulse) || acceptSuspect(pulse)) {
 					m_State = READING_INTER_SPACE_SHORT;
 				}
 				else {
@@ -215,7 +268,7 @@ public class NexaLDecoder implements ProtocolDecoder {
 				break;
 			}
 			case READING_INTER_SPACE_SHORT: {
-				if (NEXA_SHORT_INTER_SPACE.matches(pulse)) {
+				if (NEXA_SHORT_INTER_SPACE.matches(pulse) || acceptSuspect(pulse)) {
 					m_State = READING_BIT_MARK_BEFORE;
 				}
 				else {
@@ -225,7 +278,7 @@ public class NexaLDecoder implements ProtocolDecoder {
 				break;
 			}
 			case READING_INTER_SPACE_LONG: {
-				if (NEXA_LONG_INTER_SPACE.matches(pulse)) {
+				if (NEXA_LONG_INTER_SPACE.matches(pulse) || acceptSuspect(pulse)) {
 					m_State = READING_BIT_MARK_BEFORE;
 				}
 				else {
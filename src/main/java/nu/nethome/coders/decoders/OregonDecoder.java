@@ -19,6 +19,7 @@
 
 package nu.nethome.coders.decoders;
 
+import nu.nethome.coders.TunablePulseLength;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
@@ -38,13 +39,13 @@ public class OregonDecoder implements ProtocolDecoder {
     protected static final int OREGON_SHORT = 490;
     protected static final int OREGON_LONG = 975;
     public static final PulseLength OREGON_SHORT_MARK =
-            new PulseLength(OregonDecoder.class,"OREGON_SHORT_MARK", 396, 200, 615);
+            new TunablePulseLength(OregonDecoder.class,"OREGON_SHORT_MARK", 396, 200, 615);
     public static final PulseLength OREGON_LONG_MARK =
-            new PulseLength(OregonDecoder.class,"OREGON_LONG_MARK", 884, 615, 1100);
+            new TunablePulseLength(OregonDecoder.class,"OREGON_LONG_MARK", 884, 615, 1100);
     public static final PulseLength OREGON_SHORT_SPACE =
-            new PulseLength(OregonDecoder.class,"OREGON_SHORT_SPACE", 580, 400, 850);
+            new TunablePulseLength(OregonDecoder.class,"OREGON_SHORT_SPACE", 580, 400, 850);
     public static final PulseLength OREGON_LONG_SPACE =
-            new PulseLength(OregonDecoder.class,"OREGON_LONG_SPACE", 1069, 850, 1400);
+            new TunablePulseLength(OregonDecoder.class,"OREGON_LONG_SPACE", 1069, 850, 1400);
 
     protected static final int MIN_PREAMBLE_PULSES = 16;
     protected static final BitString.Field NIBBLE = new BitString.Field(0, 4);
@@ -88,6 +89,8 @@ public class OregonDecoder implements ProtocolDecoder {
     private byte[] nibbles = new byte[MAX_NIBBLES];
     private static Map<Integer, Sensor> sensors = new HashMap<Integer, Sensor>();
     private Sensor currentSensor;
+    private boolean errorCorrection = false;
+    private Map<Integer, BitErrorCorrector> correctors = new HashMap<Integer, BitErrorCorrector>();
 
     public OregonDecoder() {
         addSensor(new TempHumSensor());
@@ -101,6 +104,18 @@ public class OregonDecoder implements ProtocolDecoder {
         m_Sink = sink;
     }
 
+    /**
+     * Correct single bit errors in messages which fail the checksum, see {@link BitErrorCorrector}. Since the
+     * checksum is a sum of the nibbles, the correction is only made when the sensor type and the BCD coded
+     * values leave one possible position. Corrected messages get a field "Corrected" with the number of
+     * corrected bits.
+     *
+     * @param maxBits 0 for no correction (default), 1 for single bit errors
+     */
+    public void setErrorCorrection(int maxBits) {
+        errorCorrection = maxBits > 0;
+    }
+
     public ProtocolInfo getInfo() {
         return new ProtocolInfo("Oregon", "Manchester", "Oregon Scientific", 19 * 4, 2);
     }
@@ -154,6 +169,14 @@ public class OregonDecoder implements ProtocolDecoder {
         if (!selectSensor(decodeSensorType(nibbles))) {
             return;
         }
+        int correctedBits = 0;
+        if (errorCorrection && calculateSyndrome(nibbles, currentSensor.messageLength()) != 0) {
+            byte[] corrected = nibbles.clone();
+            correctedBits = correct(corrected);
+            if (correctedBits > 0) {
+                nibbles = corrected;
+            }
+        }
         int sensorType = decodeSensorType(nibbles);
         int channel = nibbles[CHANNEL];
         int rollingId = (nibbles[IDENTITY] << 4) + nibbles[IDENTITY + 1];
@@ -187,11 +210,96 @@ public class OregonDecoder implements ProtocolDecoder {
             calculatedChecksum += nibbles[i];
         }
         if (checksum == (calculatedChecksum & 0xFF)) {
+            if (correctedBits > 0) {
+                message.addField(new FieldValue("Corrected", correctedBits));
+            }
             m_Sink.parsedMessage(message);
         }
         m_State = IDLE;
     }
 
+    /**
+     * @return the sum of the nibbles minus the checksum, modulo 256, which is 0 for a correct message
+     */
+    private static int calculateSyndrome(byte[] nibbles, int length) {
+        int sum = 0;
+        for (int i = 1; i < length - 2; i++) {
+            sum += nibbles[i];
+        }
+        return (sum - (nibbles[length - 1] << 4) - nibbles[length - 2]) & 0xFF;
+    }
+
+    private int correct(final byte[] nibbles) {
+        final int length = currentSensor.messageLength();
+        final int sensorType = decodeSensorType(nibbles);
+        BitErrorCorrector corrector = correctors.get(length);
+        if (corrector == null) {
+            corrector = new BitErrorCorrector(BitErrorCorrector.SUM_CHECK, checksumWeights(length), 256, false);
+            correctors.put(length, corrector);
+        }
+        long[] frame = new long[(length * 4 + 63) / 64];
+        for (int i = 0; i < length; i++) {
+            frame[i / 16] |= ((long) nibbles[i]) << (4 * (i % 16));
+        }
+        int correctedBits = corrector.correct(frame, calculateSyndrome(nibbles, length), new BitErrorCorrector.Validator() {
+            public boolean isValid(long[] bits) {
+                byte[] candidate = toNibbles(bits, length);
+                return calculateSyndrome(candidate, length) == 0 && decodeSensorType(candidate) == sensorType &&
+                        hasValidBcdValues(candidate);
+            }
+        });
+        if (correctedBits > 0) {
+            System.arraycopy(toNibbles(frame, length), 0, nibbles, 0, length);
+        }
+        return correctedBits;
+    }
+
+    /**
+     * A bit in the summed nibbles contributes 2^n to the syndrome, and a bit in the checksum -2^n
+     */
+    private static int[] checksumWeights(int length) {
+        int[] weights = new int[length * 4];
+        for (int i = 4; i < weights.length; i++) {
+            int nibble = i / 4;
+            if (nibble < length - 2) {
+                weights[i] = 1 << (i % 4);
+            } else {
+                weights[i] = 256 - (1 << (i % 4 + (nibble == length - 1 ? 4 : 0)));
+            }
+        }
+        return weights;
+    }
+
+    private static byte[] toNibbles(long[] frame, int length) {
+        byte[] nibbles = new byte[length];
+        for (int i = 0; i < length; i++) {
+            nibbles[i] = (byte) ((frame[i / 16] >> (4 * (i % 16))) & 0x0F);
+        }
+        return nibbles;
+    }
+
+    private boolean hasValidBcdValues(byte[] nibbles) {
+        if (currentSensor.hasTemperature() && !isBcd(nibbles, TEMP_VALUE, 3)) {
+            return false;
+        }
+        if (currentSensor.hasHumidity() && !isBcd(nibbles, MOISTURE_VALUE, 2)) {
+            return false;
+        }
+        if (currentSensor.hasWind() && !(isBcd(nibbles, WIND_SPEED, 3) && isBcd(nibbles, AVG_WIND_SPEED, 3))) {
+            return false;
+        }
+        return !currentSensor.hasRainMm() || (isBcd(nibbles, RAIN_RATE_MM, 3) && isBcd(nibbles, TOTAL_RAIN_MM, 5));
+    }
+
+    private static boolean isBcd(byte[] nibbles, int start, int count) {
+        for (int i = start; i < start + count; i++) {
+            if (nibbles[i] > 9) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void decodeBarometer(byte[] nibbles, ProtocolMessage message) {
         int pressure = (nibbles[BAROMETER + 2] << 8) + (nibbles[BAROMETER + 1] << 4) + nibbles[BAROMETER];
         message.addField(new FieldValue("Pressure", pressure));
@@ -1,5 +1,6 @@
 package nu.nethome.coders.decoders;
 
+import nu.nethome.coders.TunablePulseLength;
 import nu.nethome.util.ps.*;
 import nu.nethome.util.ps.BitString.Field;
 
@@ -44,13 +45,13 @@ public class PrologueDecoder implements ProtocolDecoder {
     public static final ProtocolInfo PROLOGUE_PROTOCOL_INFO = new ProtocolInfo(PROTOCOL_NAME, "Space Length", PROTOCOL_NAME, PROLOGUE_BIT_LENGTH, 1);
 
     public static final PulseLength PREAMBLE_SPACE =
-            new PulseLength(PrologueDecoder.class, "PREAMBLE_SPACE", 8770, 7000, 10000);
+            new TunablePulseLength(PrologueDecoder.class, "PREAMBLE_SPACE", 8770, 7000, 10000);
     public static final PulseLength LONG_SPACE =
-            new PulseLength(PrologueDecoder.class, "LONG_SPACE", 3880, 3000, 5000);
+            new TunablePulseLength(PrologueDecoder.class, "LONG_SPACE", 3880, 3000, 5000);
     public static final PulseLength SHORT_SPACE =
-            new PulseLength(PrologueDecoder.class, "SHORT_SPACE", 1930, 1000, 2999);
+            new TunablePulseLength(PrologueDecoder.class, "SHORT_SPACE", 1930, 1000, 2999);
     public static final PulseLength MARK =
-            new PulseLength(PrologueDecoder.class, "MARK", 500, 300, 700);
+            new TunablePulseLength(PrologueDecoder.class, "MARK", 500, 300, 700);
 
     protected ProtocolDecoderSink m_Sink = null;
     BitString data = new BitString();
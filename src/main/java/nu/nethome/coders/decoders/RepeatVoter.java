@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders;
+
+/**
+ * Combines the repeated copies of a frame in a burst by a bitwise majority vote. A decoder in soft combining
+ * mode does not abort a frame on a pulse that is out of tolerance, instead it guesses the bit from the nearest
+ * pulse length and marks the copy as suspect. Every received copy of the burst is added to the voter, and a
+ * suspect copy is replaced by the voted frame, once at least three copies have a clear majority for every bit.
+ * <br>
+ * The decoder resets the voter when the gap after a frame is longer than the repeat gap of the protocol, so
+ * copies from different bursts are not mixed.
+ */
+public class RepeatVoter {
+
+    /**
+     * Most pulses out of tolerance accepted in one copy, more than this and the copy is aborted as usual
+     */
+    public static final int MAX_SUSPECT_PULSES = 4;
+    private static final int MIN_COPIES = 3;
+    private static final int MAX_COPIES = 16;
+
+    private final int[] ones;
+    private int copies;
+    private int suspectPulses;
+
+    /**
+     * @param bits number of bits in a frame, at most 64
+     */
+    public RepeatVoter(int bits) {
+        ones = new int[bits];
+    }
+
+    /**
+     * Start a new copy of the frame
+     */
+    public void startCopy() {
+        suspectPulses = 0;
+    }
+
+    /**
+     * Record a pulse out of tolerance in the current copy.
+     *
+     * @return true if the copy can still be used, false if it has too many bad pulses
+     */
+    public boolean acceptSuspectPulse() {
+        return ++suspectPulses <= MAX_SUSPECT_PULSES;
+    }
+
+    /**
+     * @return true if the current copy contains pulses out of tolerance
+     */
+    public boolean isSuspect() {
+        return suspectPulses > 0;
+    }
+
+    /**
+     * Add a complete copy to the vote
+     *
+     * @param frame the bits of the copy, bit n of the frame in bit n
+     */
+    public void add(long frame) {
+        if (copies == MAX_COPIES) {
+            reset();
+        }
+        for (int i = 0; i < ones.length; i++) {
+            ones[i] += (int) ((frame >> i) & 1);
+        }
+        copies++;
+    }
+
+    /**
+     * @return true if there are enough copies and no bit has a tied vote
+     */
+    public boolean isDecided() {
+        if (copies < MIN_COPIES) {
+            return false;
+        }
+        for (int count : ones) {
+            if (count * 2 == copies) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the frame with the majority value of each bit
+     */
+    public long getFrame() {
+        long frame = 0;
+        for (int i = 0; i < ones.length; i++) {
+            if (ones[i] * 2 > copies) {
+                frame |= 1L << i;
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * @return number of copies in the vote
+     */
+    public int getCopies() {
+        return copies;
+    }
+
+    /**
+     * Forget all copies, called at the end of a burst
+     */
+    public void reset() {
+        for (int i = 0; i < ones.length; i++) {
+            ones[i] = 0;
+        }
+        copies = 0;
+        suspectPulses = 0;
+    }
+}
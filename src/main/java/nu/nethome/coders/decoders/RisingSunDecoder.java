@@ -19,6 +19,7 @@
 
 package nu.nethome.coders.decoders;
 
+import nu.nethome.coders.TunablePulseLength;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.FieldValue;
 import nu.nethome.util.ps.ProtocolMessage;
@@ -65,15 +66,15 @@ public class RisingSunDecoder extends NexaDecoder{
 	// This are the pulse length constants for the protocol. The default values may
 	// be overridden by system properties
 	public static final PulseLength RISING_SUN_LONG_MARK = 
-		new PulseLength(RisingSunDecoder.class,"RISING_SUN_LONG_MARK", 1300, 200);
+		new TunablePulseLength(RisingSunDecoder.class,"RISING_SUN_LONG_MARK", 1300, 200);
 	public static final PulseLength RISING_SUN_SHORT_MARK = 
-		new PulseLength(RisingSunDecoder.class,"RISING_SUN_SHORT_MARK", 450, 200);
+		new TunablePulseLength(RisingSunDecoder.class,"RISING_SUN_SHORT_MARK", 450, 200);
 	public static final PulseLength RISING_SUN_LONG_SPACE = 
-		new PulseLength(RisingSunDecoder.class,"RISING_SUN_LONG_SPACE", 1280, 200);
+		new TunablePulseLength(RisingSunDecoder.class,"RISING_SUN_LONG_SPACE", 1280, 200);
 	public static final PulseLength RISING_SUN_SHORT_SPACE = 
-		new PulseLength(RisingSunDecoder.class,"RISING_SUN_SHORT_SPACE", 420, 150);
+		new TunablePulseLength(RisingSunDecoder.class,"RISING_SUN_SHORT_SPACE", 420, 150);
 	public static final PulseLength RISING_SUN_REPEAT = 
-		new PulseLength(RisingSunDecoder.class,"RISING_SUN_REPEAT", 13400, 500);
+		new TunablePulseLength(RisingSunDecoder.class,"RISING_SUN_REPEAT", 13400, 500);
 
 	public void setup() {
 		m_ProtocolName = "RisingSun";
@@ -93,7 +94,7 @@ public class RisingSunDecoder extends NexaDecoder{
 		m_Data >>= 1;
 		m_Data |= (b << 24);
 		// Check if this is a complete message
-		if (m_BitCounter == 24){
+		if (m_BitCounter == 24 && acceptFrame()){
 			// It is, create the message
 			int command = (m_Data >> 23) & 1;
 			int button = bytemap((m_Data >> 9) & 0xFF);
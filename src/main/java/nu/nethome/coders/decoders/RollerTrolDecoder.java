@@ -20,6 +20,7 @@
 package nu.nethome.coders.decoders;
 
 import nu.nethome.coders.RollerTrol;
+import nu.nethome.coders.TunablePulseLength;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
@@ -39,7 +40,7 @@ public class RollerTrolDecoder implements ProtocolDecoder {
     protected static final int REPEAT_SCAN = 10;
     /*This is the minimum repeat gap that Tellstick supports, so I accept this as a repeat gap too*/
     public static final PulseLength TELLSTICK_MIN_REPEAT_GAP =
-            new PulseLength(RollerTrolDecoder.class, "TELLSTICK_MIN_REPEAT_GAP", 1000, 800, 1200);
+            new TunablePulseLength(RollerTrolDecoder.class, "TELLSTICK_MIN_REPEAT_GAP", 1000, 800, 1200);
 
     public static final BitString.Field BYTE4 = new BitString.Field(32, 8);
     public static final BitString.Field BYTE3 = new BitString.Field(24, 8);
@@ -51,11 +52,41 @@ public class RollerTrolDecoder implements ProtocolDecoder {
     BitString data = new BitString();
     protected int state = IDLE;
     private int repeat;
+    private BitErrorCorrector corrector = null;
+
+    /**
+     * The checksum is a sum of the bytes, so bit n of a byte contributes 2^n
+     */
+    private static final int[] CHECKSUM_WEIGHTS = new int[MESSAGE_BIT_LENGTH];
+    static {
+        for (int i = 0; i < MESSAGE_BIT_LENGTH; i++) {
+            CHECKSUM_WEIGHTS[i] = 1 << (i % 8);
+        }
+    }
+
+    private static final BitErrorCorrector.Validator FRAME_VALIDATOR = new BitErrorCorrector.Validator() {
+        public boolean isValid(long[] frame) {
+            BitString message = BitErrorCorrector.toBitString(frame, MESSAGE_BIT_LENGTH);
+            return calculateChecksum(message) == message.extractInt(CHECK_SUM) &&
+                    message.extractInt(CONSTANT_FIELD) == CONSTANT_FIELD_VALUE;
+        }
+    };
 
     public void setTarget(ProtocolDecoderSink sink) {
         m_Sink = sink;
     }
 
+    /**
+     * Correct single bit errors in frames which fail the checksum, see {@link BitErrorCorrector}. Since the
+     * checksum is a sum, the correction is only made when the constant field and the bit values leave one
+     * possible position. Corrected messages get a field "Corrected" with the number of corrected bits.
+     *
+     * @param maxBits 0 for no correction (default), 1 for single bit errors
+     */
+    public void setErrorCorrection(int maxBits) {
+        corrector = maxBits > 0 ? new BitErrorCorrector(BitErrorCorrector.SUM_CHECK, CHECKSUM_WEIGHTS, 256, false) : null;
+    }
+
     public ProtocolInfo getInfo() {
         return RollerTrol.ROLLERTROL_PROTOCOL_INFO;
     }
@@ -68,11 +99,23 @@ public class RollerTrolDecoder implements ProtocolDecoder {
     }
 
     public void decodeMessage(BitString binaryMessage) {
+        decodeMessage(binaryMessage, 0);
+    }
+
+    private void decodeMessage(BitString binaryMessage, int correctedBits) {
         int houseCode = binaryMessage.extractInt(HOUSE_CODE);
         int deviceCode = binaryMessage.extractInt(DEVICE_CODE);
         int command = binaryMessage.extractInt(COMMAND);
         int checkSum = binaryMessage.extractInt(CHECK_SUM);
         int calculatedCheckSum = calculateChecksum(binaryMessage);
+        if (checkSum != calculatedCheckSum && corrector != null) {
+            long[] frame = BitErrorCorrector.toFrame(binaryMessage, MESSAGE_BIT_LENGTH);
+            int corrected = corrector.correct(frame, checkSum - calculatedCheckSum, FRAME_VALIDATOR);
+            if (corrected > 0) {
+                decodeMessage(BitErrorCorrector.toBitString(frame, MESSAGE_BIT_LENGTH), corrected);
+                return;
+            }
+        }
         if (checkSum == calculatedCheckSum) {
             byte bytes[] = new byte[5];
             bytes[0] = (byte) binaryMessage.extractInt(BYTE4);
@@ -91,6 +134,9 @@ public class RollerTrolDecoder implements ProtocolDecoder {
             message.addField(new FieldValue(DEVICE_CODE_NAME, deviceCode));
             message.addField(new FieldValue(COMMAND_NAME, command));
             message.setRepeat(repeat);
+            if (correctedBits > 0) {
+                message.addField(new FieldValue("Corrected", correctedBits));
+            }
             m_Sink.parsedMessage(message);
         }
         state = REPEAT_SCAN;
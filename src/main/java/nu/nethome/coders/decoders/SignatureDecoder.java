@@ -0,0 +1,400 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nu.nethome.coders.decoders;
+
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.ProtocolMessage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A decoder for a simple protocol described by a signature, so a new device can be supported by writing a
+ * signature file instead of a decoder. The signature is a properties file with these keys:
+ * <ul>
+ * <li>name - protocol name of the messages</li>
+ * <li>encoding - "Mark Length", "Space Length" or "Manchester"</li>
+ * <li>bits - number of bits in a message, at most 64</li>
+ * <li>header - optional pulses before the bits, like "M2400,S600" for a mark and a space in micro seconds</li>
+ * <li>zero, one - the mark and space of a 0 and a 1 bit for the length encodings, like "M400,S800"</li>
+ * <li>half - the length of a half bit for Manchester</li>
+ * <li>manchesterOne - "MS" if a 1 bit is a mark followed by a space (default), "SM" for the opposite</li>
+ * <li>tolerance - relative tolerance of the pulse lengths, default 0.25</li>
+ * <li>gap - shortest pause in micro seconds between bursts, repeats within a burst are counted, default 20000</li>
+ * <li>repeats - default repeat count of the protocol info, default 5</li>
+ * <li>field.&lt;Name&gt; - "start,length" of a field, bit 0 being the last bit received</li>
+ * </ul>
+ * The message gets the last 32 bits received as command, the data as raw message bytes and the fields. The
+ * windows are computed once, so the work per pulse is a few comparisons like in the hand written decoders.
+ */
+public class SignatureDecoder implements ProtocolDecoder {
+
+    public static final String MARK_LENGTH = "Mark Length";
+    public static final String SPACE_LENGTH = "Space Length";
+    public static final String MANCHESTER = "Manchester";
+    public static final double DEFAULT_TOLERANCE = 0.25;
+    public static final double DEFAULT_GAP = 20000;
+
+    private static final int IDLE = 0;
+    private static final int HEADER = 1;
+    private static final int BIT_FIRST = 2;
+    private static final int BIT_SECOND = 3;
+
+    private final String name;
+    private final String encoding;
+    private final boolean manchester;
+    private final int bits;
+    private final int defaultRepeats;
+    private final double gap;
+    // Header pulses, marks positive
+    private final boolean[] headerMarks;
+    private final double[] headerLower;
+    private final double[] headerUpper;
+    // Index 0 for the 0 bit and 1 for the 1 bit, first and second pulse
+    private final double[] pairLower = new double[4];
+    private final double[] pairUpper = new double[4];
+    private final boolean firstDecides;
+    // Manchester
+    private final double halfLower;
+    private final double halfUpper;
+    private final double fullLower;
+    private final double fullUpper;
+    private final boolean oneIsMarkSpace;
+    private final String[] fieldNames;
+    private final int[] fieldStarts;
+    private final int[] fieldLengths;
+
+    private ProtocolDecoderSink sink;
+    private int state = IDLE;
+    private int headerIndex;
+    private int bitCount;
+    private long data;
+    private int firstBit;
+    private int pendingHalf = -1;
+    private long lastData = -1;
+    private int repeat;
+    private boolean gapSinceMessage = true;
+
+    /**
+     * @throws IllegalArgumentException if the signature is incomplete or malformed
+     */
+    public SignatureDecoder(Properties signature) {
+        name = required(signature, "name");
+        encoding = required(signature, "encoding");
+        manchester = encoding.equals(MANCHESTER);
+        bits = parseInt("bits", required(signature, "bits"));
+        if (bits < 1 || bits > 64) {
+            throw new IllegalArgumentException("Bad signature bits: " + bits);
+        }
+        double tolerance = parseDouble("tolerance",
+                signature.getProperty("tolerance", "" + DEFAULT_TOLERANCE));
+        gap = parseDouble("gap", signature.getProperty("gap", "" + DEFAULT_GAP));
+        defaultRepeats = parseInt("repeats", signature.getProperty("repeats", "5"));
+
+        double[] header = parsePulses("header", signature.getProperty("header", ""));
+        headerMarks = new boolean[header.length];
+        headerLower = new double[header.length];
+        headerUpper = new double[header.length];
+        for (int i = 0; i < header.length; i++) {
+            headerMarks[i] = header[i] > 0;
+            headerLower[i] = Math.abs(header[i]) * (1 - tolerance);
+            headerUpper[i] = Math.abs(header[i]) * (1 + tolerance);
+        }
+
+        if (manchester) {
+            double half = parseDouble("half", required(signature, "half"));
+            halfLower = half * (1 - tolerance);
+            halfUpper = half * (1 + tolerance);
+            fullLower = 2 * half * (1 - tolerance);
+            fullUpper = 2 * half * (1 + tolerance);
+            String one = signature.getProperty("manchesterOne", "MS");
+            if (!one.equals("MS") && !one.equals("SM")) {
+                throw new IllegalArgumentException("Bad signature manchesterOne: " + one);
+            }
+            oneIsMarkSpace = one.equals("MS");
+            firstDecides = false;
+        } else if (encoding.equals(MARK_LENGTH) || encoding.equals(SPACE_LENGTH)) {
+            double[] zero = parsePulses("zero", required(signature, "zero"));
+            double[] one = parsePulses("one", required(signature, "one"));
+            if (zero.length != 2 || one.length != 2 || zero[0] <= 0 || one[0] <= 0 || zero[1] >= 0 || one[1] >= 0) {
+                throw new IllegalArgumentException("Bad signature bit, zero and one must be a mark and a space");
+            }
+            double[] pulses = {zero[0], -zero[1], one[0], -one[1]};
+            for (int i = 0; i < 4; i++) {
+                pairLower[i] = pulses[i] * (1 - tolerance);
+                pairUpper[i] = pulses[i] * (1 + tolerance);
+            }
+            // The bit is known from the mark if the mark windows do not overlap
+            firstDecides = pairUpper[0] < pairLower[2] || pairUpper[2] < pairLower[0];
+            halfLower = halfUpper = fullLower = fullUpper = 0;
+            oneIsMarkSpace = false;
+        } else {
+            throw new IllegalArgumentException("Bad signature encoding: " + encoding);
+        }
+
+        List<String> names = new ArrayList<String>();
+        for (String key : signature.stringPropertyNames()) {
+            if (key.startsWith("field.")) {
+                names.add(key);
+            }
+        }
+        Collections.sort(names);
+        fieldNames = new String[names.size()];
+        fieldStarts = new int[names.size()];
+        fieldLengths = new int[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            String[] parts = signature.getProperty(names.get(i)).split(",");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Bad signature " + names.get(i));
+            }
+            fieldNames[i] = names.get(i).substring("field.".length());
+            fieldStarts[i] = parseInt(names.get(i), parts[0]);
+            fieldLengths[i] = parseInt(names.get(i), parts[1]);
+            if (fieldStarts[i] < 0 || fieldLengths[i] < 1 || fieldLengths[i] > 31 ||
+                    fieldStarts[i] + fieldLengths[i] > bits) {
+                throw new IllegalArgumentException("Bad signature " + names.get(i));
+            }
+        }
+    }
+
+    /**
+     * Load a signature from a properties file
+     */
+    public static SignatureDecoder load(File file) throws IOException {
+        Properties signature = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            signature.load(in);
+        } finally {
+            in.close();
+        }
+        return new SignatureDecoder(signature);
+    }
+
+    public ProtocolInfo getInfo() {
+        return new ProtocolInfo(name, encoding, name, bits, defaultRepeats);
+    }
+
+    public void setTarget(ProtocolDecoderSink sink) {
+        this.sink = sink;
+    }
+
+    public int parse(double pulse, boolean isMark) {
+        if (pulse > gap) {
+            gapSinceMessage = true;
+        }
+        if (!accept(pulse, isMark) && state != IDLE) {
+            // The pulse may be the start of a new message
+            reset();
+            accept(pulse, isMark);
+        }
+        return state;
+    }
+
+    private boolean accept(double pulse, boolean isMark) {
+        switch (state) {
+            case IDLE:
+                return startMessage(pulse, isMark);
+            case HEADER:
+                return acceptHeader(pulse, isMark);
+            default:
+                return manchester ? acceptManchester(pulse, isMark) : acceptPair(pulse, isMark);
+        }
+    }
+
+    private boolean startMessage(double pulse, boolean isMark) {
+        bitCount = 0;
+        data = 0;
+        pendingHalf = -1;
+        if (headerMarks.length > 0) {
+            headerIndex = 0;
+            state = HEADER;
+            if (!acceptHeader(pulse, isMark)) {
+                state = IDLE;
+            }
+            return true;
+        }
+        state = BIT_FIRST;
+        boolean accepted = manchester ? acceptManchester(pulse, isMark) : acceptPair(pulse, isMark);
+        if (!accepted) {
+            state = IDLE;
+        }
+        return true;
+    }
+
+    private boolean acceptHeader(double pulse, boolean isMark) {
+        if (isMark != headerMarks[headerIndex] || pulse < headerLower[headerIndex] ||
+                pulse > headerUpper[headerIndex]) {
+            return false;
+        }
+        if (++headerIndex == headerMarks.length) {
+            state = BIT_FIRST;
+        }
+        return true;
+    }
+
+    private boolean acceptPair(double pulse, boolean isMark) {
+        if (state == BIT_FIRST) {
+            if (!isMark) {
+                return false;
+            }
+            boolean zero = pulse >= pairLower[0] && pulse <= pairUpper[0];
+            boolean one = pulse >= pairLower[2] && pulse <= pairUpper[2];
+            if (!zero && !one) {
+                return false;
+            }
+            firstBit = zero ? (one ? -1 : 0) : 1;
+            if (firstDecides && bitCount == bits - 1) {
+                // The space after the last bit is the pause before the next message
+                addBit(firstBit);
+                return true;
+            }
+            state = BIT_SECOND;
+            return true;
+        }
+        if (isMark) {
+            return false;
+        }
+        boolean zero = firstBit != 1 && pulse >= pairLower[1] && pulse <= pairUpper[1];
+        boolean one = firstBit != 0 && pulse >= pairLower[3] && pulse <= pairUpper[3];
+        if (zero == one) {
+            return false;
+        }
+        state = BIT_FIRST;
+        addBit(one ? 1 : 0);
+        return true;
+    }
+
+    private boolean acceptManchester(double pulse, boolean isMark) {
+        int halves;
+        if (pulse >= halfLower && pulse <= halfUpper) {
+            halves = 1;
+        } else if (pulse >= fullLower && pulse <= fullUpper) {
+            halves = 2;
+        } else if (pulse > fullUpper && pendingHalf >= 0 && bitCount == bits - 1) {
+            // The last half bit runs into the pause after the message
+            halves = 1;
+        } else {
+            return false;
+        }
+        int level = isMark ? 1 : 0;
+        for (int i = 0; i < halves && state != IDLE; i++) {
+            if (pendingHalf < 0) {
+                pendingHalf = level;
+            } else {
+                if (pendingHalf == level) {
+                    return false;
+                }
+                addBit((pendingHalf == 1) == oneIsMarkSpace ? 1 : 0);
+                pendingHalf = -1;
+            }
+        }
+        return true;
+    }
+
+    private void addBit(int bit) {
+        data = (data << 1) | bit;
+        if (++bitCount == bits) {
+            reportMessage();
+            reset();
+        }
+    }
+
+    private void reset() {
+        state = IDLE;
+        bitCount = 0;
+        data = 0;
+        pendingHalf = -1;
+    }
+
+    private void reportMessage() {
+        repeat = (!gapSinceMessage && data == lastData) ? repeat + 1 : 0;
+        lastData = data;
+        gapSinceMessage = false;
+        int bytes = (bits + 7) / 8;
+        int[] raw = new int[bytes];
+        for (int i = 0; i < bytes; i++) {
+            raw[i] = (int) (data >> (8 * (bytes - 1 - i))) & 0xFF;
+        }
+        ProtocolMessage message = new ProtocolMessage(name, (int) data, 0, raw);
+        for (int i = 0; i < fieldNames.length; i++) {
+            message.addField(new FieldValue(fieldNames[i],
+                    (int) (data >> fieldStarts[i]) & ((1 << fieldLengths[i]) - 1)));
+        }
+        message.setRepeat(repeat);
+        if (sink != null) {
+            sink.parsedMessage(message);
+        }
+    }
+
+    private static String required(Properties signature, String key) {
+        String value = signature.getProperty(key);
+        if (value == null || value.trim().length() == 0) {
+            throw new IllegalArgumentException("Signature has no " + key);
+        }
+        return value.trim();
+    }
+
+    private static int parseInt(String key, String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad signature " + key + ": " + value);
+        }
+    }
+
+    private static double parseDouble(String key, String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad signature " + key + ": " + value);
+        }
+    }
+
+    /**
+     * @return the pulses, marks positive and spaces negative
+     */
+    private static double[] parsePulses(String key, String value) {
+        if (value.trim().length() == 0) {
+            return new double[0];
+        }
+        String[] parts = value.split(",");
+        double[] result = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            if (part.length() < 2 || (part.charAt(0) != 'M' && part.charAt(0) != 'S')) {
+                throw new IllegalArgumentException("Bad signature " + key + ": " + value);
+            }
+            double length = parseDouble(key, part.substring(1));
+            result[i] = part.charAt(0) == 'M' ? length : -length;
+        }
+        return result;
+    }
+}
@@ -50,11 +50,24 @@ public class UPMDecoder implements ProtocolDecoder {
 	protected int m_BitCounter = 0;
 	protected ProtocolDecoderSink m_Sink = null;
 	private int m_RepeatCount = 0;
+	private RepeatVoter m_Voter = null;
 		
 	public void setTarget(ProtocolDecoderSink sink) {
 		m_Sink = sink;
 	}
 	
+	/**
+	 * In soft combining mode a frame with a checksum error is replaced by the majority vote of the frames
+	 * in the burst, if the voted frame has a correct checksum. Since the sequence number differs between
+	 * the frames, the vote is made on the data bits and the checksum with the sequence number removed.
+	 * Pulses out of tolerance still abort the frame, since they break the Manchester decoding.
+	 *
+	 * @param softCombining true to enable soft combining, default is false
+	 */
+	public void setSoftCombining(boolean softCombining) {
+		m_Voter = softCombining ? new RepeatVoter(36) : null;
+	}
+
 	public ProtocolInfo getInfo() {
 		return new ProtocolInfo("UPM", "Manchester", "UPM", 14, 5);
 	}
@@ -86,11 +99,41 @@ public class UPMDecoder implements ProtocolDecoder {
 		{
 			// It is, create the message
 			m_BitCounter = 0;
+			if (m_Voter != null) {
+				m_Message = combine(m_Message);
+			}
 
             decodeMessage(m_Message);
 		}
 	}
 
+	/**
+	 * Checksum bit 1 is XOR of odd bits, bit 0 XOR of even bits in message, starting at the sequence number
+	 */
+	private static int calculateChecksum(long binaryMessage) {
+		int checksum = 0;
+		for (int bcount = 2; bcount < 36; bcount += 2) {
+			checksum ^= (binaryMessage >> bcount) & 0x03;
+		}
+		return checksum;
+	}
+
+	/**
+	 * Add the frame to the vote, and if it has a checksum error replace it with the voted frame
+	 */
+	private long combine(long binaryMessage) {
+		int sequence = (int) (binaryMessage >> 2) & 0x03;
+		int checksum = (int) binaryMessage & 0x03;
+		// The checksum XOR the sequence number only depends on the data bits, which are the same in the burst
+		m_Voter.add((binaryMessage & ~0x0FL) | (checksum ^ sequence));
+		if (calculateChecksum(binaryMessage) == checksum || !m_Voter.isDecided()) {
+			return binaryMessage;
+		}
+		long voted = m_Voter.getFrame();
+		long candidate = (voted & ~0x0FL) | (sequence << 2) | ((voted & 0x03) ^ sequence);
+		return calculateChecksum(candidate) == (candidate & 0x03) ? candidate : binaryMessage;
+	}
+
     public void decodeMessage(long binaryMessage) {
         ProtocolMessage message = new ProtocolMessage("UPM", 0, 0, 5);
         message.setRawMessageByteAt(4, (int)binaryMessage &  0x00000000F);
@@ -149,10 +192,7 @@ public class UPMDecoder implements ProtocolDecoder {
         checksum = message.getRawMessage()[4] & 0x03;
 
         // Calculate checksum from message
-        int calculatedChecksum = 0;
-        for (int bcount = 2; bcount < 36; bcount += 2) {
-            calculatedChecksum ^= (binaryMessage >> bcount) & 0x03;
-        }
+        int calculatedChecksum = calculateChecksum(binaryMessage);
 
         message.addField(new FieldValue("HouseCode", houseCode));
         message.addField(new FieldValue("DeviceCode", deviceCode));
@@ -209,6 +249,10 @@ public class UPMDecoder implements ProtocolDecoder {
 	 *  
 	 */
 	public int parse(double pulse, boolean state) {
+		if (m_Voter != null && pulse > UPMREPEAT_MAX) {
+			// End of burst
+			m_Voter.reset();
+		}
 		switch (m_State) {
 			case IDLE: {
 				if (pulseCompare(pulse, UPMSHORT)) {
@@ -107,11 +107,23 @@ public class X10Decoder implements ProtocolDecoder {
 	protected ProtocolDecoderSink m_Sink = null;
 	private long m_Data = 0;
 	private long m_LastData = 0;
+	private RepeatVoter m_Voter = null;
 	
 	public void setTarget(ProtocolDecoderSink sink) {
 		m_Sink = sink;
 	}
 	
+	/**
+	 * In soft combining mode pulses out of tolerance do not abort the frame, and frames with such
+	 * pulses or with check byte errors are replaced by the majority vote of the copies in the burst.
+	 * The voted frame must still pass the check bytes. See {@link RepeatVoter}.
+	 *
+	 * @param softCombining true to enable soft combining, default is false
+	 */
+	public void setSoftCombining(boolean softCombining) {
+		m_Voter = softCombining ? new RepeatVoter(32) : null;
+	}
+
 	public ProtocolInfo getInfo() {
 		return new ProtocolInfo("X10", "Space Length", "X10", 16, 5);
 	}
@@ -157,66 +169,108 @@ public class X10Decoder implements ProtocolDecoder {
 		m_Data |= b;
 		// Check if this is a complete message
 		if (m_BitCounter == 31){
-			// It is, get the separate bytes
-			int byte2Check = (int)(m_Data & 0xFF);
-			int byte2 = (int)((m_Data >> 8) & 0xFF);
-			int byte1Check = (int)((m_Data >> 16) & 0xFF);
-			int byte1 = (int)((m_Data >> 24) & 0xFF);
-			
-			// Verify checksum
-			if ((byte2 != (byte2Check ^ 0xFF)) || (byte1 != (byte1Check ^ 0xFF))) {
+			if (!acceptFrame()) {
 				// Checksum error
 				reportPartial();
 				m_State = IDLE;
 				return;
 			}
-			// Decode data
-			int houseCode = houseCodeConversion[byte1 >> 4];
-			int button = 0;
-			int command = 0;
-			// Check if it is command mode
-			if ((byte2 & 0x80) != 0) {
-				command = commandConversion[((byte2 >> 3) & 0x03) + 2];
-			}
-			else {
-				command = commandConversion[((byte2 >> 5) & 0x01)];
-				button = ((byte2 >> 4) & 1) + (((byte2 >> 3) & 1) << 1) + 
-					(((byte2 >> 6) & 1) << 2) + (((byte1 >> 2) & 1) << 3) + 1;
-			}
-				
-			ProtocolMessage message = new ProtocolMessage("X10", command, (houseCode << 4) + button, 2);
-			message.setRawMessageByteAt(0, byte1);
-			message.setRawMessageByteAt(1, byte2);
-			// It is, check if this really is a repeat
-			if ((m_RepeatCount > 0) && (m_Data == m_LastData)) {
-				message.setRepeat(m_RepeatCount);
-			}
-			else {
-				// It is not a repeat, reset counter
-				m_RepeatCount = 0;
-			}
-			message.addField(new FieldValue("Command", command));
-			if (command < 2) {
-				message.addField(new FieldValue("Button", button));
-			}
-			message.addField(new FieldValue("HouseCode", houseCode));
-			// Report the parsed message
-			m_Sink.parsedMessage(message);
-			m_State = TRAILING_BIT;		
+			decodeMessage(m_Data);
 		}
 		m_BitCounter++;
 	}
+
+	/**
+	 * Verify that byte 1' and byte 2' are byte 1 and byte 2 inverted
+	 */
+	private static boolean isValid(long data) {
+		return ((data ^ (data >> 8)) & 0x00FF00FFL) == 0x00FF00FFL;
+	}
+
+	/**
+	 * Check the frame in m_Data. In soft combining mode the frame is added to the vote, and if it is suspect
+	 * or fails the check it is replaced by the voted frame if that is decided and valid.
+	 *
+	 * @return true if the frame in m_Data shall be decoded
+	 */
+	private boolean acceptFrame() {
+		if (m_Voter == null) {
+			return isValid(m_Data);
+		}
+		m_Voter.add(m_Data);
+		if (!m_Voter.isSuspect() && isValid(m_Data)) {
+			return true;
+		}
+		if (m_Voter.isDecided() && isValid(m_Voter.getFrame())) {
+			m_Data = m_Voter.getFrame();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * In soft combining mode, check if a pulse which is out of tolerance may be used anyway
+	 */
+	private boolean acceptSuspect(double pulse) {
+		return m_Voter != null && pulse < X10HEADER_SPACE && m_Voter.acceptSuspectPulse();
+	}
+
+	public void decodeMessage(long binaryMessage) {
+		int byte2 = (int)((binaryMessage >> 8) & 0xFF);
+		int byte1 = (int)((binaryMessage >> 24) & 0xFF);
+
+		// Decode data
+		int houseCode = houseCodeConversion[byte1 >> 4];
+		int button = 0;
+		int command = 0;
+		// Check if it is command mode
+		if ((byte2 & 0x80) != 0) {
+			command = commandConversion[((byte2 >> 3) & 0x03) + 2];
+		}
+		else {
+			command = commandConversion[((byte2 >> 5) & 0x01)];
+			button = ((byte2 >> 4) & 1) + (((byte2 >> 3) & 1) << 1) + 
+				(((byte2 >> 6) & 1) << 2) + (((byte1 >> 2) & 1) << 3) + 1;
+		}
+			
+		ProtocolMessage message = new ProtocolMessage("X10", command, (houseCode << 4) + button, 2);
+		message.setRawMessageByteAt(0, byte1);
+		message.setRawMessageByteAt(1, byte2);
+		// It is, check if this really is a repeat
+		if ((m_RepeatCount > 0) && (binaryMessage == m_LastData)) {
+			message.setRepeat(m_RepeatCount);
+		}
+		else {
+			// It is not a repeat, reset counter
+			m_RepeatCount = 0;
+		}
+		message.addField(new FieldValue("Command", command));
+		if (command < 2) {
+			message.addField(new FieldValue("Button", button));
+		}
+		message.addField(new FieldValue("HouseCode", houseCode));
+		// Report the parsed message
+		m_Sink.parsedMessage(message);
+		m_State = TRAILING_BIT;		
+	}
 	
 	/* (non-Javadoc)
 	 * @see ssg.ir.IRDecoder#parse(java.lang.Double)
 	 */
 	public int parse(double pulse, boolean state) {
+		if (m_Voter != null && pulse > X10REPEAT_MAX * 2) {
+			// End of burst
+			m_Voter.reset();
+		}
 		switch (m_State) {
 			case IDLE: {
 				if (pulseCompare(pulse, X10HEADER_MARK) && state) {
 					m_State = READING_HEADER;
 					m_Data = 0;
 					m_BitCounter = 0;					
+					if (m_Voter != null) {
+						m_Voter.startCopy();
+					}
 				}
 				else {
 					m_RepeatCount = 0;
@@ -235,7 +289,7 @@ public class X10Decoder implements ProtocolDecoder {
 			}
 			case READING_BIT_MARK: {
 				// The mark pulse seems to vary a lot in length
-				if (pulseCompare(pulse, X10MARK_MIN, X10MARK_MAX)) {
+				if (pulseCompare(pulse, X10MARK_MIN, X10MARK_MAX) || acceptSuspect(pulse)) {
 					m_State = READING_BIT_SPACE;
 				}
 				else {
@@ -253,6 +307,11 @@ public class X10Decoder implements ProtocolDecoder {
 					m_State = READING_BIT_MARK;
 					addBit(0);
 				}
+				else if (acceptSuspect(pulse)) {
+					// Guess the bit from the nearest space length
+					m_State = READING_BIT_MARK;
+					addBit(pulse > (X10LONG_SPACE + X10SHORT_SPACE) / 2 ? 1 : 0);
+				}
 				else {
 					m_State = IDLE;
 					reportPartial();
@@ -19,6 +19,7 @@
 
 package nu.nethome.coders.decoders;
 
+import nu.nethome.coders.TunablePulseLength;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.FieldValue;
 import nu.nethome.util.ps.ProtocolDecoder;
@@ -64,15 +65,15 @@ public class ZhejiangDecoder extends NexaDecoder implements ProtocolDecoder{
     // This are the pulse length constants for the protocol. The default values may
     // be overridden by system properties
     public static final PulseLength ZHEJ_LONG_MARK =
-            new PulseLength(ZhejiangDecoder.class, "ZHEJ_LONG_MARK", 430, 370, 550);
+            new TunablePulseLength(ZhejiangDecoder.class, "ZHEJ_LONG_MARK", 430, 370, 550);
     public static final PulseLength ZHEJ_SHORT_MARK =
-            new PulseLength(ZhejiangDecoder.class, "ZHEJ_SHORT_MARK", 140, 100, 220);
+            new TunablePulseLength(ZhejiangDecoder.class, "ZHEJ_SHORT_MARK", 140, 100, 220);
     public static final PulseLength ZHEJ_LONG_SPACE =
-            new PulseLength(ZhejiangDecoder.class, "ZHEJ_LONG_SPACE", 450, 370, 550);
+            new TunablePulseLength(ZhejiangDecoder.class, "ZHEJ_LONG_SPACE", 450, 370, 550);
     public static final PulseLength ZHEJ_SHORT_SPACE =
-            new PulseLength(ZhejiangDecoder.class, "ZHEJ_SHORT_SPACE", 170, 100, 220);
+            new TunablePulseLength(ZhejiangDecoder.class, "ZHEJ_SHORT_SPACE", 170, 100, 220);
     public static final PulseLength ZHEJ_REPEAT =
-            new PulseLength(ZhejiangDecoder.class, "ZHEJ_REPEAT", 4560, 500);
+            new TunablePulseLength(ZhejiangDecoder.class, "ZHEJ_REPEAT", 4560, 500);
 
     public void setup() {
         m_ProtocolName = "Zhejiang";
@@ -92,7 +93,7 @@ public class ZhejiangDecoder extends NexaDecoder implements ProtocolDecoder{
         m_Data >>= 1;
         m_Data |= (b << 24);
         // Check if this is a complete message
-        if (m_BitCounter == 24) {
+        if (m_BitCounter == 24 && acceptFrame()) {
             // It is, create the message
             int command = ((m_Data >> 23) & 1) ^ 1;
             int rawButton = bytemap(((m_Data >> 11) ^ 0x3FF) & 0x3FF);
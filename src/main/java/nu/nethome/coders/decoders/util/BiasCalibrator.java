@@ -0,0 +1,292 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.coders.CoderFactory;
+import nu.nethome.coders.encoders.Encoders;
+import nu.nethome.coders.encoders.PulseBufferEncoder;
+import nu.nethome.util.ps.BadMessageException;
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolEncoder;
+import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.ProtocolMessage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Learns how much a receiver stretches or shrinks marks and spaces, and corrects the pulses before they are
+ * passed to the decoders. One calibrator is used per receiver channel.
+ * <br>
+ * Each time a message is decoded, the message is encoded again with the encoder for its protocol, which
+ * gives the ideal lengths of the pulses. The ideal frame is aligned with the last received pulses and the
+ * average difference of the marks and of the spaces updates the bias estimates, which are subtracted from
+ * the following pulses. Gaps between frames are not used. The history and the encode buffer have fixed
+ * sizes, and the pulse path is only a subtraction and a store in the history.
+ * <br>
+ * Protocols without an encoder are decoded as usual but not learnt from. Neither are the protocols whose
+ * encoder timing is not what real transmitters send, see {@link #excludeProtocol(String)}. By default these are
+ * Pronto, which is encoded from the received pulses themselves, and RollerTrol, whose encoded marks are about
+ * 60 us shorter than those of real remotes.
+ */
+public class BiasCalibrator implements ProtocolDecoder {
+
+    private static final int HISTORY_SIZE = 512;
+    private static final int MAX_END_OFFSET = 2;
+    private static final int MAX_TRUNCATION = 4;
+    private static final int GAP_LENGTH = 5000;
+    private static final double MAX_MEAN_ERROR = 0.3;
+    private static final int MIN_PULSES = 4;
+    private static final String[] DEFAULT_EXCLUDED = {"Pronto", "RollerTrol"};
+
+    private final ProtocolDecoder decoder;
+    private final Map<String, PulseBufferEncoder> encoders = new HashMap<String, PulseBufferEncoder>();
+    private final double[] history = new double[HISTORY_SIZE];
+    private final boolean[] historyStates = new boolean[HISTORY_SIZE];
+    private int[] ideal = new int[256];
+    private long pulseCount;
+    private ProtocolDecoderSink sink;
+    private double learningRate = 0.1;
+    private double maxBias = 300;
+    private volatile double markBias;
+    private volatile double spaceBias;
+    private volatile long calibrations;
+    private volatile long rejectedFrames;
+
+    /**
+     * @param decoder decoder, typically a decoder group, to pass the corrected pulses to
+     */
+    public BiasCalibrator(ProtocolDecoder decoder) {
+        this.decoder = decoder;
+        for (CoderFactory<ProtocolEncoder> factory : Encoders.getFactories()) {
+            ProtocolEncoder encoder = factory.create();
+            if (encoder instanceof PulseBufferEncoder) {
+                encoders.put(factory.getName(), (PulseBufferEncoder) encoder);
+            }
+        }
+        for (String protocol : DEFAULT_EXCLUDED) {
+            excludeProtocol(protocol);
+        }
+        decoder.setTarget(new Tap());
+    }
+
+    /**
+     * Do not learn from messages of a protocol, because its encoder does not give the pulse lengths transmitted
+     * by real devices. Must be called before pulses are parsed.
+     */
+    public void excludeProtocol(String protocol) {
+        encoders.remove(protocol);
+    }
+
+    /**
+     * @param learningRate weight of a new frame in the bias estimates, 0 - 1
+     */
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    /**
+     * @param maxBias largest correction in micro seconds
+     */
+    public void setMaxBias(double maxBias) {
+        this.maxBias = maxBias;
+    }
+
+    /**
+     * @return micro seconds the receiver adds to marks, subtracted from the received marks
+     */
+    public double getMarkBias() {
+        return markBias;
+    }
+
+    /**
+     * @return micro seconds the receiver adds to spaces, subtracted from the received spaces
+     */
+    public double getSpaceBias() {
+        return spaceBias;
+    }
+
+    /**
+     * Start from known biases, for example the ones learnt in an earlier run
+     */
+    public void setBias(double markBias, double spaceBias) {
+        this.markBias = markBias;
+        this.spaceBias = spaceBias;
+    }
+
+    /**
+     * @return number of decoded frames the biases have been learnt from
+     */
+    public long getCalibrations() {
+        return calibrations;
+    }
+
+    /**
+     * @return number of decoded frames that could not be aligned with their encoded form
+     */
+    public long getRejectedFrames() {
+        return rejectedFrames;
+    }
+
+    public ProtocolInfo getInfo() {
+        return new ProtocolInfo("BiasCalibrator", "", "", 0, 0);
+    }
+
+    public void setTarget(ProtocolDecoderSink sink) {
+        this.sink = sink;
+    }
+
+    public int parse(double pulse, boolean state) {
+        int index = (int) (pulseCount++ % HISTORY_SIZE);
+        history[index] = pulse;
+        historyStates[index] = state;
+        double corrected = pulse - (state ? markBias : spaceBias);
+        return decoder.parse(corrected > 1 ? corrected : 1, state);
+    }
+
+    private void learn(ProtocolMessage message) {
+        PulseBufferEncoder encoder = encoders.get(message.getProtocol());
+        if (encoder == null) {
+            return;
+        }
+        int length;
+        try {
+            length = encoder.encodedLength(message, ProtocolEncoder.Phase.REPEATED);
+            if (length > HISTORY_SIZE - MAX_END_OFFSET || length < 2 * MIN_PULSES) {
+                return;
+            }
+            if (length > ideal.length) {
+                ideal = new int[length];
+            }
+            encoder.encodeInto(message, ProtocolEncoder.Phase.REPEATED, ideal, 0);
+        } catch (BadMessageException e) {
+            return;
+        } catch (RuntimeException e) {
+            // Decoded messages may have field values the encoder does not accept
+            return;
+        }
+        int bestOffset = 0;
+        double bestError = MAX_MEAN_ERROR;
+        for (int offset = -MAX_TRUNCATION; offset <= MAX_END_OFFSET; offset++) {
+            double error = alignmentError(length, offset);
+            if (error < bestError) {
+                bestError = error;
+                bestOffset = offset;
+            }
+        }
+        if (bestError >= MAX_MEAN_ERROR) {
+            rejectedFrames++;
+            return;
+        }
+        update(length, bestOffset);
+    }
+
+    /**
+     * Compare the ideal frame with the received pulses ending offset pulses before the last one. The last pulse
+     * of the ideal frame is not used, since it is the gap to the next frame. Most decoders report the message
+     * before the end of the frame has been received, so a negative offset compares only the received part.
+     *
+     * @return mean relative error of the pulses, or infinity if the states do not match
+     */
+    private double alignmentError(int length, int offset) {
+        long last = pulseCount - 1 - offset;
+        if (last - (length - 2) < 0 || pulseCount - (last - (length - 2)) > HISTORY_SIZE) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double error = 0;
+        int count = 0;
+        for (int i = lastReceived(length, offset); i >= 0; i--) {
+            int index = (int) ((last - (length - 2 - i)) % HISTORY_SIZE);
+            if (historyStates[index] != ((i & 1) == 0)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            if (ideal[i] < GAP_LENGTH) {
+                error += Math.abs(history[index] - ideal[i]) / ideal[i];
+                count++;
+            }
+        }
+        return count > 0 ? error / count : Double.POSITIVE_INFINITY;
+    }
+
+    private void update(int length, int offset) {
+        long last = pulseCount - 1 - offset;
+        double markSum = 0;
+        double spaceSum = 0;
+        int marks = 0;
+        int spaces = 0;
+        for (int i = lastReceived(length, offset); i >= 0; i--) {
+            if (ideal[i] >= GAP_LENGTH) {
+                continue;
+            }
+            int index = (int) ((last - (length - 2 - i)) % HISTORY_SIZE);
+            double difference = history[index] - ideal[i];
+            if ((i & 1) == 0) {
+                markSum += difference;
+                marks++;
+            } else {
+                spaceSum += difference;
+                spaces++;
+            }
+        }
+        if (marks < MIN_PULSES || spaces < MIN_PULSES) {
+            rejectedFrames++;
+            return;
+        }
+        markBias = limit(markBias + learningRate * (markSum / marks - markBias));
+        spaceBias = limit(spaceBias + learningRate * (spaceSum / spaces - spaceBias));
+        calibrations++;
+    }
+
+    /**
+     * @return index of the last pulse in the ideal frame that has been received with the given offset
+     */
+    private int lastReceived(int length, int offset) {
+        return offset < 0 ? length - 2 + offset : length - 2;
+    }
+
+    private double limit(double bias) {
+        return Math.max(-maxBias, Math.min(maxBias, bias));
+    }
+
+    /**
+     * Learns from the messages on their way from the decoders to the sink
+     */
+    private class Tap implements ProtocolDecoderSink {
+        public void parsedMessage(ProtocolMessage message) {
+            learn(message);
+            if (sink != null) {
+                sink.parsedMessage(message);
+            }
+        }
+
+        public void partiallyParsedMessage(String protocol, int bits) {
+            if (sink != null) {
+                sink.partiallyParsedMessage(protocol, bits);
+            }
+        }
+
+        public void reportLevel(int level) {
+            if (sink != null) {
+                sink.reportLevel(level);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import java.util.Arrays;
+
+/**
+ * FIR filter working on blocks of samples with fixed point coefficients. The filter keeps the end of the
+ * previous block so consecutive blocks are filtered as one continuous signal.
+ * <br>
+ * The inner loop runs over the samples of the block for one coefficient at a time, so there is no
+ * dependency between iterations and the JIT is free to unroll and vectorize it.
+ */
+public class BlockFirFilter {
+
+    public static final int COEFFICIENT_BITS = 14;
+    private static final int INITIAL_BLOCK_SIZE = 1024;
+
+    private final int[] coefficients;
+    private int[] window;
+    private int[] accumulator = new int[INITIAL_BLOCK_SIZE];
+
+    /**
+     * @param coefficients filter coefficients scaled by 2^COEFFICIENT_BITS. To avoid overflow the sum of the
+     *                     absolute values of the coefficients must not exceed 2^(COEFFICIENT_BITS + 1) for
+     *                     16 bit samples.
+     */
+    public BlockFirFilter(int[] coefficients) {
+        if (coefficients.length == 0) {
+            throw new IllegalArgumentException("Filter must have at least one coefficient");
+        }
+        this.coefficients = coefficients.clone();
+        window = new int[coefficients.length - 1 + INITIAL_BLOCK_SIZE];
+    }
+
+    /**
+     * Create a windowed sinc low pass filter
+     *
+     * @param sampleRate  sample rate in Hz
+     * @param cutoff      cut off frequency in Hz
+     * @param tapCount    number of coefficients, an odd number gives a symmetric filter without phase shift
+     *                    between the frequencies
+     * @return the filter
+     */
+    public static BlockFirFilter lowPass(int sampleRate, int cutoff, int tapCount) {
+        if (cutoff <= 0 || cutoff * 2 >= sampleRate || tapCount < 1) {
+            throw new IllegalArgumentException("Bad filter parameters");
+        }
+        double[] taps = new double[tapCount];
+        double normalizedCutoff = (double) cutoff / sampleRate;
+        double middle = (tapCount - 1) / 2.0;
+        double sum = 0;
+        for (int i = 0; i < tapCount; i++) {
+            double x = i - middle;
+            double sinc = (x == 0) ? 2 * normalizedCutoff : Math.sin(2 * Math.PI * normalizedCutoff * x) / (Math.PI * x);
+            double hamming = (tapCount == 1) ? 1 : 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (tapCount - 1));
+            taps[i] = sinc * hamming;
+            sum += taps[i];
+        }
+        // Normalize to unity gain for DC
+        int[] coefficients = new int[tapCount];
+        for (int i = 0; i < tapCount; i++) {
+            coefficients[i] = (int) Math.round(taps[i] / sum * (1 << COEFFICIENT_BITS));
+        }
+        return new BlockFirFilter(coefficients);
+    }
+
+    /**
+     * @return number of samples the output is delayed, for a symmetric filter
+     */
+    public int getDelay() {
+        return (coefficients.length - 1) / 2;
+    }
+
+    /**
+     * Filter a block of samples. Input and output may be the same array.
+     */
+    public void filter(int[] in, int inOffset, int length, int[] out, int outOffset) {
+        int history = coefficients.length - 1;
+        if (accumulator.length < length) {
+            int[] newWindow = new int[history + length];
+            System.arraycopy(window, 0, newWindow, 0, history);
+            window = newWindow;
+            accumulator = new int[length];
+        }
+        final int[] work = window;
+        final int[] acc = accumulator;
+        System.arraycopy(in, inOffset, work, history, length);
+        Arrays.fill(acc, 0, length, 0);
+        for (int k = 0; k < coefficients.length; k++) {
+            final int coefficient = coefficients[k];
+            final int base = history - k;
+            for (int i = 0; i < length; i++) {
+                acc[i] += coefficient * work[base + i];
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = acc[i] >> COEFFICIENT_BITS;
+        }
+        System.arraycopy(work, length, work, 0, history);
+    }
+
+    /**
+     * Forget the previous samples
+     */
+    public void reset() {
+        Arrays.fill(window, 0);
+    }
+}
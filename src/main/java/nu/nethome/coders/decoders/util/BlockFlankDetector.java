@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+
+/**
+ * Block oriented version of the flank detector in {@link nu.nethome.util.ps.impl.SimpleFlankDetector}.
+ * Instead of receiving one sample per call it takes whole blocks of samples, finds the flanks with plain
+ * array loops and then feeds the resulting pulses to the protocol decoder.
+ * <br>
+ * A flank is detected when a sample differs more than the flank swing from the sample flank length samples
+ * earlier, upwards when the current state is space and downwards when it is mark. The length of the pulse
+ * ending at the flank is the number of samples since the previous flank converted to micro seconds.
+ */
+public class BlockFlankDetector implements PulseClock {
+
+    public static final int MAX_FLANK_LENGTH = 16;
+    private static final int INITIAL_BLOCK_SIZE = 1024;
+
+    private ProtocolDecoder decoder;
+    private int sampleRate = 44100;
+    private double sampleLength = 1000000.0 / sampleRate;
+    private int flankSwing = 50;
+    private int flankLength = 3;
+    private int pulseWidthCompensation = 0;
+
+    // The last samples of the previous block followed by the current block
+    private int[] window = new int[MAX_FLANK_LENGTH + INITIAL_BLOCK_SIZE];
+    private int[] deltas = new int[INITIAL_BLOCK_SIZE];
+    private double[] pulseLengths = new double[64];
+    private boolean[] pulseStates = new boolean[64];
+    private long[] pulseEnds = new long[64];
+    private long currentPulseEnd;
+    private long sampleCounter;
+    private long lastFlank;
+    private boolean state;
+
+    public void setProtocolDecoder(ProtocolDecoder decoder) {
+        this.decoder = decoder;
+    }
+
+    public ProtocolDecoder getProtocolDecoder() {
+        return decoder;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Bad sample rate: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+        sampleLength = 1000000.0 / sampleRate;
+    }
+
+    public int getFlankSwing() {
+        return flankSwing;
+    }
+
+    /**
+     * @param flankSwing how much the signal must change within the flank length to count as a flank
+     */
+    public void setFlankSwing(int flankSwing) {
+        this.flankSwing = flankSwing;
+    }
+
+    public int getFlankLength() {
+        return flankLength;
+    }
+
+    /**
+     * @param flankLength number of samples a flank may take, 1 - MAX_FLANK_LENGTH
+     */
+    public void setFlankLength(int flankLength) {
+        if (flankLength < 1 || flankLength > MAX_FLANK_LENGTH) {
+            throw new IllegalArgumentException("Bad flank length: " + flankLength);
+        }
+        this.flankLength = flankLength;
+    }
+
+    public int getPulseWidthCompensation() {
+        return pulseWidthCompensation;
+    }
+
+    /**
+     * @param pulseWidthCompensation micro seconds subtracted from marks and added to spaces
+     */
+    public void setPulseWidthCompensation(int pulseWidthCompensation) {
+        this.pulseWidthCompensation = pulseWidthCompensation;
+    }
+
+    /**
+     * @return total number of samples processed
+     */
+    public long getSampleCount() {
+        return sampleCounter;
+    }
+
+    /**
+     * While the decoder is parsing a pulse this is the sample number of the flank that ended the pulse, which
+     * lets a sink tell where in the signal a message was decoded. Otherwise it is the number of samples processed.
+     */
+    public long getPulseEndSample() {
+        return currentPulseEnd;
+    }
+
+    /**
+     * The same point as {@link #getPulseEndSample()} in micro seconds from the first sample
+     */
+    public long getPulseEndTime() {
+        return currentPulseEnd * 1000000L / sampleRate;
+    }
+
+    public void addSamples(int[] samples, int offset, int length) {
+        int[] work = prepareWindow(length);
+        System.arraycopy(samples, offset, work, MAX_FLANK_LENGTH, length);
+        detectFlanks(length);
+    }
+
+    public void addSamples(short[] samples, int offset, int length) {
+        int[] work = prepareWindow(length);
+        for (int i = 0; i < length; i++) {
+            work[MAX_FLANK_LENGTH + i] = samples[offset + i];
+        }
+        detectFlanks(length);
+    }
+
+    /**
+     * Feed the same sample value a number of times, for example to add a quiet period
+     */
+    public void addConstant(int sample, int count) {
+        while (count > 0) {
+            int length = Math.min(count, deltas.length);
+            int[] work = prepareWindow(length);
+            for (int i = 0; i < length; i++) {
+                work[MAX_FLANK_LENGTH + i] = sample;
+            }
+            detectFlanks(length);
+            count -= length;
+        }
+    }
+
+    /**
+     * End the current pulse with a flank after the samples processed so far. Called after a quiet period at the
+     * end of a recording, so decoders waiting for the gap after a frame get it.
+     */
+    public void endPulse() {
+        if (sampleCounter > lastFlank) {
+            pulseLengths[0] = (sampleCounter - lastFlank) * sampleLength;
+            pulseEnds[0] = sampleCounter;
+            pulseStates[0] = state;
+            state = !state;
+            lastFlank = sampleCounter;
+            emitPulses(1);
+        }
+    }
+
+    /**
+     * Make room for a block in the window, keeping the last samples of the previous block before it
+     */
+    private int[] prepareWindow(int length) {
+        if (deltas.length < length) {
+            int[] newWindow = new int[MAX_FLANK_LENGTH + length];
+            System.arraycopy(window, 0, newWindow, 0, MAX_FLANK_LENGTH);
+            window = newWindow;
+            deltas = new int[length];
+        }
+        return window;
+    }
+
+    private void detectFlanks(int length) {
+        final int[] work = window;
+        final int[] delta = deltas;
+        final int lag = flankLength;
+        final int start = MAX_FLANK_LENGTH;
+
+        // Change over the flank length for every sample, a loop without dependencies between iterations
+        for (int i = 0; i < length; i++) {
+            delta[i] = work[start + i] - work[start + i - lag];
+        }
+
+        // Find the flanks
+        int pulseCount = 0;
+        boolean currentState = state;
+        long blockStart = sampleCounter;
+        long flank = lastFlank;
+        int swing = flankSwing;
+        for (int i = 0; i < length; i++) {
+            int d = currentState ? -delta[i] : delta[i];
+            if (d > swing) {
+                long position = blockStart + i;
+                if (pulseCount == pulseLengths.length) {
+                    growPulseBuffers();
+                }
+                pulseLengths[pulseCount] = (position - flank) * sampleLength;
+                pulseEnds[pulseCount] = position;
+                pulseStates[pulseCount++] = currentState;
+                currentState = !currentState;
+                flank = position;
+            }
+        }
+        state = currentState;
+        lastFlank = flank;
+        sampleCounter += length;
+
+        // Save the end of the block for the next one
+        System.arraycopy(work, length, work, 0, MAX_FLANK_LENGTH);
+
+        emitPulses(pulseCount);
+    }
+
+    private void emitPulses(int pulseCount) {
+        if (decoder != null) {
+            double compensation = pulseWidthCompensation;
+            for (int i = 0; i < pulseCount; i++) {
+                boolean mark = pulseStates[i];
+                currentPulseEnd = pulseEnds[i];
+                decoder.parse(mark ? pulseLengths[i] - compensation : pulseLengths[i] + compensation, mark);
+            }
+        }
+        currentPulseEnd = sampleCounter;
+    }
+
+    private void growPulseBuffers() {
+        double[] newLengths = new double[pulseLengths.length * 2];
+        boolean[] newStates = new boolean[pulseStates.length * 2];
+        long[] newEnds = new long[pulseEnds.length * 2];
+        System.arraycopy(pulseLengths, 0, newLengths, 0, pulseLengths.length);
+        System.arraycopy(pulseStates, 0, newStates, 0, pulseStates.length);
+        System.arraycopy(pulseEnds, 0, newEnds, 0, pulseEnds.length);
+        pulseLengths = newLengths;
+        pulseStates = newStates;
+        pulseEnds = newEnds;
+    }
+}
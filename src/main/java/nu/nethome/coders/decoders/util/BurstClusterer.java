@@ -0,0 +1,448 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.coders.decoders.SignatureDecoder;
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.ProtocolMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Collects the bursts of pulses that none of the decoders reported a message from, and groups them by their
+ * timing to find protocols that are not supported yet. The clusterer is placed in front of the decoders, usually
+ * a decoder group, and passes all pulses on to them.
+ * <br>
+ * A burst ends with a pulse longer than the burst gap. If the decoders have not reported any message during the
+ * burst, the lengths of its marks and spaces are sorted into timing classes, where a new class starts when a
+ * length is more than the tolerance longer than the previous one. Bursts with too few pulses or too many classes
+ * are counted as noise. The others join the cluster with the same number of classes and class lengths within the
+ * tolerance, or start a new cluster. Clusters keep the mean class lengths and a few example bursts.
+ * <br>
+ * Memory is bounded: bursts longer than the buffer are cut, and when the cluster table is full the cluster seen
+ * the fewest times is replaced. The work per pulse is storing it, the sorting is only done for unclaimed bursts.
+ * The candidates may be read from any thread.
+ */
+public class BurstClusterer implements ProtocolDecoder {
+
+    public static final double DEFAULT_BURST_GAP = 20000;
+    public static final double DEFAULT_TOLERANCE = 0.25;
+    public static final int DEFAULT_MIN_PULSES = 16;
+    public static final int DEFAULT_MAX_PULSES = 1024;
+    public static final int DEFAULT_MAX_CLASSES = 6;
+    public static final int DEFAULT_MAX_CLUSTERS = 64;
+    public static final int DEFAULT_MAX_EXAMPLES = 3;
+
+    private final ProtocolDecoder decoder;
+    private ProtocolDecoderSink sink;
+    private final double[] burst;
+    private final double[] scratch;
+    private final List<Cluster> clusters = new ArrayList<Cluster>();
+    private int burstLength;
+    private boolean claimed;
+    private double burstGap = DEFAULT_BURST_GAP;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private int minPulses = DEFAULT_MIN_PULSES;
+    private int maxClasses = DEFAULT_MAX_CLASSES;
+    private int maxClusters = DEFAULT_MAX_CLUSTERS;
+    private int maxExamples = DEFAULT_MAX_EXAMPLES;
+    private volatile long claimedBursts;
+    private volatile long noiseBursts;
+    private volatile long unclaimedBursts;
+
+    /**
+     * @param decoder decoder, typically a decoder group, to pass the pulses to
+     */
+    public BurstClusterer(ProtocolDecoder decoder) {
+        this(decoder, DEFAULT_MAX_PULSES);
+    }
+
+    /**
+     * @param decoder   decoder, typically a decoder group, to pass the pulses to
+     * @param maxPulses largest number of pulses kept of a burst
+     */
+    public BurstClusterer(ProtocolDecoder decoder, int maxPulses) {
+        this.decoder = decoder;
+        burst = new double[maxPulses];
+        scratch = new double[maxPulses];
+        decoder.setTarget(new Tap());
+    }
+
+    /**
+     * @param burstGap shortest pulse in micro seconds that ends a burst
+     */
+    public void setBurstGap(double burstGap) {
+        this.burstGap = burstGap;
+    }
+
+    /**
+     * @param tolerance relative difference in length between pulses of different timing classes
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public void setMinPulses(int minPulses) {
+        this.minPulses = minPulses;
+    }
+
+    /**
+     * @param maxClasses largest number of timing classes of marks or of spaces in a burst that is not noise
+     */
+    public void setMaxClasses(int maxClasses) {
+        this.maxClasses = maxClasses;
+    }
+
+    public void setMaxClusters(int maxClusters) {
+        this.maxClusters = maxClusters;
+    }
+
+    public void setMaxExamples(int maxExamples) {
+        this.maxExamples = maxExamples;
+    }
+
+    /**
+     * @return number of bursts a message was decoded from
+     */
+    public long getClaimedBursts() {
+        return claimedBursts;
+    }
+
+    /**
+     * @return number of unclaimed bursts that were too short or had too many timing classes
+     */
+    public long getNoiseBursts() {
+        return noiseBursts;
+    }
+
+    /**
+     * @return number of unclaimed bursts that were clustered
+     */
+    public long getUnclaimedBursts() {
+        return unclaimedBursts;
+    }
+
+    /**
+     * @param minCount least number of bursts in a cluster
+     * @return the clusters with at least minCount bursts, the most frequent first
+     */
+    public List<Cluster> getCandidates(int minCount) {
+        List<Cluster> result = new ArrayList<Cluster>();
+        synchronized (clusters) {
+            for (Cluster cluster : clusters) {
+                if (cluster.count >= minCount) {
+                    result.add(cluster.copy());
+                }
+            }
+        }
+        Collections.sort(result, new Comparator<Cluster>() {
+            public int compare(Cluster a, Cluster b) {
+                return b.count < a.count ? -1 : (b.count > a.count ? 1 : 0);
+            }
+        });
+        return result;
+    }
+
+    public void clear() {
+        synchronized (clusters) {
+            clusters.clear();
+        }
+    }
+
+    public ProtocolInfo getInfo() {
+        return new ProtocolInfo("BurstClusterer", "", "", 0, 0);
+    }
+
+    public void setTarget(ProtocolDecoderSink sink) {
+        this.sink = sink;
+    }
+
+    public int parse(double pulse, boolean state) {
+        int result = decoder.parse(pulse, state);
+        if (pulse > burstGap) {
+            endBurst();
+        } else if (burstLength < burst.length) {
+            burst[burstLength++] = state ? pulse : -pulse;
+        }
+        return result;
+    }
+
+    private void endBurst() {
+        if (claimed) {
+            claimedBursts++;
+        } else if (burstLength > 0) {
+            double[] marks = burstLength < minPulses ? null : classify(true);
+            double[] spaces = marks == null ? null : classify(false);
+            if (marks == null || spaces == null) {
+                noiseBursts++;
+            } else {
+                unclaimedBursts++;
+                addToCluster(marks, spaces);
+            }
+        }
+        burstLength = 0;
+        claimed = false;
+    }
+
+    /**
+     * @return the mean lengths of the timing classes of the marks or spaces, or null if there are too many
+     */
+    private double[] classify(boolean marks) {
+        int count = 0;
+        for (int i = 0; i < burstLength; i++) {
+            if ((burst[i] > 0) == marks) {
+                scratch[count++] = Math.abs(burst[i]);
+            }
+        }
+        Arrays.sort(scratch, 0, count);
+        double[] means = new double[maxClasses];
+        int classes = 0;
+        double sum = 0;
+        int members = 0;
+        for (int i = 0; i < count; i++) {
+            if (members > 0 && scratch[i] > scratch[i - 1] * (1 + tolerance)) {
+                if (classes == maxClasses) {
+                    return null;
+                }
+                means[classes++] = sum / members;
+                sum = 0;
+                members = 0;
+            }
+            sum += scratch[i];
+            members++;
+        }
+        if (members > 0) {
+            if (classes == maxClasses) {
+                return null;
+            }
+            means[classes++] = sum / members;
+        }
+        return Arrays.copyOf(means, classes);
+    }
+
+    private void addToCluster(double[] marks, double[] spaces) {
+        synchronized (clusters) {
+            for (Cluster cluster : clusters) {
+                if (cluster.matches(marks, spaces, tolerance)) {
+                    cluster.add(marks, spaces, burst, burstLength, maxExamples);
+                    return;
+                }
+            }
+            if (clusters.size() >= maxClusters) {
+                Cluster rarest = clusters.get(0);
+                for (Cluster cluster : clusters) {
+                    if (cluster.count < rarest.count) {
+                        rarest = cluster;
+                    }
+                }
+                clusters.remove(rarest);
+            }
+            Cluster cluster = new Cluster(marks.length, spaces.length);
+            cluster.add(marks, spaces, burst, burstLength, maxExamples);
+            clusters.add(cluster);
+        }
+    }
+
+    /**
+     * Bursts with the same timing, a candidate protocol
+     */
+    public static class Cluster {
+        private final double[] marks;
+        private final double[] spaces;
+        private final List<double[]> examples = new ArrayList<double[]>();
+        private int count;
+        private int minPulses = Integer.MAX_VALUE;
+        private int maxPulses;
+
+        Cluster(int markClasses, int spaceClasses) {
+            marks = new double[markClasses];
+            spaces = new double[spaceClasses];
+        }
+
+        boolean matches(double[] burstMarks, double[] burstSpaces, double tolerance) {
+            return isClose(marks, burstMarks, tolerance) && isClose(spaces, burstSpaces, tolerance);
+        }
+
+        private static boolean isClose(double[] classes, double[] burstClasses, double tolerance) {
+            if (classes.length != burstClasses.length) {
+                return false;
+            }
+            for (int i = 0; i < classes.length; i++) {
+                if (Math.abs(classes[i] - burstClasses[i]) > classes[i] * tolerance) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(double[] burstMarks, double[] burstSpaces, double[] pulses, int length, int maxExamples) {
+            count++;
+            for (int i = 0; i < marks.length; i++) {
+                marks[i] += (burstMarks[i] - marks[i]) / count;
+            }
+            for (int i = 0; i < spaces.length; i++) {
+                spaces[i] += (burstSpaces[i] - spaces[i]) / count;
+            }
+            minPulses = Math.min(minPulses, length);
+            maxPulses = Math.max(maxPulses, length);
+            if (examples.size() < maxExamples) {
+                examples.add(Arrays.copyOf(pulses, length));
+            }
+        }
+
+        Cluster copy() {
+            Cluster result = new Cluster(marks.length, spaces.length);
+            System.arraycopy(marks, 0, result.marks, 0, marks.length);
+            System.arraycopy(spaces, 0, result.spaces, 0, spaces.length);
+            result.examples.addAll(examples);
+            result.count = count;
+            result.minPulses = minPulses;
+            result.maxPulses = maxPulses;
+            return result;
+        }
+
+        /**
+         * @return mean lengths in micro seconds of the timing classes of the marks, shortest first
+         */
+        public double[] getMarkClasses() {
+            return marks.clone();
+        }
+
+        /**
+         * @return mean lengths in micro seconds of the timing classes of the spaces, shortest first
+         */
+        public double[] getSpaceClasses() {
+            return spaces.clone();
+        }
+
+        /**
+         * @return number of bursts in the cluster
+         */
+        public int getCount() {
+            return count;
+        }
+
+        public int getMinPulses() {
+            return minPulses;
+        }
+
+        public int getMaxPulses() {
+            return maxPulses;
+        }
+
+        /**
+         * @return the first bursts of the cluster, marks positive and spaces negative
+         */
+        public List<double[]> getExamples() {
+            return Collections.unmodifiableList(examples);
+        }
+
+        /**
+         * Suggest a signature for a {@link SignatureDecoder} from the timing classes. Two mark classes give a mark
+         * length encoding and two space classes a space length encoding, where the number of bits is guessed from
+         * the shortest burst. Classes of one and two half bits give Manchester. Headers are not detected, so the
+         * suggestion is a starting point to check against the examples.
+         *
+         * @return the signature, or null if the classes do not fit any of the encodings
+         */
+        public Properties toSignature(String name) {
+            Properties result = new Properties();
+            result.setProperty("name", name);
+            if (marks.length == 2 && spaces.length >= 2 && isDouble(marks[0], marks[1]) &&
+                    isDouble(spaces[0], spaces[1]) && isDouble(marks[0], spaces[1])) {
+                double half = (marks[0] + spaces[0]) / 2;
+                long halves = 0;
+                for (double pulse : examples.get(0)) {
+                    halves += Math.round(Math.abs(pulse) / half);
+                }
+                result.setProperty("encoding", SignatureDecoder.MANCHESTER);
+                result.setProperty("half", "" + Math.round(half));
+                result.setProperty("bits", "" + Math.min(64, halves / 2));
+            } else if (marks.length == 2) {
+                // With two space classes the bit keeps its length, so the short mark has the long space
+                double zeroSpace = spaces[spaces.length >= 2 ? 1 : 0];
+                result.setProperty("encoding", SignatureDecoder.MARK_LENGTH);
+                result.setProperty("zero", "M" + Math.round(marks[0]) + ",S" + Math.round(zeroSpace));
+                result.setProperty("one", "M" + Math.round(marks[1]) + ",S" + Math.round(spaces[0]));
+                // The space after the last bit is the gap ending the burst
+                result.setProperty("bits", "" + Math.min(64, (minPulses + 1) / 2));
+            } else if (marks.length == 1 && spaces.length == 2) {
+                result.setProperty("encoding", SignatureDecoder.SPACE_LENGTH);
+                result.setProperty("zero", "M" + Math.round(marks[0]) + ",S" + Math.round(spaces[0]));
+                result.setProperty("one", "M" + Math.round(marks[0]) + ",S" + Math.round(spaces[1]));
+                // The last bit is followed by a stop mark
+                result.setProperty("bits", "" + Math.min(64, (minPulses - 1) / 2));
+            } else {
+                return null;
+            }
+            return result;
+        }
+
+        private static boolean isDouble(double shorter, double longer) {
+            return longer > 1.6 * shorter && longer < 2.4 * shorter;
+        }
+
+        @Override
+        public String toString() {
+            return "Marks " + format(marks) + " Spaces " + format(spaces) + " (" + count + " bursts of " +
+                    minPulses + "-" + maxPulses + " pulses)";
+        }
+
+        private static String format(double[] classes) {
+            StringBuilder result = new StringBuilder();
+            for (double length : classes) {
+                result.append(result.length() > 0 ? "/" : "").append(Math.round(length));
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * Receives the calls from the decoder
+     */
+    private class Tap implements ProtocolDecoderSink {
+        public void parsedMessage(ProtocolMessage message) {
+            claimed = true;
+            if (sink != null) {
+                sink.parsedMessage(message);
+            }
+        }
+
+        public void partiallyParsedMessage(String protocol, int bits) {
+            if (sink != null) {
+                sink.partiallyParsedMessage(protocol, bits);
+            }
+        }
+
+        public void reportLevel(int level) {
+            if (sink != null) {
+                sink.reportLevel(level);
+            }
+        }
+    }
+}
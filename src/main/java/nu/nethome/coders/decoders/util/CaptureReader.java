@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a capture file written by {@link CaptureWriter}, compressed or not, and passes the recorded data to a
+ * {@link Listener}.
+ */
+public class CaptureReader implements Closeable {
+
+    public interface Listener {
+        void time(long millis);
+
+        void sampleRate(int sampleRate);
+
+        void pulse(double length, boolean state);
+
+        void samples(int[] samples, int offset, int length);
+
+        /**
+         * Called where data was lost because the disk did not keep up with the recording
+         *
+         * @param buffers number of dropped buffers
+         */
+        void dropped(int buffers);
+    }
+
+    private final DataInputStream in;
+    private final int[] samples = new int[1024];
+
+    public CaptureReader(File file) throws IOException {
+        InputStream stream = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        if (file.getName().endsWith(".gz")) {
+            stream = new GZIPInputStream(stream, 64 * 1024);
+        }
+        in = new DataInputStream(stream);
+        if (in.readInt() != CaptureWriter.MAGIC || in.readInt() != CaptureWriter.VERSION) {
+            in.close();
+            throw new IOException("Not a capture file: " + file);
+        }
+    }
+
+    /**
+     * Read the next record
+     *
+     * @return false at the end of the file
+     */
+    public boolean next(Listener listener) throws IOException {
+        int type = in.read();
+        switch (type) {
+            case -1:
+                return false;
+            case CaptureWriter.PULSE_RECORD: {
+                float pulse = in.readFloat();
+                listener.pulse(Math.abs(pulse), pulse > 0);
+                break;
+            }
+            case CaptureWriter.SAMPLES_RECORD: {
+                int count = in.readShort();
+                for (int i = 0; i < count; i++) {
+                    samples[i] = in.readShort();
+                }
+                listener.samples(samples, 0, count);
+                break;
+            }
+            case CaptureWriter.SAMPLE_RATE_RECORD:
+                listener.sampleRate(in.readInt());
+                break;
+            case CaptureWriter.TIME_RECORD:
+                listener.time(in.readLong());
+                break;
+            case CaptureWriter.DROPPED_RECORD:
+                listener.dropped(in.readInt());
+                break;
+            default:
+                throw new IOException("Bad capture record " + type);
+        }
+        return true;
+    }
+
+    /**
+     * Read all records
+     */
+    public void play(Listener listener) throws IOException {
+        try {
+            while (next(listener)) {
+                // Keep reading
+            }
+        } catch (EOFException e) {
+            // A capture that was not closed properly may end in the middle of a record
+        }
+    }
+
+    /**
+     * Feed the recorded pulses of a capture file to a decoder
+     */
+    public static void playPulses(File file, final ProtocolDecoder decoder) throws IOException {
+        CaptureReader reader = new CaptureReader(file);
+        try {
+            reader.play(new Listener() {
+                public void time(long millis) {
+                }
+
+                public void sampleRate(int sampleRate) {
+                }
+
+                public void pulse(double length, boolean state) {
+                    decoder.parse(length, state);
+                }
+
+                public void samples(int[] samples, int offset, int length) {
+                }
+
+                public void dropped(int buffers) {
+                }
+            });
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
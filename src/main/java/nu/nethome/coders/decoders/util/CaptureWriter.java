@@ -0,0 +1,547 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records the pulses and samples a receiver hears to capture files, for debugging reception problems.
+ * It is a ProtocolDecoder, so it can be added to the decoder group to record the pulses, and samples can be
+ * passed to it from the sample source.
+ * <br>
+ * Data is batched into a fixed pool of direct buffers which a background thread writes to disk. The decoding
+ * thread never waits for the disk: if all buffers are waiting to be written, the data of the current buffer is
+ * dropped and counted, and a gap record is written when recording resumes. The capture is split in segments
+ * by size and age, and closed segments are compressed with gzip. The format is read by {@link CaptureReader}.
+ * <br>
+ * The buffer being filled is kept in an atomic reference, which the recording thread takes while it writes to
+ * it. When the receiver is quiet the writer thread takes it instead, and hands it over for writing when it is
+ * older than the flush interval, so the data before a dropout is not held in memory.
+ * <br>
+ * The recording methods must be called from a single thread.
+ */
+public class CaptureWriter implements ProtocolDecoder, Closeable {
+
+    static final int MAGIC = 0x4E484350;
+    static final int VERSION = 1;
+    static final byte PULSE_RECORD = 'P';
+    static final byte SAMPLES_RECORD = 'S';
+    static final byte SAMPLE_RATE_RECORD = 'R';
+    static final byte TIME_RECORD = 'T';
+    static final byte DROPPED_RECORD = 'D';
+    static final String EXTENSION = ".cap";
+    private static final int MAX_RECORD = 1 + 2 + 2 * 1024;
+    private static final ByteBuffer STOP = ByteBuffer.allocate(0);
+
+    private final File directory;
+    private final String prefix;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> filled;
+    private final AtomicLong droppedBuffers = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong writeErrors = new AtomicLong();
+    private final List<File> segments = new CopyOnWriteArrayList<File>();
+    private final ExecutorService compressor;
+    private final Thread writer;
+    private volatile long maxSegmentSize = 64 * 1024 * 1024;
+    private volatile long maxSegmentTime = TimeUnit.HOURS.toMillis(1);
+    private volatile long flushInterval = 1000;
+    private volatile boolean compress = true;
+    private volatile IOException lastError;
+    private volatile int sampleRate;
+    private final AtomicReference<ByteBuffer> active = new AtomicReference<ByteBuffer>();
+
+    // Only accessed by the thread which has taken the buffer from active
+    private ByteBuffer current;
+    private long currentStarted;
+    private int headerLength;
+    private int pendingDrops;
+
+    // Only accessed by the recording thread
+    private final int[] sampleRun = new int[1024];
+    private int sampleRunLength;
+    private boolean closed;
+
+    // Only accessed by the writer thread
+    private FileChannel channel;
+    private File segment;
+    private long segmentBytes;
+    private long segmentStarted;
+    private int segmentNumber;
+
+    public CaptureWriter(File directory, String prefix) {
+        this(directory, prefix, 64 * 1024, 16);
+    }
+
+    /**
+     * @param directory   directory to write the capture files in
+     * @param prefix      start of the capture file names
+     * @param bufferSize  size of each buffer in bytes
+     * @param bufferCount number of buffers, which decides how long a disk stall can be before data is dropped
+     */
+    public CaptureWriter(File directory, String prefix, int bufferSize, int bufferCount) {
+        if (bufferCount < 2 || bufferSize < MAX_RECORD + 16) {
+            throw new IllegalArgumentException("Need at least two buffers of " + (MAX_RECORD + 16) + " bytes");
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        free = new ArrayBlockingQueue<ByteBuffer>(bufferCount);
+        filled = new ArrayBlockingQueue<ByteBuffer>(bufferCount + 1);
+        for (int i = 1; i < bufferCount; i++) {
+            free.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+        compressor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CaptureCompressor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "CaptureWriter");
+        writer.setDaemon(true);
+        startBuffer(ByteBuffer.allocateDirect(bufferSize));
+        active.set(current);
+        writer.start();
+    }
+
+    /**
+     * @param maxSegmentSize size in bytes after which a new capture file is started
+     */
+    public void setMaxSegmentSize(long maxSegmentSize) {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * @param maxSegmentTime time in milliseconds after which a new capture file is started
+     */
+    public void setMaxSegmentTime(long maxSegmentTime) {
+        this.maxSegmentTime = maxSegmentTime;
+    }
+
+    /**
+     * @param flushInterval longest time in milliseconds recorded data is held in memory before it is written
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * @param compress true if closed capture files are compressed with gzip
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    public ProtocolInfo getInfo() {
+        return new ProtocolInfo("Capture", "Recorder", "NetHome", 0, 0);
+    }
+
+    public void setTarget(ProtocolDecoderSink sink) {
+        // Nothing is decoded
+    }
+
+    /**
+     * Record a pulse
+     */
+    public int parse(double pulse, boolean state) {
+        if (closed) {
+            return 0;
+        }
+        take();
+        flushSampleRun();
+        reserve(5);
+        current.put(PULSE_RECORD);
+        current.putFloat(state ? (float) pulse : (float) -pulse);
+        checkAge();
+        release();
+        return 0;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+        if (!closed) {
+            take();
+            flushSampleRun();
+            reserve(5);
+            putSampleRate();
+            release();
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Record one sample. Samples are recorded with 16 bits and larger values are clipped.
+     */
+    public void addSample(int sample) {
+        if (closed) {
+            return;
+        }
+        sampleRun[sampleRunLength++] = sample;
+        if (sampleRunLength == sampleRun.length) {
+            take();
+            flushSampleRun();
+            checkAge();
+            release();
+        }
+    }
+
+    /**
+     * Record a block of samples. Samples are recorded with 16 bits and larger values are clipped.
+     */
+    public void addSamples(int[] samples, int offset, int length) {
+        if (closed) {
+            return;
+        }
+        take();
+        flushSampleRun();
+        while (length > 0) {
+            int count = Math.min(length, sampleRun.length);
+            putSamples(samples, offset, count);
+            offset += count;
+            length -= count;
+        }
+        checkAge();
+        release();
+    }
+
+    /**
+     * Hand the recorded data to the writer thread
+     */
+    public void flush() {
+        if (!closed) {
+            take();
+            flushSampleRun();
+            submit();
+            release();
+        }
+    }
+
+    /**
+     * @return number of buffers whose data was dropped because the disk did not keep up
+     */
+    public long getDroppedBuffers() {
+        return droppedBuffers.get();
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    public long getWriteErrors() {
+        return writeErrors.get();
+    }
+
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @return the capture files that have been closed, compressed or not
+     */
+    public List<File> getSegments() {
+        return new ArrayList<File>(segments);
+    }
+
+    /**
+     * Write the remaining data, close the capture and wait for the compression of the last segment
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        take();
+        flushSampleRun();
+        closed = true;
+        current.flip();
+        filled.add(current);
+        filled.add(STOP);
+        try {
+            writer.join();
+            compressor.shutdown();
+            compressor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushSampleRun() {
+        if (sampleRunLength > 0) {
+            int length = sampleRunLength;
+            sampleRunLength = 0;
+            if (!closed) {
+                putSamples(sampleRun, 0, length);
+            }
+        }
+    }
+
+    private void putSamples(int[] samples, int offset, int count) {
+        reserve(3 + 2 * count);
+        current.put(SAMPLES_RECORD);
+        current.putShort((short) count);
+        for (int i = offset; i < offset + count; i++) {
+            current.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, samples[i])));
+        }
+    }
+
+    private void putSampleRate() {
+        current.put(SAMPLE_RATE_RECORD);
+        current.putInt(sampleRate);
+    }
+
+    private void reserve(int bytes) {
+        if (current.remaining() < bytes) {
+            submit();
+        }
+    }
+
+    /**
+     * Take the current buffer, waiting for the writer thread if it is handing it over. That only takes a poll
+     * of the free buffers, never any disk access.
+     */
+    private void take() {
+        while ((current = active.getAndSet(null)) == null) {
+            Thread.yield();
+        }
+    }
+
+    private void release() {
+        active.set(current);
+    }
+
+    private boolean isOld() {
+        return current.position() > headerLength && System.currentTimeMillis() - currentStarted >= flushInterval;
+    }
+
+    private void checkAge() {
+        if (isOld()) {
+            submit();
+        }
+    }
+
+    /**
+     * Queue the current buffer for writing and continue in a free one. If there is no free buffer the data in
+     * the current buffer is dropped instead.
+     */
+    private void submit() {
+        if (!queueCurrent()) {
+            droppedBuffers.incrementAndGet();
+            pendingDrops++;
+            current.clear();
+            startBuffer(current);
+        }
+    }
+
+    /**
+     * @return false if there was no free buffer to continue in, and the current buffer was not queued
+     */
+    private boolean queueCurrent() {
+        ByteBuffer next = free.poll();
+        if (next == null) {
+            return false;
+        }
+        current.flip();
+        filled.add(current);
+        pendingDrops = 0;
+        startBuffer(next);
+        return true;
+    }
+
+    /**
+     * Called by the writer thread to queue the current buffer if it is too old. It is left to the recording
+     * thread if it is taken or if there is no free buffer.
+     */
+    private void queueOldBuffer() {
+        current = active.getAndSet(null);
+        if (current == null) {
+            return;
+        }
+        if (isOld()) {
+            queueCurrent();
+        }
+        release();
+    }
+
+    private void startBuffer(ByteBuffer buffer) {
+        current = buffer;
+        currentStarted = System.currentTimeMillis();
+        current.put(TIME_RECORD);
+        current.putLong(currentStarted);
+        if (pendingDrops > 0) {
+            current.put(DROPPED_RECORD);
+            current.putInt(pendingDrops);
+        }
+        if (sampleRate > 0) {
+            putSampleRate();
+        }
+        headerLength = current.position();
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                long timeout = Math.max(1, Math.min(flushInterval / 4, 1000));
+                ByteBuffer buffer = filled.poll(timeout, TimeUnit.MILLISECONDS);
+                if (buffer == STOP) {
+                    break;
+                }
+                if (buffer != null) {
+                    write(buffer);
+                    buffer.clear();
+                    free.add(buffer);
+                } else {
+                    queueOldBuffer();
+                }
+                if (channel != null && System.currentTimeMillis() - segmentStarted >= maxSegmentTime) {
+                    closeSegment();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stop writing
+        }
+        closeSegment();
+    }
+
+    private void write(ByteBuffer buffer) {
+        try {
+            if (channel != null && segmentBytes + buffer.remaining() > maxSegmentSize) {
+                closeSegment();
+            }
+            if (channel == null) {
+                openSegment();
+            }
+            while (buffer.hasRemaining()) {
+                segmentBytes += channel.write(buffer);
+            }
+            writtenBytes.addAndGet(buffer.limit());
+        } catch (IOException e) {
+            writeErrors.incrementAndGet();
+            lastError = e;
+            closeSegment();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        segment = new File(directory, prefix + "-" + time + "-" + (segmentNumber++) + EXTENSION);
+        channel = openChannel(segment);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        segmentBytes = header.limit();
+        segmentStarted = System.currentTimeMillis();
+    }
+
+    /**
+     * Open a capture file for writing. Called by the writer thread.
+     */
+    protected FileChannel openChannel(File file) throws IOException {
+        return new FileOutputStream(file).getChannel();
+    }
+
+    private void closeSegment() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            writeErrors.incrementAndGet();
+            lastError = e;
+        }
+        channel = null;
+        final File closedSegment = segment;
+        if (compress) {
+            compressor.execute(new Runnable() {
+                public void run() {
+                    segments.add(compress(closedSegment));
+                }
+            });
+        } else {
+            segments.add(closedSegment);
+        }
+    }
+
+    /**
+     * @return the compressed file, or the original file if it could not be compressed
+     */
+    private File compress(File file) {
+        File compressed = new File(file.getPath() + ".gz");
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed), 64 * 1024);
+                try {
+                    byte[] data = new byte[64 * 1024];
+                    int length;
+                    while ((length = in.read(data)) > 0) {
+                        out.write(data, 0, length);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            file.delete();
+            return compressed;
+        } catch (IOException e) {
+            writeErrors.incrementAndGet();
+            lastError = e;
+            compressed.delete();
+            return file;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.util.ps.ProtocolMessage;
+
+/**
+ * A message decoded from a recording, together with where in the recording it was found
+ */
+public class DecodedMessage implements Comparable<DecodedMessage> {
+
+    private final ProtocolMessage message;
+    private final String source;
+    private final long sample;
+    private final long time;
+
+    /**
+     * @param message the decoded message
+     * @param source  name of the recording
+     * @param sample  sample number where the decoder reported the message
+     * @param time    time in micro seconds from the start of the recording where the message was reported
+     */
+    public DecodedMessage(ProtocolMessage message, String source, long sample, long time) {
+        this.message = message;
+        this.source = source;
+        this.sample = sample;
+        this.time = time;
+    }
+
+    public ProtocolMessage getMessage() {
+        return message;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public long getSample() {
+        return sample;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Messages are ordered by source and then by position in the source
+     */
+    public int compareTo(DecodedMessage other) {
+        int result = source.compareTo(other.source);
+        if (result != 0) {
+            return result;
+        }
+        return sample < other.sample ? -1 : (sample == other.sample ? 0 : 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%d us: %s", source, time, message.getProtocol());
+    }
+}
@@ -0,0 +1,332 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A time index of a .jir file, which lets a {@link JirStreamReader} jump to a time offset without parsing the
+ * recording from the start. Each entry holds the parser state at a point in a sample list. The objects the
+ * parser has to remember rarely change, so entries share snapshots of them.
+ * <br>
+ * The index is stored in a sidecar file next to the recording, named as the recording with ".idx" appended.
+ * A sidecar that does not match the length and modification time of the recording is rebuilt.
+ */
+public class JirIndex {
+
+    public static final long DEFAULT_INTERVAL = 1000000;
+    private static final int MAGIC = 0x4A495258;
+    private static final int VERSION = 1;
+    private static final int KIND_STRING = 0;
+    private static final int KIND_INTEGER = 1;
+    private static final int KIND_CLASS = 2;
+
+    private final long sourceLength;
+    private final long sourceModified;
+    private final long interval;
+    private final long duration;
+    private final List<Entry> entries;
+    private final List<Map<Integer, Object>> snapshots;
+
+    private JirIndex(long sourceLength, long sourceModified, long interval, long duration, List<Entry> entries,
+                     List<Map<Integer, Object>> snapshots) {
+        this.sourceLength = sourceLength;
+        this.sourceModified = sourceModified;
+        this.interval = interval;
+        this.duration = duration;
+        this.entries = entries;
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Get the index of a recording, reading the sidecar file if it is up to date and otherwise building it and
+     * writing a new sidecar file.
+     */
+    public static JirIndex forFile(File jirFile) throws IOException {
+        File sidecar = sidecarFile(jirFile);
+        if (sidecar.exists()) {
+            JirIndex index = read(sidecar);
+            if (index != null && index.matches(jirFile)) {
+                return index;
+            }
+        }
+        JirIndex index = build(jirFile, DEFAULT_INTERVAL);
+        index.write(sidecar);
+        return index;
+    }
+
+    public static File sidecarFile(File jirFile) {
+        return new File(jirFile.getPath() + ".idx");
+    }
+
+    /**
+     * Build an index by reading through a recording
+     *
+     * @param interval time in micro seconds between index entries
+     */
+    public static JirIndex build(File jirFile, long interval) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        List<Map<Integer, Object>> snapshots = new ArrayList<Map<Integer, Object>>();
+        int[] samples = new int[4096];
+        JirStreamReader reader = new JirStreamReader(jirFile);
+        try {
+            int snapshotVersion = -1;
+            long nextEntry = interval;
+            while (true) {
+                int rate = Math.max(reader.getSampleRate(), 1);
+                long remaining = (nextEntry - reader.getTime()) * rate / 1000000 + 1;
+                if (reader.read(samples, 0, (int) Math.min(samples.length, remaining)) < 0) {
+                    break;
+                }
+                if (reader.getTime() >= nextEntry) {
+                    if (reader.getHandlesVersion() != snapshotVersion) {
+                        snapshots.add(reader.getHandles());
+                        snapshotVersion = reader.getHandlesVersion();
+                    }
+                    Entry entry = reader.captureEntry(snapshots.size() - 1);
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                    nextEntry = (reader.getTime() / interval + 1) * interval;
+                }
+            }
+            return new JirIndex(jirFile.length(), jirFile.lastModified(), interval, reader.getTime(), entries,
+                    snapshots);
+        } finally {
+            reader.close();
+        }
+    }
+
+    boolean matches(File jirFile) {
+        return jirFile.length() == sourceLength && jirFile.lastModified() == sourceModified;
+    }
+
+    /**
+     * @return the last entry at or before the specified time, or null if there is none
+     */
+    Entry findEntry(long time) {
+        int low = 0;
+        int high = entries.size() - 1;
+        Entry result = null;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (entries.get(middle).time <= time) {
+                result = entries.get(middle);
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return result;
+    }
+
+    Map<Integer, Object> getSnapshot(int snapshot) {
+        return snapshots.get(snapshot);
+    }
+
+    /**
+     * @return length of the recording in micro seconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void write(File sidecar) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceLength);
+            out.writeLong(sourceModified);
+            out.writeLong(interval);
+            out.writeLong(duration);
+            out.writeInt(snapshots.size());
+            for (Map<Integer, Object> snapshot : snapshots) {
+                writeSnapshot(out, snapshot);
+            }
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                entry.write(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the index in the sidecar file, or null if it is not a readable index
+     */
+    public static JirIndex read(File sidecar) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long sourceLength = in.readLong();
+            long sourceModified = in.readLong();
+            long interval = in.readLong();
+            long duration = in.readLong();
+            int snapshotCount = in.readInt();
+            List<Map<Integer, Object>> snapshots = new ArrayList<Map<Integer, Object>>(snapshotCount);
+            for (int i = 0; i < snapshotCount; i++) {
+                snapshots.add(readSnapshot(in));
+            }
+            int entryCount = in.readInt();
+            List<Entry> entries = new ArrayList<Entry>(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                entries.add(Entry.read(in));
+            }
+            return new JirIndex(sourceLength, sourceModified, interval, duration, entries, snapshots);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeSnapshot(DataOutputStream out, Map<Integer, Object> snapshot) throws IOException {
+        out.writeInt(snapshot.size());
+        for (Map.Entry<Integer, Object> handle : snapshot.entrySet()) {
+            out.writeInt(handle.getKey());
+            Object value = handle.getValue();
+            if (value instanceof String) {
+                out.writeByte(KIND_STRING);
+                out.writeUTF((String) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(KIND_INTEGER);
+                out.writeInt((Integer) value);
+            } else {
+                JirStreamReader.ClassDesc desc = (JirStreamReader.ClassDesc) value;
+                out.writeByte(KIND_CLASS);
+                out.writeUTF(desc.name);
+                out.writeByte(desc.flags);
+                out.writeShort(desc.typeCodes.length);
+                for (int i = 0; i < desc.typeCodes.length; i++) {
+                    out.writeByte(desc.typeCodes[i]);
+                    out.writeUTF(desc.fieldNames[i]);
+                }
+                out.writeInt(desc.superDesc != null ? desc.superDesc.handle : -1);
+            }
+        }
+    }
+
+    private static Map<Integer, Object> readSnapshot(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<Integer, Object> snapshot = new HashMap<Integer, Object>();
+        Map<JirStreamReader.ClassDesc, Integer> superHandles = new HashMap<JirStreamReader.ClassDesc, Integer>();
+        for (int i = 0; i < size; i++) {
+            int handle = in.readInt();
+            int kind = in.readByte();
+            if (kind == KIND_STRING) {
+                snapshot.put(handle, in.readUTF());
+            } else if (kind == KIND_INTEGER) {
+                snapshot.put(handle, in.readInt());
+            } else if (kind == KIND_CLASS) {
+                String name = in.readUTF();
+                int flags = in.readByte() & 0xFF;
+                int fieldCount = in.readShort() & 0xFFFF;
+                char[] typeCodes = new char[fieldCount];
+                String[] fieldNames = new String[fieldCount];
+                for (int j = 0; j < fieldCount; j++) {
+                    typeCodes[j] = (char) in.readByte();
+                    fieldNames[j] = in.readUTF();
+                }
+                JirStreamReader.ClassDesc desc = new JirStreamReader.ClassDesc(handle, name, flags, typeCodes,
+                        fieldNames);
+                superHandles.put(desc, in.readInt());
+                snapshot.put(handle, desc);
+            } else {
+                throw new IOException("Bad index snapshot");
+            }
+        }
+        for (Map.Entry<JirStreamReader.ClassDesc, Integer> link : superHandles.entrySet()) {
+            if (link.getValue() >= 0) {
+                link.getKey().superDesc = (JirStreamReader.ClassDesc) snapshot.get(link.getValue());
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * The state of the parser at a point between two samples
+     */
+    static class Entry {
+        final long samplePosition;
+        final long time;
+        final long byteOffset;
+        final int nextHandle;
+        final int messagesRemaining;
+        final int samplesRemaining;
+        final int sampleRate;
+        final long messageSamples;
+        final double completedMessagesTime;
+        final int snapshot;
+
+        Entry(long samplePosition, long time, long byteOffset, int nextHandle, int messagesRemaining,
+              int samplesRemaining, int sampleRate, long messageSamples, double completedMessagesTime,
+              int snapshot) {
+            this.samplePosition = samplePosition;
+            this.time = time;
+            this.byteOffset = byteOffset;
+            this.nextHandle = nextHandle;
+            this.messagesRemaining = messagesRemaining;
+            this.samplesRemaining = samplesRemaining;
+            this.sampleRate = sampleRate;
+            this.messageSamples = messageSamples;
+            this.completedMessagesTime = completedMessagesTime;
+            this.snapshot = snapshot;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(samplePosition);
+            out.writeLong(time);
+            out.writeLong(byteOffset);
+            out.writeInt(nextHandle);
+            out.writeInt(messagesRemaining);
+            out.writeInt(samplesRemaining);
+            out.writeInt(sampleRate);
+            out.writeLong(messageSamples);
+            out.writeDouble(completedMessagesTime);
+            out.writeInt(snapshot);
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            return new Entry(in.readLong(), in.readLong(), in.readLong(), in.readInt(), in.readInt(),
+                    in.readInt(), in.readInt(), in.readLong(), in.readDouble(), in.readInt());
+        }
+    }
+}
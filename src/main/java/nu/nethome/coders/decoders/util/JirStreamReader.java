@@ -0,0 +1,683 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the samples of a .jir file (a Java serialized count followed by RawProtocolMessage objects) without
+ * deserializing the messages. The serialization stream is parsed incrementally and the elements of the
+ * m_Samples lists are delivered as they are read, so memory use does not depend on the size of the recording.
+ * <br>
+ * Only the objects that can be referred to later are kept: class descriptors, strings and the small Integer
+ * values that the JVM shares between all boxings of a value. Everything else is skipped as it is parsed.
+ * Together with a {@link JirIndex} the reader can jump to a time offset in the recording.
+ */
+public class JirStreamReader implements Closeable {
+
+    private static final short STREAM_MAGIC = (short) 0xaced;
+    private static final short STREAM_VERSION = 5;
+    private static final int TC_NULL = 0x70;
+    private static final int TC_REFERENCE = 0x71;
+    private static final int TC_CLASSDESC = 0x72;
+    private static final int TC_OBJECT = 0x73;
+    private static final int TC_STRING = 0x74;
+    private static final int TC_ARRAY = 0x75;
+    private static final int TC_CLASS = 0x76;
+    private static final int TC_BLOCKDATA = 0x77;
+    private static final int TC_ENDBLOCKDATA = 0x78;
+    private static final int TC_RESET = 0x79;
+    private static final int TC_BLOCKDATALONG = 0x7A;
+    private static final int TC_LONGSTRING = 0x7C;
+    private static final int TC_ENUM = 0x7E;
+    private static final int BASE_HANDLE = 0x7e0000;
+    private static final int SC_WRITE_METHOD = 0x01;
+    private static final int SC_EXTERNALIZABLE = 0x04;
+    private static final int SC_BLOCK_DATA = 0x08;
+    private static final String SAMPLES_FIELD = "m_Samples";
+    private static final String SAMPLE_RATE_FIELD = "m_SampleFrequency";
+    private static final Object SKIPPED = new Object();
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long bufferStart;
+
+    private Map<Integer, Object> handles = new HashMap<Integer, Object>();
+    private int nextHandle;
+    private int handlesVersion;
+    private int messagesRemaining = -1;
+    private int samplesRemaining;
+    private int sampleRate;
+    private long messageSamples;
+    private double completedMessagesTime;
+    private long samplePosition;
+    private boolean endOfStream;
+
+    public JirStreamReader(File file) throws IOException {
+        this(file, 64 * 1024);
+    }
+
+    /**
+     * @param bufferSize size of the read buffer, which is all the memory used for the sample data
+     */
+    public JirStreamReader(File file, int bufferSize) throws IOException {
+        this.file = file;
+        randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+        buffer = ByteBuffer.allocate(bufferSize);
+        buffer.limit(0);
+        if (readShort() != STREAM_MAGIC || readShort() != STREAM_VERSION) {
+            close();
+            throw new IOException("Not a serialized .jir file: " + file);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Read samples from the current position
+     *
+     * @return number of samples read, or -1 at the end of the recording
+     */
+    public int read(int[] samples, int offset, int length) throws IOException {
+        int count = 0;
+        while (count < length) {
+            if (samplesRemaining == 0 && !nextSampleList()) {
+                break;
+            }
+            int chunk = Math.min(length - count, samplesRemaining);
+            for (int i = 0; i < chunk; i++) {
+                samples[offset + count + i] = readSample();
+            }
+            count += chunk;
+            samplesRemaining -= chunk;
+            messageSamples += chunk;
+            samplePosition += chunk;
+        }
+        return (count == 0 && length > 0) ? -1 : count;
+    }
+
+    /**
+     * @return number of samples read so far (or skipped with a seek)
+     */
+    public long getSamplePosition() {
+        return samplePosition;
+    }
+
+    /**
+     * @return time in micro seconds from the start of the recording of the next sample
+     */
+    public long getTime() {
+        return (long) (completedMessagesTime + (sampleRate > 0 ? messageSamples * 1000000.0 / sampleRate : 0));
+    }
+
+    /**
+     * @return sample rate of the current message, 0 before the first sample has been read
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return how much of the file that has been processed, 0 - 1
+     */
+    public double getProgress() throws IOException {
+        long size = channel.size();
+        return size == 0 ? 1 : (double) getBytePosition() / size;
+    }
+
+    long getBytePosition() {
+        return bufferStart + buffer.position();
+    }
+
+    /**
+     * Move to a time offset in the recording using an index of the file
+     *
+     * @param time time in micro seconds from the start of the recording
+     */
+    public void seek(JirIndex index, long time) throws IOException {
+        JirIndex.Entry entry = index.findEntry(time);
+        if (entry == null || (getTime() <= time && getTime() >= entry.time)) {
+            // Reading on from here is at least as quick as restarting at the entry
+            if (getTime() > time) {
+                restart();
+            }
+        } else {
+            restore(entry, index.getSnapshot(entry.snapshot));
+        }
+        skipTo(time);
+    }
+
+    private void skipTo(long time) throws IOException {
+        int[] scratch = new int[1024];
+        while (getTime() < time) {
+            if (samplesRemaining == 0 && !nextSampleList()) {
+                return;
+            }
+            long remainingMicros = time - getTime();
+            int count = (int) Math.max(1, Math.min(scratch.length, remainingMicros * sampleRate / 1000000));
+            if (read(scratch, 0, Math.min(count, samplesRemaining)) < 0) {
+                return;
+            }
+        }
+    }
+
+    private void restart() throws IOException {
+        handles = new HashMap<Integer, Object>();
+        nextHandle = 0;
+        handlesVersion++;
+        messagesRemaining = -1;
+        samplesRemaining = 0;
+        sampleRate = 0;
+        messageSamples = 0;
+        completedMessagesTime = 0;
+        samplePosition = 0;
+        endOfStream = false;
+        seekBytes(4);
+    }
+
+    /**
+     * Record the state of the parser, which is only possible between two samples of a sample list
+     */
+    JirIndex.Entry captureEntry(int snapshot) {
+        if (samplesRemaining == 0) {
+            return null;
+        }
+        return new JirIndex.Entry(samplePosition, getTime(), getBytePosition(), nextHandle, messagesRemaining,
+                samplesRemaining, sampleRate, messageSamples, completedMessagesTime, snapshot);
+    }
+
+    int getHandlesVersion() {
+        return handlesVersion;
+    }
+
+    Map<Integer, Object> getHandles() {
+        return new HashMap<Integer, Object>(handles);
+    }
+
+    private void restore(JirIndex.Entry entry, Map<Integer, Object> snapshot) throws IOException {
+        handles = new HashMap<Integer, Object>(snapshot);
+        handlesVersion++;
+        nextHandle = entry.nextHandle;
+        messagesRemaining = entry.messagesRemaining;
+        samplesRemaining = entry.samplesRemaining;
+        sampleRate = entry.sampleRate;
+        messageSamples = entry.messageSamples;
+        completedMessagesTime = entry.completedMessagesTime;
+        samplePosition = entry.samplePosition;
+        endOfStream = false;
+        seekBytes(entry.byteOffset);
+    }
+
+    /**
+     * Parse the stream up to the first element of the next sample list
+     *
+     * @return false if there are no more samples
+     */
+    private boolean nextSampleList() throws IOException {
+        if (messageSamples > 0 || sampleRate > 0) {
+            finishSampleList();
+        }
+        while (!endOfStream) {
+            if (messagesRemaining == 0 || getBytePosition() >= channel.size()) {
+                endOfStream = true;
+                break;
+            }
+            int tc = peekByte();
+            if (tc == TC_BLOCKDATA && messagesRemaining < 0) {
+                readByte();
+                int length = readByte();
+                messagesRemaining = length == 4 ? readInt() : 0;
+                skip(length == 4 ? 0 : length);
+                continue;
+            }
+            if (tc == TC_RESET) {
+                readByte();
+                resetHandles();
+                continue;
+            }
+            if (tc != TC_OBJECT) {
+                readContent();
+                continue;
+            }
+            if (messagesRemaining > 0) {
+                messagesRemaining--;
+            }
+            readByte();
+            ClassDesc desc = readClassDesc();
+            newHandle();
+            if (readMessageUpToSamples(desc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the fields of a message object. If it has a sample list, stop at the first element of the list.
+     *
+     * @return true if a sample list was found and is ready to be read
+     */
+    private boolean readMessageUpToSamples(ClassDesc desc) throws IOException {
+        List<ClassDesc> hierarchy = hierarchy(desc);
+        ClassDesc leaf = hierarchy.get(hierarchy.size() - 1);
+        int samplesIndex = leaf.fieldIndex(SAMPLES_FIELD);
+        if (samplesIndex < 0 || samplesIndex != leaf.fieldNames.length - 1 || (leaf.flags & SC_WRITE_METHOD) != 0) {
+            // Not a raw message, or one we do not know how to stream
+            readClassData(hierarchy);
+            return false;
+        }
+        readClassData(hierarchy.subList(0, hierarchy.size() - 1));
+        int rate = 0;
+        for (int i = 0; i < samplesIndex; i++) {
+            Object value = readField(leaf.typeCodes[i]);
+            if (leaf.fieldNames[i].equals(SAMPLE_RATE_FIELD) && value instanceof Integer) {
+                rate = (Integer) value;
+            }
+        }
+        int tc = readByte();
+        if (tc == TC_NULL) {
+            return false;
+        }
+        if (tc != TC_OBJECT) {
+            throw new IOException("Unsupported sample list at " + getBytePosition());
+        }
+        ClassDesc listDesc = readClassDesc();
+        newHandle();
+        if (!listDesc.name.equals("java.util.ArrayList") && !listDesc.name.equals("java.util.LinkedList")) {
+            throw new IOException("Unsupported sample list type " + listDesc.name);
+        }
+        List<ClassDesc> listHierarchy = hierarchy(listDesc);
+        ClassDesc listLeaf = listHierarchy.get(listHierarchy.size() - 1);
+        readClassData(listHierarchy.subList(0, listHierarchy.size() - 1));
+        int size = -1;
+        for (int i = 0; i < listLeaf.typeCodes.length; i++) {
+            Object value = readField(listLeaf.typeCodes[i]);
+            if (listLeaf.fieldNames[i].equals("size") && value instanceof Integer) {
+                size = (Integer) value;
+            }
+        }
+        // Both list types write a count as block data followed by the elements. ArrayList writes its capacity
+        // in older JVMs, so the size field is used when there is one.
+        if (readByte() != TC_BLOCKDATA || readByte() != 4) {
+            throw new IOException("Unexpected sample list format at " + getBytePosition());
+        }
+        int count = readInt();
+        samplesRemaining = size >= 0 ? size : count;
+        sampleRate = rate > 0 ? rate : 44100;
+        messageSamples = 0;
+        if (samplesRemaining == 0) {
+            finishSampleList();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Read the end of the sample list, which is also the end of the message object
+     */
+    private void finishSampleList() throws IOException {
+        if (readByte() != TC_ENDBLOCKDATA) {
+            throw new IOException("Expected end of sample list at " + getBytePosition());
+        }
+        completedMessagesTime += messageSamples * 1000000.0 / sampleRate;
+        messageSamples = 0;
+        sampleRate = 0;
+    }
+
+    private int readSample() throws IOException {
+        Object value = readContent();
+        if (!(value instanceof Integer)) {
+            throw new IOException("Sample is not an Integer at " + getBytePosition());
+        }
+        return (Integer) value;
+    }
+
+    /**
+     * Read any content from the stream, returning the value for objects that are kept and SKIPPED for others
+     */
+    private Object readContent() throws IOException {
+        int tc = readByte();
+        switch (tc) {
+            case TC_NULL:
+                return null;
+            case TC_REFERENCE: {
+                int handle = readInt() - BASE_HANDLE;
+                Object value = handles.get(handle);
+                if (value == null && (handle < 0 || handle >= nextHandle)) {
+                    throw new IOException("Bad reference at " + getBytePosition());
+                }
+                return value != null ? value : SKIPPED;
+            }
+            case TC_CLASSDESC:
+                unread();
+                return readClassDesc();
+            case TC_CLASS:
+                readClassDesc();
+                newHandle();
+                return SKIPPED;
+            case TC_STRING:
+            case TC_LONGSTRING: {
+                String value = (tc == TC_STRING) ? readUtf(readShort() & 0xFFFF) : readLongUtf();
+                retain(newHandle(), value);
+                return value;
+            }
+            case TC_ENUM: {
+                readClassDesc();
+                newHandle();
+                readContent();
+                return SKIPPED;
+            }
+            case TC_ARRAY:
+                readArray();
+                return SKIPPED;
+            case TC_OBJECT:
+                return readObject();
+            case TC_BLOCKDATA:
+                skip(readByte());
+                return SKIPPED;
+            case TC_BLOCKDATALONG:
+                skip(readInt() & 0xFFFFFFFFL);
+                return SKIPPED;
+            case TC_RESET:
+                resetHandles();
+                return SKIPPED;
+            default:
+                throw new IOException("Unsupported type code " + tc + " at " + getBytePosition());
+        }
+    }
+
+    private Object readObject() throws IOException {
+        ClassDesc desc = readClassDesc();
+        int handle = newHandle();
+        if (desc.name.equals("java.lang.Integer")) {
+            // Integer has no custom serialization, only the value field inherited by nothing
+            Integer value = readInt();
+            // Values between -128 and 127 are shared by Integer.valueOf and may be referred to again
+            if (value >= -128 && value <= 127) {
+                retain(handle, value);
+            }
+            return value;
+        }
+        if ((desc.flags & SC_EXTERNALIZABLE) != 0) {
+            if ((desc.flags & SC_BLOCK_DATA) == 0) {
+                throw new IOException("Unsupported externalizable class " + desc.name);
+            }
+            skipAnnotation();
+            return SKIPPED;
+        }
+        readClassData(hierarchy(desc));
+        return SKIPPED;
+    }
+
+    private void readClassData(List<ClassDesc> hierarchy) throws IOException {
+        for (ClassDesc desc : hierarchy) {
+            for (char typeCode : desc.typeCodes) {
+                readField(typeCode);
+            }
+            if ((desc.flags & SC_WRITE_METHOD) != 0) {
+                skipAnnotation();
+            }
+        }
+    }
+
+    private Object readField(char typeCode) throws IOException {
+        switch (typeCode) {
+            case 'B':
+            case 'Z':
+                skip(1);
+                return SKIPPED;
+            case 'C':
+            case 'S':
+                skip(2);
+                return SKIPPED;
+            case 'I':
+                return readInt();
+            case 'F':
+                skip(4);
+                return SKIPPED;
+            case 'J':
+            case 'D':
+                skip(8);
+                return SKIPPED;
+            case 'L':
+            case '[':
+                return readContent();
+            default:
+                throw new IOException("Bad field type " + typeCode);
+        }
+    }
+
+    private void readArray() throws IOException {
+        ClassDesc desc = readClassDesc();
+        newHandle();
+        int length = readInt();
+        char component = desc.name.length() > 1 ? desc.name.charAt(1) : 'L';
+        switch (component) {
+            case 'B':
+            case 'Z':
+                skip(length);
+                break;
+            case 'C':
+            case 'S':
+                skip(2L * length);
+                break;
+            case 'I':
+            case 'F':
+                skip(4L * length);
+                break;
+            case 'J':
+            case 'D':
+                skip(8L * length);
+                break;
+            default:
+                for (int i = 0; i < length; i++) {
+                    readContent();
+                }
+        }
+    }
+
+    private void skipAnnotation() throws IOException {
+        while (peekByte() != TC_ENDBLOCKDATA) {
+            readContent();
+        }
+        readByte();
+    }
+
+    private ClassDesc readClassDesc() throws IOException {
+        int tc = readByte();
+        if (tc == TC_NULL) {
+            return null;
+        }
+        if (tc == TC_REFERENCE) {
+            Object value = handles.get(readInt() - BASE_HANDLE);
+            if (!(value instanceof ClassDesc)) {
+                throw new IOException("Bad class descriptor reference at " + getBytePosition());
+            }
+            return (ClassDesc) value;
+        }
+        if (tc != TC_CLASSDESC) {
+            throw new IOException("Unsupported class descriptor " + tc + " at " + getBytePosition());
+        }
+        String name = readUtf(readShort() & 0xFFFF);
+        skip(8);
+        int handle = newHandle();
+        int flags = readByte();
+        int fieldCount = readShort() & 0xFFFF;
+        char[] typeCodes = new char[fieldCount];
+        String[] fieldNames = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            typeCodes[i] = (char) readByte();
+            fieldNames[i] = readUtf(readShort() & 0xFFFF);
+            if (typeCodes[i] == 'L' || typeCodes[i] == '[') {
+                readContent();
+            }
+        }
+        skipAnnotation();
+        ClassDesc desc = new ClassDesc(handle, name, flags, typeCodes, fieldNames);
+        retain(handle, desc);
+        desc.superDesc = readClassDesc();
+        return desc;
+    }
+
+    private static List<ClassDesc> hierarchy(ClassDesc desc) {
+        List<ClassDesc> result = new ArrayList<ClassDesc>();
+        for (ClassDesc current = desc; current != null; current = current.superDesc) {
+            result.add(0, current);
+        }
+        return result;
+    }
+
+    private int newHandle() {
+        return nextHandle++;
+    }
+
+    private void retain(int handle, Object value) {
+        handles.put(handle, value);
+        handlesVersion++;
+    }
+
+    private void resetHandles() {
+        handles.clear();
+        nextHandle = 0;
+        handlesVersion++;
+    }
+
+    // Buffered input
+
+    private void fill(int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return;
+        }
+        bufferStart += buffer.position();
+        buffer.compact();
+        while (buffer.position() < needed) {
+            if (channel.read(buffer, bufferStart + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file " + file);
+            }
+        }
+        buffer.flip();
+    }
+
+    private void seekBytes(long position) {
+        bufferStart = position;
+        buffer.clear();
+        buffer.limit(0);
+    }
+
+    private int peekByte() throws IOException {
+        fill(1);
+        return buffer.get(buffer.position()) & 0xFF;
+    }
+
+    private int readByte() throws IOException {
+        fill(1);
+        return buffer.get() & 0xFF;
+    }
+
+    private void unread() {
+        buffer.position(buffer.position() - 1);
+    }
+
+    private short readShort() throws IOException {
+        fill(2);
+        return buffer.getShort();
+    }
+
+    private int readInt() throws IOException {
+        fill(4);
+        return buffer.getInt();
+    }
+
+    private void skip(long count) throws IOException {
+        if (count <= buffer.remaining()) {
+            buffer.position(buffer.position() + (int) count);
+        } else {
+            seekBytes(getBytePosition() + count);
+        }
+    }
+
+    private String readUtf(int length) throws IOException {
+        if (length > buffer.capacity()) {
+            skip(length);
+            return "";
+        }
+        fill(length);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private String readLongUtf() throws IOException {
+        fill(8);
+        long length = buffer.getLong();
+        if (length > buffer.capacity()) {
+            skip(length);
+            return "";
+        }
+        return readUtf((int) length);
+    }
+
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    /**
+     * The parts of a serialized class descriptor needed to parse the objects of the class
+     */
+    static class ClassDesc {
+        final int handle;
+        final String name;
+        final int flags;
+        final char[] typeCodes;
+        final String[] fieldNames;
+        ClassDesc superDesc;
+
+        ClassDesc(int handle, String name, int flags, char[] typeCodes, String[] fieldNames) {
+            this.handle = handle;
+            this.name = name;
+            this.flags = flags;
+            this.typeCodes = typeCodes;
+            this.fieldNames = fieldNames;
+        }
+
+        int fieldIndex(String fieldName) {
+            for (int i = 0; i < fieldNames.length; i++) {
+                if (fieldNames[i].equals(fieldName)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.coders.CoderFactory;
+import nu.nethome.coders.decoders.Decoders;
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+import nu.nethome.util.ps.impl.ProtocolDecoderGroup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes recordings of receiver output (WAV or raw PCM files) by streaming the samples in blocks through a
+ * {@link SampleFrontEnd} and the protocol decoders.
+ * <br>
+ * By default samples are processed as fast as possible, but they may also be paced at the sample rate to
+ * simulate a live receiver. Several files can be decoded in parallel, and a single large file can be split
+ * in time slices which are decoded in parallel. Each slice starts a bit before its start position so the
+ * decoders are in sync, and only messages reported within the slice are kept, so no message is lost or
+ * reported twice at the slice boundaries as long as the overlap is longer than the longest message.
+ * After the last sample a quiet period is added, so a frame at the very end of a recording is reported too.
+ */
+public class OfflineDecoder {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    /**
+     * Quiet period added after the last sample, longer than the gap after a frame of any protocol. It is ended
+     * with a flank, so decoders which report a frame at the gap after it get the last frame of a recording or slice
+     */
+    public static final int END_QUIET_MILLIS = 200;
+
+    private List<CoderFactory<ProtocolDecoder>> decoders = Decoders.getFactories();
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private boolean realTime = false;
+    private boolean lowPassFilter = false;
+    private Integer flankSwing;
+    private Integer flankLength;
+    private int sliceLengthMillis = 60000;
+    private int sliceOverlapMillis = 2000;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param decoders factories of the decoders to use, default is all in {@link Decoders#getFactories()}
+     */
+    public void setDecoders(List<CoderFactory<ProtocolDecoder>> decoders) {
+        this.decoders = new ArrayList<CoderFactory<ProtocolDecoder>>(decoders);
+    }
+
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Bad block size: " + blockSize);
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param realTime true to deliver samples at the sample rate, false (default) to run at maximum speed
+     */
+    public void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+    }
+
+    public void setLowPassFilter(boolean lowPassFilter) {
+        this.lowPassFilter = lowPassFilter;
+    }
+
+    public void setFlankSwing(int flankSwing) {
+        this.flankSwing = flankSwing;
+    }
+
+    public void setFlankLength(int flankLength) {
+        this.flankLength = flankLength;
+    }
+
+    public void setSliceLengthMillis(int sliceLengthMillis) {
+        this.sliceLengthMillis = sliceLengthMillis;
+    }
+
+    public void setSliceOverlapMillis(int sliceOverlapMillis) {
+        this.sliceOverlapMillis = sliceOverlapMillis;
+    }
+
+    /**
+     * @param threadCount number of threads used by the parallel modes, default is one per processor
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Bad thread count: " + threadCount);
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Decode samples from the current position of the reader to the end, reporting to the sink as the
+     * messages are decoded
+     */
+    public void decode(PcmFileReader reader, ProtocolDecoderSink sink) throws IOException {
+        decode(reader, createFrontEnd(reader.getFormat().getSampleRate(), sink), Long.MAX_VALUE);
+    }
+
+    /**
+     * Decode a WAV file
+     *
+     * @return the decoded messages in the order they were decoded
+     */
+    public List<DecodedMessage> decode(File wavFile) throws IOException {
+        PcmFileReader reader = PcmFileReader.openWav(wavFile);
+        try {
+            return decodeSlice(reader, wavFile.getName(), 0, reader.getFrameCount());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Decode several WAV files in parallel, one file per thread
+     *
+     * @return the decoded messages ordered by file name and position
+     */
+    public List<DecodedMessage> decodeInParallel(List<File> wavFiles) throws IOException {
+        List<Callable<List<DecodedMessage>>> tasks = new ArrayList<Callable<List<DecodedMessage>>>();
+        for (final File file : wavFiles) {
+            tasks.add(new Callable<List<DecodedMessage>>() {
+                public List<DecodedMessage> call() throws IOException {
+                    return decode(file);
+                }
+            });
+        }
+        return runTasks(tasks);
+    }
+
+    /**
+     * Decode one large WAV file by splitting it in time slices which are decoded in parallel
+     *
+     * @return the decoded messages ordered by position
+     */
+    public List<DecodedMessage> decodeSlicesInParallel(final File wavFile) throws IOException {
+        PcmFileReader reader = PcmFileReader.openWav(wavFile);
+        final long frameCount = reader.getFrameCount();
+        final long sliceLength = Math.max(1, (long) sliceLengthMillis * reader.getFormat().getSampleRate() / 1000);
+        reader.close();
+        List<Callable<List<DecodedMessage>>> tasks = new ArrayList<Callable<List<DecodedMessage>>>();
+        for (long start = 0; start < frameCount; start += sliceLength) {
+            final long sliceStart = start;
+            tasks.add(new Callable<List<DecodedMessage>>() {
+                public List<DecodedMessage> call() throws IOException {
+                    PcmFileReader sliceReader = PcmFileReader.openWav(wavFile);
+                    try {
+                        return decodeSlice(sliceReader, wavFile.getName(), sliceStart,
+                                Math.min(sliceStart + sliceLength, frameCount));
+                    } finally {
+                        sliceReader.close();
+                    }
+                }
+            });
+        }
+        return runTasks(tasks);
+    }
+
+    /**
+     * Decode the messages reported between the start and end sample. Decoding starts the slice overlap
+     * before the start and continues the slice overlap after the end.
+     */
+    private List<DecodedMessage> decodeSlice(PcmFileReader reader, final String source, final long start,
+                                             final long end) throws IOException {
+        final int sampleRate = reader.getFormat().getSampleRate();
+        long overlap = (long) sliceOverlapMillis * sampleRate / 1000;
+        final long readStart = Math.max(0, start - overlap);
+        final long readEnd = Math.min(reader.getFrameCount(), end + overlap);
+        final List<DecodedMessage> result = new ArrayList<DecodedMessage>();
+        final SampleFrontEnd[] frontEnd = new SampleFrontEnd[1];
+        frontEnd[0] = createFrontEnd(sampleRate, new ProtocolDecoderSink() {
+            public void parsedMessage(ProtocolMessage message) {
+                // Pulses ended by the quiet period after the end are placed at the last sample
+                long sample = Math.min(readStart + frontEnd[0].getFlankDetector().getPulseEndSample(), readEnd - 1);
+                if (sample >= start && sample < end) {
+                    result.add(new DecodedMessage(message, source, sample, sample * 1000000L / sampleRate));
+                }
+            }
+
+            public void partiallyParsedMessage(String protocol, int bits) {
+            }
+
+            public void reportLevel(int level) {
+            }
+        });
+        reader.seek(readStart);
+        decode(reader, frontEnd[0], readEnd - readStart);
+        return result;
+    }
+
+    private void decode(PcmFileReader reader, SampleFrontEnd frontEnd, long maxSamples) throws IOException {
+        int[] block = new int[blockSize];
+        long remaining = maxSamples;
+        long startTime = System.nanoTime();
+        long samples = 0;
+        int last = 0;
+        int read;
+        while (remaining > 0 && (read = reader.read(block, 0, (int) Math.min(block.length, remaining))) > 0) {
+            frontEnd.addSamples(block, 0, read);
+            remaining -= read;
+            samples += read;
+            last = block[read - 1];
+            if (realTime) {
+                pace(startTime, samples, reader.getFormat().getSampleRate());
+            }
+        }
+        frontEnd.addConstant(last, END_QUIET_MILLIS * reader.getFormat().getSampleRate() / 1000);
+        frontEnd.getFlankDetector().endPulse();
+    }
+
+    private void pace(long startTime, long samples, int sampleRate) throws IOException {
+        long due = startTime + samples * 1000000000L / sampleRate;
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+        }
+    }
+
+    private SampleFrontEnd createFrontEnd(int sampleRate, ProtocolDecoderSink sink) {
+        ProtocolDecoderGroup group = new ProtocolDecoderGroup();
+        for (CoderFactory<ProtocolDecoder> factory : decoders) {
+            group.add(factory.create());
+        }
+        group.setTarget(sink);
+        SampleFrontEnd frontEnd = new SampleFrontEnd(group, sampleRate);
+        if (flankSwing != null) {
+            frontEnd.getFlankDetector().setFlankSwing(flankSwing);
+        }
+        if (flankLength != null) {
+            frontEnd.getFlankDetector().setFlankLength(flankLength);
+        }
+        if (lowPassFilter) {
+            frontEnd.useLowPassFilter();
+        }
+        return frontEnd;
+    }
+
+    private List<DecodedMessage> runTasks(List<Callable<List<DecodedMessage>>> tasks) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, Math.max(1, tasks.size())));
+        try {
+            List<DecodedMessage> result = new ArrayList<DecodedMessage>();
+            for (Future<List<DecodedMessage>> future : executor.invokeAll(tasks)) {
+                result.addAll(future.get());
+            }
+            Collections.sort(result);
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads samples from WAV or raw PCM files by memory mapping them. Files of any size are mapped a window at a
+ * time, so also recordings of several gigabytes can be read without copying them through stream buffers.
+ * <br>
+ * Samples are delivered as ints on a 16 bit scale regardless of the sample format, so 8 bit samples are
+ * multiplied by 256. For files with more than one channel only the selected channel is delivered.
+ * A reader is not thread safe, but several readers may read the same file at the same time.
+ */
+public class PcmFileReader implements Closeable {
+
+    public static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final PcmFormat format;
+    private final long dataOffset;
+    private final long frameCount;
+    private final int frameSize;
+    private final int framesPerWindow;
+    private int selectedChannel;
+    private MappedByteBuffer window;
+    private long windowStart = -1;
+    private long position;
+
+    private PcmFileReader(File file, PcmFormat format, long dataOffset, long dataLength) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.format = format;
+        this.dataOffset = dataOffset;
+        this.frameSize = format.getFrameSize();
+        long available = Math.max(0, channel.size() - dataOffset);
+        this.frameCount = ((dataLength < 0) ? available : Math.min(dataLength, available)) / frameSize;
+        this.framesPerWindow = MAP_WINDOW_SIZE / frameSize;
+    }
+
+    /**
+     * Open a WAV file with PCM samples
+     *
+     * @throws IOException if the file cannot be read or is not a supported WAV file
+     */
+    public static PcmFileReader openWav(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != fourCC("RIFF") || header.getInt(8) != fourCC("WAVE")) {
+                throw new IOException("Not a WAV file: " + file);
+            }
+            PcmFormat format = null;
+            long chunkPosition = 12;
+            ByteBuffer chunk = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            while (chunkPosition + 8 <= channel.size()) {
+                chunk.clear().limit(8);
+                readFully(channel, chunk, chunkPosition);
+                int id = chunk.getInt(0);
+                long size = chunk.getInt(4) & 0xFFFFFFFFL;
+                if (id == fourCC("fmt ")) {
+                    chunk.clear();
+                    readFully(channel, chunk, chunkPosition + 8);
+                    int audioFormat = chunk.getShort(0) & 0xFFFF;
+                    // 1 is plain PCM and 0xFFFE is the extensible format which is also used for PCM
+                    if (audioFormat != 1 && audioFormat != 0xFFFE) {
+                        throw new IOException("Unsupported WAV encoding " + audioFormat + " in " + file);
+                    }
+                    try {
+                        format = PcmFormat.wav(chunk.getInt(4), chunk.getShort(2), chunk.getShort(14));
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException(e.getMessage() + " in " + file);
+                    }
+                } else if (id == fourCC("data")) {
+                    if (format == null) {
+                        throw new IOException("No format chunk before data in " + file);
+                    }
+                    // Recorders that are stopped abruptly leave 0 or a too large size, then use the rest of the file
+                    long dataLength = (size == 0 || size == 0xFFFFFFFFL) ? -1 : size;
+                    return new PcmFileReader(file, format, chunkPosition + 8, dataLength);
+                }
+                chunkPosition += 8 + size + (size & 1);
+            }
+            throw new IOException("No data in WAV file " + file);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Open a file of raw PCM samples without header
+     */
+    public static PcmFileReader openRaw(File file, PcmFormat format) throws IOException {
+        return new PcmFileReader(file, format, 0, -1);
+    }
+
+    public PcmFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return total number of samples (per channel) in the file
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return the sample number that will be read next
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public void seek(long frame) {
+        if (frame < 0 || frame > frameCount) {
+            throw new IllegalArgumentException("Bad position: " + frame);
+        }
+        position = frame;
+    }
+
+    /**
+     * @return length of the recording in micro seconds
+     */
+    public long getDuration() {
+        return frameCount * 1000000L / format.getSampleRate();
+    }
+
+    public int getSelectedChannel() {
+        return selectedChannel;
+    }
+
+    /**
+     * @param selectedChannel which channel to read, 0 - channels - 1
+     */
+    public void setSelectedChannel(int selectedChannel) {
+        if (selectedChannel < 0 || selectedChannel >= format.getChannels()) {
+            throw new IllegalArgumentException("Bad channel: " + selectedChannel);
+        }
+        this.selectedChannel = selectedChannel;
+    }
+
+    /**
+     * Read samples from the current position
+     *
+     * @return number of samples read, or -1 at the end of the file
+     */
+    public int read(int[] buffer, int offset, int length) throws IOException {
+        if (position >= frameCount) {
+            return -1;
+        }
+        int total = (int) Math.min(length, frameCount - position);
+        int done = 0;
+        while (done < total) {
+            mapWindowAt(position);
+            int count = (int) Math.min(total - done, windowStart + framesPerWindow - position);
+            int byteOffset = (int) (position - windowStart) * frameSize;
+            convert(window, byteOffset, buffer, offset + done, count);
+            done += count;
+            position += count;
+        }
+        return total;
+    }
+
+    private void convert(ByteBuffer source, int byteOffset, int[] target, int targetOffset, int count) {
+        int step = frameSize;
+        if (format.getBitsPerSample() == 16) {
+            int index = byteOffset + selectedChannel * 2;
+            for (int i = 0; i < count; i++) {
+                target[targetOffset + i] = source.getShort(index);
+                index += step;
+            }
+        } else {
+            int index = byteOffset + selectedChannel;
+            if (format.isSigned()) {
+                for (int i = 0; i < count; i++) {
+                    target[targetOffset + i] = source.get(index) << 8;
+                    index += step;
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    target[targetOffset + i] = ((source.get(index) & 0xFF) - 128) << 8;
+                    index += step;
+                }
+            }
+        }
+    }
+
+    private void mapWindowAt(long frame) throws IOException {
+        if (windowStart >= 0 && frame >= windowStart && frame < windowStart + framesPerWindow) {
+            return;
+        }
+        windowStart = frame - (frame % framesPerWindow);
+        long bytes = Math.min((long) framesPerWindow, frameCount - windowStart) * frameSize;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + windowStart * frameSize, bytes);
+        window.order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private static int fourCC(String id) {
+        return id.charAt(0) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+/**
+ * Format of PCM audio samples, as found in a WAV file or specified for a raw PCM file.
+ */
+public class PcmFormat {
+
+    private final int sampleRate;
+    private final int channels;
+    private final int bitsPerSample;
+    private final boolean signed;
+    private final boolean bigEndian;
+
+    /**
+     * @param sampleRate    samples per second
+     * @param channels      1 for mono, 2 for stereo
+     * @param bitsPerSample 8 or 16
+     * @param signed        true if the samples are signed, which 16 bit samples always are in WAV files
+     *                      and 8 bit samples never are
+     * @param bigEndian     byte order of 16 bit samples, WAV files are little endian
+     */
+    public PcmFormat(int sampleRate, int channels, int bitsPerSample, boolean signed, boolean bigEndian) {
+        if (sampleRate < 1 || channels < 1) {
+            throw new IllegalArgumentException("Bad sample rate or channel count");
+        }
+        if (bitsPerSample != 8 && bitsPerSample != 16) {
+            throw new IllegalArgumentException("Only 8 and 16 bit samples are supported, not " + bitsPerSample);
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitsPerSample = bitsPerSample;
+        this.signed = signed;
+        this.bigEndian = bigEndian;
+    }
+
+    /**
+     * The format used in WAV files for the specified parameters
+     */
+    public static PcmFormat wav(int sampleRate, int channels, int bitsPerSample) {
+        return new PcmFormat(sampleRate, channels, bitsPerSample, bitsPerSample != 8, false);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    public boolean isSigned() {
+        return signed;
+    }
+
+    public boolean isBigEndian() {
+        return bigEndian;
+    }
+
+    /**
+     * @return number of bytes for one sample of all channels
+     */
+    public int getFrameSize() {
+        return channels * bitsPerSample / 8;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d Hz, %d bit, %d channel(s)", sampleRate, bitsPerSample, channels);
+    }
+}
@@ -0,0 +1,547 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.coders.CoderFactory;
+import nu.nethome.coders.decoders.Decoders;
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+import nu.nethome.util.ps.impl.ProtocolDecoderGroup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decodes pulse streams from many receivers on the network. Receivers send pulses in {@link PulseWireFormat}
+ * over TCP connections or as UDP datagrams, and each receiver gets its own set of decoders. Decoded messages
+ * are sent back to the receiver and to all clients connected to the subscriber port, one line per message as
+ * formatted by {@link #format(ProtocolMessage)}. Lines to subscribers start with the address of the receiver.
+ * <br>
+ * All connections are served by one thread with a Selector, so the cost of a connection is its decoders and
+ * its output buffer. Output is never waited for: messages to a client that does not read them are dropped and
+ * counted when its output buffer is full. Errors on the listening channels are logged and the server goes on,
+ * only the client connection that failed is closed. If the selector itself fails the server stops and closes all
+ * channels, and the error is available from {@link #getError()}.
+ */
+public class PulseStreamServer implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(PulseStreamServer.class.getName());
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final int tcpPort;
+    private int udpPort = -1;
+    private int subscriberPort = -1;
+    private List<CoderFactory<ProtocolDecoder>> decoders = Decoders.getFactories();
+    private boolean replyToSender = true;
+    private int maxPendingOutput = 64 * 1024;
+    private long udpIdleTimeout = 5 * 60 * 1000;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final int[] pulseLengths = new int[READ_BUFFER_SIZE];
+    private final boolean[] pulseStates = new boolean[READ_BUFFER_SIZE];
+    private final Map<SocketAddress, Receiver> udpReceivers = new HashMap<SocketAddress, Receiver>();
+    private final List<Connection> subscribers = new ArrayList<Connection>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicLong messageCount = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private Selector selector;
+    private ServerSocketChannel tcpChannel;
+    private ServerSocketChannel subscriberChannel;
+    private DatagramChannel udpChannel;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile IOException error;
+
+    /**
+     * @param tcpPort port to accept pulse streams on, 0 for any free port
+     */
+    public PulseStreamServer(int tcpPort) {
+        this.tcpPort = tcpPort;
+    }
+
+    /**
+     * @param udpPort port to receive pulse datagrams on, 0 for any free port and -1 (default) for none
+     */
+    public void setUdpPort(int udpPort) {
+        this.udpPort = udpPort;
+    }
+
+    /**
+     * @param subscriberPort port where clients can receive all decoded messages, 0 for any free port and -1
+     *                       (default) for none
+     */
+    public void setSubscriberPort(int subscriberPort) {
+        this.subscriberPort = subscriberPort;
+    }
+
+    /**
+     * @param decoders factories of the decoders to run for each receiver, default is all in
+     *                 {@link Decoders#getFactories()}
+     */
+    public void setDecoders(List<CoderFactory<ProtocolDecoder>> decoders) {
+        this.decoders = new ArrayList<CoderFactory<ProtocolDecoder>>(decoders);
+    }
+
+    /**
+     * @param replyToSender true (default) if decoded messages are sent back to the receiver
+     */
+    public void setReplyToSender(boolean replyToSender) {
+        this.replyToSender = replyToSender;
+    }
+
+    /**
+     * @param maxPendingOutput bytes of messages buffered for a TCP client before messages are dropped
+     */
+    public void setMaxPendingOutput(int maxPendingOutput) {
+        this.maxPendingOutput = maxPendingOutput;
+    }
+
+    /**
+     * @param udpIdleTimeout milliseconds after which the decoders of a silent UDP receiver are released
+     */
+    public void setUdpIdleTimeout(long udpIdleTimeout) {
+        this.udpIdleTimeout = udpIdleTimeout;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        selector = Selector.open();
+        tcpChannel = openServer(tcpPort);
+        if (subscriberPort >= 0) {
+            subscriberChannel = openServer(subscriberPort);
+        }
+        if (udpPort >= 0) {
+            udpChannel = DatagramChannel.open();
+            udpChannel.socket().bind(new InetSocketAddress(udpPort));
+            udpChannel.configureBlocking(false);
+            udpChannel.register(selector, SelectionKey.OP_READ);
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                serve();
+            }
+        }, "PulseStreamServer");
+        thread.start();
+    }
+
+    private ServerSocketChannel openServer(int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.socket().setReuseAddress(true);
+        channel.socket().bind(new InetSocketAddress(port), 256);
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_ACCEPT);
+        return channel;
+    }
+
+    public int getTcpPort() {
+        return tcpChannel != null ? tcpChannel.socket().getLocalPort() : tcpPort;
+    }
+
+    public int getUdpPort() {
+        return udpChannel != null ? udpChannel.socket().getLocalPort() : udpPort;
+    }
+
+    public int getSubscriberPort() {
+        return subscriberChannel != null ? subscriberChannel.socket().getLocalPort() : subscriberPort;
+    }
+
+    /**
+     * @return number of connected TCP receivers and subscribers and active UDP receivers
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public long getMessageCount() {
+        return messageCount.get();
+    }
+
+    /**
+     * @return number of messages not sent to a client because it did not keep up
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the error which stopped the server, or null if it has not failed
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Stop the server and close all connections
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+        }
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeChannels();
+    }
+
+    private void closeChannels() throws IOException {
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    /**
+     * Format a message as it is sent to clients: the protocol followed by the fields as name=value, separated by
+     * commas.
+     */
+    public static String format(ProtocolMessage message) {
+        StringBuilder result = new StringBuilder(message.getProtocol());
+        for (FieldValue field : message.getFields()) {
+            result.append(',').append(field.getName()).append('=');
+            result.append(field.getStringValue() != null ? field.getStringValue() : Integer.toString(field.getValue()));
+        }
+        return result.toString();
+    }
+
+    private void serve() {
+        while (running) {
+            try {
+                selector.select(1000);
+            } catch (IOException e) {
+                stop(e);
+                return;
+            }
+            for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext(); ) {
+                SelectionKey key = i.next();
+                i.remove();
+                try {
+                    handle(key);
+                } catch (IOException e) {
+                    failed(key, e);
+                } catch (RuntimeException e) {
+                    // A failing decoder must not stop the thread serving all other connections
+                    failed(key, e);
+                }
+            }
+            expireUdpReceivers();
+        }
+    }
+
+    /**
+     * Stop the server from the serving thread when the selector has failed
+     */
+    private void stop(IOException cause) {
+        logger.log(Level.SEVERE, "Selector failed, stopping server", cause);
+        error = cause;
+        synchronized (this) {
+            if (!running) {
+                // Closing already, close() closes the channels when this thread has ended
+                return;
+            }
+            running = false;
+        }
+        try {
+            closeChannels();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not close channels", e);
+        }
+    }
+
+    private void handle(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept((ServerSocketChannel) key.channel());
+        } else if (key.channel() == udpChannel) {
+            receiveDatagrams();
+        } else {
+            Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) {
+                connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            Connection connection;
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                connection = (server == tcpChannel) ? new Receiver(channel, channel.socket()
+                        .getRemoteSocketAddress()) : new Connection(channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                refuse(channel, e);
+                continue;
+            } catch (RuntimeException e) {
+                refuse(channel, e);
+                continue;
+            }
+            if (server == subscriberChannel) {
+                subscribers.add(connection);
+            }
+            connectionCount.incrementAndGet();
+        }
+    }
+
+    private void refuse(SocketChannel channel, Exception cause) {
+        logger.log(Level.WARNING, "Could not set up connection", cause);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    /**
+     * Close the client connection of the key, errors on the server and UDP channels are only logged
+     */
+    private void failed(SelectionKey key, Exception cause) {
+        if (key.attachment() instanceof Connection) {
+            disconnect(key);
+        } else {
+            logger.log(Level.WARNING, "Error on server channel", cause);
+        }
+    }
+
+    private void disconnect(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        subscribers.remove(key.attachment());
+        connectionCount.decrementAndGet();
+    }
+
+    private void receiveDatagrams() throws IOException {
+        while (true) {
+            readBuffer.clear();
+            SocketAddress address = udpChannel.receive(readBuffer);
+            if (address == null) {
+                return;
+            }
+            Receiver receiver = udpReceivers.get(address);
+            if (receiver == null) {
+                try {
+                    receiver = new Receiver(null, address);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Could not set up receiver " + address, e);
+                    continue;
+                }
+                udpReceivers.put(address, receiver);
+                connectionCount.incrementAndGet();
+            }
+            receiver.lastReceived = System.currentTimeMillis();
+            receiver.decode(readBuffer.position());
+        }
+    }
+
+    private void expireUdpReceivers() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Receiver> i = udpReceivers.values().iterator(); i.hasNext(); ) {
+            if (now - i.next().lastReceived > udpIdleTimeout) {
+                i.remove();
+                connectionCount.decrementAndGet();
+            }
+        }
+    }
+
+    private void publish(Receiver receiver, ProtocolMessage message) {
+        messageCount.incrementAndGet();
+        String line = format(message) + "\n";
+        if (replyToSender) {
+            receiver.send(bytes(line));
+        }
+        if (!subscribers.isEmpty()) {
+            byte[] subscriberLine = bytes(receiver.address + " " + line);
+            for (Connection subscriber : subscribers) {
+                subscriber.send(subscriberLine);
+            }
+        }
+    }
+
+    private static byte[] bytes(String line) {
+        try {
+            return line.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ProtocolDecoderGroup createDecoders(ProtocolDecoderSink sink) {
+        ProtocolDecoderGroup group = new ProtocolDecoderGroup();
+        for (CoderFactory<ProtocolDecoder> factory : decoders) {
+            group.add(factory.create());
+        }
+        group.setTarget(sink);
+        return group;
+    }
+
+    /**
+     * A TCP client. Input from a plain connection, as from a subscriber, is ignored.
+     */
+    private class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer output;
+        boolean closing;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            readBuffer.clear();
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                closing = true;
+                flush();
+            } else {
+                received(count);
+            }
+        }
+
+        void received(int count) {
+        }
+
+        void send(byte[] data) {
+            if (closing && output == null) {
+                return;
+            }
+            if (output == null) {
+                output = ByteBuffer.allocate(maxPendingOutput);
+            }
+            if (output.remaining() < data.length) {
+                droppedMessages.incrementAndGet();
+                return;
+            }
+            output.put(data);
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+
+        void flush() throws IOException {
+            if (output != null && output.position() > 0) {
+                output.flip();
+                channel.write(output);
+                output.compact();
+            }
+            if (output == null || output.position() == 0) {
+                if (closing) {
+                    disconnect(key);
+                } else {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+        }
+    }
+
+    /**
+     * A receiver sending pulses, over TCP or (without channel) UDP
+     */
+    private class Receiver extends Connection implements ProtocolDecoderSink {
+        final SocketAddress address;
+        final PulseWireFormat.Parser parser = new PulseWireFormat.Parser();
+        final ProtocolDecoder decoders = createDecoders(this);
+        long lastReceived;
+
+        Receiver(SocketChannel channel, SocketAddress address) {
+            super(channel);
+            this.address = address;
+        }
+
+        @Override
+        void received(int count) {
+            decode(count);
+        }
+
+        void decode(int count) {
+            int pulses = parser.parse(readBuffer.array(), readBuffer.arrayOffset(), count, pulseLengths, pulseStates);
+            for (int i = 0; i < pulses; i++) {
+                decoders.parse(pulseLengths[i], pulseStates[i]);
+            }
+        }
+
+        @Override
+        void send(byte[] data) {
+            if (channel != null) {
+                super.send(data);
+                return;
+            }
+            try {
+                if (udpChannel.send(ByteBuffer.wrap(data), address) == 0) {
+                    droppedMessages.incrementAndGet();
+                }
+            } catch (IOException e) {
+                droppedMessages.incrementAndGet();
+            }
+        }
+
+        public void parsedMessage(ProtocolMessage message) {
+            publish(this, message);
+        }
+
+        public void partiallyParsedMessage(String protocol, int bits) {
+        }
+
+        public void reportLevel(int level) {
+        }
+    }
+}
@@ -0,0 +1,529 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.coders.CoderFactory;
+import nu.nethome.coders.PulseTimings;
+import nu.nethome.coders.decoders.Decoders;
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.ProtocolMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Searches the pulse length windows in {@link PulseTimings} that give the most decoded messages from a corpus of
+ * recordings. Each signal recording is labelled with the protocols it holds, by default the protocols the current
+ * table, normally the defaults, decodes from it with all decoders in {@link Decoders}. Messages of the labelled
+ * protocols count for a window, while messages of other protocols and messages decoded from noise recordings count
+ * against it, weighted by the noise penalty. So a window is not widened until its decoder claims bursts of another
+ * protocol.
+ * <br>
+ * Windows are tuned per decoder, moving the edges one step at a time and keeping a move only if the score improves.
+ * A candidate is scored by replaying the corpus through new instances of every added decoder reading one of the
+ * windows, which is the owner of the window and its subclasses, like Waveman reading the Nexa windows. Decoders
+ * whose windows are read by a common decoder are tuned by the same task, and the tasks run in parallel on disjoint
+ * entries of the shared table, so each decoder only sees the candidates of its own task. When the search is done
+ * the table is restored and the tuned windows are returned, ready for {@link PulseTimings#importTimings(Properties)}.
+ * <br>
+ * Usage: PulseTimingTuner [-noise file]... file...
+ * where the files are .jir recordings or capture files. The tuned table is written to standard out.
+ */
+public class PulseTimingTuner {
+
+    public static final double DEFAULT_NOISE_PENALTY = 10;
+    public static final double DEFAULT_STEP = 0.05;
+    public static final int DEFAULT_MAX_STEPS = 8;
+    public static final int DEFAULT_MAX_ROUNDS = 5;
+
+    private final List<Signal> signals = new ArrayList<Signal>();
+    private final List<double[]> noise = new ArrayList<double[]>();
+    private final Map<CoderFactory<ProtocolDecoder>, String[]> targets =
+            new LinkedHashMap<CoderFactory<ProtocolDecoder>, String[]>();
+    private final Map<CoderFactory<ProtocolDecoder>, Class<?>> decoderClasses =
+            new LinkedHashMap<CoderFactory<ProtocolDecoder>, Class<?>>();
+    private final Set<String> tunedNames = new HashSet<String>();
+    private final Map<String, double[]> scores = new LinkedHashMap<String, double[]>();
+    private double noisePenalty = DEFAULT_NOISE_PENALTY;
+    private double step = DEFAULT_STEP;
+    private int maxSteps = DEFAULT_MAX_STEPS;
+    private int maxRounds = DEFAULT_MAX_ROUNDS;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Add a signal recording, labelled with the protocols the current table decodes from it
+     *
+     * @param pulses recorded pulses, marks positive and spaces negative
+     */
+    public void addSignal(double[] pulses) {
+        Set<String> protocols = decodedProtocols(pulses, Decoders.getFactories());
+        addSignal(pulses, protocols.toArray(new String[protocols.size()]));
+    }
+
+    /**
+     * @param pulses    recorded pulses, marks positive and spaces negative
+     * @param protocols the protocols transmitted in the recording, messages of other protocols are false positives
+     */
+    public void addSignal(double[] pulses, String... protocols) {
+        signals.add(new Signal(pulses, new HashSet<String>(Arrays.asList(protocols))));
+    }
+
+    /**
+     * @param pulses pulses recorded when no transmitter was active, marks positive and spaces negative
+     */
+    public void addNoise(double[] pulses) {
+        noise.add(pulses);
+    }
+
+    /**
+     * @return the protocols of the messages the decoders give from the pulses with the current table
+     */
+    public static Set<String> decodedProtocols(double[] pulses, List<CoderFactory<ProtocolDecoder>> factories) {
+        MessageCounter counter = new MessageCounter(Collections.<String>emptySet());
+        for (CoderFactory<ProtocolDecoder> factory : factories) {
+            play(factory, pulses, counter);
+        }
+        return counter.protocols;
+    }
+
+    /**
+     * Tune the given windows for a decoder
+     *
+     * @param factory     creates the decoder
+     * @param timingNames entries in PulseTimings used by the decoder, see {@link #timingsOf(Class[])}
+     * @throws IllegalArgumentException if an entry is unknown or already tuned for another decoder
+     */
+    public void addDecoder(CoderFactory<ProtocolDecoder> factory, String... timingNames) {
+        for (String name : timingNames) {
+            if (PulseTimings.get(name) == null) {
+                throw new IllegalArgumentException("Unknown pulse length: " + name);
+            }
+            if (tunedNames.contains(name)) {
+                throw new IllegalArgumentException("Pulse length tuned for two decoders: " + name);
+            }
+        }
+        for (String name : timingNames) {
+            tunedNames.add(name);
+        }
+        if (!decoderClasses.containsKey(factory)) {
+            decoderClasses.put(factory, factory.create().getClass());
+        }
+        targets.put(factory, timingNames.clone());
+    }
+
+    /**
+     * Tune all windows used by each of the decoders, as recorded in {@link PulseTimings}. Decoders without
+     * windows of their own are not tuned, but are still scored when windows they read are moved.
+     */
+    public void addDecoders(List<CoderFactory<ProtocolDecoder>> factories) {
+        for (CoderFactory<ProtocolDecoder> factory : factories) {
+            ProtocolDecoder decoder = factory.create();
+            // Windows kept in a separate protocol class, like RollerTrol, are registered when first used
+            decoder.setTarget(new MessageCounter(Collections.<String>emptySet()));
+            decoder.parse(1, true);
+            decoder.parse(1, false);
+            decoderClasses.put(factory, decoder.getClass());
+            String[] names = timingsOf(decoder.getClass());
+            if (names.length > 0) {
+                addDecoder(factory, names);
+            }
+        }
+    }
+
+    /**
+     * @return the entries in PulseTimings used by the classes
+     */
+    public static String[] timingsOf(Class<?>... owners) {
+        List<String> result = new ArrayList<String>();
+        for (Class<?> owner : owners) {
+            try {
+                // Make sure the constants are registered
+                Class.forName(owner.getName(), true, owner.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Could not load " + owner.getName(), e);
+            }
+            result.addAll(Arrays.asList(PulseTimings.getNames(owner)));
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * @return per decoder protocol name, the entries that are tuned
+     */
+    public Map<String, String[]> getTargets() {
+        Map<String, String[]> result = new LinkedHashMap<String, String[]>();
+        for (Map.Entry<CoderFactory<ProtocolDecoder>, String[]> target : targets.entrySet()) {
+            result.put(target.getKey().getName(), target.getValue().clone());
+        }
+        return result;
+    }
+
+    /**
+     * @return per decoder protocol name, the protocols of the decoders which are scored when its entries move
+     */
+    public Map<String, String[]> getReaders() {
+        Map<String, String[]> result = new LinkedHashMap<String, String[]>();
+        for (Map.Entry<CoderFactory<ProtocolDecoder>, String[]> target : targets.entrySet()) {
+            List<String> names = new ArrayList<String>();
+            for (CoderFactory<ProtocolDecoder> reader : readersOf(target.getKey(), target.getValue())) {
+                names.add(reader.getName());
+            }
+            result.put(target.getKey().getName(), names.toArray(new String[names.size()]));
+        }
+        return result;
+    }
+
+    public void setNoisePenalty(double noisePenalty) {
+        this.noisePenalty = noisePenalty;
+    }
+
+    /**
+     * @param step size of a move of a window edge, as a fraction of the pulse length
+     */
+    public void setStep(double step) {
+        this.step = step;
+    }
+
+    /**
+     * @param maxSteps largest number of steps an edge is moved in one direction per round
+     */
+    public void setMaxSteps(int maxSteps) {
+        this.maxSteps = maxSteps;
+    }
+
+    /**
+     * @param maxRounds largest number of passes over all edges of a decoder
+     */
+    public void setMaxRounds(int maxRounds) {
+        this.maxRounds = maxRounds;
+    }
+
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Bad thread count: " + threadCount);
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return per decoder protocol name, the score before and after tuning of the decoders tuned together with it
+     */
+    public Map<String, double[]> getScores() {
+        return scores;
+    }
+
+    /**
+     * Tune all added decoders. The table is left as it was.
+     *
+     * @return the tuned windows of all entries of the added decoders
+     */
+    public Properties tune() throws InterruptedException {
+        Properties original = PulseTimings.exportTimings();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Properties>> results = new ArrayList<Future<Properties>>();
+            for (final Task task : createTasks()) {
+                results.add(executor.submit(new Callable<Properties>() {
+                    public Properties call() {
+                        return tune(task);
+                    }
+                }));
+            }
+            Properties tuned = new Properties();
+            for (Future<Properties> result : results) {
+                tuned.putAll(result.get());
+            }
+            return tuned;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Tuning failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            Properties restore = new Properties();
+            for (String name : tunedNames) {
+                restore.setProperty(name, original.getProperty(name));
+            }
+            PulseTimings.importTimings(restore);
+        }
+    }
+
+    /**
+     * Group the decoders so that no decoder reads entries tuned by two tasks
+     */
+    private List<Task> createTasks() {
+        List<Task> tasks = new ArrayList<Task>();
+        for (Map.Entry<CoderFactory<ProtocolDecoder>, String[]> target : targets.entrySet()) {
+            Task task = new Task();
+            task.targets.put(target.getKey(), target.getValue());
+            task.readers.addAll(readersOf(target.getKey(), target.getValue()));
+            boolean merged;
+            do {
+                merged = false;
+                for (Iterator<Task> i = tasks.iterator(); i.hasNext(); ) {
+                    Task other = i.next();
+                    if (!Collections.disjoint(other.readers, task.readers)) {
+                        task.targets.putAll(other.targets);
+                        task.readers.addAll(other.readers);
+                        i.remove();
+                        merged = true;
+                    }
+                }
+            } while (merged);
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    /**
+     * @return the decoder and all added decoders which are, or extend, the owner of one of the entries
+     */
+    private Set<CoderFactory<ProtocolDecoder>> readersOf(CoderFactory<ProtocolDecoder> factory, String[] names) {
+        Set<CoderFactory<ProtocolDecoder>> result = new LinkedHashSet<CoderFactory<ProtocolDecoder>>();
+        result.add(factory);
+        for (Map.Entry<CoderFactory<ProtocolDecoder>, Class<?>> decoder : decoderClasses.entrySet()) {
+            for (String name : names) {
+                Class<?> owner = PulseTimings.getOwner(name);
+                if (owner != null && owner.isAssignableFrom(decoder.getValue())) {
+                    result.add(decoder.getKey());
+                }
+            }
+        }
+        return result;
+    }
+
+    private Properties tune(Task task) {
+        double initial = score(task.readers);
+        double best = initial;
+        for (int round = 0; round < maxRounds; round++) {
+            double roundStart = best;
+            for (String[] names : task.targets.values()) {
+                for (String name : names) {
+                    for (int edge = 1; edge <= 2; edge++) {
+                        for (int direction = -1; direction <= 1; direction += 2) {
+                            best = moveEdge(task.readers, name, edge, direction, best);
+                        }
+                    }
+                }
+            }
+            if (best <= roundStart) {
+                break;
+            }
+        }
+        Properties result = new Properties();
+        for (Map.Entry<CoderFactory<ProtocolDecoder>, String[]> target : task.targets.entrySet()) {
+            synchronized (scores) {
+                scores.put(target.getKey().getName(), new double[]{initial, best});
+            }
+            for (String name : target.getValue()) {
+                int[] window = PulseTimings.get(name);
+                result.setProperty(name, window[0] + "," + window[1] + "," + window[2]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Move one edge of a window while the score improves
+     *
+     * @param edge 1 for the lower and 2 for the upper limit
+     * @return the new best score
+     */
+    private double moveEdge(Set<CoderFactory<ProtocolDecoder>> readers, String name, int edge, int direction,
+                            double best) {
+        int[] window = PulseTimings.get(name);
+        int delta = direction * Math.max(1, (int) Math.round(window[0] * step));
+        for (int i = 0; i < maxSteps; i++) {
+            int[] candidate = window.clone();
+            candidate[edge] += delta;
+            if (candidate[1] < 0 || candidate[1] >= candidate[0] || candidate[2] <= candidate[0]) {
+                break;
+            }
+            PulseTimings.set(name, candidate[0], candidate[1], candidate[2]);
+            double score = score(readers);
+            if (score <= best) {
+                PulseTimings.set(name, window[0], window[1], window[2]);
+                break;
+            }
+            best = score;
+            window = candidate;
+        }
+        return best;
+    }
+
+    private double score(Set<CoderFactory<ProtocolDecoder>> readers) {
+        double result = 0;
+        for (CoderFactory<ProtocolDecoder> factory : readers) {
+            for (Signal signal : signals) {
+                MessageCounter counter = new MessageCounter(signal.protocols);
+                play(factory, signal.pulses, counter);
+                result += counter.count - noisePenalty * counter.falsePositives;
+            }
+            for (double[] pulses : noise) {
+                MessageCounter counter = new MessageCounter(Collections.<String>emptySet());
+                play(factory, pulses, counter);
+                result -= noisePenalty * counter.falsePositives;
+            }
+        }
+        return result;
+    }
+
+    private static void play(CoderFactory<ProtocolDecoder> factory, double[] pulses, ProtocolDecoderSink sink) {
+        ProtocolDecoder decoder = factory.create();
+        decoder.setTarget(sink);
+        for (double pulse : pulses) {
+            decoder.parse(Math.abs(pulse), pulse > 0);
+        }
+    }
+
+    /**
+     * Read the pulses of a .jir recording or a capture file written by {@link CaptureWriter}
+     *
+     * @return the pulses, marks positive and spaces negative
+     */
+    public static double[] readPulses(File file) throws IOException {
+        PulseRecorder recorder = new PulseRecorder();
+        if (file.getName().endsWith(".jir")) {
+            JirStreamReader reader = new JirStreamReader(file);
+            try {
+                // The sample rate is known when the first samples have been read
+                SampleFrontEnd frontEnd = null;
+                int[] block = new int[4096];
+                int read;
+                while ((read = reader.read(block, 0, block.length)) > 0) {
+                    if (frontEnd == null) {
+                        frontEnd = new SampleFrontEnd(recorder, reader.getSampleRate());
+                    }
+                    frontEnd.addSamples(block, 0, read);
+                }
+            } finally {
+                reader.close();
+            }
+        } else {
+            CaptureReader.playPulses(file, recorder);
+        }
+        double[] result = new double[recorder.pulses.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = recorder.pulses.get(i);
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        PulseTimingTuner tuner = new PulseTimingTuner();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-noise") && i + 1 < args.length) {
+                tuner.addNoise(readPulses(new File(args[++i])));
+            } else {
+                tuner.addSignal(readPulses(new File(args[i])));
+            }
+        }
+        tuner.addDecoders(Decoders.getFactories());
+        Properties tuned = tuner.tune();
+        for (Map.Entry<String, double[]> score : tuner.getScores().entrySet()) {
+            System.err.println(score.getKey() + ": " + score.getValue()[0] + " to " + score.getValue()[1]);
+        }
+        tuned.store(System.out, "Tuned pulse lengths");
+    }
+
+    /**
+     * A recording and the protocols transmitted in it
+     */
+    private static class Signal {
+        final double[] pulses;
+        final Set<String> protocols;
+
+        Signal(double[] pulses, Set<String> protocols) {
+            this.pulses = pulses;
+            this.protocols = protocols;
+        }
+    }
+
+    /**
+     * Decoders tuned together, and the decoders scored when their windows move
+     */
+    private static class Task {
+        final Map<CoderFactory<ProtocolDecoder>, String[]> targets =
+                new LinkedHashMap<CoderFactory<ProtocolDecoder>, String[]>();
+        final Set<CoderFactory<ProtocolDecoder>> readers = new LinkedHashSet<CoderFactory<ProtocolDecoder>>();
+    }
+
+    /**
+     * Counts messages of the expected protocols, and other messages as false positives
+     */
+    private static class MessageCounter implements ProtocolDecoderSink {
+        final Set<String> expected;
+        final Set<String> protocols = new LinkedHashSet<String>();
+        int count;
+        int falsePositives;
+
+        MessageCounter(Set<String> expected) {
+            this.expected = expected;
+        }
+
+        public void parsedMessage(ProtocolMessage message) {
+            protocols.add(message.getProtocol());
+            if (expected.contains(message.getProtocol())) {
+                count++;
+            } else {
+                falsePositives++;
+            }
+        }
+
+        public void partiallyParsedMessage(String protocol, int bits) {
+        }
+
+        public void reportLevel(int level) {
+        }
+    }
+
+    private static class PulseRecorder implements ProtocolDecoder {
+        final List<Double> pulses = new ArrayList<Double>();
+
+        public ProtocolInfo getInfo() {
+            return new ProtocolInfo("Recorder", "", "", 0, 0);
+        }
+
+        public void setTarget(ProtocolDecoderSink sink) {
+        }
+
+        public int parse(double pulse, boolean state) {
+            pulses.add(state ? pulse : -pulse);
+            return 0;
+        }
+    }
+}
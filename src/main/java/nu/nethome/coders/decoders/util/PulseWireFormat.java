@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The byte format pulse receivers use to send pulses over a serial line. Each pulse is a start byte followed
+ * by zero to three continuation bytes:
+ * <pre>
+ * start byte:        1 S C C L L L L    S = 1 for a mark, CC = number of continuation bytes, L = high bits of length
+ * continuation byte: 0 L L L L L L L    the next 7 bits of the length
+ * </pre>
+ * The length is in micro seconds, so a 2 byte pulse can be up to 2047 us and a 3 byte pulse up to 262 ms.
+ * Since start and continuation bytes can always be told apart, a reader that starts in the middle of a pulse
+ * or loses bytes recovers at the next start byte.
+ */
+public class PulseWireFormat {
+
+    public static final int MAX_PULSE_BYTES = 4;
+    public static final int MAX_LENGTH = (1 << 25) - 1;
+    static final int START = 0x80;
+    static final int MARK = 0x40;
+
+    private PulseWireFormat() {
+    }
+
+    /**
+     * Write a pulse in wire format
+     *
+     * @param length pulse length in micro seconds, longer pulses are limited to MAX_LENGTH
+     * @param mark   true for a mark, false for a space
+     */
+    public static void put(ByteBuffer buffer, int length, boolean mark) {
+        length = Math.max(0, Math.min(MAX_LENGTH, length));
+        int continuations = 0;
+        while ((length >> (4 + 7 * continuations)) != 0) {
+            continuations++;
+        }
+        buffer.put((byte) (START | (mark ? MARK : 0) | (continuations << 4) | (length >> (7 * continuations))));
+        for (int i = continuations - 1; i >= 0; i--) {
+            buffer.put((byte) ((length >> (7 * i)) & 0x7F));
+        }
+    }
+
+    /**
+     * Parses pulses from wire format data arriving in chunks. A pulse split between two chunks is completed when
+     * the next chunk is parsed.
+     */
+    public static class Parser {
+        private int length;
+        private boolean mark;
+        private int continuationsLeft = -1;
+        private boolean skipping;
+        private long syncErrors;
+
+        /**
+         * Parse a chunk of data
+         *
+         * @param lengths receives the lengths of the complete pulses, needs room for count pulses
+         * @param states  receives the states of the complete pulses, true for marks
+         * @return number of complete pulses
+         */
+        public int parse(byte[] data, int offset, int count, int[] lengths, boolean[] states) {
+            int pulses = 0;
+            for (int i = offset; i < offset + count; i++) {
+                int b = data[i] & 0xFF;
+                if ((b & START) != 0) {
+                    if (continuationsLeft > 0) {
+                        syncErrors++;
+                    }
+                    skipping = false;
+                    mark = (b & MARK) != 0;
+                    continuationsLeft = (b >> 4) & 3;
+                    length = b & 0x0F;
+                } else if (continuationsLeft > 0) {
+                    length = (length << 7) | b;
+                    continuationsLeft--;
+                } else {
+                    // A continuation without a start, skip bytes up to the next start byte
+                    if (!skipping) {
+                        syncErrors++;
+                        skipping = true;
+                    }
+                    continue;
+                }
+                if (continuationsLeft == 0) {
+                    lengths[pulses] = length;
+                    states[pulses++] = mark;
+                    continuationsLeft = -1;
+                }
+            }
+            return pulses;
+        }
+
+        /**
+         * @return number of times the parser had to skip bytes to find the start of a pulse
+         */
+        public long getSyncErrors() {
+            return syncErrors;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+
+import java.util.Arrays;
+
+/**
+ * Takes blocks of audio samples from a receiver, optionally low pass filters them and detects the flanks,
+ * feeding the resulting pulses to a protocol decoder (typically a {@link nu.nethome.util.ps.impl.ProtocolDecoderGroup}).
+ * This does the same job as chaining FIRFilter6000 and SimpleFlankDetector, but a block at a time.
+ * <br>
+ * By default no filter is used, which gives the same pulses as feeding the samples straight into a
+ * SimpleFlankDetector.
+ */
+public class SampleFrontEnd {
+
+    private final BlockFlankDetector flankDetector = new BlockFlankDetector();
+    private BlockFirFilter filter;
+    private int[] filtered = new int[0];
+
+    public SampleFrontEnd() {
+    }
+
+    public SampleFrontEnd(ProtocolDecoder decoder, int sampleRate) {
+        flankDetector.setProtocolDecoder(decoder);
+        flankDetector.setSampleRate(sampleRate);
+    }
+
+    public BlockFlankDetector getFlankDetector() {
+        return flankDetector;
+    }
+
+    public void setProtocolDecoder(ProtocolDecoder decoder) {
+        flankDetector.setProtocolDecoder(decoder);
+    }
+
+    public int getSampleRate() {
+        return flankDetector.getSampleRate();
+    }
+
+    public void setSampleRate(int sampleRate) {
+        flankDetector.setSampleRate(sampleRate);
+    }
+
+    public BlockFirFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * @param filter filter to apply before flank detection, or null for none
+     */
+    public void setFilter(BlockFirFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Use a low pass filter with the same 6 kHz cut off as FIRFilter6000
+     */
+    public void useLowPassFilter() {
+        setFilter(BlockFirFilter.lowPass(getSampleRate(), 6000, 15));
+    }
+
+    public void addSamples(int[] samples) {
+        addSamples(samples, 0, samples.length);
+    }
+
+    public void addSamples(int[] samples, int offset, int length) {
+        if (filter == null) {
+            flankDetector.addSamples(samples, offset, length);
+        } else {
+            int[] buffer = filterBuffer(length);
+            filter.filter(samples, offset, length, buffer, 0);
+            flankDetector.addSamples(buffer, 0, length);
+        }
+    }
+
+    public void addSamples(short[] samples) {
+        addSamples(samples, 0, samples.length);
+    }
+
+    public void addSamples(short[] samples, int offset, int length) {
+        if (filter == null) {
+            flankDetector.addSamples(samples, offset, length);
+        } else {
+            int[] buffer = filterBuffer(length);
+            for (int i = 0; i < length; i++) {
+                buffer[i] = samples[offset + i];
+            }
+            filter.filter(buffer, 0, length, buffer, 0);
+            flankDetector.addSamples(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Feed the same sample a number of times, for example to add a quiet period before or after a recording
+     */
+    public void addConstant(int sample, int count) {
+        if (filter == null) {
+            flankDetector.addConstant(sample, count);
+        } else {
+            int[] buffer = filterBuffer(Math.min(count, 4096));
+            while (count > 0) {
+                int length = Math.min(count, buffer.length);
+                Arrays.fill(buffer, 0, length, sample);
+                addSamples(buffer, 0, length);
+                count -= length;
+            }
+        }
+    }
+
+    private int[] filterBuffer(int length) {
+        if (filtered.length < length) {
+            filtered = new int[length];
+        }
+        return filtered;
+    }
+}
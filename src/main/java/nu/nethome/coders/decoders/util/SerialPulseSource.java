@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads pulses in {@link PulseWireFormat} from a receiver and feeds them to a protocol decoder (typically a
+ * {@link nu.nethome.util.ps.impl.ProtocolDecoderGroup}). This is the pulse domain counterpart of
+ * {@link SampleFrontEnd} for receivers that detect the pulses themselves.
+ * <br>
+ * The receiver is reached through a blocking ReadableByteChannel, which is a {@link SerialTransport} for a
+ * serial port, but may just as well be a pipe, a socket or a file with recorded data. Data is read in large
+ * chunks and parsed into reused arrays before the pulses are passed on, so nothing is allocated per pulse.
+ */
+public class SerialPulseSource implements Closeable {
+
+    private final ReadableByteChannel transport;
+    private final ByteBuffer buffer;
+    private final int[] pulseLengths;
+    private final boolean[] pulseStates;
+    private ProtocolDecoder decoder;
+    private int pulseWidthCompensation = 0;
+
+    private final PulseWireFormat.Parser parser = new PulseWireFormat.Parser();
+    private long pulseCount;
+
+    public SerialPulseSource(ReadableByteChannel transport) {
+        this(transport, 8 * 1024);
+    }
+
+    /**
+     * @param transport  channel to read the pulses from
+     * @param bufferSize largest number of bytes read at a time
+     */
+    public SerialPulseSource(ReadableByteChannel transport, int bufferSize) {
+        this.transport = transport;
+        buffer = ByteBuffer.allocate(bufferSize);
+        pulseLengths = new int[bufferSize];
+        pulseStates = new boolean[bufferSize];
+    }
+
+    /**
+     * Open a serial port and read pulses from it
+     */
+    public static SerialPulseSource open(String portName, int baudRate) throws IOException {
+        return new SerialPulseSource(new SerialTransport(portName, baudRate));
+    }
+
+    public void setProtocolDecoder(ProtocolDecoder decoder) {
+        this.decoder = decoder;
+    }
+
+    public int getPulseWidthCompensation() {
+        return pulseWidthCompensation;
+    }
+
+    /**
+     * @param pulseWidthCompensation micro seconds subtracted from marks and added to spaces
+     */
+    public void setPulseWidthCompensation(int pulseWidthCompensation) {
+        this.pulseWidthCompensation = pulseWidthCompensation;
+    }
+
+    /**
+     * @return number of pulses passed to the decoder
+     */
+    public long getPulseCount() {
+        return pulseCount;
+    }
+
+    /**
+     * @return number of times the parser had to skip bytes to find the start of a pulse
+     */
+    public long getSyncErrors() {
+        return parser.getSyncErrors();
+    }
+
+    /**
+     * Read pulses until the transport reaches its end
+     */
+    public void process() throws IOException {
+        while (readBlock() >= 0) {
+            // Keep reading
+        }
+    }
+
+    /**
+     * Do one read from the transport and pass the complete pulses to the decoder
+     *
+     * @return number of pulses, or -1 at the end of the transport
+     */
+    public int readBlock() throws IOException {
+        buffer.clear();
+        int count = transport.read(buffer);
+        if (count < 0) {
+            return -1;
+        }
+        int pulses = parser.parse(buffer.array(), buffer.arrayOffset(), count, pulseLengths, pulseStates);
+        emitPulses(pulses);
+        return pulses;
+    }
+
+    private void emitPulses(int pulses) {
+        pulseCount += pulses;
+        if (decoder != null) {
+            double compensation = pulseWidthCompensation;
+            for (int i = 0; i < pulses; i++) {
+                boolean state = pulseStates[i];
+                decoder.parse(state ? pulseLengths[i] - compensation : pulseLengths[i] + compensation, state);
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        transport.close();
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import gnu.io.CommPort;
+import gnu.io.CommPortIdentifier;
+import gnu.io.NoSuchPortException;
+import gnu.io.PortInUseException;
+import gnu.io.SerialPort;
+import gnu.io.UnsupportedCommOperationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A serial port opened with rxtx, read as a channel. A read returns what the port has received, up to the
+ * space in the buffer, and returns 0 if nothing is received within the read timeout.
+ */
+public class SerialTransport implements ReadableByteChannel {
+
+    public static final int DEFAULT_BAUD_RATE = 115200;
+    private static final int OPEN_TIMEOUT = 2000;
+    private static final int READ_TIMEOUT = 100;
+
+    private final SerialPort port;
+    private final InputStream input;
+    private byte[] scratch = new byte[0];
+    private volatile boolean open = true;
+
+    public SerialTransport(String portName) throws IOException {
+        this(portName, DEFAULT_BAUD_RATE);
+    }
+
+    public SerialTransport(String portName, int baudRate) throws IOException {
+        CommPort commPort;
+        try {
+            commPort = CommPortIdentifier.getPortIdentifier(portName).open(getClass().getName(), OPEN_TIMEOUT);
+        } catch (NoSuchPortException e) {
+            throw new IOException("No such port: " + portName);
+        } catch (PortInUseException e) {
+            throw new IOException("Port in use: " + portName);
+        }
+        if (!(commPort instanceof SerialPort)) {
+            commPort.close();
+            throw new IOException("Not a serial port: " + portName);
+        }
+        port = (SerialPort) commPort;
+        try {
+            port.setSerialPortParams(baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+            port.setFlowControlMode(SerialPort.FLOWCONTROL_NONE);
+            port.enableReceiveThreshold(1);
+            port.enableReceiveTimeout(READ_TIMEOUT);
+            input = port.getInputStream();
+        } catch (UnsupportedCommOperationException e) {
+            port.close();
+            throw new IOException("Cannot configure " + portName + ": " + e.getMessage());
+        } catch (IOException e) {
+            port.close();
+            throw e;
+        }
+    }
+
+    public int read(ByteBuffer destination) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int count;
+        if (destination.hasArray()) {
+            count = input.read(destination.array(), destination.arrayOffset() + destination.position(),
+                    destination.remaining());
+            if (count > 0) {
+                destination.position(destination.position() + count);
+            }
+        } else {
+            if (scratch.length < destination.remaining()) {
+                scratch = new byte[destination.remaining()];
+            }
+            count = input.read(scratch, 0, destination.remaining());
+            if (count > 0) {
+                destination.put(scratch, 0, count);
+            }
+        }
+        return count;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            input.close();
+            port.close();
+        }
+    }
+}
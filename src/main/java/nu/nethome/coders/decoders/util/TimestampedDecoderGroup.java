@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.ProtocolMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A group of decoders that keeps track of the time of the pulses, so the messages get the times they were
+ * received. It is used instead of a ProtocolDecoderGroup when times are needed.
+ * <br>
+ * The time is the sum of the pulse lengths, or taken from a {@link PulseClock} such as the flank detector
+ * feeding the group, which does not drift if pulses are lost. A message starts at the start of the pulse
+ * that made its decoder leave the idle state (state 0) and ends at the end of the pulse that completed it.
+ * If the decoder goes on with a repeat of the message without returning to idle, the repeat starts where
+ * the previous message ended.
+ * <br>
+ * Sinks implementing {@link TimestampedSink} get the times with each message, others are called as usual.
+ */
+public class TimestampedDecoderGroup implements ProtocolDecoder {
+
+    private final List<ProtocolDecoder> decoders = new ArrayList<ProtocolDecoder>();
+    private final List<Tap> taps = new ArrayList<Tap>();
+    private ProtocolDecoder[] decoderArray = new ProtocolDecoder[0];
+    private Tap[] tapArray = new Tap[0];
+    private ProtocolDecoderSink sink;
+    private PulseClock clock;
+    private double time;
+    private long pulseStart;
+    private long pulseEnd;
+
+    public void add(ProtocolDecoder decoder) {
+        Tap tap = new Tap();
+        decoder.setTarget(tap);
+        decoders.add(decoder);
+        taps.add(tap);
+        decoderArray = decoders.toArray(new ProtocolDecoder[decoders.size()]);
+        tapArray = taps.toArray(new Tap[taps.size()]);
+    }
+
+    public List<ProtocolDecoder> getDecoders() {
+        return new ArrayList<ProtocolDecoder>(decoders);
+    }
+
+    /**
+     * @param clock source of pulse end times, or null (default) to sum the pulse lengths
+     */
+    public void setClock(PulseClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Set the time at the end of the last pulse, when the pulse lengths are summed
+     *
+     * @param time time in micro seconds
+     */
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    /**
+     * @return time in micro seconds at the end of the last pulse
+     */
+    public long getTime() {
+        return clock != null ? pulseEnd : (long) time;
+    }
+
+    public ProtocolInfo getInfo() {
+        return new ProtocolInfo("TimestampedGroup", "", "", 0, 0);
+    }
+
+    public void setTarget(ProtocolDecoderSink sink) {
+        this.sink = sink;
+    }
+
+    public int parse(double pulseLength, boolean state) {
+        if (clock != null) {
+            pulseEnd = clock.getPulseEndTime();
+            pulseStart = pulseEnd - (long) pulseLength;
+        } else {
+            pulseStart = (long) time;
+            time += pulseLength;
+            pulseEnd = (long) time;
+        }
+        ProtocolDecoder[] decoders = decoderArray;
+        Tap[] taps = tapArray;
+        for (int i = 0; i < decoders.length; i++) {
+            Tap tap = taps[i];
+            int decoderState = decoders[i].parse(pulseLength, state);
+            if (tap.idle && decoderState != 0) {
+                tap.messageStart = pulseStart;
+            }
+            tap.idle = decoderState == 0;
+        }
+        return 0;
+    }
+
+    /**
+     * Receives the calls from one decoder
+     */
+    private class Tap implements ProtocolDecoderSink {
+        boolean idle = true;
+        long messageStart;
+
+        public void parsedMessage(ProtocolMessage message) {
+            // A decoder reporting without having left idle received the message in this pulse
+            long start = idle ? pulseStart : messageStart;
+            messageStart = pulseEnd;
+            if (sink instanceof TimestampedSink) {
+                ((TimestampedSink) sink).parsedMessage(message, start, pulseEnd);
+            } else if (sink != null) {
+                sink.parsedMessage(message);
+            }
+        }
+
+        public void partiallyParsedMessage(String protocol, int bits) {
+            if (sink != null) {
+                sink.partiallyParsedMessage(protocol, bits);
+            }
+        }
+
+        public void reportLevel(int level) {
+            if (sink != null) {
+                sink.reportLevel(level);
+            }
+        }
+    }
+}
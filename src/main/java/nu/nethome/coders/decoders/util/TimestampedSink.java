@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+
+/**
+ * A sink that wants to know when messages were received. A {@link TimestampedDecoderGroup} calls
+ * {@link #parsedMessage(ProtocolMessage, long, long)} instead of {@link #parsedMessage(ProtocolMessage)} on sinks
+ * implementing this interface.
+ */
+public interface TimestampedSink extends ProtocolDecoderSink {
+    /**
+     * @param message decoded message
+     * @param start   time in micro seconds of the start of the first pulse of the message
+     * @param end     time in micro seconds of the end of the last pulse of the message
+     */
+    void parsedMessage(ProtocolMessage message, long start, long end);
+}
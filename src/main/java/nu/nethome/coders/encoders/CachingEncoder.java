@@ -0,0 +1,313 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.encoders;
+
+import nu.nethome.coders.PulseTimings;
+import nu.nethome.util.ps.*;
+
+import java.nio.IntBuffer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A ProtocolEncoder decorator which remembers the pulse trains produced by the wrapped encoder.
+ * Home automation tends to send the same few commands over and over again, so for those the encoding
+ * is reduced to a map lookup. Pulse trains are cached per protocol, message field values and phase in a
+ * bounded least recently used map.
+ * <br>
+ * Many encoders, like Nexa and X10, keep the field values of the previous message and only change the fields
+ * present in the next one, so a message lacking some fields may give different pulses each time. Only messages
+ * carrying every field seen so far for the protocol are cached, others are passed straight to the wrapped encoder.
+ * A cache hit does not reach the wrapped encoder, so before a message is passed through after a hit, the last
+ * complete message is encoded again to give the encoder the state it would have had without the cache. This
+ * requires that the wrapped encoder is not used directly by anyone else.
+ * <br>
+ * Some encoders, like RollerTrol, read the pulse lengths from {@link PulseTimings} when encoding, so the cache is
+ * flushed whenever the windows there are changed.
+ */
+public class CachingEncoder implements PulseBufferEncoder {
+
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+
+    private final ProtocolEncoder encoder;
+    private final String protocolName;
+    private final int maxEntries;
+    private final Map<Key, int[]> cache;
+    private final Set<String> fieldNames = new HashSet<String>();
+    private int timingChanges = PulseTimings.getChangeCount();
+    private Message lastComplete;
+    private boolean encoderBehind;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public CachingEncoder(ProtocolEncoder encoder) {
+        this(encoder, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param encoder    the encoder which actually encodes the messages
+     * @param maxEntries maximum number of pulse trains kept, the least recently used is evicted first
+     */
+    public CachingEncoder(ProtocolEncoder encoder, int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.encoder = encoder;
+        this.protocolName = encoder.getInfo().getName();
+        this.maxEntries = maxEntries;
+        this.cache = new LinkedHashMap<Key, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+                if (size() > CachingEncoder.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public ProtocolInfo getInfo() {
+        return encoder.getInfo();
+    }
+
+    /**
+     * Encodes the message, using a cached pulse train if the same complete message has been encoded before.
+     * The returned array is a copy which the caller is free to modify, use {@link #encodeShared} to
+     * avoid the copy.
+     */
+    public int[] encode(Message message, Phase phase) throws BadMessageException {
+        return lookup(message, phase).clone();
+    }
+
+    /**
+     * Same as {@link #encode} but returns a read only view of the cached pulse train, so no
+     * pulses are copied at all.
+     */
+    public IntBuffer encodeShared(Message message, Phase phase) throws BadMessageException {
+        return IntBuffer.wrap(lookup(message, phase)).asReadOnlyBuffer();
+    }
+
+    public int encodedLength(Message message, Phase phase) throws BadMessageException {
+        return lookup(message, phase).length;
+    }
+
+    public int encodeInto(Message message, Phase phase, int[] buffer, int offset) throws BadMessageException {
+        int[] pulses = lookup(message, phase);
+        PulseBuffers.checkCapacity(buffer, offset, pulses.length);
+        System.arraycopy(pulses, 0, buffer, offset, pulses.length);
+        return pulses.length;
+    }
+
+    public int modulationFrequency(Message message) {
+        return encoder.modulationFrequency(message);
+    }
+
+    private int[] lookup(Message message, Phase phase) throws BadMessageException {
+        Key key = new Key(protocolName, message, phase);
+        synchronized (cache) {
+            int changes = PulseTimings.getChangeCount();
+            if (changes != timingChanges) {
+                cache.clear();
+                timingChanges = changes;
+            }
+            boolean complete = hasAllFields(key);
+            int[] pulses = complete ? cache.get(key) : null;
+            if (complete) {
+                lastComplete = message;
+                encoderBehind = pulses != null;
+            }
+            if (pulses != null) {
+                hits++;
+                return pulses;
+            }
+            misses++;
+            // Encoders are not thread safe, so the encoding is done while holding the lock
+            if (encoderBehind) {
+                encoder.encode(lastComplete, Phase.REPEATED);
+                encoderBehind = false;
+            }
+            pulses = encoder.encode(message, phase);
+            if (complete) {
+                cache.put(key, pulses);
+            }
+            return pulses;
+        }
+    }
+
+    /**
+     * Check if the key has all field names seen so far, and add any new ones. If new ones are found all cached
+     * entries lack them and will never be used again, so they are removed.
+     */
+    private boolean hasAllFields(Key key) {
+        boolean added = false;
+        for (String name : key.names) {
+            added |= fieldNames.add(name);
+        }
+        if (added) {
+            cache.clear();
+        }
+        return key.names.length == fieldNames.size();
+    }
+
+    /**
+     * Remove all cached pulse trains, for example after the settings of the wrapped encoder have been changed.
+     * Changes in {@link PulseTimings} are detected without this.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Remove the cached pulse trains for a specific message
+     */
+    public void invalidate(Message message) {
+        Key probe = new Key(protocolName, message, Phase.FIRST);
+        synchronized (cache) {
+            for (Iterator<Key> i = cache.keySet().iterator(); i.hasNext(); ) {
+                if (i.next().sameFields(probe)) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    public ProtocolEncoder getEncoder() {
+        return encoder;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getHitCount() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    public long getEvictionCount() {
+        synchronized (cache) {
+            return evictions;
+        }
+    }
+
+    /**
+     * @return hits / (hits + misses), or 0 if nothing has been encoded yet
+     */
+    public double getHitRatio() {
+        synchronized (cache) {
+            long total = hits + misses;
+            return total == 0 ? 0 : ((double) hits) / total;
+        }
+    }
+
+    public void resetStatistics() {
+        synchronized (cache) {
+            hits = 0;
+            misses = 0;
+            evictions = 0;
+        }
+    }
+
+    /**
+     * Cache key made of protocol name, phase and a snapshot of the message field values
+     */
+    static class Key {
+        private final String protocol;
+        private final Phase phase;
+        private final String[] names;
+        private final int[] values;
+        private final String[] stringValues;
+        private final int hash;
+
+        Key(String protocol, Message message, Phase phase) {
+            this.protocol = protocol;
+            this.phase = phase;
+            List<FieldValue> fields = message.getFields();
+            int size = fields.size();
+            names = new String[size];
+            values = new int[size];
+            stringValues = new String[size];
+            int h = protocol.hashCode() * 31 + phase.hashCode();
+            for (int i = 0; i < size; i++) {
+                FieldValue field = fields.get(i);
+                names[i] = field.getName();
+                values[i] = field.getValue();
+                stringValues[i] = field.getStringValue();
+                h = h * 31 + names[i].hashCode();
+                h = h * 31 + values[i];
+                h = h * 31 + (stringValues[i] != null ? stringValues[i].hashCode() : 0);
+            }
+            hash = h;
+        }
+
+        boolean sameFields(Key other) {
+            if (names.length != other.names.length) {
+                return false;
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (!names[i].equals(other.names[i]) || values[i] != other.values[i]) {
+                    return false;
+                }
+                if (stringValues[i] == null ? other.stringValues[i] != null : !stringValues[i].equals(other.stringValues[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && phase == other.phase && protocol.equals(other.protocol) && sameFields(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
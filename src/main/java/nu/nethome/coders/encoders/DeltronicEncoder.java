@@ -22,8 +22,6 @@ package nu.nethome.coders.encoders;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
-import java.util.ArrayList;
-
 /**
  * The DeltronicEncoder is an encoder for the RF-protocol used by 
  * Deltronic products such as remote switches. The DeltronicEncoder
@@ -34,7 +32,7 @@ import java.util.ArrayList;
  * @author Stefan
  */
 @Plugin
-public class DeltronicEncoder implements ProtocolEncoder {
+public class DeltronicEncoder implements PulseBufferEncoder {
 	
 	public int repeatCount = 3;
 	private int address = 0;
@@ -52,6 +50,7 @@ public class DeltronicEncoder implements ProtocolEncoder {
 	
 	protected static final int MESSAGE_LENGTH = 12;
 	protected static final int HIGH_BIT = 1 << (MESSAGE_LENGTH - 1);
+	private static final int FRAME_LENGTH = 2 + MESSAGE_LENGTH * 4;
 	
 	static final int s_Buttons[] = {0x20, 0x10, 0x04, 0x08};
 
@@ -71,7 +70,23 @@ public class DeltronicEncoder implements ProtocolEncoder {
 	 *          a a a a  a a A B D C f n
 	 */
 	public int[] encode() {
-		ArrayList<Integer> result = new ArrayList<Integer>();
+		int resultArray[] = new int[repeatCount * FRAME_LENGTH];
+		encodeFrames(resultArray, 0, repeatCount);
+		return resultArray;
+	}
+
+	/**
+	 * Encode the current message as a pulse train holding a single frame and the repeat count
+	 * @return the pulse train
+	 */
+	public PulseTrain encodeTrain() {
+		int frame[] = new int[FRAME_LENGTH];
+		encodeFrames(frame, 0, 1);
+		return new PulseTrain(frame, repeatCount);
+	}
+
+	private int encodeFrames(int[] result, int offset, int frames) {
+		int position = offset;
 		long message = 0;
 		
 		// encode message
@@ -81,37 +96,31 @@ public class DeltronicEncoder implements ProtocolEncoder {
 		messageTemplate |= (address << 6);
 		
 		// Start encoding the data pulses
-		for (int i = 0; i < repeatCount; i++) {
+		for (int i = 0; i < frames; i++) {
 			message = messageTemplate;
 
 			// Encode header
-			result.add(DELTRONIC_HEADER_MARK);
-			result.add(DELTRONIC_HEADER_SPACE);
+			result[position++] = DELTRONIC_HEADER_MARK;
+			result[position++] = DELTRONIC_HEADER_SPACE;
 
 			// Encode message bits
 			for (int j = 0; j < (MESSAGE_LENGTH); j++) {
 				if ((message & HIGH_BIT) == HIGH_BIT) {
-					result.add(DELTRONIC_SHORT_MARK);
-					result.add(DELTRONIC_LONG_SPACE);
+					result[position++] = DELTRONIC_SHORT_MARK;
+					result[position++] = DELTRONIC_LONG_SPACE;
 				}
 				else {
-					result.add(DELTRONIC_LONG_MARK);
-					result.add(DELTRONIC_SHORT_SPACE);
+					result[position++] = DELTRONIC_LONG_MARK;
+					result[position++] = DELTRONIC_SHORT_SPACE;
 				}
-				result.add(DELTRONIC_SHORT_MARK);
-				result.add(DELTRONIC_INTER_SPACE);
+				result[position++] = DELTRONIC_SHORT_MARK;
+				result[position++] = DELTRONIC_INTER_SPACE;
 				message <<= 1;
 			}
-			// Add the repeat delay
-			int last = result.size() - 1;
 			// Add the repeat delay to the last space period
-			result.set(last, DELTRONIC_REPEAT);
-		}
-		int resultArray[] = new int[result.size()];
-		for (int i = 0; i < result.size(); i++) {
-			resultArray[i] = result.get(i);
+			result[position - 1] = DELTRONIC_REPEAT;
 		}
-		return resultArray;
+		return position - offset;
 	}
 
 	public int getAddress() {
@@ -166,6 +175,29 @@ public class DeltronicEncoder implements ProtocolEncoder {
         if (Phase.FIRST == phase) {
             return new int[0];
         }
+        readMessage(message);
+        setRepeatCount(1);
+        return encode();
+    }
+
+    public int encodedLength(Message message, Phase phase) throws BadMessageException {
+        if (Phase.FIRST == phase) {
+            return 0;
+        }
+        readMessage(message);
+        return FRAME_LENGTH;
+    }
+
+    public int encodeInto(Message message, Phase phase, int[] buffer, int offset) throws BadMessageException {
+        if (Phase.FIRST == phase) {
+            return 0;
+        }
+        readMessage(message);
+        PulseBuffers.checkCapacity(buffer, offset, FRAME_LENGTH);
+        return encodeFrames(buffer, offset, 1);
+    }
+
+    private void readMessage(Message message) throws BadMessageException {
         for (FieldValue field : message.getFields()) {
             if (field.getName().equals("Command")) {
                 setCommand(field.getValue());
@@ -177,8 +209,6 @@ public class DeltronicEncoder implements ProtocolEncoder {
                 throw new BadMessageException(field);
             }
         }
-        setRepeatCount(1);
-        return encode();
     }
 
     @Override
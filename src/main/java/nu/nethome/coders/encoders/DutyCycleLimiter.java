@@ -0,0 +1,299 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.encoders;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the airtime used per frequency band and enforces a maximum airtime per sliding time window,
+ * for example the duty cycle limits of the 433 and 868 MHz bands. Transmissions are admitted as they are,
+ * with fewer repeats, after a delay or not at all.
+ * <br>
+ * Airtime is the sum of all pulses in a transmission, including the repeat gaps, since the band is considered
+ * occupied for the whole transmission. The window of each band is divided into a fixed number of buckets, so an
+ * admission decision takes the same time regardless of how many transmissions have been made. Airtime leaves the
+ * window when its whole bucket does, which means the limit is enforced slightly conservatively.
+ * <br>
+ * The limiter may be used by any number of threads.
+ */
+public class DutyCycleLimiter {
+
+    public static final int BUCKETS_PER_WINDOW = 64;
+
+    private final ConcurrentMap<String, Band> bands = new ConcurrentHashMap<String, Band>();
+
+    /**
+     * Add (or replace) a band with a limit given as a duty cycle
+     *
+     * @param name         name of the band, for example "868"
+     * @param windowMillis length of the sliding window in milliseconds
+     * @param dutyCycle    the fraction of the window that may be used for transmission, for example 0.01 for 1%
+     */
+    public void addBand(String name, long windowMillis, double dutyCycle) {
+        if (dutyCycle <= 0 || dutyCycle > 1) {
+            throw new IllegalArgumentException("Bad duty cycle: " + dutyCycle);
+        }
+        addBand(name, windowMillis, (long) (windowMillis * 1000 * dutyCycle));
+    }
+
+    /**
+     * Add (or replace) a band with a limit given as maximum airtime per window
+     *
+     * @param name         name of the band
+     * @param windowMillis length of the sliding window in milliseconds
+     * @param budgetMicros maximum airtime within the window in micro seconds
+     */
+    public void addBand(String name, long windowMillis, long budgetMicros) {
+        if (windowMillis < 1 || budgetMicros < 1) {
+            throw new IllegalArgumentException("Window and budget must be positive");
+        }
+        bands.put(name, new Band(windowMillis * 1000, budgetMicros));
+    }
+
+    /**
+     * @return the airtime of the pulses in micro seconds
+     */
+    public static long airtime(int[] pulses) {
+        long result = 0;
+        for (int pulse : pulses) {
+            result += pulse;
+        }
+        return result;
+    }
+
+    /**
+     * Reserve airtime if it fits within the budget of the band
+     *
+     * @return true if the airtime was reserved and the transmission may be made
+     */
+    public boolean tryAcquire(String band, long airtimeMicros) {
+        return getBand(band).tryReserve(now(), airtimeMicros);
+    }
+
+    public boolean tryAcquire(String band, int[] pulses) {
+        return tryAcquire(band, airtime(pulses));
+    }
+
+    /**
+     * Reserve airtime for a pulse train. If the whole train does not fit, the number of repeats is reduced
+     * to what fits, but not below minRepeatCount.
+     *
+     * @return the train that may be transmitted, which may have fewer repeats than the given one,
+     * or null if not even minRepeatCount repeats fit
+     */
+    public PulseTrain tryAcquire(String band, PulseTrain train, int minRepeatCount) {
+        long repeatDuration = train.getBodyDuration();
+        int repeats = tryAcquireRepeats(band, train.duration() - repeatDuration * train.getRepeatCount(),
+                repeatDuration, train.getRepeatCount(), minRepeatCount);
+        if (repeats == 0) {
+            return null;
+        }
+        return repeats == train.getRepeatCount() ? train : train.withRepeatCount(repeats);
+    }
+
+    /**
+     * Reserve airtime for a message sent with repeats, for the encoders that are configured with
+     * setRepeatCount(). Typical use is:
+     * <pre>
+     * int repeats = limiter.tryAcquireRepeats("433", 0, frameDuration, encoder.getRepeatCount(), 1);
+     * if (repeats > 0) {
+     *     encoder.setRepeatCount(repeats);
+     *     transmit(encoder.encode());
+     * }
+     * </pre>
+     *
+     * @param fixedMicros    airtime that does not depend on the number of repeats
+     * @param repeatMicros   airtime of each repeat
+     * @param repeatCount    wanted number of repeats
+     * @param minRepeatCount the least number of repeats that is meaningful to send
+     * @return number of repeats reserved, or 0 if not even minRepeatCount repeats fit
+     */
+    public int tryAcquireRepeats(String band, long fixedMicros, long repeatMicros, int repeatCount, int minRepeatCount) {
+        if (minRepeatCount < 1 || repeatCount < minRepeatCount) {
+            throw new IllegalArgumentException("Bad repeat count: " + repeatCount + ", minimum: " + minRepeatCount);
+        }
+        return getBand(band).tryReserveRepeats(now(), fixedMicros, repeatMicros, repeatCount, minRepeatCount);
+    }
+
+    /**
+     * Reserve airtime, waiting for it to become available if necessary
+     *
+     * @return true if the airtime was reserved, false if it could not be reserved within the timeout or
+     * it is larger than the budget of the band
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean acquire(String band, long airtimeMicros, long timeout, TimeUnit unit) throws InterruptedException {
+        Band target = getBand(band);
+        long deadline = now() + unit.toMicros(timeout);
+        while (true) {
+            long now = now();
+            if (target.tryReserve(now, airtimeMicros)) {
+                return true;
+            }
+            long delay = target.delayUntilAvailable(now, airtimeMicros);
+            if (delay < 0 || now + delay > deadline) {
+                return false;
+            }
+            TimeUnit.MICROSECONDS.sleep(Math.max(delay, 1));
+        }
+    }
+
+    /**
+     * @return micro seconds until the airtime would fit, 0 if it fits now and -1 if it never fits
+     */
+    public long delayUntilAvailable(String band, long airtimeMicros) {
+        return getBand(band).delayUntilAvailable(now(), airtimeMicros);
+    }
+
+    /**
+     * @return airtime in micro seconds that can be used right now
+     */
+    public long getAvailable(String band) {
+        Band target = getBand(band);
+        return target.budget - target.used(now());
+    }
+
+    /**
+     * @return airtime in micro seconds used within the current window
+     */
+    public long getUsed(String band) {
+        return getBand(band).used(now());
+    }
+
+    /**
+     * @return number of requests that were refused or got fewer repeats than requested
+     */
+    public long getRejectedCount(String band) {
+        return getBand(band).rejected.get();
+    }
+
+    /**
+     * Current time in micro seconds, from an arbitrary origin
+     */
+    protected long now() {
+        return System.nanoTime() / 1000;
+    }
+
+    private Band getBand(String name) {
+        Band band = bands.get(name);
+        if (band == null) {
+            throw new IllegalArgumentException("Unknown band: " + name);
+        }
+        return band;
+    }
+
+    private static class Band {
+        final long budget;
+        final long bucketLength;
+        final long[] buckets = new long[BUCKETS_PER_WINDOW];
+        final AtomicLong rejected = new AtomicLong();
+        long currentBucket = Long.MIN_VALUE;
+        long used;
+
+        Band(long windowMicros, long budget) {
+            this.budget = budget;
+            this.bucketLength = Math.max(1, windowMicros / BUCKETS_PER_WINDOW);
+        }
+
+        synchronized boolean tryReserve(long now, long airtime) {
+            advance(now);
+            if (used + airtime > budget) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            reserve(airtime);
+            return true;
+        }
+
+        synchronized int tryReserveRepeats(long now, long fixed, long perRepeat, int repeatCount, int minRepeatCount) {
+            advance(now);
+            long available = budget - used - fixed;
+            long repeats = perRepeat > 0 ? available / perRepeat : (available >= 0 ? repeatCount : 0);
+            if (repeats < minRepeatCount) {
+                rejected.incrementAndGet();
+                return 0;
+            }
+            if (repeats < repeatCount) {
+                rejected.incrementAndGet();
+            }
+            int result = (int) Math.min(repeats, repeatCount);
+            reserve(fixed + perRepeat * result);
+            return result;
+        }
+
+        synchronized long delayUntilAvailable(long now, long airtime) {
+            if (airtime > budget) {
+                return -1;
+            }
+            advance(now);
+            long needed = used + airtime - budget;
+            if (needed <= 0) {
+                return 0;
+            }
+            // Walk from the oldest bucket until enough airtime has left the window
+            for (long bucket = currentBucket - buckets.length + 1; bucket <= currentBucket; bucket++) {
+                needed -= buckets[index(bucket)];
+                if (needed <= 0) {
+                    return (bucket + buckets.length) * bucketLength - now;
+                }
+            }
+            return (currentBucket + buckets.length) * bucketLength - now;
+        }
+
+        synchronized long used(long now) {
+            advance(now);
+            return used;
+        }
+
+        private void reserve(long airtime) {
+            buckets[index(currentBucket)] += airtime;
+            used += airtime;
+        }
+
+        /**
+         * Move the window forward to the bucket of the specified time, dropping the airtime of the
+         * buckets that leave it. At most one window of buckets is visited, so this is constant time.
+         */
+        private void advance(long now) {
+            long bucket = now / bucketLength;
+            if (bucket <= currentBucket) {
+                return;
+            }
+            if (currentBucket == Long.MIN_VALUE || bucket - currentBucket >= buckets.length) {
+                Arrays.fill(buckets, 0);
+                used = 0;
+            } else {
+                for (long b = currentBucket + 1; b <= bucket; b++) {
+                    used -= buckets[index(b)];
+                    buckets[index(b)] = 0;
+                }
+            }
+            currentBucket = bucket;
+        }
+
+        private int index(long bucket) {
+            return (int) (((bucket % buckets.length) + buckets.length) % buckets.length);
+        }
+    }
+}
@@ -22,15 +22,13 @@ package nu.nethome.coders.encoders;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
-import java.util.ArrayList;
-
 /**
  * User: Stefan
  * Date: 2013-01-27
  * Time: 21:06
  */
 @Plugin
-public class EmotivaEncoder implements ProtocolEncoder {
+public class EmotivaEncoder implements PulseBufferEncoder {
 
 
     public static final int EMOTIVA_RAW_MESSAGE_LENGTH = 32;
@@ -40,14 +38,25 @@ public class EmotivaEncoder implements ProtocolEncoder {
     public static final int EMOTIVA_LONG_SPACE = 1600;
     public static final int EMOTIVA_SHORT_SPACE = 500;
     public static final int EMOTIVA_REPEAT_SPACE = 9100;
+    private static final int FRAME_LENGTH = 2 + EMOTIVA_RAW_MESSAGE_LENGTH * 2 + 2;
 
     public ProtocolInfo getInfo() {
         return new ProtocolInfo("Emotiva", "Space Length", "Emotiva", 24, 5);
     }
 
     public int[] encode(Message message, Phase phase) throws BadMessageException {
+        int result[] = new int[encodedLength(message, phase)];
+        encodeInto(message, phase, result, 0);
+        return result;
+    }
+
+    public int encodedLength(Message message, Phase phase) throws BadMessageException {
+        return Phase.FIRST == phase ? 0 : FRAME_LENGTH;
+    }
+
+    public int encodeInto(Message message, Phase phase, int[] buffer, int offset) throws BadMessageException {
         if (Phase.FIRST == phase) {
-            return new int[0];
+            return 0;
         }
         int command = 0;
         int address = 0;
@@ -60,7 +69,8 @@ public class EmotivaEncoder implements ProtocolEncoder {
                 throw new BadMessageException(field);
             }
         }
-        return encode(command, address);
+        PulseBuffers.checkCapacity(buffer, offset, FRAME_LENGTH);
+        return encode(command, address, buffer, offset);
     }
 
     @Override
@@ -75,30 +85,25 @@ public class EmotivaEncoder implements ProtocolEncoder {
         return result;
     }
 
-    private int[] encode(int command, int address) {
-        ArrayList<Integer> result = new ArrayList<Integer>();
+    private int encode(int command, int address, int[] result, int offset) {
+        int position = offset;
         long message = address + (command << 16) + ((command ^ 0xFF) << 24);
         // Encode header
-        result.add(EMOTIVA_HEADER_MARK);
-        result.add(EMOTIVA_HEADER_SPACE);
+        result[position++] = EMOTIVA_HEADER_MARK;
+        result[position++] = EMOTIVA_HEADER_SPACE;
 
         // Encode message bits
         for (int j = 0; j < (EMOTIVA_RAW_MESSAGE_LENGTH); j++) {
-            result.add(EMOTIVA_MARK);
+            result[position++] = EMOTIVA_MARK;
             if ((message & 1) == 1) {
-                result.add(EMOTIVA_LONG_SPACE);
+                result[position++] = EMOTIVA_LONG_SPACE;
             } else {
-                result.add(EMOTIVA_SHORT_SPACE);
+                result[position++] = EMOTIVA_SHORT_SPACE;
             }
             message >>= 1;
         }
-        result.add(EMOTIVA_MARK);
-        result.add(EMOTIVA_REPEAT_SPACE);
-
-        int resultArray[] = new int[result.size()];
-        for (int i = 0; i < result.size(); i++) {
-            resultArray[i] = result.get(i);
-        }
-        return resultArray;
+        result[position++] = EMOTIVA_MARK;
+        result[position++] = EMOTIVA_REPEAT_SPACE;
+        return position - offset;
     }
 }
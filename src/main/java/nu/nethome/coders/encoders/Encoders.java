@@ -19,12 +19,20 @@
 
 package nu.nethome.coders.encoders;
 
+import nu.nethome.coders.CoderFactory;
 import nu.nethome.util.ps.ProtocolEncoder;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 public class Encoders {
+    private static final List<CoderFactory<ProtocolEncoder>> FACTORIES = Collections.unmodifiableList(createFactories());
+
+    /**
+     * @return the classes of all encoders. Prefer {@link #getFactories()}, which does not load the classes
+     */
     public static Collection<Class<? extends ProtocolEncoder>> getAllTypes() {
         Collection<Class<? extends ProtocolEncoder>> result = new ArrayList<Class<? extends ProtocolEncoder>>();
         result.add(DeltronicEncoder.class);
@@ -41,4 +49,89 @@ public class Encoders {
         result.add(RollerTrolGEncoder.class);
         return result;
     }
+
+    /**
+     * @return factories for all encoders, with the same protocols in the same order as {@link #getAllTypes()}
+     */
+    public static List<CoderFactory<ProtocolEncoder>> getFactories() {
+        return FACTORIES;
+    }
+
+    /**
+     * @param protocolName name of the protocol as given by the encoder's ProtocolInfo
+     * @return factory for the encoder of the protocol, or null if there is none
+     */
+    public static CoderFactory<ProtocolEncoder> getFactory(String protocolName) {
+        for (CoderFactory<ProtocolEncoder> factory : FACTORIES) {
+            if (factory.getName().equals(protocolName)) {
+                return factory;
+            }
+        }
+        return null;
+    }
+
+    private static List<CoderFactory<ProtocolEncoder>> createFactories() {
+        List<CoderFactory<ProtocolEncoder>> result = new ArrayList<CoderFactory<ProtocolEncoder>>();
+        result.add(new CoderFactory<ProtocolEncoder>("Deltronic", "Space Length", "Deltronic", 12, 5) {
+            public ProtocolEncoder create() {
+                return new DeltronicEncoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolEncoder>("Emotiva", "Space Length", "Emotiva", 24, 5) {
+            public ProtocolEncoder create() {
+                return new EmotivaEncoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolEncoder>("Nexa", "Mark Length", "Nexa", 25, 5) {
+            public ProtocolEncoder create() {
+                return new NexaEncoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolEncoder>("NexaFire", "Space Length", "NexaFire", 24, 15) {
+            public ProtocolEncoder create() {
+                return new NexaFireEncoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolEncoder>("NexaL", "Space Length", "Nexa", 32, 5) {
+            public ProtocolEncoder create() {
+                return new NexaLEncoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolEncoder>("Pronto", "None", "Pronto", 0, 5) {
+            public ProtocolEncoder create() {
+                return new ProntoEncoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolEncoder>("RisingSun", "Mark Length", "RisingSun", 25, 5) {
+            public ProtocolEncoder create() {
+                return new RisingSunEncoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolEncoder>("Waveman", "Space Length", "Waveman", 32, 5) {
+            public ProtocolEncoder create() {
+                return new WavemanEncoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolEncoder>("X10", "Space Length", "X10", 16, 5) {
+            public ProtocolEncoder create() {
+                return new X10Encoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolEncoder>("Zhejiang", "Mark Length", "Zhejiang", 25, 5) {
+            public ProtocolEncoder create() {
+                return new ZhejiangEncoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolEncoder>("RollerTrol", "Mark Length", "RollerTrol", 40, 1) {
+            public ProtocolEncoder create() {
+                return new RollerTrolEncoder();
+            }
+        });
+        result.add(new CoderFactory<ProtocolEncoder>("RollerTrolG", "Mark Length", "RollerTrol", 40, 1) {
+            public ProtocolEncoder create() {
+                return new RollerTrolGEncoder();
+            }
+        });
+        return result;
+    }
 }
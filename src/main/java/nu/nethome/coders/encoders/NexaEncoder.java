@@ -34,8 +34,6 @@ import nu.nethome.coders.decoders.NexaDecoder;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
-import java.util.ArrayList;
-
 /**
  * The NexaEncoder is an encoder for the RF-protocol used by NEXA products
  * such as remote switches, dimmers, PIR-detectors and so on. The NexaEncoder
@@ -46,7 +44,9 @@ import java.util.ArrayList;
  * @author Stefan
  */
 @Plugin
-public class NexaEncoder implements ProtocolEncoder {
+public class NexaEncoder implements PulseBufferEncoder {
+
+    private static final int FRAME_LENGTH = 25 * 2;
 
     public int repeatCount = 5;
     private char address = 'A';
@@ -84,9 +84,25 @@ public class NexaEncoder implements ProtocolEncoder {
      * x o x 1 x 1 x x  x b x b x b x b  x a x a x a x a   s
      */
     public int[] encode() {
-        ArrayList<Integer> result = new ArrayList<Integer>();
+        int resultArray[] = new int[repeatCount * FRAME_LENGTH];
+        encodeFrames(resultArray, 0, repeatCount);
+        return resultArray;
+    }
+
+    /**
+     * Encode the current message as a pulse train holding a single frame and the repeat count
+     * @return the pulse train
+     */
+    public PulseTrain encodeTrain() {
+        int frame[] = new int[FRAME_LENGTH];
+        encodeFrames(frame, 0, 1);
+        return new PulseTrain(frame, repeatCount);
+    }
+
+    private int encodeFrames(int[] result, int offset, int frames) {
         long messageTemplate = 0;
         long message = 0;
+        int position = offset;
 
         // encode message
         int address = ((int) this.address) - ((int) 'A');
@@ -104,29 +120,24 @@ public class NexaEncoder implements ProtocolEncoder {
         messageTemplate |= (command == 0) ? offCommandValue : onCommandValue;
 
         // Start actually encoding the data pulses
-        for (int i = 0; i < repeatCount; i++) {
+        for (int i = 0; i < frames; i++) {
             message = messageTemplate;
 
             // 25 bits of data including start bit
             for (int j = 0; j < 25; j++) {
                 if ((message & 1) == 1) {
-                    result.add(LONG_MARK);
-                    result.add(SHORT_SPACE);
+                    result[position++] = LONG_MARK;
+                    result[position++] = SHORT_SPACE;
                 } else {
-                    result.add(SHORT_MARK);
-                    result.add(LONG_SPACE);
+                    result[position++] = SHORT_MARK;
+                    result[position++] = LONG_SPACE;
                 }
                 message >>= 1;
             }
-            int last = result.size() - 1;
             // Add the repeat delay to the last space period
-            result.set(last, result.get(last) + REPEAT);
-        }
-        int resultArray[] = new int[result.size()];
-        for (int i = 0; i < result.size(); i++) {
-            resultArray[i] = result.get(i);
+            result[position - 1] += REPEAT;
         }
-        return resultArray;
+        return position - offset;
     }
 
     /**
@@ -233,6 +244,29 @@ public class NexaEncoder implements ProtocolEncoder {
         if (Phase.FIRST == phase) {
             return new int[0];
         }
+        readMessage(message);
+        setRepeatCount(1);
+        return encode();
+    }
+
+    public int encodedLength(Message message, Phase phase) throws BadMessageException {
+        if (Phase.FIRST == phase) {
+            return 0;
+        }
+        readMessage(message);
+        return FRAME_LENGTH;
+    }
+
+    public int encodeInto(Message message, Phase phase, int[] buffer, int offset) throws BadMessageException {
+        if (Phase.FIRST == phase) {
+            return 0;
+        }
+        readMessage(message);
+        PulseBuffers.checkCapacity(buffer, offset, FRAME_LENGTH);
+        return encodeFrames(buffer, offset, 1);
+    }
+
+    private void readMessage(Message message) throws BadMessageException {
         for (FieldValue field : message.getFields()) {
             if (field.getName().equals("Command")) {
                 setCommand(field.getValue());
@@ -244,8 +278,6 @@ public class NexaEncoder implements ProtocolEncoder {
                 throw new BadMessageException(field);
             }
         }
-        setRepeatCount(1);
-        return encode();
     }
 
     @Override
@@ -23,8 +23,6 @@ import nu.nethome.coders.decoders.NexaFireDecoder;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
-import java.util.ArrayList;
-
 /**
  * The NexaFireEncoder is an encoder for the RF-protocol used by NEXA Fire Detectors 
  * with RF connection. The NexaFireEncoder can take the data from a protocol message 
@@ -35,8 +33,10 @@ import java.util.ArrayList;
  *
  */
 @Plugin
-public class NexaFireEncoder implements ProtocolEncoder {
+public class NexaFireEncoder implements PulseBufferEncoder {
 	
+	private static final int FRAME_LENGTH = 2 + 24 * 2 + 2;
+
 	public int m_RepeatCount = 15;
 	private int m_Address = 0;
 	
@@ -69,37 +69,49 @@ public class NexaFireEncoder implements ProtocolEncoder {
 	 *  a a a a a a a a  a a a a a a a a  a a a a a a a a<br>
 	 */
 	public int[] encode() {
-		ArrayList<Integer> result = new ArrayList<Integer>();
+		int resultArray[] = new int[m_RepeatCount * FRAME_LENGTH];
+		encodeFrames(resultArray, 0, m_RepeatCount);
+		return resultArray;
+	}
+
+	/**
+	 * Encode the current message as a pulse train holding a single frame and the repeat count
+	 * @return the pulse train
+	 */
+	public PulseTrain encodeTrain() {
+		int frame[] = new int[FRAME_LENGTH];
+		encodeFrames(frame, 0, 1);
+		return new PulseTrain(frame, m_RepeatCount);
+	}
+
+	private int encodeFrames(int[] result, int offset, int frames) {
 		long message = 0;
+		int position = offset;
 		
 		// Start actually encoding the data pulses
-		for (int i = 0; i < m_RepeatCount; i++) {
+		for (int i = 0; i < frames; i++) {
 			message = m_Address;
 			
 			// Encode header
-			result.add(HEADER_MARK);
-			result.add(HEADER_SPACE);
+			result[position++] = HEADER_MARK;
+			result[position++] = HEADER_SPACE;
 			
 			// 24 bits of data
 			for (int j = 0; j < 24; j++) {
-				result.add(MARK);
+				result[position++] = MARK;
 				if ((message & 1) == 1) {
-					result.add(LONG_SPACE);
+					result[position++] = LONG_SPACE;
 				}
 				else {
-					result.add(SHORT_SPACE);
+					result[position++] = SHORT_SPACE;
 				}
 				message >>= 1;
 			}
 			// Add trailing mark and repeat space
-			result.add(MARK);
-			result.add(REPEAT);
-		}
-		int resultArray[] = new int[result.size()];
-		for (int i = 0; i < result.size(); i++) {
-			resultArray[i] = result.get(i);
+			result[position++] = MARK;
+			result[position++] = REPEAT;
 		}
-		return resultArray;
+		return position - offset;
 	}
 
 	/**
@@ -138,6 +150,29 @@ public class NexaFireEncoder implements ProtocolEncoder {
         if (Phase.FIRST == phase) {
             return new int[0];
         }
+        readMessage(message);
+        setRepeatCount(1);
+        return encode();
+    }
+
+    public int encodedLength(Message message, Phase phase) throws BadMessageException {
+        if (Phase.FIRST == phase) {
+            return 0;
+        }
+        readMessage(message);
+        return FRAME_LENGTH;
+    }
+
+    public int encodeInto(Message message, Phase phase, int[] buffer, int offset) throws BadMessageException {
+        if (Phase.FIRST == phase) {
+            return 0;
+        }
+        readMessage(message);
+        PulseBuffers.checkCapacity(buffer, offset, FRAME_LENGTH);
+        return encodeFrames(buffer, offset, 1);
+    }
+
+    private void readMessage(Message message) throws BadMessageException {
         for (FieldValue field : message.getFields()) {
             if (field.getName().equals("Address")) {
                 setAddress(field.getValue());
@@ -145,8 +180,6 @@ public class NexaFireEncoder implements ProtocolEncoder {
                 throw new BadMessageException(field);
             }
         }
-        setRepeatCount(1);
-        return encode();
     }
 
     @Override
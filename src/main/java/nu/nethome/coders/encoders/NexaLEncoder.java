@@ -22,8 +22,6 @@ package nu.nethome.coders.encoders;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
-import java.util.ArrayList;
-
 /**
  * The NexaLEncoder is an encoder for the learning code RF-protocol used by 
  * NEXA products such as remote switches, dimmers, PIR-detectors and so on. 
@@ -37,7 +35,7 @@ import java.util.ArrayList;
  *
  */
 @Plugin
-public class NexaLEncoder implements ProtocolEncoder{
+public class NexaLEncoder implements PulseBufferEncoder {
 	
 	public int repeatCount = 5;
 	private long m_Address = 0;
@@ -72,8 +70,32 @@ public class NexaLEncoder implements ProtocolEncoder{
 	 */
 
 	public int[] encode() {
-		ArrayList<Integer> result = new ArrayList<Integer>();
+		int resultArray[] = new int[repeatCount * frameLength()];
+		encodeFrames(resultArray, 0, repeatCount);
+		return resultArray;
+	}
+
+	/**
+	 * Encode the current message as a pulse train holding a single frame and the repeat count
+	 * @return the pulse train
+	 */
+	public PulseTrain encodeTrain() {
+		int frame[] = new int[frameLength()];
+		encodeFrames(frame, 0, 1);
+		return new PulseTrain(frame, repeatCount);
+	}
+
+	/**
+	 * Number of pulses in one frame of the current message
+	 */
+	private int frameLength() {
+		int messageLength = (m_DimLevel != -1) ? MESSAGE_LENGTH_DIM : MESSAGE_LENGTH;
+		return 2 + messageLength * 4 + 2;
+	}
+
+	private int encodeFrames(int[] result, int offset, int frames) {
 		long message = 0;
+		int position = offset;
 		boolean doDim = (m_DimLevel != -1);
 		int messageLength = doDim ? MESSAGE_LENGTH_DIM : MESSAGE_LENGTH;
 		
@@ -88,50 +110,46 @@ public class NexaLEncoder implements ProtocolEncoder{
 		}
 		
 		// Start encoding the data pulses
-		for (int i = 0; i < repeatCount; i++) {
+		for (int i = 0; i < frames; i++) {
 			long mask = 1L << (messageLength - 1);
 			message = messageTemplate;
 
 			// Encode header
-			result.add(NEXA_HEADER_MARK);
-			result.add(NEXA_HEADER_SPACE);
+			result[position++] = NEXA_HEADER_MARK;
+			result[position++] = NEXA_HEADER_SPACE;
 
 			// 32 or 36 bits of data
 			for (int j = 0; j < messageLength; j++) {
 
-				result.add(NEXA_MARK);
+				result[position++] = NEXA_MARK;
 				if (doDim && (j == 27) && ((message & mask) == mask)) {
 					// Encode "tri state"
 					// This is the special third state bit which is used to signal that there is dim level
 					// information at the end of the message
-					result.add(NEXA_SHORT_SPACE);
-					result.add(NEXA_MARK);
-					result.add(NEXA_SHORT_INTER_SPACE);
+					result[position++] = NEXA_SHORT_SPACE;
+					result[position++] = NEXA_MARK;
+					result[position++] = NEXA_SHORT_INTER_SPACE;
 				} else if ((message & mask) == mask) {
 					// Encode a "1"
-					result.add(NEXA_LONG_SPACE);
-					result.add(NEXA_MARK);
-					result.add(NEXA_SHORT_INTER_SPACE);
+					result[position++] = NEXA_LONG_SPACE;
+					result[position++] = NEXA_MARK;
+					result[position++] = NEXA_SHORT_INTER_SPACE;
 				}
 				else {
 					// Encode a "0"
-					result.add(NEXA_SHORT_SPACE);
-					result.add(NEXA_MARK);
-					result.add(NEXA_LONG_INTER_SPACE);
+					result[position++] = NEXA_SHORT_SPACE;
+					result[position++] = NEXA_MARK;
+					result[position++] = NEXA_LONG_INTER_SPACE;
 				}
 				mask >>= 1;
 			}
 			//Add trailing mark
-			result.add(NEXA_MARK);
+			result[position++] = NEXA_MARK;
 
 			// Add the repeat delay
-			result.add(NEXA_REPEAT);
-		}
-		int resultArray[] = new int[result.size()];
-		for (int i = 0; i < result.size(); i++) {
-			resultArray[i] = result.get(i);
+			result[position++] = NEXA_REPEAT;
 		}
-		return resultArray;
+		return position - offset;
 	}
 
 	/**
@@ -242,6 +260,29 @@ public class NexaLEncoder implements ProtocolEncoder{
         if (Phase.FIRST == phase) {
             return new int[0];
         }
+        readMessage(message);
+        setRepeatCount(1);
+        return encode();
+    }
+
+    public int encodedLength(Message message, Phase phase) throws BadMessageException {
+        if (Phase.FIRST == phase) {
+            return 0;
+        }
+        readMessage(message);
+        return frameLength();
+    }
+
+    public int encodeInto(Message message, Phase phase, int[] buffer, int offset) throws BadMessageException {
+        if (Phase.FIRST == phase) {
+            return 0;
+        }
+        readMessage(message);
+        PulseBuffers.checkCapacity(buffer, offset, frameLength());
+        return encodeFrames(buffer, offset, 1);
+    }
+
+    private void readMessage(Message message) throws BadMessageException {
         setDimLevel(-1);
         for (FieldValue field : message.getFields()) {
             if (field.getName().equals("Command")) {
@@ -256,8 +297,6 @@ public class NexaLEncoder implements ProtocolEncoder{
                 throw new BadMessageException(field);
             }
         }
-        setRepeatCount(1);
-        return encode();
     }
 
     @Override
@@ -33,13 +33,14 @@ import java.util.Scanner;
  * @author Stefan
  */
 @Plugin
-public class ProntoEncoder implements ProtocolEncoder{
+public class ProntoEncoder implements PulseBufferEncoder {
 
 	/** Constant for the pronto remote's internal clock frequency */
 	protected final double m_ProntoFreqConstant = .241246;
 
 	protected String m_Message = "";
 	protected int m_RepeatCount = 5;
+	private int m_ParsePosition;
 	
 	/**
 	 * Extract the modulation frequency in Hz from a Pronto message
@@ -100,6 +101,23 @@ public class ProntoEncoder implements ProtocolEncoder{
 		return result;
 	}
 
+	/**
+	 * Encode the current message as a pulse train. Like {@link #encode()} the body holds both
+	 * sequence #1 and sequence #2, but it is only stored once regardless of the repeat count.
+	 * @return the pulse train, with an empty body if the message could not be parsed
+	 */
+	public PulseTrain encodeTrain() {
+		int first = encodePhase(Phase.FIRST, null, 0);
+		int repeated = encodePhase(Phase.REPEATED, null, 0);
+		if (first < 0 || repeated < 0) {
+			return new PulseTrain(new int[0], m_RepeatCount);
+		}
+		int body[] = new int[first + repeated];
+		encodePhase(Phase.FIRST, body, 0);
+		encodePhase(Phase.REPEATED, body, first);
+		return new PulseTrain(new int[0], body, m_RepeatCount, 0, modulationFrequency(createMessage(m_Message)));
+	}
+
 	public String getMessage() {
 		return m_Message;
 	}
@@ -138,8 +156,27 @@ public class ProntoEncoder implements ProtocolEncoder{
     }
 
     public int[] encode(Message message, Phase phase) throws BadMessageException {
-        int fail[] = new int[0];
-        int result[];
+        int result[] = new int[encodedLength(message, phase)];
+        encodeInto(message, phase, result, 0);
+        return result;
+    }
+
+    public int encodedLength(Message message, Phase phase) throws BadMessageException {
+        readMessage(message);
+        return Math.max(encodePhase(phase, null, 0), 0);
+    }
+
+    public int encodeInto(Message message, Phase phase, int[] buffer, int offset) throws BadMessageException {
+        int length = encodedLength(message, phase);
+        if (length == 0) {
+            // Nothing to write, or the message is truncated and the buffer must be left untouched
+            return 0;
+        }
+        PulseBuffers.checkCapacity(buffer, offset, length);
+        return encodePhase(phase, buffer, offset);
+    }
+
+    private void readMessage(Message message) throws BadMessageException {
         for (FieldValue field : message.getFields()) {
             if (field.getName().equals("Message")) {
                 setMessage(field.getStringValue());
@@ -147,40 +184,66 @@ public class ProntoEncoder implements ProtocolEncoder{
                 throw new BadMessageException(field);
             }
         }
-        Scanner scanner = new Scanner(m_Message);
-        try {
-            // Extract type, 0000 for sampled signal. This is the only format we support
-            if (scanner.nextInt(16) != 0) return fail;
-            // Extract modulation frequency period length
-            double period = scanner.nextInt(16) * m_ProntoFreqConstant;
-            // Number of burst pairs in sequence #1
-            int header = scanner.nextInt(16) * 2;
-            // Extract number of burst pairs in sequence #2 and add to the total
-            int body = scanner.nextInt(16) * 2;
-            int length;
-            int skip;
-            if (phase == Phase.FIRST) {
-                skip = 0;
-                length = header;
-            } else {
-                skip = header;
-                length = body;
-            }
-            result = new int[length];
-            // Skip header (if needed)
-            for (int i = 0; i < skip; i++) {
-                scanner.nextInt(16);
-            }
+    }
 
-            // Extract the burst pairs and convert the time to uS
-            for (int i = 0; i < length; i++) {
-                result[i] = (int)(period * scanner.nextInt(16) + 0.5);
+    /**
+     * Parse the current message and write the pulses of the specified phase to the buffer. The message
+     * is parsed word by word directly from the string, so nothing is allocated. A truncated message is
+     * only detected when the word is reached, so count the pulses first and only write if that succeeds.
+     * @param phase FIRST gives sequence #1 and REPEATED sequence #2
+     * @param buffer buffer to write to, or null to only count the pulses
+     * @param offset where in the buffer to write the first pulse
+     * @return number of pulses, -1 if the message could not be parsed
+     */
+    private int encodePhase(Phase phase, int[] buffer, int offset) {
+        m_ParsePosition = 0;
+        // Extract type, 0000 for sampled signal. This is the only format we support
+        if (nextWord() != 0) return -1;
+        // Extract modulation frequency period length
+        int frequencyWord = nextWord();
+        // Number of burst pairs in sequence #1 and sequence #2
+        int header = nextWord() * 2;
+        int body = nextWord() * 2;
+        if (frequencyWord < 0 || header < 0 || body < 0) return -1;
+        double period = frequencyWord * m_ProntoFreqConstant;
+        int skip = (phase == Phase.FIRST) ? 0 : header;
+        int length = (phase == Phase.FIRST) ? header : body;
+        // Skip header (if needed)
+        for (int i = 0; i < skip; i++) {
+            if (nextWord() < 0) return -1;
+        }
+        // Extract the burst pairs and convert the time to uS
+        for (int i = 0; i < length; i++) {
+            int word = nextWord();
+            if (word < 0) return -1;
+            if (buffer != null) {
+                buffer[offset + i] = (int)(period * word + 0.5);
             }
         }
-        catch (NoSuchElementException e) {
-            return fail;
+        return length;
+    }
+
+    /**
+     * Read the next hex word of the message starting at m_ParsePosition
+     * @return the value of the word or -1 if there are no more words or the word is not a hex number
+     */
+    private int nextWord() {
+        int length = m_Message.length();
+        while (m_ParsePosition < length && Character.isWhitespace(m_Message.charAt(m_ParsePosition))) {
+            m_ParsePosition++;
         }
-        return result;
+        if (m_ParsePosition >= length) {
+            return -1;
+        }
+        int value = 0;
+        while (m_ParsePosition < length && !Character.isWhitespace(m_Message.charAt(m_ParsePosition))) {
+            int digit = Character.digit(m_Message.charAt(m_ParsePosition++), 16);
+            if (digit < 0 || value > (Integer.MAX_VALUE >> 4)) {
+                return -1;
+            }
+            value = (value << 4) + digit;
+        }
+        return value;
     }
 
     public static Message createMessage(String prontoString) {
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.encoders;
+
+import nu.nethome.util.ps.BadMessageException;
+import nu.nethome.util.ps.Message;
+import nu.nethome.util.ps.ProtocolEncoder;
+
+/**
+ * A ProtocolEncoder which can also write its pulses directly into a buffer supplied by the caller.
+ * This way a transmitter driver can assemble several messages into one preallocated transmit buffer
+ * without any intermediate arrays. See {@link PulseBuffers} for support of IntBuffers and repeats.
+ */
+public interface PulseBufferEncoder extends ProtocolEncoder {
+
+    /**
+     * Get the exact number of pulses that {@link #encodeInto} will write for the message.
+     *
+     * @param message message to encode
+     * @param phase   which phase of the message to encode
+     * @return number of pulses
+     * @throws BadMessageException if the message contains fields the encoder does not support
+     */
+    int encodedLength(Message message, Phase phase) throws BadMessageException;
+
+    /**
+     * Encode the message into the supplied buffer. The pulses written are the same as the ones
+     * returned by {@link #encode(Message, Phase)}.
+     *
+     * @param message message to encode
+     * @param phase   which phase of the message to encode
+     * @param buffer  buffer to write the pulses to
+     * @param offset  position in the buffer of the first pulse
+     * @return number of pulses written
+     * @throws BadMessageException       if the message contains fields the encoder does not support
+     * @throws IndexOutOfBoundsException if the pulses do not fit in the buffer, nothing is written then
+     */
+    int encodeInto(Message message, Phase phase, int[] buffer, int offset) throws BadMessageException;
+}
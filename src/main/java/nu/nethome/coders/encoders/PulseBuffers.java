@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.encoders;
+
+import nu.nethome.util.ps.BadMessageException;
+import nu.nethome.util.ps.Message;
+import nu.nethome.util.ps.ProtocolEncoder;
+
+import java.nio.BufferOverflowException;
+import java.nio.IntBuffer;
+
+/**
+ * Helper methods for encoding messages into caller supplied buffers with a {@link PulseBufferEncoder}.
+ */
+public final class PulseBuffers {
+
+    private static final ThreadLocal<int[]> scratchBuffer = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[256];
+        }
+    };
+
+    private PulseBuffers() {
+    }
+
+    /**
+     * Encode a message at the current position of an IntBuffer and advance the position. Array backed
+     * buffers are written directly, direct buffers via a per thread scratch array.
+     *
+     * @return number of pulses written
+     * @throws BufferOverflowException if the pulses do not fit in the remaining part of the buffer
+     */
+    public static int encodeInto(PulseBufferEncoder encoder, Message message, ProtocolEncoder.Phase phase,
+                                 IntBuffer buffer) throws BadMessageException {
+        int length = encoder.encodedLength(message, phase);
+        if (buffer.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        if (buffer.hasArray()) {
+            encoder.encodeInto(message, phase, buffer.array(), buffer.arrayOffset() + buffer.position());
+            buffer.position(buffer.position() + length);
+        } else {
+            int[] scratch = scratch(length);
+            encoder.encodeInto(message, phase, scratch, 0);
+            buffer.put(scratch, 0, length);
+        }
+        return length;
+    }
+
+    /**
+     * Get the number of pulses needed to send the message with the specified number of repeats,
+     * see {@link #repeatInto}.
+     */
+    public static int repeatedLength(PulseBufferEncoder encoder, Message message, int repeatCount) throws BadMessageException {
+        return encoder.encodedLength(message, ProtocolEncoder.Phase.FIRST) +
+                encoder.encodedLength(message, ProtocolEncoder.Phase.REPEATED) * repeatCount;
+    }
+
+    /**
+     * Encode the first phase of the message followed by repeatCount copies of the repeated phase, which
+     * gives the same pulses as {@link nu.nethome.util.ps.MessageRepeater#repeat} but without allocating.
+     *
+     * @return number of pulses written
+     * @throws IndexOutOfBoundsException if the pulses do not fit in the buffer
+     */
+    public static int repeatInto(PulseBufferEncoder encoder, Message message, int repeatCount,
+                                 int[] buffer, int offset) throws BadMessageException {
+        checkCapacity(buffer, offset, repeatedLength(encoder, message, repeatCount));
+        int position = offset;
+        position += encoder.encodeInto(message, ProtocolEncoder.Phase.FIRST, buffer, position);
+        if (repeatCount > 0) {
+            int frameStart = position;
+            int frameLength = encoder.encodeInto(message, ProtocolEncoder.Phase.REPEATED, buffer, position);
+            position += frameLength;
+            for (int i = 1; i < repeatCount; i++) {
+                System.arraycopy(buffer, frameStart, buffer, position, frameLength);
+                position += frameLength;
+            }
+        }
+        return position - offset;
+    }
+
+    /**
+     * Verify that length pulses fit in the buffer starting at offset
+     *
+     * @throws IndexOutOfBoundsException if they do not fit
+     */
+    public static void checkCapacity(int[] buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.length) {
+            throw new IndexOutOfBoundsException("Buffer of length " + buffer.length + " cannot hold " +
+                    length + " pulses at offset " + offset);
+        }
+    }
+
+    private static int[] scratch(int length) {
+        int[] scratch = scratchBuffer.get();
+        if (scratch.length < length) {
+            scratch = new int[Math.max(length, scratch.length * 2)];
+            scratchBuffer.set(scratch);
+        }
+        return scratch;
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.encoders;
+
+import nu.nethome.util.ps.BadMessageException;
+import nu.nethome.util.ps.Message;
+import nu.nethome.util.ps.ProtocolEncoder;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A compact description of a transmission: an optional prefix which is sent once, followed by a body
+ * which is sent repeatCount times. Only one copy of the body is kept in memory regardless of the
+ * number of repeats, and the pulses can be read one by one via a {@link PulseIterator} or written to
+ * a buffer in one go.
+ * <br>
+ * As with all pulse sequences the pulses alternate between mark and space starting with a mark, so the
+ * last pulse of the train is normally the space after the last frame. If a trailing gap is specified it
+ * replaces the length of that last pulse, which allows a train to end with a shorter (or longer) pause
+ * than the repeat gap the encoder puts between frames.
+ * <br>
+ * The pulse arrays are not copied when a PulseTrain is created, so they must not be modified afterwards.
+ */
+public final class PulseTrain {
+
+    private static final int[] NO_PULSES = new int[0];
+
+    private final int[] prefix;
+    private final int[] body;
+    private final int repeatCount;
+    private final int trailingGap;
+    private final int modulationFrequency;
+    private final long prefixDuration;
+    private final long bodyDuration;
+
+    public PulseTrain(int[] body, int repeatCount) {
+        this(NO_PULSES, body, repeatCount, 0, 0);
+    }
+
+    public PulseTrain(int[] prefix, int[] body, int repeatCount) {
+        this(prefix, body, repeatCount, 0, 0);
+    }
+
+    /**
+     * @param prefix              pulses sent once before the body
+     * @param body                pulses sent repeatCount times
+     * @param repeatCount         number of times to send the body, 0 or more
+     * @param trailingGap         length of the last pulse in the train in micro seconds, 0 to keep the encoded one
+     * @param modulationFrequency modulation frequency in Hz, 0 for no modulation
+     */
+    public PulseTrain(int[] prefix, int[] body, int repeatCount, int trailingGap, int modulationFrequency) {
+        if (repeatCount < 0) {
+            throw new IllegalArgumentException("Bad repeat count: " + repeatCount);
+        }
+        if (trailingGap < 0) {
+            throw new IllegalArgumentException("Bad trailing gap: " + trailingGap);
+        }
+        this.prefix = prefix;
+        this.body = body;
+        this.repeatCount = repeatCount;
+        this.trailingGap = trailingGap;
+        this.modulationFrequency = modulationFrequency;
+        this.prefixDuration = sum(prefix);
+        this.bodyDuration = sum(body);
+    }
+
+    /**
+     * Create a pulse train from any ProtocolEncoder. The FIRST phase of the message becomes the prefix
+     * and the REPEATED phase the body, which gives the same pulses as
+     * {@link nu.nethome.util.ps.MessageRepeater#repeat} without materializing the repeats.
+     *
+     * @param encoder     encoder to use
+     * @param message     message to encode
+     * @param repeatCount number of times to repeat the REPEATED phase
+     * @return the pulse train
+     */
+    public static PulseTrain encode(ProtocolEncoder encoder, Message message, int repeatCount) throws BadMessageException {
+        int[] prefix = encoder.encode(message, ProtocolEncoder.Phase.FIRST);
+        int[] body = encoder.encode(message, ProtocolEncoder.Phase.REPEATED);
+        return new PulseTrain(prefix, body, repeatCount, 0, encoder.modulationFrequency(message));
+    }
+
+    /**
+     * @return total number of pulses in the train
+     */
+    public int length() {
+        return prefix.length + body.length * repeatCount;
+    }
+
+    /**
+     * Get a single pulse without materializing the train
+     *
+     * @param index 0 - length() - 1
+     * @return pulse length in micro seconds
+     */
+    public int pulseAt(int index) {
+        int length = length();
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+        }
+        if (trailingGap > 0 && index == length - 1) {
+            return trailingGap;
+        }
+        if (index < prefix.length) {
+            return prefix[index];
+        }
+        return body[(index - prefix.length) % body.length];
+    }
+
+    /**
+     * @return the time in micro seconds it takes to send the whole train
+     */
+    public long duration() {
+        long duration = prefixDuration + bodyDuration * repeatCount;
+        if (trailingGap > 0 && length() > 0) {
+            duration += trailingGap - lastEncodedPulse();
+        }
+        return duration;
+    }
+
+    /**
+     * Materialize the whole train, mainly for drivers that need all pulses in one array
+     *
+     * @return all pulses of the train
+     */
+    public int[] toArray() {
+        int[] result = new int[length()];
+        writeTo(result, 0);
+        return result;
+    }
+
+    /**
+     * Write the whole train to a buffer
+     *
+     * @return number of pulses written
+     * @throws IndexOutOfBoundsException if the train does not fit in the buffer
+     */
+    public int writeTo(int[] buffer, int offset) {
+        int length = length();
+        PulseBuffers.checkCapacity(buffer, offset, length);
+        System.arraycopy(prefix, 0, buffer, offset, prefix.length);
+        int position = offset + prefix.length;
+        for (int i = 0; i < repeatCount; i++) {
+            System.arraycopy(body, 0, buffer, position, body.length);
+            position += body.length;
+        }
+        if (trailingGap > 0 && length > 0) {
+            buffer[position - 1] = trailingGap;
+        }
+        return length;
+    }
+
+    public PulseIterator iterator() {
+        return new PulseIterator();
+    }
+
+    public PulseTrain withRepeatCount(int repeatCount) {
+        return new PulseTrain(prefix, body, repeatCount, trailingGap, modulationFrequency);
+    }
+
+    public PulseTrain withTrailingGap(int trailingGap) {
+        return new PulseTrain(prefix, body, repeatCount, trailingGap, modulationFrequency);
+    }
+
+    public int[] getPrefix() {
+        return prefix.clone();
+    }
+
+    public int[] getBody() {
+        return body.clone();
+    }
+
+    public int getPrefixLength() {
+        return prefix.length;
+    }
+
+    public int getBodyLength() {
+        return body.length;
+    }
+
+    /**
+     * @return the time in micro seconds it takes to send the body once
+     */
+    public long getBodyDuration() {
+        return bodyDuration;
+    }
+
+    public int getRepeatCount() {
+        return repeatCount;
+    }
+
+    public int getTrailingGap() {
+        return trailingGap;
+    }
+
+    public int getModulationFrequency() {
+        return modulationFrequency;
+    }
+
+    private int lastEncodedPulse() {
+        return (repeatCount > 0 && body.length > 0) ? body[body.length - 1] : prefix[prefix.length - 1];
+    }
+
+    private static long sum(int[] pulses) {
+        long sum = 0;
+        for (int pulse : pulses) {
+            sum += pulse;
+        }
+        return sum;
+    }
+
+    /**
+     * Reads the pulses of the train one by one, or in chunks, without boxing or copying the train.
+     * An iterator is not thread safe, but any number of iterators may read the same train.
+     */
+    public final class PulseIterator {
+        private final int length = length();
+        private int position;
+        private int bodyPosition;
+
+        public boolean hasNext() {
+            return position < length;
+        }
+
+        /**
+         * @return the next pulse length in micro seconds
+         * @throws NoSuchElementException if there are no more pulses
+         */
+        public int next() {
+            if (position >= length) {
+                throw new NoSuchElementException();
+            }
+            int pulse;
+            if (position < prefix.length) {
+                pulse = prefix[position];
+            } else {
+                pulse = body[bodyPosition++];
+                if (bodyPosition == body.length) {
+                    bodyPosition = 0;
+                }
+            }
+            position++;
+            return (trailingGap > 0 && position == length) ? trailingGap : pulse;
+        }
+
+        /**
+         * Read up to maxLength pulses into a buffer, for example to fill a transmit buffer in a driver
+         *
+         * @return number of pulses read, 0 if there are no more pulses
+         */
+        public int read(int[] buffer, int offset, int maxLength) {
+            int count = Math.min(maxLength, length - position);
+            PulseBuffers.checkCapacity(buffer, offset, count);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = next();
+            }
+            return count;
+        }
+
+        /**
+         * @return number of pulses read so far
+         */
+        public int position() {
+            return position;
+        }
+
+        public int remaining() {
+            return length - position;
+        }
+
+        /**
+         * Start over from the first pulse
+         */
+        public void reset() {
+            position = 0;
+            bodyPosition = 0;
+        }
+    }
+}
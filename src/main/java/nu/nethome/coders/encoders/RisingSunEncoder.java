@@ -23,10 +23,8 @@ import nu.nethome.coders.decoders.RisingSunDecoder;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
-import java.util.ArrayList;
-
 @Plugin
-public class RisingSunEncoder implements ProtocolEncoder{
+public class RisingSunEncoder implements PulseBufferEncoder {
 	
 	public int repeatCount = 5;
 	private int channel = 1;
@@ -42,6 +40,7 @@ public class RisingSunEncoder implements ProtocolEncoder{
 	protected int SHORT_SPACE = RisingSunDecoder.RISING_SUN_SHORT_SPACE.length();
 	protected int REPEAT = RisingSunDecoder.RISING_SUN_REPEAT.length();
 	protected static int BUTTON_MAP[] = {0x54, 0x51, 0x45, 0x15};
+	private static final int FRAME_LENGTH = 25 * 2;
 
 	public RisingSunEncoder() {
 		setup();
@@ -70,7 +69,23 @@ public class RisingSunEncoder implements ProtocolEncoder{
 	 *
 	 */
 	public int[] encode() {
-		ArrayList<Integer> result = new ArrayList<Integer>();
+		int resultArray[] = new int[repeatCount * FRAME_LENGTH];
+		encodeFrames(resultArray, 0, repeatCount);
+		return resultArray;
+	}
+
+	/**
+	 * Encode the current message as a pulse train holding a single frame and the repeat count
+	 * @return the pulse train
+	 */
+	public PulseTrain encodeTrain() {
+		int frame[] = new int[FRAME_LENGTH];
+		encodeFrames(frame, 0, 1);
+		return new PulseTrain(frame, repeatCount);
+	}
+
+	private int encodeFrames(int[] result, int offset, int frames) {
+		int position = offset;
 		long messageTemplate = 0;
 		long message = 0;
 		
@@ -83,30 +98,25 @@ public class RisingSunEncoder implements ProtocolEncoder{
 		messageTemplate |= (command == 0) ? offCommandValue : onCommandValue;
 
 		// Start actually encoding the data pulses
-		for (int i = 0; i < repeatCount; i++) {
+		for (int i = 0; i < frames; i++) {
 			message = messageTemplate;
 			
 			// 25 bits of data including start bit
 			for (int j = 0; j < 25; j++) {
 				if ((message & 1) == 1) {
-					result.add(LONG_MARK);
-					result.add(SHORT_SPACE);
+					result[position++] = LONG_MARK;
+					result[position++] = SHORT_SPACE;
 				}
 				else {
-					result.add(SHORT_MARK);
-					result.add(LONG_SPACE);
+					result[position++] = SHORT_MARK;
+					result[position++] = LONG_SPACE;
 				}
 				message >>= 1;
 			}
-			int last = result.size() - 1;
 			// Add the repeat delay as the last space period
-			result.set(last, REPEAT);
-		}
-		int resultArray[] = new int[result.size()];
-		for (int i = 0; i < result.size(); i++) {
-			resultArray[i] = result.get(i);
+			result[position - 1] = REPEAT;
 		}
-		return resultArray;
+		return position - offset;
 	}
 
 	public int getChannel() {
@@ -161,6 +171,29 @@ public class RisingSunEncoder implements ProtocolEncoder{
         if (Phase.FIRST == phase) {
             return new int[0];
         }
+        readMessage(message);
+        setRepeatCount(1);
+        return encode();
+    }
+
+    public int encodedLength(Message message, Phase phase) throws BadMessageException {
+        if (Phase.FIRST == phase) {
+            return 0;
+        }
+        readMessage(message);
+        return FRAME_LENGTH;
+    }
+
+    public int encodeInto(Message message, Phase phase, int[] buffer, int offset) throws BadMessageException {
+        if (Phase.FIRST == phase) {
+            return 0;
+        }
+        readMessage(message);
+        PulseBuffers.checkCapacity(buffer, offset, FRAME_LENGTH);
+        return encodeFrames(buffer, offset, 1);
+    }
+
+    private void readMessage(Message message) throws BadMessageException {
         for (FieldValue field : message.getFields()) {
             if (field.getName().equals("Command")) {
                 setCommand(field.getValue());
@@ -172,8 +205,6 @@ public class RisingSunEncoder implements ProtocolEncoder{
                 throw new BadMessageException(field);
             }
         }
-        setRepeatCount(1);
-        return encode();
     }
 
     @Override
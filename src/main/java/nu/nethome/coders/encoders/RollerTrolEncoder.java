@@ -8,10 +8,11 @@ import static nu.nethome.coders.RollerTrol.*;
 /**
  *
  */
-public class RollerTrolEncoder implements ProtocolEncoder {
+public class RollerTrolEncoder implements PulseBufferEncoder {
 
     public static final int PREAMBLE_LENGTH = 4;
-    public static final int CONSTANT_FIELD_VALUE = 1;
+    public static final int CONSTANT_FIELD_VALUE = RollerTrol.CONSTANT_FIELD_VALUE;
+    private static final int FRAME_LENGTH = PREAMBLE_LENGTH + MESSAGE_BIT_LENGTH * 2;
 
     @Override
     public ProtocolInfo getInfo() {
@@ -20,6 +21,18 @@ public class RollerTrolEncoder implements ProtocolEncoder {
 
     @Override
     public int[] encode(Message message, Phase phase) throws BadMessageException {
+        int result[] = new int[FRAME_LENGTH];
+        encodeInto(message, phase, result, 0);
+        return result;
+    }
+
+    @Override
+    public int encodedLength(Message message, Phase phase) throws BadMessageException {
+        return FRAME_LENGTH;
+    }
+
+    @Override
+    public int encodeInto(Message message, Phase phase, int[] buffer, int offset) throws BadMessageException {
         int houseCode = 0;
         int deviceCode = 0;
         int command = 0;
@@ -34,22 +47,22 @@ public class RollerTrolEncoder implements ProtocolEncoder {
                 command = f.getValue();
             }
         }
-        return encode(houseCode, deviceCode, command);
+        PulseBuffers.checkCapacity(buffer, offset, FRAME_LENGTH);
+        return encode(houseCode, deviceCode, command, buffer, offset);
     }
 
-    private int[] encode(int houseCode, int deviceCode, int command) {
-        int[] result = new int[PREAMBLE_LENGTH + MESSAGE_BIT_LENGTH * 2];
-        result[0] = RollerTrol.LONG_PREAMBLE_MARK.length();
-        result[1] = RollerTrol.LONG_PREAMBLE_SPACE.length();
-        result[2] = RollerTrol.SHORT_PREAMBLE_MARK.length();
-        result[3] = RollerTrol.SHORT.length();
+    private int encode(int houseCode, int deviceCode, int command, int[] result, int offset) {
+        result[offset] = RollerTrol.LONG_PREAMBLE_MARK.length();
+        result[offset + 1] = RollerTrol.LONG_PREAMBLE_SPACE.length();
+        result[offset + 2] = RollerTrol.SHORT_PREAMBLE_MARK.length();
+        result[offset + 3] = RollerTrol.SHORT.length();
         BitString message = new BitString(MESSAGE_BIT_LENGTH);
         message.insert(RollerTrol.COMMAND, command);
         message.insert(RollerTrol.HOUSE_CODE, houseCode);
         message.insert(RollerTrol.DEVICE_CODE, deviceCode);
         message.insert(CONSTANT_FIELD, CONSTANT_FIELD_VALUE);
         message.insert(CHECK_SUM, RollerTrol.calculateChecksum(message));
-        int resultPosition = PREAMBLE_LENGTH;
+        int resultPosition = offset + PREAMBLE_LENGTH;
         for (int i = 0; i < MESSAGE_BIT_LENGTH; i++) {
             if (message.getBit(i)) {
                 result[resultPosition++] = LONG.length();
@@ -59,7 +72,7 @@ public class RollerTrolEncoder implements ProtocolEncoder {
                 result[resultPosition++] = LONG.length();
             }
         }
-        return result;
+        return resultPosition - offset;
     }
 
     @Override
@@ -8,10 +8,11 @@ import static nu.nethome.coders.RollerTrolG.*;
 /**
  *
  */
-public class RollerTrolGEncoder implements ProtocolEncoder {
+public class RollerTrolGEncoder implements PulseBufferEncoder {
 
     public static final int PREAMBLE_LENGTH = 2;
     public static final int CONSTANT_FIELD_VALUE = 1;
+    private static final int FRAME_LENGTH = PREAMBLE_LENGTH + RollerTrolG.PROTOCOL_BIT_LENGTH * 2 + 1;
 
     @Override
     public ProtocolInfo getInfo() {
@@ -20,6 +21,18 @@ public class RollerTrolGEncoder implements ProtocolEncoder {
 
     @Override
     public int[] encode(Message message, Phase phase) throws BadMessageException {
+        int result[] = new int[FRAME_LENGTH];
+        encodeInto(message, phase, result, 0);
+        return result;
+    }
+
+    @Override
+    public int encodedLength(Message message, Phase phase) throws BadMessageException {
+        return FRAME_LENGTH;
+    }
+
+    @Override
+    public int encodeInto(Message message, Phase phase, int[] buffer, int offset) throws BadMessageException {
         int address = 0;
         int channel = 0;
         int command = 0;
@@ -34,18 +47,18 @@ public class RollerTrolGEncoder implements ProtocolEncoder {
                 command = f.getValue();
             }
         }
-        return encode(address, channel, command);
+        PulseBuffers.checkCapacity(buffer, offset, FRAME_LENGTH);
+        return encode(address, channel, command, buffer, offset);
     }
 
-    private int[] encode(int address, int channel, int command) {
-        int[] result = new int[PREAMBLE_LENGTH + RollerTrolG.PROTOCOL_BIT_LENGTH * 2 + 1];
-        result[0] = RollerTrolG.LONG_PREAMBLE_MARK.length();
-        result[1] = RollerTrolG.LONG_PREAMBLE_SPACE.length();
+    private int encode(int address, int channel, int command, int[] result, int offset) {
+        result[offset] = RollerTrolG.LONG_PREAMBLE_MARK.length();
+        result[offset + 1] = RollerTrolG.LONG_PREAMBLE_SPACE.length();
         BitString message = new BitString(RollerTrolG.PROTOCOL_BIT_LENGTH);
         message.insert(RollerTrolG.COMMAND, command);
         message.insert(RollerTrolG.ADDRESS, address);
         message.insert(RollerTrolG.CHANNEL, channel);
-        int resultPosition = PREAMBLE_LENGTH;
+        int resultPosition = offset + PREAMBLE_LENGTH;
         for (int i = 0; i < RollerTrolG.PROTOCOL_BIT_LENGTH; i++) {
             if (message.getBit(PROTOCOL_BIT_LENGTH - i - 1)) {
                 result[resultPosition++] = LONG.length();
@@ -55,8 +68,8 @@ public class RollerTrolGEncoder implements ProtocolEncoder {
                 result[resultPosition++] = LONG.length();
             }
         }
-        result[resultPosition] = RollerTrolG.REPEAT_SPACE.length();
-        return result;
+        result[resultPosition++] = RollerTrolG.REPEAT_SPACE.length();
+        return resultPosition - offset;
     }
 
     @Override
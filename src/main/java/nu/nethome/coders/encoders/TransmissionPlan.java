@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.encoders;
+
+import nu.nethome.util.ps.Message;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a {@link TransmissionScheduler}: the merged pulse train to transmit and a timing
+ * report for each of the scheduled messages. All times are in micro seconds from the start of the train.
+ */
+public class TransmissionPlan {
+
+    private final PulseTrain pulseTrain;
+    private final List<DeviceTiming> deviceTimings;
+    private final long sequentialDuration;
+
+    TransmissionPlan(PulseTrain pulseTrain, List<DeviceTiming> deviceTimings, long sequentialDuration) {
+        this.pulseTrain = pulseTrain;
+        this.deviceTimings = Collections.unmodifiableList(deviceTimings);
+        this.sequentialDuration = sequentialDuration;
+    }
+
+    public PulseTrain getPulseTrain() {
+        return pulseTrain;
+    }
+
+    /**
+     * @return timing for each message, in the order they were added to the scheduler
+     */
+    public List<DeviceTiming> getDeviceTimings() {
+        return deviceTimings;
+    }
+
+    /**
+     * @return the time it takes to send the merged train
+     */
+    public long getDuration() {
+        return pulseTrain.duration();
+    }
+
+    /**
+     * @return the time it would take to send the messages one after another with all repeats
+     */
+    public long getSequentialDuration() {
+        return sequentialDuration;
+    }
+
+    /**
+     * @return time until the last frame of the last message has been sent
+     */
+    public long getLastDeviceLatency() {
+        long latency = 0;
+        for (DeviceTiming timing : deviceTimings) {
+            latency = Math.max(latency, timing.getLastFrameEnd());
+        }
+        return latency;
+    }
+
+    /**
+     * @return a human readable report with one line per message
+     */
+    public String getReport() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("Duration: %d us (sequential %d us), last frame ends at %d us%n",
+                getDuration(), getSequentialDuration(), getLastDeviceLatency()));
+        for (DeviceTiming timing : deviceTimings) {
+            result.append(timing).append(String.format("%n"));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Timing of one scheduled message
+     */
+    public static class DeviceTiming {
+        private final Message message;
+        private final String protocol;
+        private final int frameCount;
+        private final long firstFrameStart;
+        private final long lastFrameEnd;
+        private final long airtime;
+
+        DeviceTiming(Message message, String protocol, int frameCount, long firstFrameStart, long lastFrameEnd, long airtime) {
+            this.message = message;
+            this.protocol = protocol;
+            this.frameCount = frameCount;
+            this.firstFrameStart = firstFrameStart;
+            this.lastFrameEnd = lastFrameEnd;
+            this.airtime = airtime;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        public String getProtocol() {
+            return protocol;
+        }
+
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        public long getFirstFrameStart() {
+            return firstFrameStart;
+        }
+
+        /**
+         * @return end of the last burst of the message, not counting the gap after it
+         */
+        public long getLastFrameEnd() {
+            return lastFrameEnd;
+        }
+
+        /**
+         * @return total time the message's frames occupy the channel, excluding gaps
+         */
+        public long getAirtime() {
+            return airtime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d frames, first at %d us, last ends at %d us, airtime %d us",
+                    protocol, frameCount, firstFrameStart, lastFrameEnd, airtime);
+        }
+    }
+}
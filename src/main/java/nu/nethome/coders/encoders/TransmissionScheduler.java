@@ -0,0 +1,423 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.encoders;
+
+import nu.nethome.coders.CoderFactory;
+import nu.nethome.coders.RollerTrolG;
+import nu.nethome.coders.decoders.NexaDecoder;
+import nu.nethome.coders.decoders.NexaFireDecoder;
+import nu.nethome.coders.decoders.NexaLDecoder;
+import nu.nethome.coders.decoders.RisingSunDecoder;
+import nu.nethome.coders.decoders.ZhejiangDecoder;
+import nu.nethome.util.ps.BadMessageException;
+import nu.nethome.util.ps.Message;
+import nu.nethome.util.ps.ProtocolEncoder;
+import nu.nethome.util.ps.ProtocolMessage;
+import nu.nethome.util.ps.PulseLength;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs a batch of messages, possibly for different protocols, into one pulse train. Instead of sending
+ * all repeats of one message before starting on the next, frames of other messages are placed in the
+ * pause between the repeats of a message, which cuts the total airtime of for example a scene
+ * targeting many devices.
+ * <br>
+ * Each frame is followed by a space (the repeat gap) in the encoded pulses. A receiver does not need all
+ * of that gap to be silent, it only needs a quiet period around its frames to tell them apart from other
+ * traffic. This quiet period is the guard time of the protocol. When the repeat window of the protocol's
+ * decoder is known, the guard time is by default the shortest silence the window accepts, so a repeat is
+ * still recognized when other frames are sent after the silence. Otherwise it is half of the repeat gap.
+ * Repeats of the same message are never sent closer than the encoded repeat gap. Protocols that must not
+ * have other frames in their gaps can be marked as not interleavable. If the guard times leave so little
+ * room that the interleaved train would be longer, the frames are sent in turn.
+ * <br>
+ * The scheduler is not thread safe.
+ */
+public class TransmissionScheduler {
+
+    public static final int DEFAULT_REPEAT_COUNT = 5;
+
+    private final Map<String, ProtocolEncoder> encoders = new HashMap<String, ProtocolEncoder>();
+    private final Map<String, Integer> guardTimes = new HashMap<String, Integer>();
+    private final Map<String, PulseLength> repeatWindows = new HashMap<String, PulseLength>();
+    private final Map<String, Boolean> interleavable = new HashMap<String, Boolean>();
+    private final List<Device> devices = new ArrayList<Device>();
+    private int defaultRepeatCount = DEFAULT_REPEAT_COUNT;
+
+    /**
+     * Create a scheduler which can encode messages for all protocols in {@link Encoders#getFactories()}
+     */
+    public TransmissionScheduler() {
+        for (CoderFactory<ProtocolEncoder> factory : Encoders.getFactories()) {
+            addEncoder(factory.create());
+        }
+        // The X10 decoder reports the message on the last bit and synchronizes on the long header mark,
+        // so it needs much less than its 40 ms repeat gap
+        setGuardTime("X10", 10000);
+        // IR receivers use automatic gain control which does not cope well with foreign bursts
+        setInterleavable("Pronto", false);
+        setRepeatWindow("Nexa", NexaDecoder.NEXA_REPEAT);
+        setRepeatWindow("Waveman", NexaDecoder.NEXA_REPEAT);
+        setRepeatWindow("NexaL", NexaLDecoder.NEXA_REPEAT);
+        setRepeatWindow("NexaFire", NexaFireDecoder.NEXAF_REPEAT);
+        setRepeatWindow("RisingSun", RisingSunDecoder.RISING_SUN_REPEAT);
+        setRepeatWindow("Zhejiang", ZhejiangDecoder.ZHEJ_REPEAT);
+        setRepeatWindow("RollerTrolG", RollerTrolG.REPEAT_SPACE);
+    }
+
+    /**
+     * Add or replace the encoder used for the protocol given by the encoder's protocol info
+     */
+    public void addEncoder(ProtocolEncoder encoder) {
+        encoders.put(encoder.getInfo().getName(), encoder);
+    }
+
+    /**
+     * Set the minimum silence in micro seconds needed before and after a frame of the protocol
+     */
+    public void setGuardTime(String protocol, int microseconds) {
+        if (microseconds < 0) {
+            throw new IllegalArgumentException("Bad guard time: " + microseconds);
+        }
+        guardTimes.put(protocol, microseconds);
+    }
+
+    /**
+     * Set the window in which the decoder of the protocol accepts the space between two repeats. A frame
+     * ending with a pulse in the window has that pulse as its gap, and the default guard time is the
+     * shortest silence in the window.
+     */
+    public void setRepeatWindow(String protocol, PulseLength window) {
+        repeatWindows.put(protocol, window);
+    }
+
+    /**
+     * Specify if frames of other messages may be sent in the repeat gaps of the protocol
+     */
+    public void setInterleavable(String protocol, boolean isInterleavable) {
+        interleavable.put(protocol, isInterleavable);
+    }
+
+    public int getDefaultRepeatCount() {
+        return defaultRepeatCount;
+    }
+
+    public void setDefaultRepeatCount(int defaultRepeatCount) {
+        if (defaultRepeatCount < 1) {
+            throw new IllegalArgumentException("Bad repeat count: " + defaultRepeatCount);
+        }
+        this.defaultRepeatCount = defaultRepeatCount;
+    }
+
+    /**
+     * Add a message to the batch, the protocol is taken from the message which must be a ProtocolMessage
+     */
+    public void add(Message message) throws BadMessageException {
+        add(message, defaultRepeatCount);
+    }
+
+    public void add(Message message, int repeatCount) throws BadMessageException {
+        if (!(message instanceof ProtocolMessage)) {
+            throw new IllegalArgumentException("Protocol must be specified for messages which are not ProtocolMessages");
+        }
+        add(message, ((ProtocolMessage) message).getProtocol(), repeatCount);
+    }
+
+    public void add(Message message, String protocol, int repeatCount) throws BadMessageException {
+        ProtocolEncoder encoder = encoders.get(protocol);
+        if (encoder == null) {
+            throw new IllegalArgumentException("No encoder for protocol " + protocol);
+        }
+        devices.add(new Device(message, protocol, PulseTrain.encode(encoder, message, repeatCount)));
+    }
+
+    /**
+     * @return number of messages in the batch
+     */
+    public int size() {
+        return devices.size();
+    }
+
+    public void clear() {
+        devices.clear();
+    }
+
+    /**
+     * Build the merged transmission of all messages added so far. The batch is kept, so more messages
+     * may be added and a new plan created.
+     *
+     * @return the plan with the merged pulse train and the timing of each message
+     * @throws IllegalArgumentException if the messages use different modulation frequencies
+     */
+    public TransmissionPlan schedule() {
+        int modulationFrequency = devices.isEmpty() ? 0 : devices.get(0).train.getModulationFrequency();
+        long sequentialDuration = 0;
+        for (Device device : devices) {
+            if (device.train.getModulationFrequency() != modulationFrequency) {
+                throw new IllegalArgumentException("Messages with different modulation frequencies cannot be merged");
+            }
+            sequentialDuration += device.train.duration();
+        }
+        Schedule schedule = place(true);
+        Schedule inTurn = place(false);
+        if (inTurn.duration() < schedule.duration()) {
+            // The guard times left too little room in the gaps, send the frames in turn
+            schedule = inTurn;
+        }
+        List<Placement> placements = schedule.placements;
+        int pulseCount = 0;
+        for (Placement placement : placements) {
+            pulseCount += placement.frame.burstLength + 1;
+        }
+        int[] pulses = new int[pulseCount];
+        int position = 0;
+        for (int i = 0; i < placements.size(); i++) {
+            Placement placement = placements.get(i);
+            System.arraycopy(placement.frame.pulses, 0, pulses, position, placement.frame.burstLength);
+            position += placement.frame.burstLength;
+            long burstEnd = placement.start + placement.frame.burstDuration;
+            pulses[position++] = (i + 1 < placements.size()) ?
+                    (int) (placements.get(i + 1).start - burstEnd) : placement.frame.gap;
+        }
+        List<TransmissionPlan.DeviceTiming> timings = new ArrayList<TransmissionPlan.DeviceTiming>(devices.size());
+        for (Device device : schedule.devices) {
+            timings.add(new TransmissionPlan.DeviceTiming(device.message, device.protocol, device.frameCount(),
+                    device.firstStart, device.lastEnd, device.airtime));
+        }
+        PulseTrain train = new PulseTrain(new int[0], pulses, 1, 0, modulationFrequency);
+        return new TransmissionPlan(train, timings, sequentialDuration);
+    }
+
+    /**
+     * Place the frames of all messages greedily on one timeline, each as early as its own repeat gap and
+     * the guard times allow. The messages in the batch are not changed, the placement state of each message is
+     * kept in a copy which is returned in the schedule.
+     *
+     * @param interleave false to not send any frames in the gaps of other messages
+     */
+    private Schedule place(boolean interleave) {
+        List<Device> devices = new ArrayList<Device>(this.devices.size());
+        for (Device added : this.devices) {
+            Device device = new Device(added.message, added.protocol, added.train);
+            PulseLength repeatWindow = repeatWindows.get(device.protocol);
+            device.reset(repeatWindow, interleave && isInterleavable(device.protocol));
+            device.guard = guardTime(device, repeatWindow);
+            devices.add(device);
+        }
+        List<Placement> placements = new ArrayList<Placement>();
+        long lastBurstEnd = 0;
+        long blockedUntil = 0;
+        int lastGuard = 0;
+        while (true) {
+            Device next = null;
+            long nextStart = 0;
+            for (Device device : devices) {
+                if (!device.hasMoreFrames()) {
+                    continue;
+                }
+                long start = Math.max(device.earliestStart, blockedUntil);
+                if (!placements.isEmpty()) {
+                    start = Math.max(start, lastBurstEnd + Math.max(lastGuard, device.guard));
+                }
+                if (next == null || start < nextStart ||
+                        (start == nextStart && device.remainingTime() > next.remainingTime())) {
+                    next = device;
+                    nextStart = start;
+                }
+            }
+            if (next == null) {
+                return new Schedule(placements, devices);
+            }
+            Frame frame = next.nextFrame();
+            placements.add(new Placement(frame, nextStart));
+            lastBurstEnd = nextStart + frame.burstDuration;
+            lastGuard = next.guard;
+            next.placed(nextStart, lastBurstEnd, frame);
+            if (!next.interleavable) {
+                blockedUntil = lastBurstEnd + frame.gap;
+            }
+        }
+    }
+
+    private int guardTime(Device device, PulseLength repeatWindow) {
+        Integer guard = guardTimes.get(device.protocol);
+        int gap = device.body.gap > 0 ? device.body.gap : (device.prefix != null ? device.prefix.gap : 0);
+        if (guard == null) {
+            guard = repeatWindow != null ? shortestAccepted(repeatWindow) : gap / 2;
+        }
+        return Math.min(guard, gap);
+    }
+
+    /**
+     * @return the shortest whole number of micro seconds the window matches
+     */
+    private static int shortestAccepted(PulseLength window) {
+        int rejected = 0;
+        int accepted = window.length();
+        while (accepted - rejected > 1) {
+            int middle = rejected + (accepted - rejected) / 2;
+            if (window.matches(middle)) {
+                accepted = middle;
+            } else {
+                rejected = middle;
+            }
+        }
+        return accepted;
+    }
+
+    private boolean isInterleavable(String protocol) {
+        Boolean result = interleavable.get(protocol);
+        return result == null || result;
+    }
+
+    /**
+     * One frame of a message, split in the burst of pulses and the gap (the last space) after it
+     */
+    private static class Frame {
+        final int[] pulses;
+        final int burstLength;
+        final long burstDuration;
+        final int gap;
+
+        /**
+         * @param repeatWindow the repeat window of the protocol's decoder, or null if not known
+         */
+        Frame(int[] pulses, PulseLength repeatWindow) {
+            this.pulses = pulses;
+            // Frames normally end with a space, which is the gap. Without a repeat window a frame ending
+            // with a mark has no gap.
+            int last = pulses.length - 1;
+            boolean hasGap = last > 0 &&
+                    ((repeatWindow != null && repeatWindow.matches(pulses[last])) || pulses.length % 2 == 0);
+            int length = hasGap ? last : pulses.length;
+            int gapLength = hasGap ? pulses[last] : 0;
+            if (hasGap && length % 2 == 0) {
+                // The burst ends with a space, like in RollerTrolG, which is part of the silence
+                length--;
+                gapLength += pulses[length];
+            }
+            burstLength = length;
+            gap = gapLength;
+            long duration = 0;
+            for (int i = 0; i < burstLength; i++) {
+                duration += pulses[i];
+            }
+            burstDuration = duration;
+        }
+    }
+
+    private static class Placement {
+        final Frame frame;
+        final long start;
+
+        Placement(Frame frame, long start) {
+            this.frame = frame;
+            this.start = start;
+        }
+    }
+
+    /**
+     * The frames of all messages placed on the timeline, and the messages with their timing
+     */
+    private static class Schedule {
+        final List<Placement> placements;
+        final List<Device> devices;
+
+        Schedule(List<Placement> placements, List<Device> devices) {
+            this.placements = placements;
+            this.devices = devices;
+        }
+
+        long duration() {
+            if (placements.isEmpty()) {
+                return 0;
+            }
+            Placement last = placements.get(placements.size() - 1);
+            return last.start + last.frame.burstDuration + last.frame.gap;
+        }
+    }
+
+    private static class Device {
+        final Message message;
+        final String protocol;
+        final PulseTrain train;
+        Frame prefix;
+        Frame body;
+        int guard;
+        boolean interleavable;
+        int framesPlaced;
+        long earliestStart;
+        long firstStart;
+        long lastEnd;
+        long airtime;
+
+        Device(Message message, String protocol, PulseTrain train) {
+            this.message = message;
+            this.protocol = protocol;
+            this.train = train;
+        }
+
+        void reset(PulseLength repeatWindow, boolean interleavable) {
+            prefix = train.getPrefixLength() > 0 ? new Frame(train.getPrefix(), repeatWindow) : null;
+            body = new Frame(train.getBody(), repeatWindow);
+            this.interleavable = interleavable;
+            framesPlaced = 0;
+            earliestStart = 0;
+            firstStart = 0;
+            lastEnd = 0;
+            airtime = 0;
+        }
+
+        int frameCount() {
+            int bodyFrames = body.pulses.length > 0 ? train.getRepeatCount() : 0;
+            return (prefix != null ? 1 : 0) + bodyFrames;
+        }
+
+        boolean hasMoreFrames() {
+            return framesPlaced < frameCount();
+        }
+
+        Frame nextFrame() {
+            return (prefix != null && framesPlaced == 0) ? prefix : body;
+        }
+
+        long remainingTime() {
+            int remaining = frameCount() - framesPlaced;
+            if (prefix != null && framesPlaced == 0) {
+                return prefix.burstDuration + prefix.gap + (remaining - 1) * (body.burstDuration + body.gap);
+            }
+            return remaining * (body.burstDuration + body.gap);
+        }
+
+        void placed(long start, long end, Frame frame) {
+            if (framesPlaced == 0) {
+                firstStart = start;
+            }
+            framesPlaced++;
+            lastEnd = end;
+            airtime += frame.burstDuration;
+            earliestStart = end + frame.gap;
+        }
+    }
+}
@@ -22,8 +22,6 @@ package nu.nethome.coders.encoders;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
-import java.util.ArrayList;
-
 /**
  * Encodes the RF version of the X10 protocol. X10 is a system for remote control
  * of lamps and other mains devices. X10 messages are normally sent via the mains
@@ -42,7 +40,7 @@ import java.util.ArrayList;
  *
  */
 @Plugin
-public class X10Encoder implements ProtocolEncoder {
+public class X10Encoder implements PulseBufferEncoder {
 	
 	public static final int COMMAND_OFF = 0;
 	public static final int COMMAND_ON = 1;
@@ -105,6 +103,7 @@ public class X10Encoder implements ProtocolEncoder {
 
 	protected static final int MESSAGE_LENGTH = 32;
 	protected static final long HIGH_BIT = 1L << (MESSAGE_LENGTH - 1);
+	private static final int FRAME_LENGTH = 2 + MESSAGE_LENGTH * 2 + 2;
 	
 	static final int s_Buttons[] = {0x20, 0x10, 0x04, 0x08};
 
@@ -113,8 +112,24 @@ public class X10Encoder implements ProtocolEncoder {
 	 * See {@link nu.nethome.coders.decoders.X10Decoder#addBit} for details on protocol encoding.
 	 */
 	public int[] encode() {
-		ArrayList<Integer> result = new ArrayList<Integer>();
+		int resultArray[] = new int[m_RepeatCount * FRAME_LENGTH];
+		encodeFrames(resultArray, 0, m_RepeatCount);
+		return resultArray;
+	}
+
+	/**
+	 * Encode the current message as a pulse train holding a single frame and the repeat count
+	 * @return the pulse train
+	 */
+	public PulseTrain encodeTrain() {
+		int frame[] = new int[FRAME_LENGTH];
+		encodeFrames(frame, 0, 1);
+		return new PulseTrain(frame, m_RepeatCount);
+	}
+
+	private int encodeFrames(int[] result, int offset, int frames) {
 		long message = 0;
+		int position = offset;
 		
 		// encode message
 		long messageTemplate = 0x00000000;
@@ -131,34 +146,30 @@ public class X10Encoder implements ProtocolEncoder {
 								  (byte2 << 8)  + (byte2 ^ 0xFF);
 		
 		// Start encoding the data pulses
-		for (int i = 0; i < m_RepeatCount; i++) {
+		for (int i = 0; i < frames; i++) {
 			message = rawMessageTemplate;
 
 			// Encode header
-			result.add(X10_HEADER_MARK);
-			result.add(X10_HEADER_SPACE);
+			result[position++] = X10_HEADER_MARK;
+			result[position++] = X10_HEADER_SPACE;
 
 			// Encode message bits
 			for (int j = 0; j < (MESSAGE_LENGTH); j++) {
-				result.add(X10_MARK);
+				result[position++] = X10_MARK;
 				if ((message & HIGH_BIT) == HIGH_BIT) {
-					result.add(X10_LONG_SPACE);
+					result[position++] = X10_LONG_SPACE;
 				}
 				else {
-					result.add(X10_SHORT_SPACE);
+					result[position++] = X10_SHORT_SPACE;
 				}
 				message <<= 1;
 			}
 			// Add end pulse
-			result.add(X10_MARK);
+			result[position++] = X10_MARK;
 			// Add the repeat delay
-			result.add(X10_REPEAT);
-		}
-		int resultArray[] = new int[result.size()];
-		for (int i = 0; i < result.size(); i++) {
-			resultArray[i] = result.get(i);
+			result[position++] = X10_REPEAT;
 		}
-		return resultArray;
+		return position - offset;
 	}
 
 	/**
@@ -263,6 +274,29 @@ public class X10Encoder implements ProtocolEncoder {
         if (Phase.FIRST == phase) {
             return new int[0];
         }
+        readMessage(message);
+        setRepeatCount(1);
+        return encode();
+    }
+
+    public int encodedLength(Message message, Phase phase) throws BadMessageException {
+        if (Phase.FIRST == phase) {
+            return 0;
+        }
+        readMessage(message);
+        return FRAME_LENGTH;
+    }
+
+    public int encodeInto(Message message, Phase phase, int[] buffer, int offset) throws BadMessageException {
+        if (Phase.FIRST == phase) {
+            return 0;
+        }
+        readMessage(message);
+        PulseBuffers.checkCapacity(buffer, offset, FRAME_LENGTH);
+        return encodeFrames(buffer, offset, 1);
+    }
+
+    private void readMessage(Message message) throws BadMessageException {
         for (FieldValue field : message.getFields()) {
             if (field.getName().equals("Command")) {
                 setCommand(field.getValue());
@@ -274,8 +308,6 @@ public class X10Encoder implements ProtocolEncoder {
                 throw new BadMessageException(field);
             }
         }
-        setRepeatCount(1);
-        return encode();
     }
 
     @Override
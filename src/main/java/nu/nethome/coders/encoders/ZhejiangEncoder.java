@@ -23,20 +23,29 @@ import nu.nethome.coders.decoders.ZhejiangDecoder;
 import nu.nethome.util.plugin.Plugin;
 import nu.nethome.util.ps.*;
 
-import java.util.ArrayList;
-
 @Plugin
-public class ZhejiangEncoder implements ProtocolEncoder {
+public class ZhejiangEncoder implements PulseBufferEncoder {
 
     public static final int ZHEJIANG_RAW_MESSAGE_LENGTH = 25;
+    private static final int FRAME_LENGTH = ZHEJIANG_RAW_MESSAGE_LENGTH * 2;
 
     public ProtocolInfo getInfo() {
         return new ProtocolInfo("Zhejiang", "Mark Length", "Zhejiang", 25, 5);
     }
 
     public int[] encode(Message message, Phase phase) throws BadMessageException {
+        int result[] = new int[encodedLength(message, phase)];
+        encodeInto(message, phase, result, 0);
+        return result;
+    }
+
+    public int encodedLength(Message message, Phase phase) throws BadMessageException {
+        return Phase.FIRST == phase ? 0 : FRAME_LENGTH;
+    }
+
+    public int encodeInto(Message message, Phase phase, int[] buffer, int offset) throws BadMessageException {
         if (Phase.FIRST == phase) {
-            return new int[0];
+            return 0;
         }
         int command = 0;
         int address = 0;
@@ -55,7 +64,8 @@ public class ZhejiangEncoder implements ProtocolEncoder {
         if (command < 0 || command > 1 || address < 0 || address > 31 || button < 0 || button > 4) {
             throw new BadMessageException(null);
         }
-        return encode(command, button, address);
+        PulseBuffers.checkCapacity(buffer, offset, FRAME_LENGTH);
+        return encode(command, button, address, buffer, offset);
     }
 
     @Override
@@ -71,8 +81,8 @@ public class ZhejiangEncoder implements ProtocolEncoder {
         return result;
     }
 
-    private int[] encode(int command, int button, int address) {
-        ArrayList<Integer> result = new ArrayList<Integer>();
+    private int encode(int command, int button, int address, int[] result, int offset) {
+        int position = offset;
         long message = 0x2003FF;
         message = copyBit(command, 0, message, 21, false);
         message = copyBit(command, 0, message, 23, true);
@@ -92,22 +102,17 @@ public class ZhejiangEncoder implements ProtocolEncoder {
         // Encode message bits
         for (int j = 0; j < (ZHEJIANG_RAW_MESSAGE_LENGTH); j++) {
             if ((message & 1) == 1) {
-                result.add(ZhejiangDecoder.ZHEJ_LONG_MARK.length());
-                result.add(ZhejiangDecoder.ZHEJ_SHORT_SPACE.length());
+                result[position++] = ZhejiangDecoder.ZHEJ_LONG_MARK.length();
+                result[position++] = ZhejiangDecoder.ZHEJ_SHORT_SPACE.length();
             } else {
-                result.add(ZhejiangDecoder.ZHEJ_SHORT_MARK.length());
-                result.add(ZhejiangDecoder.ZHEJ_LONG_SPACE.length());
+                result[position++] = ZhejiangDecoder.ZHEJ_SHORT_MARK.length();
+                result[position++] = ZhejiangDecoder.ZHEJ_LONG_SPACE.length();
             }
             message >>= 1;
         }
-        result.remove(result.size() - 1);
-        result.add(ZhejiangDecoder.ZHEJ_REPEAT.length());
-
-        int resultArray[] = new int[result.size()];
-        for (int i = 0; i < result.size(); i++) {
-            resultArray[i] = result.get(i);
-        }
-        return resultArray;
+        // The last space is replaced by the repeat space
+        result[position - 1] = ZhejiangDecoder.ZHEJ_REPEAT.length();
+        return position - offset;
     }
 
     private long copyBit(int source, int sourceBit, long destination, int destinationBit, boolean invert) {
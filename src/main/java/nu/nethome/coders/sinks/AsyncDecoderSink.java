@@ -0,0 +1,272 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.sinks;
+
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A ProtocolDecoderSink that passes the calls from the decoders on to another sink in a separate thread, so
+ * the decoding thread never waits for the consumer. Calls are written to a ring of preallocated events and
+ * the consumer thread takes them in batches of up to a configurable size per wake up.
+ * <br>
+ * How the consumer thread waits for events is decided by the wait strategy:
+ * <ul>
+ * <li>SPIN - busy waits, lowest latency but uses a full core</li>
+ * <li>YIELD - spins a while and then yields, low latency but keeps a core busy when idle</li>
+ * <li>PARK - spins a while and then sleeps until the decoding thread wakes it, slower to react but idle
+ * when there are no messages</li>
+ * </ul>
+ * If the ring is full the event is dropped and counted instead of waiting. The decoders must all call
+ * the sink from the same thread, as they do when fed by one pulse source.
+ */
+public class AsyncDecoderSink implements ProtocolDecoderSink, Closeable {
+
+    public static final int SPIN = 0;
+    public static final int YIELD = 1;
+    public static final int PARK = 2;
+    public static final int DEFAULT_SIZE = 1024;
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 1000000;
+
+    private static final int PARSED_MESSAGE = 0;
+    private static final int PARTIALLY_PARSED_MESSAGE = 1;
+    private static final int LEVEL = 2;
+
+    private final ProtocolDecoderSink target;
+    private final Event[] events;
+    private final int mask;
+    private final int batchSize;
+    private final int waitStrategy;
+    private final AtomicLong published = new AtomicLong(-1);
+    private final AtomicLong consumed = new AtomicLong(-1);
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final Thread consumer;
+    private volatile boolean consumerWaiting;
+    private volatile boolean running = true;
+    private boolean forwardLevels = true;
+
+    // Only used by the decoding thread
+    private long nextSequence;
+
+    public AsyncDecoderSink(ProtocolDecoderSink target) {
+        this(target, DEFAULT_SIZE, DEFAULT_BATCH_SIZE, PARK);
+    }
+
+    /**
+     * @param target       sink to pass the calls to
+     * @param size         number of events in the ring, rounded up to a power of two
+     * @param batchSize    largest number of events handled by the consumer before it reports progress
+     * @param waitStrategy SPIN, YIELD or PARK
+     */
+    public AsyncDecoderSink(ProtocolDecoderSink target, int size, int batchSize, int waitStrategy) {
+        if (waitStrategy < SPIN || waitStrategy > PARK) {
+            throw new IllegalArgumentException("Bad wait strategy: " + waitStrategy);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Bad batch size: " + batchSize);
+        }
+        this.target = target;
+        this.batchSize = batchSize;
+        this.waitStrategy = waitStrategy;
+        int ringSize = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        events = new Event[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            events[i] = new Event();
+        }
+        mask = ringSize - 1;
+        consumer = new Thread(new Runnable() {
+            public void run() {
+                consume();
+            }
+        }, "AsyncDecoderSink");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * @param forwardLevels false to ignore reportLevel calls, which some sample sources make very often
+     */
+    public void setForwardLevels(boolean forwardLevels) {
+        this.forwardLevels = forwardLevels;
+    }
+
+    /**
+     * @return number of events dropped because the ring was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of events passed to the target sink
+     */
+    public long getDispatchedCount() {
+        return consumed.get() + 1;
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * @return number of exceptions thrown by the target sink
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    public void parsedMessage(ProtocolMessage message) {
+        Event event = claim();
+        if (event != null) {
+            event.type = PARSED_MESSAGE;
+            event.message = message;
+            publish();
+        }
+    }
+
+    public void partiallyParsedMessage(String protocol, int bits) {
+        Event event = claim();
+        if (event != null) {
+            event.type = PARTIALLY_PARSED_MESSAGE;
+            event.protocol = protocol;
+            event.value = bits;
+            publish();
+        }
+    }
+
+    public void reportLevel(int level) {
+        if (!forwardLevels) {
+            return;
+        }
+        Event event = claim();
+        if (event != null) {
+            event.type = LEVEL;
+            event.value = level;
+            publish();
+        }
+    }
+
+    private Event claim() {
+        if (!running) {
+            return null;
+        }
+        if (nextSequence - consumed.get() > events.length) {
+            dropped.incrementAndGet();
+            return null;
+        }
+        return events[(int) nextSequence & mask];
+    }
+
+    private void publish() {
+        published.lazySet(nextSequence++);
+        if (consumerWaiting) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Pass the remaining events to the target and stop the consumer thread
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void consume() {
+        long next = 0;
+        int idle = 0;
+        while (true) {
+            long available = published.get();
+            if (available < next) {
+                if (!running && published.get() < next) {
+                    return;
+                }
+                idle = waitForEvents(idle);
+                continue;
+            }
+            idle = 0;
+            long last = Math.min(available, next + batchSize - 1);
+            for (long sequence = next; sequence <= last; sequence++) {
+                dispatch(events[(int) sequence & mask]);
+            }
+            consumed.lazySet(last);
+            batches.incrementAndGet();
+            next = last + 1;
+        }
+    }
+
+    private int waitForEvents(int idle) {
+        if (waitStrategy == SPIN || idle < SPIN_TRIES) {
+            return idle + 1;
+        }
+        if (waitStrategy == YIELD) {
+            Thread.yield();
+        } else {
+            consumerWaiting = true;
+            if (running && published.get() < consumed.get() + 1) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            consumerWaiting = false;
+        }
+        return idle;
+    }
+
+    private void dispatch(Event event) {
+        try {
+            switch (event.type) {
+                case PARSED_MESSAGE:
+                    target.parsedMessage(event.message);
+                    break;
+                case PARTIALLY_PARSED_MESSAGE:
+                    target.partiallyParsedMessage(event.protocol, event.value);
+                    break;
+                default:
+                    target.reportLevel(event.value);
+            }
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+        }
+        event.message = null;
+        event.protocol = null;
+    }
+
+    /**
+     * A preallocated slot in the ring
+     */
+    private static class Event {
+        int type;
+        ProtocolMessage message;
+        String protocol;
+        int value;
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nu.nethome.coders.sinks;
+
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+
+/**
+ * A ProtocolDecoderSink that turns the pulse counts reported by FooGadget energy meters into energy deltas and
+ * power. The FineOffsetDecoder reports the meters as "FooGadgetLegacy" messages, where "Counter" holds the high 8
+ * bits and "Energy" the low 12 bits of the meter's 20 bit pulse count, or as "FooGadgetPulse" messages with the
+ * whole count in "Pulses".
+ * <br>
+ * For each reading after the first one from a meter the listener gets the number of pulses since the previous
+ * reading, with the wrap of the count taken care of, and the mean power during the time between them. Repeats of
+ * the same reading within the repeat time are ignored. A jump that would mean more than the max power is taken as
+ * a restarted meter, and the count starts over without an event.
+ * <br>
+ * The state of the meters is kept in arrays indexed by the 12 bit identity, so no objects are created per
+ * reading. Readings must be added from one thread.
+ */
+public class EnergyDeltaStream implements ProtocolDecoderSink {
+
+    public static final int DEFAULT_PULSES_PER_KWH = 1000;
+    public static final long DEFAULT_REPEAT_TIME = 2000;
+    public static final double DEFAULT_MAX_POWER = 50000;
+    private static final int COUNT_MASK = (1 << 20) - 1;
+    private static final int IDENTITIES = 1 << 12;
+    private static final double MILLISECONDS_PER_HOUR = 3600 * 1000.0;
+
+    /**
+     * Receives the computed deltas
+     */
+    public interface Listener {
+        /**
+         * @param identity identity of the meter
+         * @param time     time in milliseconds of the reading
+         * @param elapsed  milliseconds since the previous reading
+         * @param pulses   number of pulses since the previous reading
+         * @param wattHours energy since the previous reading
+         * @param watts    mean power since the previous reading
+         */
+        void energyDelta(int identity, long time, long elapsed, int pulses, double wattHours, double watts);
+    }
+
+    private final Listener listener;
+    private final double wattHoursPerPulse;
+    private final long repeatTime;
+    private final double maxPower;
+    private final int[] counts = new int[IDENTITIES];
+    private final long[] times = new long[IDENTITIES];
+    private final boolean[] known = new boolean[IDENTITIES];
+    private long deltaCount;
+    private long repeatCount;
+    private long restartCount;
+
+    public EnergyDeltaStream(Listener listener) {
+        this(listener, DEFAULT_PULSES_PER_KWH, DEFAULT_REPEAT_TIME, DEFAULT_MAX_POWER);
+    }
+
+    /**
+     * @param listener     receiver of the deltas
+     * @param pulsesPerKWh pulses counted by the meters per kWh
+     * @param repeatTime   milliseconds within which an unchanged count is taken as a repeat of the same reading
+     * @param maxPower     highest power in W that is believed, higher means the meter has restarted
+     */
+    public EnergyDeltaStream(Listener listener, int pulsesPerKWh, long repeatTime, double maxPower) {
+        if (pulsesPerKWh < 1) {
+            throw new IllegalArgumentException("Bad pulses per kWh: " + pulsesPerKWh);
+        }
+        this.listener = listener;
+        this.wattHoursPerPulse = 1000.0 / pulsesPerKWh;
+        this.repeatTime = repeatTime;
+        this.maxPower = maxPower;
+    }
+
+    public long getDeltaCount() {
+        return deltaCount;
+    }
+
+    /**
+     * @return number of readings ignored as repeats
+     */
+    public long getRepeatCount() {
+        return repeatCount;
+    }
+
+    /**
+     * @return number of times a meter was taken to have restarted
+     */
+    public long getRestartCount() {
+        return restartCount;
+    }
+
+    public void parsedMessage(ProtocolMessage message) {
+        parsedMessage(message, System.currentTimeMillis());
+    }
+
+    /**
+     * @param message decoded message, messages from other protocols are ignored
+     * @param time    time in milliseconds when the message was received
+     */
+    public void parsedMessage(ProtocolMessage message, long time) {
+        boolean legacy = message.getProtocol().equals("FooGadgetLegacy");
+        if (!legacy && !message.getProtocol().equals("FooGadgetPulse")) {
+            return;
+        }
+        int identity = -1;
+        int count = 0;
+        for (FieldValue field : message.getFields()) {
+            String name = field.getName();
+            if (name.equals("Identity")) {
+                identity = field.getValue();
+            } else if (name.equals("Counter") && legacy) {
+                count |= field.getValue() << 12;
+            } else if ((name.equals("Energy") && legacy) || name.equals("Pulses")) {
+                count |= field.getValue();
+            }
+        }
+        if (identity >= 0) {
+            addReading(identity, count, time);
+        }
+    }
+
+    public void partiallyParsedMessage(String protocol, int bits) {
+    }
+
+    public void reportLevel(int level) {
+    }
+
+    /**
+     * Add a reading without going through a ProtocolMessage
+     *
+     * @param identity identity of the meter, 0 - 4095
+     * @param count    the 20 bit pulse count of the meter
+     * @param time     time in milliseconds of the reading
+     */
+    public void addReading(int identity, int count, long time) {
+        if (identity < 0 || identity >= IDENTITIES) {
+            throw new IllegalArgumentException("Bad identity: " + identity);
+        }
+        count &= COUNT_MASK;
+        if (!known[identity]) {
+            start(identity, count, time);
+            return;
+        }
+        long elapsed = time - times[identity];
+        if (count == counts[identity] && elapsed < repeatTime) {
+            repeatCount++;
+            return;
+        }
+        if (elapsed <= 0) {
+            return;
+        }
+        int pulses = (count - counts[identity]) & COUNT_MASK;
+        double wattHours = pulses * wattHoursPerPulse;
+        double watts = wattHours * MILLISECONDS_PER_HOUR / elapsed;
+        if (watts > maxPower) {
+            restartCount++;
+            start(identity, count, time);
+            return;
+        }
+        counts[identity] = count;
+        times[identity] = time;
+        deltaCount++;
+        listener.energyDelta(identity, time, elapsed, pulses, wattHours, watts);
+    }
+
+    /**
+     * Forget a meter, the next reading from it starts a new count
+     */
+    public void reset(int identity) {
+        known[identity] = false;
+    }
+
+    private void start(int identity, int count, long time) {
+        counts[identity] = count;
+        times[identity] = time;
+        known[identity] = true;
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.sinks;
+
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the messages from the decoders to subscribers that consume them at their own pace. The decoding
+ * thread only puts each message in the bounded lock free queue of every subscriber, and the messages are
+ * delivered by an executor as the subscribers request them. When a subscriber falls behind and its queue
+ * is full, its overflow policy decides which message is dropped:
+ * <ul>
+ * <li>DROP_OLDEST - the oldest queued message is dropped to make room for the new one</li>
+ * <li>DROP_NEWEST - the new message is dropped</li>
+ * <li>COALESCE_REPEATS - a message that repeats the last queued message, which is not delivered yet, is always
+ * dropped since the subscriber will get the same information anyway. New messages are dropped when the queue
+ * is full.</li>
+ * </ul>
+ */
+public class MessagePublisher implements ProtocolDecoderSink, Publisher<ProtocolMessage>, Closeable {
+
+    public static final int DROP_OLDEST = 0;
+    public static final int DROP_NEWEST = 1;
+    public static final int COALESCE_REPEATS = 2;
+    private static final int POLICY_COUNT = 3;
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+    private final List<MessageSubscription> subscriptions = new CopyOnWriteArrayList<MessageSubscription>();
+    private final AtomicLong[] droppedCounts = new AtomicLong[POLICY_COUNT];
+    private int defaultPolicy = DROP_OLDEST;
+    private int defaultCapacity = DEFAULT_CAPACITY;
+    private volatile boolean closed;
+
+    /**
+     * Create a publisher delivering messages with its own daemon threads
+     */
+    public MessagePublisher() {
+        ownExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "MessagePublisher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor = ownExecutor;
+        initCounts();
+    }
+
+    /**
+     * @param executor executor to deliver messages with, each subscriber occupies at most one thread at a time
+     */
+    public MessagePublisher(Executor executor) {
+        this.executor = executor;
+        ownExecutor = null;
+        initCounts();
+    }
+
+    private void initCounts() {
+        for (int i = 0; i < POLICY_COUNT; i++) {
+            droppedCounts[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * @param policy   overflow policy for subscribers added with {@link #subscribe(Subscriber)}
+     * @param capacity number of messages queued for each of those subscribers
+     */
+    public void setDefaults(int policy, int capacity) {
+        checkPolicy(policy);
+        defaultPolicy = policy;
+        defaultCapacity = capacity;
+    }
+
+    public void subscribe(Subscriber<? super ProtocolMessage> subscriber) {
+        subscribe(subscriber, defaultPolicy, defaultCapacity);
+    }
+
+    /**
+     * Add a subscriber with its own overflow policy and queue size
+     *
+     * @return the subscription, which also reports how many messages the subscriber has lost
+     */
+    public MessageSubscription subscribe(Subscriber<? super ProtocolMessage> subscriber, int policy, int capacity) {
+        checkPolicy(policy);
+        MessageSubscription subscription = new MessageSubscription(subscriber, policy, capacity);
+        subscriber.onSubscribe(subscription);
+        subscriptions.add(subscription);
+        if (closed) {
+            subscription.schedule();
+        }
+        return subscription;
+    }
+
+    private static void checkPolicy(int policy) {
+        if (policy < 0 || policy >= POLICY_COUNT) {
+            throw new IllegalArgumentException("Bad overflow policy: " + policy);
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @param policy an overflow policy
+     * @return number of messages dropped by subscribers with the policy, including cancelled subscribers
+     */
+    public long getDroppedCount(int policy) {
+        checkPolicy(policy);
+        return droppedCounts[policy].get();
+    }
+
+    public void parsedMessage(ProtocolMessage message) {
+        if (closed) {
+            return;
+        }
+        for (MessageSubscription subscription : subscriptions) {
+            subscription.offer(message);
+        }
+    }
+
+    public void partiallyParsedMessage(String protocol, int bits) {
+    }
+
+    public void reportLevel(int level) {
+    }
+
+    /**
+     * Stop accepting messages. Subscribers get the queued messages they request and are then completed.
+     */
+    public void close() {
+        closed = true;
+        for (MessageSubscription subscription : subscriptions) {
+            subscription.schedule();
+        }
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+    }
+
+    static boolean isRepeat(ProtocolMessage message, ProtocolMessage previous) {
+        if (previous == null || !message.getProtocol().equals(previous.getProtocol())
+                || message.getAddress() != previous.getAddress() || message.getCommand() != previous.getCommand()
+                || message.getFields().size() != previous.getFields().size()) {
+            return false;
+        }
+        for (int i = 0; i < message.getFields().size(); i++) {
+            FieldValue field = message.getFields().get(i);
+            FieldValue previousField = previous.getFields().get(i);
+            if (!field.getName().equals(previousField.getName()) || field.getValue() != previousField.getValue()
+                    || (field.getStringValue() == null ? previousField.getStringValue() != null
+                    : !field.getStringValue().equals(previousField.getStringValue()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The subscription of one subscriber, delivering its queued messages on the executor
+     */
+    public class MessageSubscription implements Subscription, Runnable {
+        private final Subscriber<? super ProtocolMessage> subscriber;
+        private final int policy;
+        private final MessageQueue<ProtocolMessage> queue;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        private boolean completed;
+
+        // Only used by the producer
+        private ProtocolMessage lastQueued;
+        private long lastQueuedSequence = -1;
+
+        MessageSubscription(Subscriber<? super ProtocolMessage> subscriber, int policy, int capacity) {
+            this.subscriber = subscriber;
+            this.policy = policy;
+            queue = new MessageQueue<ProtocolMessage>(capacity);
+        }
+
+        public int getPolicy() {
+            return policy;
+        }
+
+        /**
+         * @return number of messages dropped for this subscriber
+         */
+        public long getDroppedCount() {
+            return dropped.get();
+        }
+
+        /**
+         * @return number of messages waiting to be delivered
+         */
+        public int getQueued() {
+            return queue.size();
+        }
+
+        public void request(long count) {
+            if (count < 1) {
+                error = new IllegalArgumentException("Bad request count: " + count);
+            } else {
+                long current;
+                do {
+                    current = demand.get();
+                } while (!demand.compareAndSet(current, current + count < 0 ? Long.MAX_VALUE : current + count));
+            }
+            schedule();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        void offer(ProtocolMessage message) {
+            if (policy == COALESCE_REPEATS && queue.isQueued(lastQueuedSequence) && isRepeat(message, lastQueued)) {
+                drop();
+                return;
+            }
+            long sequence = queue.offer(message);
+            if (sequence < 0 && policy == DROP_OLDEST) {
+                queue.poll();
+                drop();
+                sequence = queue.offer(message);
+            }
+            if (sequence < 0) {
+                drop();
+                return;
+            }
+            lastQueued = message;
+            lastQueuedSequence = sequence;
+            if (demand.get() > 0) {
+                schedule();
+            }
+        }
+
+        private void drop() {
+            dropped.incrementAndGet();
+            droppedCounts[policy].incrementAndGet();
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        /**
+         * Deliver queued messages as long as there is demand
+         */
+        public void run() {
+            try {
+                deliver();
+            } finally {
+                scheduled.set(false);
+            }
+            // Messages or demand may have arrived after the last check
+            if (!cancelled && !completed
+                    && (error != null || (queue.size() > 0 ? demand.get() > 0 : closed))) {
+                schedule();
+            }
+        }
+
+        private void deliver() {
+            while (!cancelled && !completed) {
+                if (error != null) {
+                    cancel();
+                    subscriber.onError(error);
+                    return;
+                }
+                if (demand.get() == 0) {
+                    return;
+                }
+                ProtocolMessage message = queue.poll();
+                if (message == null) {
+                    if (closed) {
+                        completed = true;
+                        subscriptions.remove(this);
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                demand.decrementAndGet();
+                try {
+                    subscriber.onNext(message);
+                } catch (RuntimeException e) {
+                    cancel();
+                    subscriber.onError(e);
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.sinks;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock free queue for one producer and one consumer, where the producer may also remove the oldest
+ * item to make room. Head and tail are sequence numbers that only grow, and both sides take items by
+ * advancing the head with compare and set, so a consumer that loses an item to the producer just retries.
+ */
+class MessageQueue<T> {
+
+    private final AtomicReferenceArray<T> items;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity capacity, rounded up to a power of two
+     */
+    MessageQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        items = new AtomicReferenceArray<T>(size);
+        mask = size - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Add an item, only called by the producer
+     *
+     * @return the sequence number of the item or -1 if the queue is full
+     */
+    long offer(T item) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            return -1;
+        }
+        items.set((int) t & mask, item);
+        tail.lazySet(t + 1);
+        return t;
+    }
+
+    /**
+     * Take the oldest item
+     *
+     * @return the item, or null if the queue is empty
+     */
+    T poll() {
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                return null;
+            }
+            T item = items.get((int) h & mask);
+            if (head.compareAndSet(h, h + 1)) {
+                return item;
+            }
+        }
+    }
+
+    /**
+     * @return true if the item with the sequence number has not been taken yet
+     */
+    boolean isQueued(long sequence) {
+        return sequence >= head.get() && sequence < tail.get();
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.sinks;
+
+/**
+ * A source of items delivered to subscribers as they request them. This has the same shape and contract as
+ * java.util.concurrent.Flow.Publisher, which is not available on the Java versions this library supports.
+ */
+public interface Publisher<T> {
+    /**
+     * Add a subscriber, which gets a {@link Subscription} through {@link Subscriber#onSubscribe(Subscription)}
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+}
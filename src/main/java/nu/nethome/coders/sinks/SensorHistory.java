@@ -0,0 +1,515 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nu.nethome.coders.sinks;
+
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ProtocolDecoderSink that keeps the history of the readings from sensors, so consumers do not have to build
+ * their own. Each measurement field of each sensor gets its own series, where a sensor is identified by protocol,
+ * id and channel as returned by {@link #sensorKey(ProtocolMessage)}.
+ * <br>
+ * A series holds three ring buffers of primitive arrays, which start small and grow up to their size as readings
+ * arrive:
+ * <ul>
+ * <li>RAW - the latest individual readings</li>
+ * <li>MINUTE - min, max and mean of the readings per minute</li>
+ * <li>HOUR - min, max and mean of the readings per hour</li>
+ * </ul>
+ * With the default sizes a series covers a day in minutes and a year in hours. It takes about 1 kB when created,
+ * about 50 kB after a day and about 300 kB after a year. The number of sensors is limited, readings from new
+ * sensors beyond the limit are counted and dropped.
+ * <br>
+ * Readings must be added from one thread, which is the case when the sink is fed by one set of decoders. The
+ * queries may be made from any thread and never lock, a query that overlaps an update is simply retried.
+ */
+public class SensorHistory implements ProtocolDecoderSink {
+
+    public static final int RAW = 0;
+    public static final int MINUTE = 1;
+    public static final int HOUR = 2;
+    public static final int DEFAULT_RAW_SIZE = 256;
+    public static final int DEFAULT_MINUTE_SIZE = 24 * 60;
+    public static final int DEFAULT_HOUR_SIZE = 366 * 24;
+    public static final int DEFAULT_MAX_SENSORS = 4096;
+    public static final String[] DEFAULT_MEASUREMENTS = {"Temp", "Moisture", "Humidity", "Wind", "AverageWind",
+            "Direction", "RainRate", "TotalRain", "Rain", "Pressure", "Energy", "Counter", "Pulses", "Primary",
+            "Secondary"};
+    private static final long[] PERIODS = {0, 60 * 1000L, 60 * 60 * 1000L};
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Series>> sensors =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Series>>();
+    private final Set<String> measurements =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final int[] sizes;
+    private final int maxSensors;
+    private final AtomicInteger seriesCount = new AtomicInteger();
+    private final AtomicLong droppedReadings = new AtomicLong();
+
+    public SensorHistory() {
+        this(DEFAULT_RAW_SIZE, DEFAULT_MINUTE_SIZE, DEFAULT_HOUR_SIZE, DEFAULT_MAX_SENSORS);
+    }
+
+    /**
+     * @param rawSize    number of individual readings kept per series
+     * @param minuteSize number of minutes kept per series
+     * @param hourSize   number of hours kept per series
+     * @param maxSensors largest number of sensors
+     */
+    public SensorHistory(int rawSize, int minuteSize, int hourSize, int maxSensors) {
+        if (rawSize < 1 || minuteSize < 1 || hourSize < 1) {
+            throw new IllegalArgumentException("Bad buffer size");
+        }
+        sizes = new int[]{rawSize, minuteSize, hourSize};
+        this.maxSensors = maxSensors;
+        measurements.addAll(Arrays.asList(DEFAULT_MEASUREMENTS));
+    }
+
+    /**
+     * Record a field as a measurement, the fields in DEFAULT_MEASUREMENTS are recorded unless removed. May be
+     * called while messages are being recorded.
+     */
+    public void addMeasurement(String field) {
+        measurements.add(field);
+    }
+
+    public void removeMeasurement(String field) {
+        measurements.remove(field);
+    }
+
+    /**
+     * @return number of readings dropped because there were already maxSensors sensors
+     */
+    public long getDroppedReadings() {
+        return droppedReadings.get();
+    }
+
+    public int getSeriesCount() {
+        return seriesCount.get();
+    }
+
+    public int getSensorCount() {
+        return sensors.size();
+    }
+
+    public void parsedMessage(ProtocolMessage message) {
+        parsedMessage(message, System.currentTimeMillis());
+    }
+
+    /**
+     * Record the measurement fields of a message
+     *
+     * @param message decoded message
+     * @param time    time in milliseconds when the message was received
+     */
+    public void parsedMessage(ProtocolMessage message, long time) {
+        String sensor = null;
+        for (FieldValue field : message.getFields()) {
+            if (field.getStringValue() == null && measurements.contains(field.getName())) {
+                if (sensor == null) {
+                    sensor = sensorKey(message);
+                }
+                record(sensor, field.getName(), time, field.getValue());
+            }
+        }
+    }
+
+    public void partiallyParsedMessage(String protocol, int bits) {
+    }
+
+    public void reportLevel(int level) {
+    }
+
+    /**
+     * Add a reading to a series, creating the series if needed. Readings should be added in time order, a reading
+     * older than the latest one is still kept as raw reading but is added to the latest minute and hour.
+     */
+    public void record(String sensor, String field, long time, int value) {
+        Series series = getOrCreateSeries(sensor, field);
+        if (series != null) {
+            series.add(time, value);
+        }
+    }
+
+    /**
+     * Identifies a sensor by protocol, id and channel, like "Oregon:107:1". The id is taken from the "Id" or
+     * "Identity" field or from "HouseCode" and "DeviceCode", and the channel from "Channel" if present.
+     */
+    public static String sensorKey(ProtocolMessage message) {
+        int id = 0;
+        int channel = 0;
+        for (FieldValue field : message.getFields()) {
+            String name = field.getName();
+            if (name.equals("Id") || name.equals("Identity")) {
+                id = field.getValue();
+            } else if (name.equals("HouseCode")) {
+                id |= field.getValue() << 4;
+            } else if (name.equals("DeviceCode")) {
+                id |= field.getValue();
+            } else if (name.equals("Channel")) {
+                channel = field.getValue();
+            }
+        }
+        return message.getProtocol() + ":" + id + ":" + channel;
+    }
+
+    public List<String> getSensors() {
+        List<String> result = new ArrayList<String>(sensors.keySet());
+        Collections.sort(result);
+        return result;
+    }
+
+    public List<String> getFields(String sensor) {
+        ConcurrentMap<String, Series> fields = sensors.get(sensor);
+        if (fields == null) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<String>(fields.keySet());
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * @return the latest reading of the field, or null if there is none
+     */
+    public Sample getLatest(String sensor, String field) {
+        Series series = getSeries(sensor, field);
+        return series == null ? null : series.latest();
+    }
+
+    /**
+     * @param resolution RAW, MINUTE or HOUR
+     * @param from       time in milliseconds of the oldest sample to include
+     * @param to         time in milliseconds of the newest sample to include
+     * @return the samples in the range still kept at the resolution, oldest first
+     */
+    public List<Sample> getRange(String sensor, String field, int resolution, long from, long to) {
+        if (resolution < RAW || resolution > HOUR) {
+            throw new IllegalArgumentException("Bad resolution: " + resolution);
+        }
+        Series series = getSeries(sensor, field);
+        if (series == null) {
+            return Collections.emptyList();
+        }
+        return series.range(resolution, from, to);
+    }
+
+    /**
+     * Summarize the readings in a time range. The finest resolution that still covers the start of the range is
+     * used, so the result is exact for recent ranges and rounded to whole minutes or hours for older ones.
+     *
+     * @return min, max and mean of the readings and their number, or null if there are none
+     */
+    public Sample getAggregate(String sensor, String field, long from, long to) {
+        Series series = getSeries(sensor, field);
+        return series == null ? null : series.aggregate(from, to);
+    }
+
+    private Series getSeries(String sensor, String field) {
+        ConcurrentMap<String, Series> fields = sensors.get(sensor);
+        return fields == null ? null : fields.get(field);
+    }
+
+    private Series getOrCreateSeries(String sensor, String field) {
+        ConcurrentMap<String, Series> fields = sensors.get(sensor);
+        Series series = fields == null ? null : fields.get(field);
+        if (series != null) {
+            return series;
+        }
+        if (fields == null) {
+            if (sensors.size() >= maxSensors) {
+                droppedReadings.incrementAndGet();
+                return null;
+            }
+            fields = new ConcurrentHashMap<String, Series>();
+            sensors.put(sensor, fields);
+        }
+        series = new Series(sizes);
+        fields.put(field, series);
+        seriesCount.incrementAndGet();
+        return series;
+    }
+
+    /**
+     * A reading, or a summary of the readings during a period. For raw readings min, max and mean are all the
+     * value read and count is 1.
+     */
+    public static class Sample {
+        private final long time;
+        private final int min;
+        private final int max;
+        private final double mean;
+        private final int count;
+
+        public Sample(long time, int min, int max, double mean, int count) {
+            this.time = time;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.count = count;
+        }
+
+        /**
+         * @return time in milliseconds of the reading or of the start of the period
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return time + ":" + min + "/" + mean + "/" + max + "(" + count + ")";
+        }
+    }
+
+    /**
+     * The ring buffers of one field. The writer makes the version odd while updating, a reader retries if the
+     * version was odd or has changed when it is done. The final check is a compareAndSet rather than a plain read
+     * so the reads of the arrays can not be moved past it. A read overlapping the growth of a buffer may index
+     * past the arrays it sees, which is retried the same way.
+     */
+    private static class Series {
+        private final AtomicLong version = new AtomicLong();
+        private final Tier[] tiers;
+
+        Series(int[] sizes) {
+            tiers = new Tier[sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+                tiers[i] = new Tier(PERIODS[i], sizes[i]);
+            }
+        }
+
+        void add(long time, int value) {
+            version.incrementAndGet();
+            for (Tier tier : tiers) {
+                tier.add(time, value);
+            }
+            version.incrementAndGet();
+        }
+
+        Sample latest() {
+            while (true) {
+                long start = version.get();
+                Sample result = null;
+                if ((start & 1) == 0) {
+                    try {
+                        result = tiers[RAW].latest();
+                    } catch (IndexOutOfBoundsException e) {
+                        start = -1;
+                    }
+                }
+                if (isUnchanged(start)) {
+                    return result;
+                }
+                Thread.yield();
+            }
+        }
+
+        List<Sample> range(int resolution, long from, long to) {
+            while (true) {
+                long start = version.get();
+                List<Sample> result = null;
+                if ((start & 1) == 0) {
+                    try {
+                        result = tiers[resolution].range(from, to);
+                    } catch (IndexOutOfBoundsException e) {
+                        start = -1;
+                    }
+                }
+                if (isUnchanged(start)) {
+                    return result;
+                }
+                Thread.yield();
+            }
+        }
+
+        Sample aggregate(long from, long to) {
+            while (true) {
+                long start = version.get();
+                Sample result = null;
+                if ((start & 1) == 0) {
+                    int resolution = RAW;
+                    while (resolution < HOUR && !tiers[resolution].covers(from)) {
+                        resolution++;
+                    }
+                    try {
+                        result = tiers[resolution].aggregate(from, to);
+                    } catch (IndexOutOfBoundsException e) {
+                        start = -1;
+                    }
+                }
+                if (isUnchanged(start)) {
+                    return result;
+                }
+                Thread.yield();
+            }
+        }
+
+        /**
+         * @param start version when the read started, odd or -1 if the read failed
+         */
+        private boolean isUnchanged(long start) {
+            return (start & 1) == 0 && version.compareAndSet(start, start);
+        }
+    }
+
+    /**
+     * A ring of samples. Raw tiers have period 0 and get a new slot for each reading, the others get a new slot
+     * when a reading falls in a new period. The arrays start with INITIAL_SLOTS and are doubled when full until
+     * they reach the capacity, after which the oldest slot is reused.
+     */
+    private static class Tier {
+        private static final int INITIAL_SLOTS = 16;
+        private final long period;
+        private final int capacity;
+        private long[] times;
+        private int[] mins;
+        private int[] maxs;
+        private long[] sums;
+        private int[] counts;
+        private int newest = -1;
+        private int size;
+
+        Tier(long period, int capacity) {
+            this.period = period;
+            this.capacity = capacity;
+            int slots = Math.min(capacity, INITIAL_SLOTS);
+            times = new long[slots];
+            mins = new int[slots];
+            maxs = new int[slots];
+            sums = new long[slots];
+            counts = new int[slots];
+        }
+
+        void add(long time, int value) {
+            long start = period == 0 ? time : time - time % period;
+            if (size == 0 || period == 0 || start > times[newest]) {
+                if (size == times.length && size < capacity) {
+                    grow();
+                }
+                newest = (newest + 1) % times.length;
+                size = Math.min(size + 1, times.length);
+                times[newest] = start;
+                mins[newest] = value;
+                maxs[newest] = value;
+                sums[newest] = value;
+                counts[newest] = 1;
+            } else {
+                mins[newest] = Math.min(mins[newest], value);
+                maxs[newest] = Math.max(maxs[newest], value);
+                sums[newest] += value;
+                counts[newest]++;
+            }
+        }
+
+        /**
+         * The ring has not wrapped while it is below capacity, so the slots keep their positions
+         */
+        private void grow() {
+            int slots = Math.min(capacity, times.length * 2);
+            times = Arrays.copyOf(times, slots);
+            mins = Arrays.copyOf(mins, slots);
+            maxs = Arrays.copyOf(maxs, slots);
+            sums = Arrays.copyOf(sums, slots);
+            counts = Arrays.copyOf(counts, slots);
+        }
+
+        Sample latest() {
+            return size == 0 ? null : sample(newest);
+        }
+
+        boolean covers(long time) {
+            return size > 0 && times[oldest()] <= time;
+        }
+
+        List<Sample> range(long from, long to) {
+            List<Sample> result = new ArrayList<Sample>();
+            for (int i = 0; i < size; i++) {
+                int slot = (oldest() + i) % times.length;
+                if (overlaps(slot, from, to)) {
+                    result.add(sample(slot));
+                }
+            }
+            return result;
+        }
+
+        Sample aggregate(long from, long to) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            long sum = 0;
+            int count = 0;
+            long first = 0;
+            for (int i = 0; i < size; i++) {
+                int slot = (oldest() + i) % times.length;
+                if (overlaps(slot, from, to)) {
+                    if (count == 0) {
+                        first = times[slot];
+                    }
+                    min = Math.min(min, mins[slot]);
+                    max = Math.max(max, maxs[slot]);
+                    sum += sums[slot];
+                    count += counts[slot];
+                }
+            }
+            return count == 0 ? null : new Sample(first, min, max, (double) sum / count, count);
+        }
+
+        private boolean overlaps(int slot, long from, long to) {
+            return (period == 0 ? times[slot] >= from : times[slot] + period > from) && times[slot] <= to;
+        }
+
+        private int oldest() {
+            return (newest - size + 1 + times.length) % times.length;
+        }
+
+        private Sample sample(int slot) {
+            return new Sample(times[slot], mins[slot], maxs[slot], (double) sums[slot] / counts[slot], counts[slot]);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nu.nethome.coders.sinks;
+
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A ProtocolDecoderSink that keeps the latest reading of each sensor, so consumers can look up sensors by a stable
+ * name instead of working out the identity from the message stream.
+ * <br>
+ * Sensors are identified by protocol, sensor type, channel and id. Oregon and Prologue sensors pick a new random
+ * (rolling) id when the batteries are replaced. When a sensor appears with a new id and exactly one sensor with the
+ * same protocol, type and channel has been silent for at least the link time, the new id is assumed to be that
+ * sensor. It then keeps its name, which is the key it was first seen with. If a new sensor later appears with
+ * that key it is named by the key and a suffix like "#2", so it does not replace the linked sensor. Sensors that
+ * have been silent for longer than the evict time are removed.
+ * <br>
+ * The states are immutable and kept in concurrent maps, by key and sorted by name, so reads never wait for the
+ * decoding thread and each message only updates the entries of its sensor. Messages must be added, and stale
+ * sensors evicted, from one thread.
+ */
+public class SensorStateCache implements ProtocolDecoderSink {
+
+    public static final long DEFAULT_LINK_TIME = 2 * 60 * 1000L;
+    public static final long DEFAULT_EVICT_TIME = 6 * 60 * 60 * 1000L;
+
+    private final long linkTime;
+    private final long evictTime;
+    private final ConcurrentMap<String, SensorState> byKey = new ConcurrentHashMap<String, SensorState>();
+    private final ConcurrentMap<String, SensorState> byName = new ConcurrentSkipListMap<String, SensorState>();
+    private long linkCount;
+    private long evictCount;
+
+    public SensorStateCache() {
+        this(DEFAULT_LINK_TIME, DEFAULT_EVICT_TIME);
+    }
+
+    /**
+     * @param linkTime  milliseconds a sensor must have been silent before a new id may be linked to it
+     * @param evictTime milliseconds of silence after which a sensor is removed
+     */
+    public SensorStateCache(long linkTime, long evictTime) {
+        if (evictTime <= linkTime) {
+            throw new IllegalArgumentException("Evict time must be longer than link time");
+        }
+        this.linkTime = linkTime;
+        this.evictTime = evictTime;
+    }
+
+    public void parsedMessage(ProtocolMessage message) {
+        parsedMessage(message, System.currentTimeMillis());
+    }
+
+    /**
+     * @param message decoded message
+     * @param time    time in milliseconds when the message was received
+     */
+    public void parsedMessage(ProtocolMessage message, long time) {
+        SensorState state = SensorState.fromMessage(message, time);
+        evict(time);
+        SensorState previous = byKey.get(state.getKey());
+        if (previous == null) {
+            previous = findVanished(state, time);
+            if (previous != null) {
+                byKey.remove(previous.getKey());
+                linkCount++;
+            }
+        }
+        SensorState current = previous == null ? uniquelyNamed(state) : state.follow(previous);
+        byKey.put(current.getKey(), current);
+        byName.put(current.getName(), current);
+    }
+
+    public void partiallyParsedMessage(String protocol, int bits) {
+    }
+
+    public void reportLevel(int level) {
+    }
+
+    /**
+     * Remove sensors that have been silent for longer than the evict time
+     *
+     * @param now time in milliseconds
+     */
+    public void evictStale(long now) {
+        evict(now);
+    }
+
+    /**
+     * @param name the name of the sensor, which is the key it was first seen with
+     * @return the latest state of the sensor, or null if it is unknown
+     */
+    public SensorState get(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * @return the states of all sensors, ordered by name
+     */
+    public Collection<SensorState> getStates() {
+        return Collections.unmodifiableCollection(byName.values());
+    }
+
+    /**
+     * @return number of times a new id has been linked to a vanished sensor
+     */
+    public long getLinkCount() {
+        return linkCount;
+    }
+
+    public long getEvictCount() {
+        return evictCount;
+    }
+
+    private void evict(long now) {
+        for (Iterator<SensorState> i = byKey.values().iterator(); i.hasNext(); ) {
+            SensorState state = i.next();
+            if (now - state.getLastSeen() > evictTime) {
+                i.remove();
+                byName.remove(state.getName());
+                evictCount++;
+            }
+        }
+    }
+
+    /**
+     * A new sensor is named by its key, unless a linked sensor already has that name
+     */
+    private SensorState uniquelyNamed(SensorState state) {
+        String name = state.getName();
+        for (int suffix = 2; byName.containsKey(name); suffix++) {
+            name = state.getName() + "#" + suffix;
+        }
+        return name.equals(state.getName()) ? state : state.named(name);
+    }
+
+    private SensorState findVanished(SensorState state, long now) {
+        if (state.getId() < 0) {
+            return null;
+        }
+        SensorState found = null;
+        for (SensorState candidate : byKey.values()) {
+            if (candidate.isSameKind(state) && now - candidate.getLastSeen() >= linkTime) {
+                if (found != null) {
+                    return null;
+                }
+                found = candidate;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * The latest reading of a sensor
+     */
+    public static class SensorState {
+        private final String protocol;
+        private final int sensorType;
+        private final int channel;
+        private final int id;
+        private final String name;
+        private final long firstSeen;
+        private final long lastSeen;
+        private final int count;
+        private final Map<String, Integer> fields;
+
+        private SensorState(String protocol, int sensorType, int channel, int id, String name, long firstSeen,
+                            long lastSeen, int count, Map<String, Integer> fields) {
+            this.protocol = protocol;
+            this.sensorType = sensorType;
+            this.channel = channel;
+            this.id = id;
+            this.name = name;
+            this.firstSeen = firstSeen;
+            this.lastSeen = lastSeen;
+            this.count = count;
+            this.fields = fields;
+        }
+
+        /**
+         * The sensor type is taken from "SensorId" for Oregon, "Id" for Prologue, which has its rolling id in
+         * "RollingId", and the high nibble of "Identity" for FineOffset. Messages without any id get id -1.
+         */
+        static SensorState fromMessage(ProtocolMessage message, long time) {
+            int sensorType = 0;
+            int channel = 0;
+            int id = -1;
+            int rollingId = -1;
+            int identity = -1;
+            Map<String, Integer> fields = new LinkedHashMap<String, Integer>();
+            for (FieldValue field : message.getFields()) {
+                String name = field.getName();
+                if (field.getStringValue() == null) {
+                    fields.put(name, field.getValue());
+                }
+                if (name.equals("SensorId")) {
+                    sensorType = field.getValue();
+                } else if (name.equals("Channel")) {
+                    channel = field.getValue();
+                } else if (name.equals("Id")) {
+                    id = field.getValue();
+                } else if (name.equals("RollingId")) {
+                    rollingId = field.getValue();
+                } else if (name.equals("Identity")) {
+                    identity = field.getValue();
+                }
+            }
+            if (rollingId >= 0) {
+                sensorType = id;
+                id = rollingId;
+            } else if (identity >= 0) {
+                sensorType = identity >> 8;
+                id = identity & 0xFF;
+            }
+            String key = message.getProtocol() + ":" + sensorType + ":" + channel + ":" + id;
+            return new SensorState(message.getProtocol(), sensorType, channel, id, key, time, time, 1,
+                    Collections.unmodifiableMap(fields));
+        }
+
+        SensorState follow(SensorState previous) {
+            return new SensorState(protocol, sensorType, channel, id, previous.name, previous.firstSeen, lastSeen,
+                    previous.count + 1, fields);
+        }
+
+        SensorState named(String name) {
+            return new SensorState(protocol, sensorType, channel, id, name, firstSeen, lastSeen, count, fields);
+        }
+
+        boolean isSameKind(SensorState other) {
+            return protocol.equals(other.protocol) && sensorType == other.sensorType && channel == other.channel
+                    && id != other.id && id >= 0;
+        }
+
+        /**
+         * @return the current key, protocol:type:channel:id
+         */
+        public String getKey() {
+            return protocol + ":" + sensorType + ":" + channel + ":" + id;
+        }
+
+        /**
+         * @return the stable name of the sensor, which is the key it was first seen with
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String getProtocol() {
+            return protocol;
+        }
+
+        public int getSensorType() {
+            return sensorType;
+        }
+
+        public int getChannel() {
+            return channel;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public long getFirstSeen() {
+            return firstSeen;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        /**
+         * @return number of messages received from the sensor
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the integer fields of the latest message
+         */
+        public Map<String, Integer> getFields() {
+            return fields;
+        }
+
+        /**
+         * @return value of a field in the latest message, or -1 if it is missing
+         */
+        public int getField(String name) {
+            Integer value = fields.get(name);
+            return value == null ? -1 : value;
+        }
+
+        @Override
+        public String toString() {
+            return name + (name.equals(getKey()) ? "" : "(" + getKey() + ")") + fields;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2005-2015, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.coders.sinks;
+
+/**
+ * Receives items from a {@link Publisher}, same as java.util.concurrent.Flow.Subscriber. Items are only
+ * delivered when they have been requested through the subscription. The methods are called in sequence,
+ * never concurrently.
+ */
+public interface Subscriber<T> {
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    /**
+     * The subscription has failed and no more items will be delivered
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * The publisher is closed and all items have been delivered
+     */
+    void onComplete();
+}
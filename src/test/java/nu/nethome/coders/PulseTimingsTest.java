@@ -0,0 +1,105 @@
+package nu.nethome.coders;
+
+import nu.nethome.coders.decoders.NexaDecoder;
+import nu.nethome.coders.decoders.util.JirFileTestPlayer;
+import nu.nethome.util.ps.PulseLength;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+public class PulseTimingsTest {
+
+    private static final String LONG_MARK = NexaDecoder.class.getName() + ".NEXA_LONG_MARK";
+
+    @After
+    public void tearDown() {
+        PulseTimings.reset();
+    }
+
+    @Test
+    public void exportsAllPulseLengths() {
+        NexaDecoder.NEXA_LONG_MARK.length();
+        Properties timings = PulseTimings.exportTimings();
+
+        assertThat(timings.getProperty(LONG_MARK), is("1065,822,1308"));
+        assertThat(timings.size(), is(PulseTimings.getNames().length));
+    }
+
+    @Test
+    public void changesTakeEffectInRunningDecoder() {
+        JirFileTestPlayer player = new JirFileTestPlayer(JirFileTestPlayer.Nexa_DECODER);
+        playNexa(player);
+        int decoded = player.m_Messages.size();
+        assertThat(decoded, greaterThan(0));
+
+        PulseTimings.set(LONG_MARK, 1500, 1400, 1600);
+        playNexa(player);
+        assertThat(player.m_Messages.size(), is(decoded));
+        assertThat(NexaDecoder.NEXA_LONG_MARK.length(), is(1500));
+
+        PulseTimings.reset();
+        playNexa(player);
+        assertThat(player.m_Messages.size(), is(2 * decoded));
+    }
+
+    @Test
+    public void importsWholeTableOrNothing() {
+        Properties timings = PulseTimings.exportTimings();
+        timings.setProperty(LONG_MARK, "1100,900,1300");
+        PulseTimings.importTimings(timings);
+        assertThat(PulseTimings.get(LONG_MARK), is(new int[]{1100, 900, 1300}));
+
+        Properties bad = new Properties();
+        bad.setProperty(LONG_MARK, "1000,800,1200");
+        bad.setProperty("Unknown.PULSE", "1,2,0");
+        try {
+            PulseTimings.importTimings(bad);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            assertThat(PulseTimings.get(LONG_MARK), is(new int[]{1100, 900, 1300}));
+        }
+    }
+
+    @Test
+    public void keepsImportedWindowsUntilTheirClassIsLoaded() {
+        String name = LateProtocol.class.getName() + ".PULSE";
+        Properties timings = new Properties();
+        timings.setProperty(name, "600,550,650");
+        PulseTimings.importTimings(timings);
+        assertThat(PulseTimings.get(name), is(nullValue()));
+        assertThat(PulseTimings.exportTimings().getProperty(name), is("600,550,650"));
+
+        assertThat(LateProtocol.PULSE.length(), is(600));
+        assertThat(LateProtocol.PULSE.matches(620), is(true));
+        assertThat(PulseTimings.get(name), is(new int[]{600, 550, 650}));
+        PulseTimings.reset();
+        assertThat(PulseTimings.get(name), is(new int[]{500, 400, 600}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownEntryInSet() {
+        PulseTimings.set("Unknown.PULSE", 1, 0, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyWindow() {
+        PulseTimings.set(LONG_MARK, 1000, 1200, 800);
+    }
+
+    /**
+     * Only loaded by keepsImportedWindowsUntilTheirClassIsLoaded
+     */
+    private static class LateProtocol {
+        static final PulseLength PULSE = new TunablePulseLength(LateProtocol.class, "PULSE", 500, 100);
+    }
+
+    private void playNexa(JirFileTestPlayer player) {
+        player.playFile(this.getClass().getClassLoader()
+                .getResourceAsStream("nu/nethome/coders/decoders/nexa1.jir"));
+    }
+}
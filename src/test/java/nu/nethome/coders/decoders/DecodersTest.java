@@ -0,0 +1,44 @@
+package nu.nethome.coders.decoders;
+
+import nu.nethome.coders.CoderFactory;
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolInfo;
+import org.junit.Test;
+
+import java.util.Iterator;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DecodersTest {
+
+    @Test
+    public void factoriesDescribeTheCreatedDecoders() {
+        for (CoderFactory<ProtocolDecoder> factory : Decoders.getFactories()) {
+            ProtocolInfo info = factory.create().getInfo();
+            assertThat(factory.getName(), is(info.getName()));
+            assertThat(factory.getType(), is(info.getType()));
+            assertThat(factory.getCompany(), is(info.getCompany()));
+            assertThat(factory.getLength(), is(info.getLength()));
+            assertThat(factory.getDefaultRepeatCount(), is(info.getDefaultRepeatCount()));
+        }
+    }
+
+    @Test
+    public void factoriesCreateSameTypesAsGetAllTypes() {
+        assertThat(Decoders.getFactories().size(), is(Decoders.getAllTypes().size()));
+        Iterator<Class<? extends ProtocolDecoder>> types = Decoders.getAllTypes().iterator();
+        for (CoderFactory<ProtocolDecoder> factory : Decoders.getFactories()) {
+            assertThat(factory.create().getClass().getName(), is(types.next().getName()));
+        }
+    }
+
+    @Test
+    public void findsFactoryByProtocolName() {
+        CoderFactory<ProtocolDecoder> factory = Decoders.getFactory("NexaL");
+
+        assertThat(factory.create(), instanceOf(NexaLDecoder.class));
+        assertThat(factory.create(), not(sameInstance(factory.create())));
+        assertThat(Decoders.getFactory("Unknown"), is(nullValue()));
+    }
+}
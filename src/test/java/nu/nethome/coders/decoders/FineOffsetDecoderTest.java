@@ -1,6 +1,7 @@
 package nu.nethome.coders.decoders;
 
 import nu.nethome.coders.decoders.util.JirFileTestPlayer;
+import nu.nethome.util.ps.BitString;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -38,4 +39,69 @@ public class FineOffsetDecoderTest {
         assertThat(player.getMessageField(0, "Temp"), is(-14));
     }
 
+    @Test
+    public void correctsEverySingleBitError() {
+        int[] raw = decodedRawMessage();
+        for (int bit = 0; bit < 40; bit++) {
+            JirFileTestPlayer player = new JirFileTestPlayer(0);
+            FineOffsetDecoder decoder = new FineOffsetDecoder();
+            decoder.setTarget(player);
+            decoder.setErrorCorrection(1);
+
+            decoder.decodeMessage(frameWithError(raw, 1L << bit));
+
+            assertThat(player.m_Messages.size(), is(1));
+            assertThat(player.getMessageField(0, "Identity"), is(0x4B1));
+            assertThat(player.getMessageField(0, "Temp"), is(225));
+            assertThat(player.getMessageField(0, "Corrected"), is(1));
+        }
+    }
+
+    @Test
+    public void noCorrectionByDefault() {
+        JirFileTestPlayer player = new JirFileTestPlayer(0);
+        FineOffsetDecoder decoder = new FineOffsetDecoder();
+        decoder.setTarget(player);
+
+        decoder.decodeMessage(frameWithError(decodedRawMessage(), 1L << 20));
+
+        assertThat(player.m_Messages.size(), is(0));
+    }
+
+    @Test
+    public void correctsAdjacentDoubleBitErrors() {
+        int[] raw = decodedRawMessage();
+        int corrected = 0;
+        for (int bit = 1; bit < 40; bit++) {
+            JirFileTestPlayer player = new JirFileTestPlayer(0);
+            FineOffsetDecoder decoder = new FineOffsetDecoder();
+            decoder.setTarget(player);
+            decoder.setErrorCorrection(2);
+
+            decoder.decodeMessage(frameWithError(raw, (1L << bit) | (1L << (bit - 1))));
+
+            if (player.m_Messages.size() > 0 && player.getMessageField(0, "Corrected") == 2) {
+                assertThat(player.getMessageField(0, "Identity"), is(0x4B1));
+                assertThat(player.getMessageField(0, "Temp"), is(225));
+                corrected++;
+            }
+        }
+        assertThat(corrected > 0, is(true));
+    }
+
+    private int[] decodedRawMessage() {
+        JirFileTestPlayer player = new JirFileTestPlayer(JirFileTestPlayer.FINE_OFFSET_DECODER);
+        player.playFile(this.getClass().getClassLoader()
+                .getResourceAsStream("nu/nethome/coders/decoders/fine_offset.jir"));
+        return player.m_Messages.get(0).getRawMessage();
+    }
+
+    private BitString frameWithError(int[] raw, long error) {
+        BitString frame = new BitString(40);
+        for (int i = 0; i < 5; i++) {
+            int shift = 8 * (4 - i);
+            frame.insert(new BitString.Field(shift, 8), (raw[i] ^ (int) (error >> shift)) & 0xFF);
+        }
+        return frame;
+    }
 }
@@ -108,6 +108,25 @@ public class OregonDecoderTest {
         assertThat(getMessageField("Pressure"), is(511));
     }
 
+    @Test
+    public void correctsBitErrorWhenOnlyOnePositionIsPossible() throws Exception {
+        decoder.setErrorCorrection(1);
+        // Temperature digit 2 received as A, the only flip that gives valid BCD digits and checksum
+        receiveMessage("A1D201631A91073013");
+        verify(sink, times(1)).parsedMessage(messageCaptor.capture());
+        assertThat(getMessageField("Id"), is(0x63));
+        assertThat(getMessageField("Temp"), is(192));
+        assertThat(getMessageField("Corrected"), is(1));
+    }
+
+    @Test
+    public void doesNotCorrectAmbiguousBitError() throws Exception {
+        decoder.setErrorCorrection(1);
+        // Temperature digit 0 received as 8, which could also be an error in the identity
+        receiveMessage("A1D2016B1891073A14");
+        verify(sink, times(0)).parsedMessage(messageCaptor.capture());
+    }
+
     private void verifyTemperature(int sensorId, int temperature) {
         verify(sink, times(1)).parsedMessage(messageCaptor.capture());
         assertThat(getMessageField("SensorId"), is(sensorId));
@@ -2,6 +2,7 @@ package nu.nethome.coders.decoders;
 
 import nu.nethome.coders.RollerTrol;
 import nu.nethome.coders.decoders.util.JirFileTestPlayer;
+import nu.nethome.util.ps.BitString;
 import org.junit.Test;
 
 import static nu.nethome.coders.RollerTrol.*;
@@ -28,4 +29,34 @@ public class RollerTrolDecoderTest {
         assertThat(player.m_Messages.get(14).getRepeat(), is(14));
     }
 
+    @Test
+    public void correctsOnlyUnambiguousBitErrors() {
+        JirFileTestPlayer recorded = new JirFileTestPlayer(JirFileTestPlayer.ROLLERTROL_DECODER);
+        recorded.playFile(this.getClass().getClassLoader()
+                .getResourceAsStream("nu/nethome/coders/decoders/rollertrol_3_stop.jir"));
+        int[] raw = recorded.m_Messages.get(0).getRawMessage();
+        int corrected = 0;
+        for (int bit = 0; bit < MESSAGE_BIT_LENGTH; bit++) {
+            JirFileTestPlayer player = new JirFileTestPlayer(0);
+            RollerTrolDecoder decoder = new RollerTrolDecoder();
+            decoder.setTarget(player);
+            decoder.setErrorCorrection(1);
+            BitString frame = new BitString(MESSAGE_BIT_LENGTH);
+            for (int i = 0; i < 5; i++) {
+                int shift = 8 * (4 - i);
+                frame.insert(new BitString.Field(shift, 8), (raw[i] ^ (int) ((1L << bit) >> shift)) & 0xFF);
+            }
+
+            decoder.decodeMessage(frame);
+
+            if (player.m_Messages.size() > 0) {
+                assertThat(player.getMessageField(0, HOUSE_CODE_NAME), is(36600));
+                assertThat(player.getMessageField(0, DEVICE_CODE_NAME), is(3));
+                assertThat(player.getMessageField(0, "Corrected"), is(1));
+                corrected++;
+            }
+        }
+        // At least all errors in the constant field can be located
+        assertThat(corrected >= 8, is(true));
+    }
 }
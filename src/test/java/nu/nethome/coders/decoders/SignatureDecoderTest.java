@@ -0,0 +1,128 @@
+package nu.nethome.coders.decoders;
+
+import nu.nethome.coders.decoders.util.JirFileTestPlayer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class SignatureDecoderTest {
+
+    private JirFileTestPlayer player;
+
+    @Before
+    public void setUp() {
+        player = new JirFileTestPlayer(0);
+    }
+
+    @Test
+    public void decodesMarkLengthWithRepeats() {
+        SignatureDecoder decoder = create("name=Remote", "encoding=Mark Length", "bits=24", "zero=M600,S900",
+                "one=M1800,S900", "field.Button=0,4", "field.Address=4,20");
+        for (int repeat = 0; repeat < 3; repeat++) {
+            sendPairs(decoder, 0xABCDE5, 24, 600, 1800, 900, 900);
+            decoder.parse(10000, false);
+        }
+        decoder.parse(30000, false);
+        sendPairs(decoder, 0xABCDE5, 24, 600, 1800, 900, 900);
+
+        assertThat(player.m_Messages.size(), is(4));
+        assertThat(player.getMessageField(0, "Address"), is(0xABCDE));
+        assertThat(player.getMessageField(0, "Button"), is(5));
+        assertThat(player.m_Messages.get(2).getRepeat(), is(2));
+        assertThat(player.m_Messages.get(3).getRepeat(), is(0));
+        assertThat(player.m_Messages.get(0).getRawMessage(), is(new int[]{0xAB, 0xCD, 0xE5}));
+    }
+
+    @Test
+    public void decodesSpaceLengthAfterHeader() {
+        SignatureDecoder decoder = create("name=Remote", "encoding=Space Length", "bits=16", "header=M300,S2700",
+                "zero=M300,S300", "one=M300,S1300");
+        // Without header, ignored
+        sendPairs(decoder, 0x1234, 16, 300, 300, 300, 1300);
+        decoder.parse(300, false);
+        decoder.parse(300, true);
+        decoder.parse(10000, false);
+        decoder.parse(300, true);
+        decoder.parse(2700, false);
+        sendPairs(decoder, 0x1234, 16, 300, 300, 300, 1300);
+        decoder.parse(300, false);
+        decoder.parse(300, true);
+
+        assertThat(player.m_Messages.size(), is(1));
+        assertThat(player.m_Messages.get(0).getCommand(), is(0x1234));
+    }
+
+    @Test
+    public void decodesManchester() {
+        SignatureDecoder decoder = create("name=Remote", "encoding=Manchester", "bits=12", "half=500",
+                "header=M4000,S1000", "manchesterOne=SM");
+        decoder.parse(4000, true);
+        decoder.parse(1000, false);
+        // 1 0 0 1 1 0 1 0 0 0 1 1 as half bits, 1 is space then mark
+        String halves = "SMMSMSSMSMMSSMMSMSMSSMSM";
+        char level = halves.charAt(0);
+        int length = 0;
+        for (char half : halves.toCharArray()) {
+            if (half != level) {
+                decoder.parse(length * 500, level == 'M');
+                level = half;
+                length = 0;
+            }
+            length++;
+        }
+        decoder.parse(length * 500, level == 'M');
+        decoder.parse(20000, false);
+
+        assertThat(player.m_Messages.size(), is(1));
+        assertThat(player.m_Messages.get(0).getCommand(), is(0x9A3));
+    }
+
+    @Test
+    public void ignoresPulsesOutsideTolerance() {
+        SignatureDecoder decoder = create("name=Remote", "encoding=Mark Length", "bits=8", "zero=M600,S900",
+                "one=M1800,S900", "tolerance=0.1");
+        sendPairs(decoder, 0x5A, 8, 600, 1800, 1050, 1050);
+        sendPairs(decoder, 0x5A, 8, 600, 1800, 950, 950);
+
+        assertThat(player.m_Messages.size(), is(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIncompleteSignature() {
+        create("name=Remote", "encoding=Mark Length", "bits=8", "zero=M600,S900");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownEncoding() {
+        create("name=Remote", "encoding=Pulse Position", "bits=8");
+    }
+
+    private SignatureDecoder create(String... lines) {
+        Properties signature = new Properties();
+        for (String line : lines) {
+            int split = line.indexOf('=');
+            signature.setProperty(line.substring(0, split), line.substring(split + 1));
+        }
+        SignatureDecoder decoder = new SignatureDecoder(signature);
+        decoder.setTarget(player);
+        return decoder;
+    }
+
+    /**
+     * Send the bits msb first as mark and space pairs, without the space after the last bit
+     */
+    private void sendPairs(SignatureDecoder decoder, long data, int bits, int zeroMark, int oneMark,
+                           int zeroSpace, int oneSpace) {
+        for (int i = bits - 1; i >= 0; i--) {
+            boolean one = ((data >> i) & 1) == 1;
+            decoder.parse(one ? oneMark : zeroMark, true);
+            if (i > 0) {
+                decoder.parse(one ? oneSpace : zeroSpace, false);
+            }
+        }
+    }
+}
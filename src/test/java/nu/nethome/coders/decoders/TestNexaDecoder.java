@@ -253,4 +253,29 @@ public class TestNexaDecoder {
 		assertEquals(2, player.getMessageField(5, "HouseCode"));
 	}
 
+	@Test
+	public void softCombiningRecoversCopiesWithBadPulses() {
+		m_Encoder.setRepeatCount(5);
+		m_Encoder.setAddress('C');
+		m_Encoder.setButton(3);
+		m_Encoder.setCommand(1);
+		int[] pulses = m_Encoder.encode();
+		int copyLength = pulses.length / 5;
+		for (int copy = 0; copy < 5; copy++) {
+			// Mark of one bit in each copy out of tolerance and nearest the wrong length
+			int index = copy * copyLength + 2 * (2 + 5 * copy);
+			pulses[index] = pulses[index] < 705 ? 750 : 700;
+		}
+		m_Player.playMessage(pulses);
+		assertEquals(0, m_Player.getMessageCount());
+
+		m_Decoder.setSoftCombining(true);
+		m_Player.playMessage(pulses);
+		assertEquals(3, m_Player.getMessageCount());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(2, m_Player.getMessageField(i, "HouseCode"));
+			assertEquals(3, m_Player.getMessageField(i, "Button"));
+			assertEquals(1, m_Player.getMessageField(i, "Command"));
+		}
+	}
 }
@@ -189,4 +189,29 @@ public class TestNexaLDecoder {
 		assertEquals(11, player.getMessageField(4, "Button"));
 	}
 
+	@Test
+	public void softCombiningRecoversCopiesWithBadPulses() {
+		m_Encoder.setRepeatCount(5);
+		m_Encoder.setAddress(0x248a957);
+		m_Encoder.setButton(3);
+		m_Encoder.setCommand(1);
+		int[] pulses = m_Encoder.encode();
+		int copyLength = pulses.length / 5;
+		for (int copy = 0; copy < 5; copy++) {
+			// Bit space of one bit in each copy out of tolerance and nearest the wrong length
+			int index = copy * copyLength + 3 + 4 * (4 + 6 * copy);
+			pulses[index] = pulses[index] < 690 ? 800 : 500;
+		}
+		m_Player.playMessage(pulses);
+		assertEquals(0, m_Player.getMessageCount());
+
+		m_Decoder.setSoftCombining(true);
+		m_Player.playMessage(pulses);
+		assertEquals(3, m_Player.getMessageCount());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0x248a957, m_Player.getMessageField(i, "Address"));
+			assertEquals(3, m_Player.getMessageField(i, "Button"));
+			assertEquals(1, m_Player.getMessageField(i, "Command"));
+		}
+	}
 }
@@ -224,4 +224,28 @@ public class TestX10Decoder {
 		}
 	}
 
+	@Test
+	public void softCombiningRecoversCopiesWithBadPulses() {
+		m_Encoder.setRepeatCount(5);
+		m_Encoder.setHouseCode(10);
+		m_Encoder.setButton(3);
+		m_Encoder.setCommand(1);
+		int[] pulses = m_Encoder.encode();
+		int copyLength = pulses.length / 5;
+		for (int copy = 0; copy < 5; copy++) {
+			// Space of one bit in each copy out of tolerance, guessed as a zero
+			pulses[copy * copyLength + 3 + 2 * (1 + 6 * copy)] = 900;
+		}
+		m_Player.playMessage(pulses);
+		assertEquals(0, m_Player.getMessageCount());
+
+		m_Decoder.setSoftCombining(true);
+		m_Player.playMessage(pulses);
+		assertEquals(3, m_Player.getMessageCount());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(10, m_Player.getMessageField(i, "HouseCode"));
+			assertEquals(3, m_Player.getMessageField(i, "Button"));
+			assertEquals(1, m_Player.getMessageField(i, "Command"));
+		}
+	}
 }
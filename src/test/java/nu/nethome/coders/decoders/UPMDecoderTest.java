@@ -0,0 +1,105 @@
+package nu.nethome.coders.decoders;
+
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class UPMDecoderTest {
+
+    // Wake up code 1100, house code 5, device code 2, primary value 0xD7C, no sequence number or checksum
+    private static final long DATA = 0xC5700D7C0L;
+
+    private UPMDecoder decoder;
+    private List<ProtocolMessage> messages;
+    private int checksumErrors;
+
+    @Before
+    public void setUp() throws Exception {
+        decoder = new UPMDecoder();
+        messages = new ArrayList<ProtocolMessage>();
+        decoder.setTarget(new ProtocolDecoderSink() {
+            public void parsedMessage(ProtocolMessage message) {
+                messages.add(message);
+            }
+
+            public void partiallyParsedMessage(String protocol, int bits) {
+                checksumErrors++;
+            }
+
+            public void reportLevel(int level) {
+            }
+        });
+    }
+
+    @Test
+    public void decodesBurst() throws Exception {
+        playBurst(0, 0);
+
+        assertThat(messages.size(), is(3));
+        assertThat(messages.get(2).getRepeat(), is(2));
+        assertThat(messages.get(2).getAddress(), is(5 * 16 + 2));
+    }
+
+    @Test
+    public void softCombiningRecoversFramesWithBitErrors() throws Exception {
+        playBurst(1L << 10, 1L << 20);
+        assertThat(messages.size(), is(1));
+        assertThat(checksumErrors, is(2));
+
+        decoder.setSoftCombining(true);
+        messages.clear();
+        playBurst(1L << 10, 1L << 20);
+
+        assertThat(messages.size(), is(2));
+        for (ProtocolMessage message : messages) {
+            assertThat(message.getAddress(), is(5 * 16 + 2));
+            assertThat(message.getCommand(), is(0xD7C));
+        }
+    }
+
+    /**
+     * Three frames with sequence numbers 0 - 2, the first and the last with the given bits flipped
+     */
+    private void playBurst(long firstError, long lastError) {
+        decoder.parse(200000, false);
+        for (int sequence = 0; sequence < 3; sequence++) {
+            long frame = withChecksum(DATA | (sequence << 2));
+            frame ^= sequence == 0 ? firstError : sequence == 2 ? lastError : 0;
+            playFrame(frame);
+            decoder.parse(80000, false);
+        }
+        decoder.parse(200000, false);
+    }
+
+    private static long withChecksum(long frame) {
+        long checksum = 0;
+        for (int bit = 2; bit < 36; bit += 2) {
+            checksum ^= (frame >> bit) & 0x03;
+        }
+        return frame | checksum;
+    }
+
+    /**
+     * A zero is sent as a long pulse and a one as two short pulses
+     */
+    private void playFrame(long frame) {
+        boolean state = true;
+        for (int bit = 35; bit >= 0; bit--) {
+            if (((frame >> bit) & 1) == 0) {
+                decoder.parse(2000, state);
+                state = !state;
+            } else {
+                decoder.parse(1000, state);
+                decoder.parse(1000, !state);
+            }
+        }
+        decoder.parse(300, state);
+    }
+}
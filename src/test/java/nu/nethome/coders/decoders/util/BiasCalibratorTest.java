@@ -0,0 +1,109 @@
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.ProtocolMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BiasCalibratorTest {
+
+    private static final int PASSES = 3;
+
+    @Test
+    public void learnsBiasAddedByReceiver() throws Exception {
+        List<Double> pulses = SerialPulseSourceTest.recordPulses("nexa1.jir");
+        BiasCalibrator clean = play(pulses, 0, new JirFileTestPlayer(JirFileTestPlayer.ALL_DECODERS));
+        JirFileTestPlayer plain = new JirFileTestPlayer(JirFileTestPlayer.ALL_DECODERS);
+        JirFileTestPlayer calibrated = new JirFileTestPlayer(JirFileTestPlayer.ALL_DECODERS);
+        for (int i = 0; i < PASSES; i++) {
+            for (double pulse : pulses) {
+                plain.m_ProtocolDecoders.parse(Math.abs(pulse) + (pulse > 0 ? 70 : -70), pulse > 0);
+            }
+        }
+        BiasCalibrator distorted = play(pulses, 70, calibrated);
+
+        assertThat(distorted.getCalibrations(), greaterThan(20L));
+        assertThat(distorted.getMarkBias() - clean.getMarkBias(), closeTo(70, 15));
+        assertThat(distorted.getSpaceBias() - clean.getSpaceBias(), closeTo(-70, 15));
+        assertThat(calibrated.m_Messages.size(), greaterThan(plain.m_Messages.size()));
+    }
+
+    @Test
+    public void learnsFromFramesReportedBeforeTheirEnd() throws Exception {
+        BiasCalibrator calibrator = play(SerialPulseSourceTest.recordPulses("nexal1.jir"), 40,
+                new JirFileTestPlayer(JirFileTestPlayer.ALL_DECODERS));
+
+        assertThat(calibrator.getRejectedFrames(), is(0L));
+        assertThat(calibrator.getMarkBias(), closeTo(40, 15));
+        assertThat(calibrator.getSpaceBias(), closeTo(-40, 15));
+    }
+
+    @Test
+    public void ignoresProtocolsWithoutReferenceTiming() throws Exception {
+        List<Double> nexa = SerialPulseSourceTest.recordPulses("nexa1.jir");
+        List<Double> rollerTrol = SerialPulseSourceTest.recordPulses("rollertrol_3_stop.jir");
+        BiasCalibrator clean = play(nexa, 0, new JirFileTestPlayer(JirFileTestPlayer.ALL_DECODERS));
+        JirFileTestPlayer player = new JirFileTestPlayer(JirFileTestPlayer.ALL_DECODERS);
+        BiasCalibrator mixed = new BiasCalibrator(player.m_ProtocolDecoders);
+        mixed.setTarget(player);
+        for (int i = 0; i < PASSES; i++) {
+            for (double pulse : nexa) {
+                mixed.parse(Math.abs(pulse), pulse > 0);
+            }
+            for (double pulse : rollerTrol) {
+                mixed.parse(Math.abs(pulse), pulse > 0);
+            }
+        }
+
+        int rollerTrolMessages = 0;
+        for (ProtocolMessage message : player.m_Messages) {
+            rollerTrolMessages += message.getProtocol().equals("RollerTrol") ? 1 : 0;
+        }
+        assertThat(rollerTrolMessages, greaterThan(0));
+        assertThat(mixed.getCalibrations(), is(clean.getCalibrations()));
+        assertThat(mixed.getMarkBias(), closeTo(clean.getMarkBias(), 1));
+        assertThat(mixed.getSpaceBias(), closeTo(clean.getSpaceBias(), 1));
+    }
+
+    @Test
+    public void correctsPulsesWithBias() throws Exception {
+        final List<Double> received = new ArrayList<Double>();
+        BiasCalibrator calibrator = new BiasCalibrator(new ProtocolDecoder() {
+            public ProtocolInfo getInfo() {
+                return new ProtocolInfo("Recorder", "", "", 0, 0);
+            }
+
+            public void setTarget(ProtocolDecoderSink sink) {
+            }
+
+            public int parse(double pulse, boolean state) {
+                received.add(pulse);
+                return 0;
+            }
+        });
+        calibrator.setBias(50, -30);
+        calibrator.parse(500, true);
+        calibrator.parse(500, false);
+        calibrator.parse(20, true);
+
+        assertThat(received.toString(), is("[450.0, 530.0, 1.0]"));
+    }
+
+    private BiasCalibrator play(List<Double> pulses, int bias, JirFileTestPlayer player) {
+        BiasCalibrator calibrator = new BiasCalibrator(player.m_ProtocolDecoders);
+        calibrator.setTarget(player);
+        for (int i = 0; i < PASSES; i++) {
+            for (double pulse : pulses) {
+                calibrator.parse(Math.abs(pulse) + (pulse > 0 ? bias : -bias), pulse > 0);
+            }
+        }
+        return calibrator;
+    }
+}
@@ -0,0 +1,158 @@
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.coders.decoders.SignatureDecoder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BurstClustererTest {
+
+    private JirFileTestPlayer player;
+    private BurstClusterer clusterer;
+    private Random random;
+
+    @Before
+    public void setUp() throws Exception {
+        player = new JirFileTestPlayer(JirFileTestPlayer.ALL_DECODERS);
+        clusterer = new BurstClusterer(player.m_ProtocolDecoders);
+        clusterer.setTarget(player);
+        random = new Random(7);
+    }
+
+    @Test
+    public void ignoresBurstsDecodersClaim() throws Exception {
+        for (double pulse : SerialPulseSourceTest.recordPulses("nexa1.jir")) {
+            clusterer.parse(Math.abs(pulse), pulse > 0);
+        }
+        clusterer.parse(30000, false);
+
+        assertThat(player.m_Messages.size(), greaterThan(0));
+        assertThat(clusterer.getClaimedBursts(), greaterThan(0L));
+        assertThat(clusterer.getCandidates(2).size(), is(0));
+    }
+
+    @Test
+    public void clustersUnknownProtocol() {
+        for (int i = 0; i < 10; i++) {
+            sendUnknown(random.nextInt());
+            sendNoise();
+        }
+
+        List<BurstClusterer.Cluster> candidates = clusterer.getCandidates(2);
+        assertThat(candidates.size(), is(1));
+        BurstClusterer.Cluster candidate = candidates.get(0);
+        assertThat(candidate.getCount(), is(10));
+        assertThat(candidate.getMarkClasses().length, is(2));
+        assertThat(candidate.getMarkClasses()[0], closeTo(600, 30));
+        assertThat(candidate.getMarkClasses()[1], closeTo(1800, 60));
+        assertThat(candidate.getSpaceClasses().length, is(1));
+        assertThat(candidate.getSpaceClasses()[0], closeTo(900, 30));
+        assertThat(candidate.getExamples().size(), is(BurstClusterer.DEFAULT_MAX_EXAMPLES));
+        assertThat(candidate.getExamples().get(0).length, is(64));
+        assertThat(clusterer.getNoiseBursts(), is(10L));
+    }
+
+    @Test
+    public void replacesRarestClusterWhenFull() {
+        clusterer.setMaxClusters(2);
+        sendUnknown(1);
+        sendUnknown(2);
+        for (int i = 0; i < 3; i++) {
+            sendBurst(2000, 500, 3000, 0x5555);
+        }
+        for (int i = 0; i < 2; i++) {
+            sendBurst(300, 600, 1500, 0x1234);
+        }
+
+        List<BurstClusterer.Cluster> candidates = clusterer.getCandidates(1);
+        assertThat(candidates.size(), is(2));
+        assertThat(candidates.get(0).getCount(), is(3));
+        assertThat(candidates.get(1).getCount(), is(2));
+        assertThat(candidates.get(1).getMarkClasses()[0], closeTo(300, 10));
+    }
+
+    @Test
+    public void suggestsSignatureDecodingTheCluster() {
+        for (int i = 0; i < 5; i++) {
+            sendUnknown(0x12345678);
+        }
+
+        BurstClusterer.Cluster candidate = clusterer.getCandidates(2).get(0);
+        Properties signature = candidate.toSignature("Unknown");
+        assertThat(signature.getProperty("encoding"), is(SignatureDecoder.MARK_LENGTH));
+        assertThat(signature.getProperty("bits"), is("32"));
+        JirFileTestPlayer decoded = new JirFileTestPlayer(0);
+        SignatureDecoder decoder = new SignatureDecoder(signature);
+        decoder.setTarget(decoded);
+        for (double[] example : candidate.getExamples()) {
+            for (double pulse : example) {
+                decoder.parse(Math.abs(pulse), pulse > 0);
+            }
+            decoder.parse(30000, false);
+        }
+
+        assertThat(decoded.m_Messages.size(), is(BurstClusterer.DEFAULT_MAX_EXAMPLES));
+        // Bits are sent lsb first and decoded msb first
+        assertThat(decoded.m_Messages.get(0).getCommand(), is(Integer.reverse(0x12345678)));
+    }
+
+    @Test
+    public void suggestsSignaturePairingShortMarkWithLongSpace() throws Exception {
+        JirFileTestPlayer unclaimed = new JirFileTestPlayer(0);
+        clusterer = new BurstClusterer(unclaimed.m_ProtocolDecoders);
+        clusterer.setBurstGap(5000);
+        for (double pulse : SerialPulseSourceTest.recordPulses("nexa1.jir")) {
+            clusterer.parse(Math.abs(pulse), pulse > 0);
+        }
+        clusterer.parse(30000, false);
+
+        BurstClusterer.Cluster candidate = clusterer.getCandidates(2).get(0);
+        assertThat(candidate.getSpaceClasses().length, is(2));
+        Properties signature = candidate.toSignature("Unknown");
+        assertThat(signature.getProperty("encoding"), is(SignatureDecoder.MARK_LENGTH));
+        assertThat(signature.getProperty("bits"), is("25"));
+        JirFileTestPlayer decoded = new JirFileTestPlayer(0);
+        SignatureDecoder decoder = new SignatureDecoder(signature);
+        decoder.setTarget(decoded);
+        for (double[] example : candidate.getExamples()) {
+            for (double pulse : example) {
+                decoder.parse(Math.abs(pulse), pulse > 0);
+            }
+            decoder.parse(30000, false);
+        }
+
+        assertThat(decoded.m_Messages.size(), is(candidate.getExamples().size()));
+    }
+
+    private void sendUnknown(int data) {
+        sendBurst(600, 1800, 900, data);
+    }
+
+    /**
+     * Sends a 32 bit mark length encoded burst, with random jitter
+     */
+    private void sendBurst(int shortMark, int longMark, int space, int data) {
+        for (int bit = 0; bit < 32; bit++) {
+            clusterer.parse(jitter(((data >> bit) & 1) == 1 ? longMark : shortMark), true);
+            clusterer.parse(jitter(space), false);
+        }
+        clusterer.parse(30000, false);
+    }
+
+    private void sendNoise() {
+        for (int i = 0; i < 40; i++) {
+            clusterer.parse(100 * Math.pow(1.4, random.nextInt(12)), i % 2 == 0);
+        }
+        clusterer.parse(30000, false);
+    }
+
+    private double jitter(int length) {
+        return length * (0.95 + random.nextDouble() * 0.1);
+    }
+}
@@ -0,0 +1,200 @@
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.impl.ProtocolDecoderGroup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+public class CaptureWriterTest {
+
+    private File directory;
+    private int[] samples;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("capture", "");
+        directory.delete();
+        directory.mkdir();
+        samples = SampleFrontEndTest.readSamples(SampleFrontEndTest.resource("nexa1.jir"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void recordsPulsesAndSamples() throws Exception {
+        CaptureWriter writer = new CaptureWriter(directory, "test");
+        Recorder expected = record(writer, 1000);
+        writer.close();
+
+        assertThat(writer.getSegments().size(), is(1));
+        assertThat(writer.getSegments().get(0).getName().endsWith(".cap.gz"), is(true));
+        assertThat(directory.listFiles().length, is(1));
+        Recorder played = play(writer.getSegments());
+        assertThat(played.sampleRate, is(44100));
+        assertThat(played.samples, is(expected.samples));
+        assertThat(played.pulses, is(expected.pulses));
+        assertThat(played.dropped, is(0));
+        assertThat(writer.getDroppedBuffers(), is(0L));
+    }
+
+    @Test
+    public void writesDataOfQuietReceiverAfterFlushInterval() throws Exception {
+        CaptureWriter writer = new CaptureWriter(directory, "test");
+        writer.setFlushInterval(50);
+        writer.parse(500, true);
+        writer.parse(600, false);
+        for (int i = 0; i < 300 && writer.getWrittenBytes() == 0; i++) {
+            Thread.sleep(10);
+        }
+
+        assertThat(writer.getWrittenBytes(), greaterThan(0L));
+        writer.close();
+        assertThat(play(writer.getSegments()).pulses.size(), is(2));
+    }
+
+    @Test
+    public void doesNotWriteBuffersHoldingOnlyHeader() throws Exception {
+        CaptureWriter writer = new CaptureWriter(directory, "test");
+        writer.setFlushInterval(10);
+        for (int i = 0; i < 30; i++) {
+            Thread.sleep(10);
+            writer.addSamples(samples, 0, 0);
+        }
+
+        assertThat(writer.getWrittenBytes(), is(0L));
+        writer.close();
+    }
+
+    @Test
+    public void rotatesBySize() throws Exception {
+        CaptureWriter writer = new CaptureWriter(directory, "test", 4096, 64);
+        writer.setMaxSegmentSize(8000);
+        writer.setCompress(false);
+        Recorder expected = record(writer, 512);
+        writer.close();
+
+        assertThat(writer.getDroppedBuffers(), is(0L));
+        assertThat(writer.getSegments().size() > 3, is(true));
+        for (File segment : writer.getSegments()) {
+            assertThat(segment.length() <= 8000, is(true));
+        }
+        Recorder played = play(writer.getSegments());
+        assertThat(played.samples, is(expected.samples));
+        assertThat(played.pulses, is(expected.pulses));
+    }
+
+    @Test
+    public void dropsDataInsteadOfWaitingForStalledDisk() throws Exception {
+        final CountDownLatch diskStall = new CountDownLatch(1);
+        CaptureWriter writer = new CaptureWriter(directory, "test", 4096, 3) {
+            @Override
+            protected FileChannel openChannel(File file) throws IOException {
+                try {
+                    diskStall.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+                return super.openChannel(file);
+            }
+        };
+        writer.setSampleRate(44100);
+        long start = System.currentTimeMillis();
+        writer.addSamples(samples, 0, samples.length);
+        writer.flush();
+        assertThat(System.currentTimeMillis() - start < 1000, is(true));
+        long dropped = writer.getDroppedBuffers();
+        assertThat(dropped > 3, is(true));
+        diskStall.countDown();
+        writer.close();
+
+        Recorder played = play(writer.getSegments());
+        assertThat((long) played.dropped, is(dropped));
+        assertThat(played.samples.size() < samples.length, is(true));
+    }
+
+    private Recorder record(CaptureWriter writer, int blockSize) {
+        final Recorder expected = new Recorder();
+        writer.setSampleRate(44100);
+        ProtocolDecoderGroup decoders = new ProtocolDecoderGroup();
+        decoders.add(writer);
+        decoders.add(new ProtocolDecoder() {
+            public ProtocolInfo getInfo() {
+                return new ProtocolInfo("Recorder", "", "", 0, 0);
+            }
+
+            public int parse(double pulseLength, boolean state) {
+                expected.pulse(pulseLength, state);
+                return 0;
+            }
+
+            public void setTarget(ProtocolDecoderSink sink) {
+            }
+        });
+        SampleFrontEnd frontEnd = new SampleFrontEnd(decoders, 44100);
+        for (int offset = 0; offset < samples.length; offset += blockSize) {
+            int length = Math.min(blockSize, samples.length - offset);
+            writer.addSamples(samples, offset, length);
+            expected.samples(samples, offset, length);
+            frontEnd.addSamples(samples, offset, length);
+        }
+        return expected;
+    }
+
+    private Recorder play(List<File> segments) throws Exception {
+        Recorder recorder = new Recorder();
+        for (File segment : segments) {
+            CaptureReader reader = new CaptureReader(segment);
+            reader.play(recorder);
+            reader.close();
+        }
+        return recorder;
+    }
+
+    private static class Recorder implements CaptureReader.Listener {
+        List<Integer> samples = new ArrayList<Integer>();
+        List<String> pulses = new ArrayList<String>();
+        int sampleRate;
+        int dropped;
+
+        public void time(long millis) {
+        }
+
+        public void sampleRate(int sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        public void pulse(double length, boolean state) {
+            pulses.add(state + ":" + (float) length);
+        }
+
+        public void samples(int[] samples, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                this.samples.add(samples[i]);
+            }
+        }
+
+        public void dropped(int buffers) {
+            dropped += buffers;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package nu.nethome.coders.decoders.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class JirStreamReaderTest {
+
+    private File jirFile;
+
+    @Before
+    public void setUp() throws Exception {
+        jirFile = File.createTempFile("capture", ".jir");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        JirIndex.sidecarFile(jirFile).delete();
+        jirFile.delete();
+    }
+
+    @Test
+    public void readsSameSamplesAsDeserialization() throws Exception {
+        for (String file : SampleFrontEndTest.JIR_FILES) {
+            copy(file);
+            int[] expected = SampleFrontEndTest.readSamples(SampleFrontEndTest.resource(file));
+            JirStreamReader reader = new JirStreamReader(jirFile, 256);
+            int[] samples = readAll(reader, expected.length);
+            assertThat(file, reader.getProgress(), is(1.0));
+            reader.close();
+            assertThat(file, Arrays.equals(samples, expected), is(true));
+        }
+    }
+
+    @Test
+    public void seeksToTimeWithIndex() throws Exception {
+        copy("nexal1.jir");
+        int[] expected = SampleFrontEndTest.readSamples(SampleFrontEndTest.resource("nexal1.jir"));
+        JirIndex.build(jirFile, 50000).write(JirIndex.sidecarFile(jirFile));
+        JirIndex index = JirIndex.forFile(jirFile);
+        assertThat(index.getInterval(), is(50000L));
+        assertThat(index.size() > 10, is(true));
+        assertThat(index.getDuration(), is(expected.length * 1000000L / 44100));
+
+        JirStreamReader reader = new JirStreamReader(jirFile);
+        long duration = index.getDuration();
+        long[] times = {duration / 2, 60000, 0, duration * 3 / 4 + 1, duration - 1000};
+        for (long time : times) {
+            reader.seek(index, time);
+            int position = (int) reader.getSamplePosition();
+            assertThat(position, is((int) Math.ceil(time * 44100 / 1000000.0)));
+            int[] samples = new int[Math.min(2000, expected.length - position)];
+            assertThat(reader.read(samples, 0, samples.length), is(samples.length));
+            assertThat(Arrays.equals(samples, Arrays.copyOfRange(expected, position, position + samples.length)),
+                    is(true));
+        }
+        reader.close();
+    }
+
+    @Test
+    public void rebuildsStaleIndex() throws Exception {
+        copy("nexa1.jir");
+        JirIndex.build(jirFile, 50000).write(JirIndex.sidecarFile(jirFile));
+        copy("nexal1.jir");
+        JirIndex index = JirIndex.forFile(jirFile);
+        assertThat(index.getInterval(), is(JirIndex.DEFAULT_INTERVAL));
+        assertThat(index.matches(jirFile), is(true));
+    }
+
+    private void copy(String resource) throws Exception {
+        InputStream in = SampleFrontEndTest.resource(resource);
+        OutputStream out = new FileOutputStream(jirFile);
+        byte[] buffer = new byte[4096];
+        int length;
+        while ((length = in.read(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+        out.close();
+        in.close();
+    }
+
+    private static int[] readAll(JirStreamReader reader, int expectedLength) throws Exception {
+        int[] result = new int[expectedLength + 100];
+        int total = 0;
+        int length;
+        while ((length = reader.read(result, total, Math.min(333, result.length - total))) > 0) {
+            total += length;
+        }
+        return Arrays.copyOf(result, total);
+    }
+}
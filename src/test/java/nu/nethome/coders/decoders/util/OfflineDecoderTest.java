@@ -0,0 +1,171 @@
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.coders.CoderFactory;
+import nu.nethome.coders.decoders.Decoders;
+import nu.nethome.util.ps.ProtocolDecoder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class OfflineDecoderTest {
+
+    private File wavFile;
+    private File rawFile;
+    private OfflineDecoder decoder;
+
+    @Before
+    public void setUp() throws Exception {
+        wavFile = File.createTempFile("capture", ".wav");
+        rawFile = File.createTempFile("capture", ".raw");
+        decoder = new OfflineDecoder();
+        List<CoderFactory<ProtocolDecoder>> decoders = new ArrayList<CoderFactory<ProtocolDecoder>>();
+        decoders.add(Decoders.getFactory("Nexa"));
+        decoder.setDecoders(decoders);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        wavFile.delete();
+        rawFile.delete();
+    }
+
+    @Test
+    public void decodesSameMessagesAsJirPlayer() throws Exception {
+        JirFileTestPlayer reference = new JirFileTestPlayer(JirFileTestPlayer.Nexa_DECODER);
+        reference.playFile(SampleFrontEndTest.resource("nexa1.jir"));
+        writeWav(wavFile, withLeadIn(SampleFrontEndTest.readSamples(SampleFrontEndTest.resource("nexa1.jir"))), 2);
+
+        List<DecodedMessage> messages = decoder.decode(wavFile);
+
+        assertThat(messages.isEmpty(), is(false));
+        assertThat(messages.size(), is(reference.m_Messages.size()));
+        for (int i = 0; i < messages.size(); i++) {
+            assertThat(messages.get(i).getMessage().getAddress(), is(reference.m_Messages.get(i).getAddress()));
+            assertThat(messages.get(i).getMessage().getCommand(), is(reference.m_Messages.get(i).getCommand()));
+        }
+    }
+
+    @Test
+    public void reportsFrameEndedByEndOfRecording() throws Exception {
+        // The Pronto decoder reports a burst at the long space after it, and the recording ends at the last flank
+        decoder.setDecoders(Collections.singletonList(Decoders.getFactory("Pronto")));
+        int[] samples = withLeadIn(SampleFrontEndTest.readSamples(SampleFrontEndTest.resource("nexa1.jir")));
+        writeWav(wavFile, withTrailingSpace(samples), 1);
+        List<DecodedMessage> padded = decoder.decode(wavFile);
+        writeWav(wavFile, samples, 1);
+
+        List<DecodedMessage> unpadded = decoder.decode(wavFile);
+
+        assertThat(padded.isEmpty(), is(false));
+        assertThat(unpadded.size(), is(padded.size()));
+        decoder.setSliceLengthMillis(100);
+        decoder.setSliceOverlapMillis(500);
+        assertThat(decoder.decodeSlicesInParallel(wavFile).size(), is(padded.size()));
+    }
+
+    @Test
+    public void slicedDecodingGivesSameResultAsSequential() throws Exception {
+        int[] samples = SampleFrontEndTest.readSamples(SampleFrontEndTest.resource("nexa1.jir"));
+        int[] repeated = new int[samples.length * 4];
+        for (int i = 0; i < 4; i++) {
+            System.arraycopy(samples, 0, repeated, i * samples.length, samples.length);
+        }
+        writeWav(wavFile, withLeadIn(repeated), 1);
+        decoder.setSliceLengthMillis(100);
+        decoder.setSliceOverlapMillis(500);
+        decoder.setThreadCount(3);
+
+        List<DecodedMessage> sequential = decoder.decode(wavFile);
+        List<DecodedMessage> sliced = decoder.decodeSlicesInParallel(wavFile);
+
+        assertThat(sequential.size() >= 4, is(true));
+        assertThat(sliced.size(), is(sequential.size()));
+        for (int i = 0; i < sliced.size(); i++) {
+            assertThat(sliced.get(i).getSample(), is(sequential.get(i).getSample()));
+        }
+    }
+
+    @Test
+    public void readsUnsignedEightBitRawSamples() throws Exception {
+        FileOutputStream out = new FileOutputStream(rawFile);
+        out.write(new byte[]{(byte) 0x80, (byte) 0xFF, 0x00, 0x40});
+        out.close();
+        PcmFileReader reader = PcmFileReader.openRaw(rawFile, new PcmFormat(8000, 1, 8, false, false));
+        int[] result = new int[10];
+        assertThat(reader.read(result, 0, 10), is(4));
+        assertThat(Arrays.copyOf(result, 4), is(new int[]{0, 127 << 8, -128 << 8, -64 << 8}));
+        assertThat(reader.read(result, 0, 10), is(-1));
+        reader.close();
+    }
+
+    @Test
+    public void readsSelectedChannelOfStereoWav() throws Exception {
+        writeWav(wavFile, new int[]{1, 2, 3, 4}, 2);
+        PcmFileReader reader = PcmFileReader.openWav(wavFile);
+        assertThat(reader.getFormat().getChannels(), is(2));
+        assertThat(reader.getFrameCount(), is(4L));
+        reader.setSelectedChannel(1);
+        reader.seek(1);
+        int[] result = new int[3];
+        assertThat(reader.read(result, 0, 3), is(3));
+        assertThat(result, is(new int[]{-2, -3, -4}));
+        reader.close();
+    }
+
+    private static int[] withLeadIn(int[] samples) {
+        int quiet = 44100 / 5;
+        int[] result = new int[samples.length + quiet];
+        System.arraycopy(samples, 0, result, quiet, samples.length);
+        return result;
+    }
+
+    /**
+     * Add a quiet period after the samples, ended by a flank back to the level before the last flank
+     */
+    private static int[] withTrailingSpace(int[] samples) {
+        int quiet = 44100 / 5;
+        int last = samples[samples.length - 1];
+        int mark = last;
+        for (int i = samples.length - 1; i >= 0 && Math.abs(mark - last) <= 50; i--) {
+            mark = samples[i];
+        }
+        int[] result = Arrays.copyOf(samples, samples.length + quiet + 100);
+        Arrays.fill(result, samples.length, samples.length + quiet, last);
+        Arrays.fill(result, samples.length + quiet, result.length, mark);
+        return result;
+    }
+
+    /**
+     * Write a 16 bit WAV file at 44.1 kHz. With two channels the second channel holds the negated samples.
+     */
+    private static void writeWav(File file, int[] samples, int channels) throws IOException {
+        int dataLength = samples.length * 2 * channels;
+        ByteBuffer buffer = ByteBuffer.allocate(44 + dataLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes("US-ASCII")).putInt(36 + dataLength).put("WAVE".getBytes("US-ASCII"));
+        buffer.put("fmt ".getBytes("US-ASCII")).putInt(16).putShort((short) 1).putShort((short) channels)
+                .putInt(44100).putInt(44100 * 2 * channels).putShort((short) (2 * channels)).putShort((short) 16);
+        buffer.put("data".getBytes("US-ASCII")).putInt(dataLength);
+        for (int sample : samples) {
+            buffer.putShort((short) sample);
+            if (channels == 2) {
+                buffer.putShort((short) -sample);
+            }
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(buffer.array());
+        out.close();
+    }
+}
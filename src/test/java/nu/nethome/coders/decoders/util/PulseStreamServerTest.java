@@ -0,0 +1,187 @@
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.coders.CoderFactory;
+import nu.nethome.coders.decoders.Decoders;
+import nu.nethome.coders.decoders.NexaDecoder;
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class PulseStreamServerTest {
+
+    private static final int CLIENTS = 100;
+
+    private PulseStreamServer server;
+    private byte[] wire;
+    private List<String> expected = new ArrayList<String>();
+
+    @Before
+    public void setUp() throws Exception {
+        ByteBuffer buffer = SerialPulseSourceTest.encode(SerialPulseSourceTest.recordPulses("nexa1.jir"));
+        wire = new byte[buffer.remaining()];
+        buffer.get(wire);
+        JirFileTestPlayer reference = new JirFileTestPlayer(JirFileTestPlayer.Nexa_DECODER |
+                JirFileTestPlayer.Waveman_DECODER);
+        reference.playFile(SampleFrontEndTest.resource("nexa1.jir"));
+        for (ProtocolMessage message : reference.m_Messages) {
+            expected.add(PulseStreamServer.format(message));
+        }
+        server = new PulseStreamServer(0);
+        List<CoderFactory<ProtocolDecoder>> decoders = new ArrayList<CoderFactory<ProtocolDecoder>>();
+        decoders.add(Decoders.getFactory("Nexa"));
+        decoders.add(Decoders.getFactory("Waveman"));
+        server.setDecoders(decoders);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void decodesStreamsFromManyTcpReceivers() throws Exception {
+        server.setSubscriberPort(0);
+        server.start();
+        Socket subscriber = connect(server.getSubscriberPort());
+        waitForConnections(1);
+
+        List<Socket> clients = new ArrayList<Socket>();
+        for (int i = 0; i < CLIENTS; i++) {
+            Socket client = connect(server.getTcpPort());
+            client.getOutputStream().write(wire);
+            client.shutdownOutput();
+            clients.add(client);
+        }
+        for (Socket client : clients) {
+            assertThat(readLines(client, -1), is(expected));
+            client.close();
+        }
+
+        List<String> published = readLines(subscriber, CLIENTS * expected.size());
+        assertThat(published.size(), is(CLIENTS * expected.size()));
+        for (String line : published) {
+            assertThat(line, line.startsWith("/127.0.0.1:"), is(true));
+            assertThat(line, expected.contains(line.substring(line.indexOf(' ') + 1)), is(true));
+        }
+        assertThat(server.getMessageCount(), is((long) CLIENTS * expected.size()));
+        waitForConnections(1);
+        subscriber.close();
+    }
+
+    @Test
+    public void decodesDatagrams() throws Exception {
+        server.setUdpPort(0);
+        server.start();
+        DatagramSocket socket = new DatagramSocket();
+        socket.setSoTimeout(5000);
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName("127.0.0.1"), server.getUdpPort());
+        for (int offset = 0; offset < wire.length; offset += 500) {
+            socket.send(new DatagramPacket(wire, offset, Math.min(500, wire.length - offset), address));
+            Thread.sleep(1);
+        }
+        List<String> replies = new ArrayList<String>();
+        byte[] reply = new byte[1000];
+        while (replies.size() < expected.size()) {
+            DatagramPacket packet = new DatagramPacket(reply, reply.length);
+            socket.receive(packet);
+            replies.add(new String(packet.getData(), 0, packet.getLength(), "UTF-8").trim());
+        }
+        socket.close();
+        assertThat(replies, is(expected));
+        assertThat(server.getConnectionCount(), is(1));
+    }
+
+    @Test
+    public void keepsServingWhenDecodersFail() throws Exception {
+        List<CoderFactory<ProtocolDecoder>> decoders = new ArrayList<CoderFactory<ProtocolDecoder>>();
+        decoders.add(THROWING_DECODER);
+        server.setDecoders(decoders);
+        server.start();
+        Socket failing = connect(server.getTcpPort());
+        failing.getOutputStream().write(wire);
+        assertThat(readLines(failing, -1).size(), is(0));
+        failing.close();
+        waitForConnections(0);
+
+        decoders.set(0, UNCREATABLE_DECODER);
+        server.setDecoders(decoders);
+        Socket refused = connect(server.getTcpPort());
+        assertThat(readLines(refused, -1).size(), is(0));
+        refused.close();
+
+        decoders.set(0, Decoders.getFactory("Nexa"));
+        server.setDecoders(decoders);
+        Socket client = connect(server.getTcpPort());
+        client.getOutputStream().write(wire);
+        client.shutdownOutput();
+        List<String> nexa = new ArrayList<String>();
+        for (String line : expected) {
+            if (line.startsWith("Nexa,")) {
+                nexa.add(line);
+            }
+        }
+        assertThat(readLines(client, -1), is(nexa));
+        client.close();
+    }
+
+    private static final CoderFactory<ProtocolDecoder> THROWING_DECODER =
+            new CoderFactory<ProtocolDecoder>("Nexa", "Mark Length", "Nexa", 25, 5) {
+                public ProtocolDecoder create() {
+                    return new NexaDecoder() {
+                        @Override
+                        public int parse(double pulse, boolean state) {
+                            throw new IllegalStateException("Broken decoder");
+                        }
+                    };
+                }
+            };
+
+    private static final CoderFactory<ProtocolDecoder> UNCREATABLE_DECODER =
+            new CoderFactory<ProtocolDecoder>("Nexa", "Mark Length", "Nexa", 25, 5) {
+                public ProtocolDecoder create() {
+                    throw new IllegalStateException("Broken decoder");
+                }
+            };
+
+    private Socket connect(int port) throws Exception {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    private void waitForConnections(int count) throws Exception {
+        for (int i = 0; i < 200 && server.getConnectionCount() != count; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(server.getConnectionCount(), is(count));
+    }
+
+    /**
+     * Read lines until count lines are read, or to the end of the stream if count is -1
+     */
+    private static List<String> readLines(Socket socket, int count) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        List<String> lines = new ArrayList<String>();
+        String line;
+        while (lines.size() != count && (line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+}
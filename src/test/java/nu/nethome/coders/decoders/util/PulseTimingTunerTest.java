@@ -0,0 +1,147 @@
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.coders.PulseTimings;
+import nu.nethome.coders.decoders.Decoders;
+import nu.nethome.coders.decoders.NexaDecoder;
+import nu.nethome.coders.decoders.RollerTrolDecoder;
+import nu.nethome.coders.decoders.RollerTrolGDecoder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class PulseTimingTunerTest {
+
+    private static final String LONG_MARK = NexaDecoder.class.getName() + ".NEXA_LONG_MARK";
+
+    @After
+    public void tearDown() {
+        PulseTimings.reset();
+    }
+
+    @Test
+    public void widensTooNarrowWindow() throws Exception {
+        PulseTimingTuner tuner = createTuner();
+        PulseTimings.set(LONG_MARK, 1065, 1040, 1090);
+
+        Properties tuned = tuner.tune();
+
+        double[] score = tuner.getScores().get("Nexa");
+        assertThat(score[1], greaterThan(score[0]));
+        int[] window = parse(tuned.getProperty(LONG_MARK));
+        assertThat(window[2] - window[1], greaterThan(50));
+        assertThat(PulseTimings.get(LONG_MARK), is(new int[]{1065, 1040, 1090}));
+    }
+
+    @Test
+    public void keepsWindowsThatCanNotBeImproved() throws Exception {
+        PulseTimingTuner tuner = createTuner();
+        Properties before = PulseTimings.exportTimings();
+
+        Properties tuned = tuner.tune();
+
+        double[] score = tuner.getScores().get("Nexa");
+        assertThat(score[1], is(score[0]));
+        for (String name : tuned.stringPropertyNames()) {
+            assertThat(tuned.getProperty(name), is(before.getProperty(name)));
+        }
+    }
+
+    @Test
+    public void targetsWindowsUsedByEachDecoder() {
+        PulseTimingTuner tuner = new PulseTimingTuner();
+        tuner.addDecoders(Decoders.getFactories());
+
+        Map<String, String[]> targets = tuner.getTargets();
+        String nexa = NexaDecoder.class.getName() + ".";
+        String rollerTrol = RollerTrolDecoder.class.getName() + ".";
+        assertThat(Arrays.asList(targets.get("RollerTrol")), hasItems(rollerTrol + "SHORT", rollerTrol + "SHORT_MARK",
+                rollerTrol + "LONG", rollerTrol + "LONG_PREAMBLE_MARK", rollerTrol + "TELLSTICK_MIN_REPEAT_GAP"));
+        assertThat(Arrays.asList(targets.get("RollerTrolG")),
+                hasItems(RollerTrolGDecoder.class.getName() + ".SHORT", RollerTrolGDecoder.class.getName() + ".REPEAT_SPACE"));
+        assertThat(Arrays.asList(targets.get("NexaFire")), hasItems(nexa + "NEXAF_MARK", nexa + "NEXAF_REPEAT"));
+        assertThat(Arrays.asList(targets.get("Nexa")), hasItem(LONG_MARK));
+        assertThat(Arrays.asList(targets.get("Nexa")), not(hasItem(nexa + "NEXAF_MARK")));
+        assertThat(targets.containsKey("Waveman"), is(false));
+    }
+
+    @Test
+    public void labelsSignalsWithProtocolsDecodedByDefault() throws Exception {
+        Set<String> protocols = PulseTimingTuner.decodedProtocols(nexaPulses(), Decoders.getFactories());
+
+        assertThat(protocols, hasItem("Nexa"));
+        assertThat(protocols, not(hasItem("RollerTrol")));
+    }
+
+    @Test
+    public void countsMessagesOfOtherProtocolsAgainstWindow() throws Exception {
+        PulseTimingTuner tuner = new PulseTimingTuner();
+        tuner.addSignal(nexaPulses(), "RollerTrol");
+        tuner.setThreadCount(1);
+        tuner.addDecoder(Decoders.getFactory("Nexa"), PulseTimingTuner.timingsOf(NexaDecoder.class));
+        int[] before = PulseTimings.get(LONG_MARK);
+
+        Properties tuned = tuner.tune();
+
+        double[] score = tuner.getScores().get("Nexa");
+        assertThat(score[0], lessThan(0.0));
+        int[] window = parse(tuned.getProperty(LONG_MARK));
+        assertThat(window[2] - window[1], not(greaterThan(before[2] - before[1])));
+    }
+
+    @Test
+    public void scoresEveryDecoderReadingMovedWindows() throws Exception {
+        PulseTimingTuner tuner = new PulseTimingTuner();
+        tuner.addSignal(nexaPulses());
+        tuner.setMaxRounds(1);
+        tuner.addDecoders(Arrays.asList(Decoders.getFactory("Nexa"), Decoders.getFactory("Waveman")));
+        PulseTimingTuner nexaOnly = new PulseTimingTuner();
+        nexaOnly.addSignal(nexaPulses());
+        nexaOnly.setMaxRounds(1);
+        nexaOnly.addDecoders(Arrays.asList(Decoders.getFactory("Nexa")));
+
+        assertThat(Arrays.asList(tuner.getReaders().get("Nexa")), hasItems("Nexa", "Waveman"));
+        tuner.tune();
+        nexaOnly.tune();
+        assertThat(tuner.getScores().get("Nexa")[0], greaterThan(nexaOnly.getScores().get("Nexa")[0]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEntryTunedForTwoDecoders() {
+        PulseTimingTuner tuner = new PulseTimingTuner();
+        tuner.addDecoder(Decoders.getFactory("Nexa"), LONG_MARK);
+        tuner.addDecoder(Decoders.getFactory("Waveman"), LONG_MARK);
+    }
+
+    private PulseTimingTuner createTuner() throws Exception {
+        PulseTimingTuner result = new PulseTimingTuner();
+        result.addSignal(nexaPulses());
+        Random random = new Random(3);
+        double[] noise = new double[20000];
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = (100 + random.nextInt(1500)) * (i % 2 == 0 ? 1 : -1);
+        }
+        result.addNoise(noise);
+        result.setThreadCount(2);
+        result.addDecoder(Decoders.getFactory("Nexa"), PulseTimingTuner.timingsOf(NexaDecoder.class));
+        return result;
+    }
+
+    private double[] nexaPulses() throws Exception {
+        return PulseTimingTuner.readPulses(new File(getClass().getClassLoader()
+                .getResource("nu/nethome/coders/decoders/nexa1.jir").toURI()));
+    }
+
+    private static int[] parse(String window) {
+        String[] parts = window.split(",");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2])};
+    }
+}
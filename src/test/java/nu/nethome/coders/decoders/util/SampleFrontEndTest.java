@@ -0,0 +1,105 @@
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.ProtocolMessage;
+import nu.nethome.util.ps.RawProtocolMessage;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+public class SampleFrontEndTest {
+
+    static final String[] JIR_FILES = {"fine_offset.jir", "fine_offset_neg.jir", "nexa1.jir", "nexa_fire.jir",
+            "nexal1.jir", "nexal_dn.jir", "oregon1.jir", "prologue.jir", "rollertrol_3_stop.jir"};
+
+    @Test
+    public void givesSameMessagesAsSampleBySampleChain() throws Exception {
+        for (String file : JIR_FILES) {
+            JirFileTestPlayer reference = new JirFileTestPlayer(JirFileTestPlayer.ALL_DECODERS);
+            reference.playFile(resource(file));
+            assertThat(file, reference.m_Messages.size(), greaterThan(0));
+
+            JirFileTestPlayer player = new JirFileTestPlayer(JirFileTestPlayer.ALL_DECODERS);
+            SampleFrontEnd frontEnd = new SampleFrontEnd(player.m_ProtocolDecoders, 44100);
+            int[] samples = readSamples(resource(file));
+            frontEnd.addConstant(0, 44100 / 5);
+            for (int offset = 0; offset < samples.length; offset += 1000) {
+                frontEnd.addSamples(samples, offset, Math.min(1000, samples.length - offset));
+            }
+            frontEnd.addConstant(samples.length > 0 ? samples[samples.length - 1] : 0, 44100 / 5);
+
+            assertThat(file, describe(player.m_Messages), is(describe(reference.m_Messages)));
+        }
+    }
+
+    @Test
+    public void shortBlocksGiveSameResultAsIntBlocks() throws Exception {
+        int[] samples = readSamples(resource("nexa1.jir"));
+        short[] shortSamples = new short[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            shortSamples[i] = (short) samples[i];
+        }
+        JirFileTestPlayer intPlayer = new JirFileTestPlayer(JirFileTestPlayer.Nexa_DECODER);
+        new SampleFrontEnd(intPlayer.m_ProtocolDecoders, 44100).addSamples(samples);
+        JirFileTestPlayer shortPlayer = new JirFileTestPlayer(JirFileTestPlayer.Nexa_DECODER);
+        new SampleFrontEnd(shortPlayer.m_ProtocolDecoders, 44100).addSamples(shortSamples);
+        assertThat(describe(shortPlayer.m_Messages), is(describe(intPlayer.m_Messages)));
+    }
+
+    @Test
+    public void lowPassFilterKeepsLevelAndRemovesAlternation() throws Exception {
+        BlockFirFilter filter = BlockFirFilter.lowPass(44100, 6000, 15);
+        int[] samples = new int[200];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = 10000 + ((i & 1) == 0 ? 2000 : -2000);
+        }
+        int[] result = new int[samples.length];
+        filter.filter(samples, 0, 100, result, 0);
+        filter.filter(samples, 100, 100, result, 100);
+        for (int i = 50; i < samples.length; i++) {
+            assertThat(Math.abs(result[i] - 10000) < 200, is(true));
+        }
+    }
+
+    static InputStream resource(String name) {
+        return SampleFrontEndTest.class.getClassLoader().getResourceAsStream("nu/nethome/coders/decoders/" + name);
+    }
+
+    static int[] readSamples(InputStream stream) throws Exception {
+        List<Integer> samples = new ArrayList<Integer>();
+        ObjectInputStream input = new ObjectInputStream(stream);
+        int length = input.readInt();
+        for (int i = 0; i < length; i++) {
+            ProtocolMessage message = (ProtocolMessage) input.readObject();
+            if (message.getProtocol().equals("Raw")) {
+                samples.addAll(((RawProtocolMessage) message).m_Samples);
+            }
+        }
+        input.close();
+        int[] result = new int[samples.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = samples.get(i);
+        }
+        return result;
+    }
+
+    static String describe(List<ProtocolMessage> messages) {
+        StringBuilder result = new StringBuilder();
+        for (ProtocolMessage message : messages) {
+            result.append(message.getProtocol()).append(':');
+            for (FieldValue field : message.getFields()) {
+                result.append(field.getName()).append('=').append(field.getStringValue() != null ?
+                        field.getStringValue() : Integer.toString(field.getValue())).append(',');
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,128 @@
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class SerialPulseSourceTest {
+
+    @Test
+    public void decodesPulsesSentThroughPipe() throws Exception {
+        for (String file : new String[]{"nexa1.jir", "nexal1.jir", "oregon1.jir", "rollertrol_3_stop.jir"}) {
+            JirFileTestPlayer reference = new JirFileTestPlayer(JirFileTestPlayer.ALL_DECODERS);
+            reference.playFile(SampleFrontEndTest.resource(file));
+            final ByteBuffer wire = encode(recordPulses(file));
+
+            Pipe pipe = Pipe.open();
+            final Pipe.SinkChannel sink = pipe.sink();
+            Thread receiver = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Random random = new Random(17);
+                        while (wire.hasRemaining()) {
+                            ByteBuffer chunk = wire.slice();
+                            chunk.limit(Math.min(chunk.remaining(), 1 + random.nextInt(300)));
+                            while (chunk.hasRemaining()) {
+                                wire.position(wire.position() + sink.write(chunk));
+                            }
+                        }
+                        sink.close();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            receiver.start();
+
+            JirFileTestPlayer player = new JirFileTestPlayer(JirFileTestPlayer.ALL_DECODERS);
+            SerialPulseSource source = new SerialPulseSource(pipe.source(), 256);
+            source.setProtocolDecoder(player.m_ProtocolDecoders);
+            source.process();
+            source.close();
+            receiver.join();
+
+            assertThat(file, source.getSyncErrors(), is(0L));
+            assertThat(file, SampleFrontEndTest.describe(player.m_Messages),
+                    is(SampleFrontEndTest.describe(reference.m_Messages)));
+        }
+    }
+
+    @Test
+    public void recoversFromLostBytes() throws Exception {
+        ByteBuffer wire = ByteBuffer.allocate(100);
+        wire.put((byte) 0x12);
+        PulseWireFormat.put(wire, 1000, true);
+        wire.put((byte) 0xA5);
+        PulseWireFormat.put(wire, 500, false);
+        PulseWireFormat.put(wire, 100000, true);
+        wire.put((byte) 0x01).put((byte) 0x02);
+        PulseWireFormat.put(wire, 7, false);
+        wire.flip();
+        Pipe pipe = Pipe.open();
+        pipe.sink().write(wire);
+        pipe.sink().close();
+
+        final List<String> pulses = new ArrayList<String>();
+        SerialPulseSource source = new SerialPulseSource(pipe.source());
+        source.setPulseWidthCompensation(10);
+        source.setProtocolDecoder(new ProtocolDecoder() {
+            public ProtocolInfo getInfo() {
+                return new ProtocolInfo("Recorder", "", "", 0, 0);
+            }
+
+            public int parse(double pulseLength, boolean state) {
+                pulses.add((state ? "m" : "s") + (int) pulseLength);
+                return 0;
+            }
+
+            public void setTarget(ProtocolDecoderSink sink) {
+            }
+        });
+        source.process();
+
+        assertThat(pulses.toString(), is("[m990, s510, m99990, s17]"));
+        assertThat(source.getPulseCount(), is(4L));
+        assertThat(source.getSyncErrors(), is(3L));
+    }
+
+    static List<Double> recordPulses(String file) throws Exception {
+        final List<Double> pulses = new ArrayList<Double>();
+        int[] samples = SampleFrontEndTest.readSamples(SampleFrontEndTest.resource(file));
+        SampleFrontEnd frontEnd = new SampleFrontEnd(new ProtocolDecoder() {
+            public ProtocolInfo getInfo() {
+                return new ProtocolInfo("Recorder", "", "", 0, 0);
+            }
+
+            public int parse(double pulseLength, boolean state) {
+                pulses.add(state ? pulseLength : -pulseLength);
+                return 0;
+            }
+
+            public void setTarget(ProtocolDecoderSink sink) {
+            }
+        }, 44100);
+        frontEnd.addConstant(0, 44100 / 5);
+        frontEnd.addSamples(samples, 0, samples.length);
+        frontEnd.addConstant(samples.length > 0 ? samples[samples.length - 1] : 0, 44100 / 5);
+        return pulses;
+    }
+
+    static ByteBuffer encode(List<Double> pulses) {
+        ByteBuffer wire = ByteBuffer.allocate(pulses.size() * PulseWireFormat.MAX_PULSE_BYTES);
+        for (double pulse : pulses) {
+            PulseWireFormat.put(wire, (int) Math.round(Math.abs(pulse)), pulse > 0);
+        }
+        wire.flip();
+        return wire;
+    }
+}
@@ -0,0 +1,131 @@
+package nu.nethome.coders.decoders.util;
+
+import nu.nethome.coders.decoders.NexaDecoder;
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.ProtocolMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class TimestampedDecoderGroupTest {
+
+    @Test
+    public void messagesGetStartAndEndOfTheirPulses() throws Exception {
+        TimestampedDecoderGroup group = new TimestampedDecoderGroup();
+        group.add(new ThreeMarkDecoder());
+        Recorder recorder = new Recorder();
+        group.setTarget(recorder);
+        group.setTime(1000);
+        group.parse(300, false);
+        for (int i = 0; i < 12; i++) {
+            group.parse(100, i % 2 == 0);
+        }
+        assertThat(recorder.times.toString(), is("[1300-1800, 1800-2400]"));
+        assertThat(group.getTime(), is(2500L));
+    }
+
+    @Test
+    public void plainSinkGetsMessagesAsUsual() throws Exception {
+        TimestampedDecoderGroup group = new TimestampedDecoderGroup();
+        group.add(new ThreeMarkDecoder());
+        final List<ProtocolMessage> messages = new ArrayList<ProtocolMessage>();
+        group.setTarget(new ProtocolDecoderSink() {
+            public void parsedMessage(ProtocolMessage message) {
+                messages.add(message);
+            }
+
+            public void partiallyParsedMessage(String protocol, int bits) {
+            }
+
+            public void reportLevel(int level) {
+            }
+        });
+        for (int i = 0; i < 6; i++) {
+            group.parse(100, i % 2 == 0);
+        }
+        assertThat(messages.size(), is(1));
+    }
+
+    @Test
+    public void sampleClockAndPulseSumAgree() throws Exception {
+        int[] samples = SampleFrontEndTest.readSamples(SampleFrontEndTest.resource("nexa1.jir"));
+        Recorder byClock = decode(samples, true);
+        Recorder bySum = decode(samples, false);
+
+        assertThat(byClock.times.size() > 3, is(true));
+        assertThat(bySum.times.size(), is(byClock.times.size()));
+        for (int i = 0; i < byClock.starts.size(); i++) {
+            long duration = byClock.ends.get(i) - byClock.starts.get(i);
+            assertThat(byClock.times.get(i), duration > 20000 && duration < 60000, is(true));
+            assertThat(Math.abs(byClock.ends.get(i) - bySum.ends.get(i)) < 1000, is(true));
+            assertThat(Math.abs(byClock.starts.get(i) - bySum.starts.get(i)) < 1000, is(true));
+            if (i > 0) {
+                assertThat(byClock.starts.get(i) >= byClock.ends.get(i - 1), is(true));
+            }
+        }
+    }
+
+    private static Recorder decode(int[] samples, boolean useClock) {
+        TimestampedDecoderGroup group = new TimestampedDecoderGroup();
+        group.add(new NexaDecoder());
+        Recorder recorder = new Recorder();
+        group.setTarget(recorder);
+        SampleFrontEnd frontEnd = new SampleFrontEnd(group, 44100);
+        if (useClock) {
+            group.setClock(frontEnd.getFlankDetector());
+        }
+        frontEnd.addSamples(samples, 0, samples.length);
+        frontEnd.addConstant(samples[samples.length - 1], 44100 / 5);
+        return recorder;
+    }
+
+    /**
+     * Leaves idle at the first mark and reports a message at every third mark
+     */
+    private static class ThreeMarkDecoder implements ProtocolDecoder {
+        ProtocolDecoderSink sink;
+        int marks;
+
+        public ProtocolInfo getInfo() {
+            return new ProtocolInfo("ThreeMark", "", "", 0, 0);
+        }
+
+        public int parse(double pulseLength, boolean state) {
+            if (state && ++marks % 3 == 0) {
+                sink.parsedMessage(new ProtocolMessage("ThreeMark", marks, 0, 0));
+            }
+            return marks > 0 ? 1 : 0;
+        }
+
+        public void setTarget(ProtocolDecoderSink sink) {
+            this.sink = sink;
+        }
+    }
+
+    private static class Recorder implements TimestampedSink {
+        List<String> times = new ArrayList<String>();
+        List<Long> starts = new ArrayList<Long>();
+        List<Long> ends = new ArrayList<Long>();
+
+        public void parsedMessage(ProtocolMessage message, long start, long end) {
+            times.add(start + "-" + end);
+            starts.add(start);
+            ends.add(end);
+        }
+
+        public void parsedMessage(ProtocolMessage message) {
+        }
+
+        public void partiallyParsedMessage(String protocol, int bits) {
+        }
+
+        public void reportLevel(int level) {
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package nu.nethome.coders.encoders;
+
+import nu.nethome.coders.PulseTimings;
+import nu.nethome.coders.RollerTrol;
+import nu.nethome.coders.decoders.NexaDecoder;
+import nu.nethome.coders.decoders.RollerTrolDecoder;
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.Message;
+import nu.nethome.util.ps.ProtocolEncoder;
+import nu.nethome.util.ps.ProtocolMessage;
+import nu.nethome.util.ps.impl.PulseTestPlayer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.IntBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class CachingEncoderTest {
+
+    private CachingEncoder encoder;
+
+    @Before
+    public void setUp() throws Exception {
+        encoder = new CachingEncoder(new NexaEncoder(), 2);
+    }
+
+    @After
+    public void tearDown() {
+        PulseTimings.reset();
+    }
+
+    @Test
+    public void givesSamePulsesAsWrappedEncoder() throws Exception {
+        Message message = NexaEncoder.buildMessage(1, 2, 3);
+        int[] expected = new NexaEncoder().encode(message, ProtocolEncoder.Phase.REPEATED);
+        assertThat(encoder.encode(message, ProtocolEncoder.Phase.REPEATED), is(expected));
+        assertThat(encoder.encode(message, ProtocolEncoder.Phase.REPEATED), is(expected));
+    }
+
+    @Test
+    public void countsHitsAndMisses() throws Exception {
+        encoder.encode(NexaEncoder.buildMessage(1, 2, 3), ProtocolEncoder.Phase.REPEATED);
+        encoder.encode(NexaEncoder.buildMessage(1, 2, 3), ProtocolEncoder.Phase.REPEATED);
+        encoder.encode(NexaEncoder.buildMessage(1, 2, 3), ProtocolEncoder.Phase.FIRST);
+        assertThat(encoder.getMissCount(), is(2L));
+        assertThat(encoder.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void differentFieldsGiveDifferentEntries() throws Exception {
+        int[] on = encoder.encode(NexaEncoder.buildMessage(1, 2, 3), ProtocolEncoder.Phase.REPEATED);
+        int[] off = encoder.encode(NexaEncoder.buildMessage(0, 2, 3), ProtocolEncoder.Phase.REPEATED);
+        assertThat(on, is(not(off)));
+        assertThat(encoder.size(), is(2));
+    }
+
+    @Test
+    public void doesNotCacheMessagesLackingFields() throws Exception {
+        ProtocolMessage off = new ProtocolMessage("Nexa", 0, 0, 0);
+        off.addField(new FieldValue("Command", 0));
+        encoder.encode(NexaEncoder.buildMessage(1, 2, 3), ProtocolEncoder.Phase.REPEATED);
+        int[] first = encoder.encode(off, ProtocolEncoder.Phase.REPEATED);
+        encoder.encode(NexaEncoder.buildMessage(1, 5, 6), ProtocolEncoder.Phase.REPEATED);
+        int[] second = encoder.encode(off, ProtocolEncoder.Phase.REPEATED);
+
+        NexaEncoder reference = new NexaEncoder();
+        assertThat(first, is(reference.encode(NexaEncoder.buildMessage(0, 2, 3), ProtocolEncoder.Phase.REPEATED)));
+        assertThat(second, is(reference.encode(NexaEncoder.buildMessage(0, 5, 6), ProtocolEncoder.Phase.REPEATED)));
+        assertThat(encoder.size(), is(2));
+    }
+
+    @Test
+    public void encodesPartialMessageFromLastCompleteMessageAfterHit() throws Exception {
+        ProtocolMessage off = new ProtocolMessage("Nexa", 0, 0, 0);
+        off.addField(new FieldValue("Command", 0));
+        encoder.encode(NexaEncoder.buildMessage(1, 2, 3), ProtocolEncoder.Phase.REPEATED);
+        encoder.encode(NexaEncoder.buildMessage(1, 5, 6), ProtocolEncoder.Phase.REPEATED);
+        encoder.encode(NexaEncoder.buildMessage(1, 2, 3), ProtocolEncoder.Phase.REPEATED);
+        int[] pulses = encoder.encode(off, ProtocolEncoder.Phase.REPEATED);
+
+        NexaEncoder reference = new NexaEncoder();
+        assertThat(encoder.getHitCount(), is(1L));
+        assertThat(pulses, is(reference.encode(NexaEncoder.buildMessage(0, 2, 3), ProtocolEncoder.Phase.REPEATED)));
+    }
+
+    @Test
+    public void flushesWhenPulseTimingsChange() throws Exception {
+        CachingEncoder rollerTrol = new CachingEncoder(new RollerTrolEncoder());
+        Message message = RollerTrolEncoder.buildMessage(1, 2, 3);
+        int[] before = rollerTrol.encode(message, ProtocolEncoder.Phase.REPEATED);
+        PulseTimings.set(RollerTrolDecoder.class.getName() + ".LONG_PREAMBLE_MARK", 4500, 4000, 5000);
+        int[] after = rollerTrol.encode(message, ProtocolEncoder.Phase.REPEATED);
+
+        assertThat(before[0], is(4885));
+        assertThat(after[0], is(RollerTrol.LONG_PREAMBLE_MARK.length()));
+        assertThat(after[0], is(4500));
+        assertThat(rollerTrol.getHitCount(), is(0L));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        encoder.encode(NexaEncoder.buildMessage(1, 1, 3), ProtocolEncoder.Phase.REPEATED);
+        encoder.encode(NexaEncoder.buildMessage(1, 2, 3), ProtocolEncoder.Phase.REPEATED);
+        encoder.encode(NexaEncoder.buildMessage(1, 1, 3), ProtocolEncoder.Phase.REPEATED);
+        encoder.encode(NexaEncoder.buildMessage(1, 3, 3), ProtocolEncoder.Phase.REPEATED);
+        assertThat(encoder.size(), is(2));
+        assertThat(encoder.getEvictionCount(), is(1L));
+        encoder.encode(NexaEncoder.buildMessage(1, 1, 3), ProtocolEncoder.Phase.REPEATED);
+        assertThat(encoder.getHitCount(), is(2L));
+    }
+
+    @Test
+    public void returnedArrayCanBeModifiedWithoutAffectingCache() throws Exception {
+        Message message = NexaEncoder.buildMessage(1, 2, 3);
+        int[] first = encoder.encode(message, ProtocolEncoder.Phase.REPEATED);
+        int saved = first[0];
+        first[0] = 0;
+        assertThat(encoder.encode(message, ProtocolEncoder.Phase.REPEATED)[0], is(saved));
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void sharedPulsesAreReadOnly() throws Exception {
+        IntBuffer pulses = encoder.encodeShared(NexaEncoder.buildMessage(1, 2, 3), ProtocolEncoder.Phase.REPEATED);
+        pulses.put(0, 1);
+    }
+
+    @Test
+    public void wrapsEncoderInfo() throws Exception {
+        assertThat(encoder.getInfo().getName(), is("Nexa"));
+        assertThat(encoder.modulationFrequency(NexaEncoder.buildMessage(1, 2, 3)), is(0));
+    }
+
+    @Test
+    public void cachedPulsesCanBeDecoded() throws Exception {
+        PulseTestPlayer player = new PulseTestPlayer();
+        NexaDecoder decoder = new NexaDecoder();
+        decoder.setTarget(player);
+        player.setDecoder(decoder);
+        player.setPulseWidthModification(0);
+        Message message = NexaEncoder.buildMessage(1, 2, 3);
+        encoder.encode(message, ProtocolEncoder.Phase.REPEATED);
+        player.playMessage(encoder.encode(message, ProtocolEncoder.Phase.REPEATED));
+        assertThat(player.getMessageCount(), is(1));
+        assertThat(player.getMessageField(0, "Button"), is(2));
+        assertThat(player.getMessageField(0, "HouseCode"), is(3));
+    }
+}
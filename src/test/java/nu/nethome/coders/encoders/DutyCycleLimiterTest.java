@@ -0,0 +1,84 @@
+package nu.nethome.coders.encoders;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DutyCycleLimiterTest {
+
+    private long time;
+    private DutyCycleLimiter limiter;
+
+    @Before
+    public void setUp() throws Exception {
+        time = 1000000000L;
+        limiter = new DutyCycleLimiter() {
+            @Override
+            protected long now() {
+                return time;
+            }
+        };
+        // 64 ms window with 10% duty cycle gives 6400 us per window
+        limiter.addBand("433", 64, 0.1);
+    }
+
+    @Test
+    public void admitsUntilBudgetIsUsed() throws Exception {
+        assertThat(limiter.getAvailable("433"), is(6400L));
+        assertThat(limiter.tryAcquire("433", 4000), is(true));
+        assertThat(limiter.tryAcquire("433", 4000), is(false));
+        assertThat(limiter.tryAcquire("433", new int[]{1000, 1000, 400}), is(true));
+        assertThat(limiter.getUsed("433"), is(6400L));
+        assertThat(limiter.getRejectedCount("433"), is(1L));
+    }
+
+    @Test
+    public void airtimeLeavesWindow() throws Exception {
+        assertThat(limiter.tryAcquire("433", 4000), is(true));
+        time += 32000;
+        assertThat(limiter.tryAcquire("433", 2000), is(true));
+        assertThat(limiter.delayUntilAvailable("433", 4000), is(32000L));
+        time += 32000;
+        assertThat(limiter.getUsed("433"), is(2000L));
+        assertThat(limiter.tryAcquire("433", 4000), is(true));
+        time += 1000000;
+        assertThat(limiter.getUsed("433"), is(0L));
+    }
+
+    @Test
+    public void reducesRepeatsToFitBudget() throws Exception {
+        PulseTrain train = new PulseTrain(new int[]{500, 500}, new int[]{300, 700}, 10);
+        PulseTrain admitted = limiter.tryAcquire("433", train, 2);
+        assertThat(admitted.getRepeatCount(), is(5));
+        assertThat(limiter.getUsed("433"), is(6000L));
+        assertThat(limiter.tryAcquire("433", train, 1), is(nullValue()));
+    }
+
+    @Test
+    public void reducesRepeatCountForLegacyEncoders() throws Exception {
+        int[] frame = new NexaEncoder().encode(NexaEncoder.buildMessage(1, 1, 1), NexaEncoder.Phase.REPEATED);
+        NexaEncoder encoder = new NexaEncoder();
+        encoder.setButton(1);
+        encoder.setAddress(1);
+        limiter.addBand("868", 1000, DutyCycleLimiter.airtime(frame) * 3);
+        int repeats = limiter.tryAcquireRepeats("868", 0, DutyCycleLimiter.airtime(frame), encoder.getRepeatCount(), 1);
+        assertThat(repeats, is(3));
+        encoder.setRepeatCount(repeats);
+        assertThat(DutyCycleLimiter.airtime(encoder.encode()), is(limiter.getUsed("868")));
+    }
+
+    @Test
+    public void neverAdmitsMoreThanBudget() throws Exception {
+        assertThat(limiter.delayUntilAvailable("433", 7000), is(-1L));
+        assertThat(limiter.acquire("433", 7000, 1, TimeUnit.SECONDS), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownBand() throws Exception {
+        limiter.tryAcquire("2400", 1);
+    }
+}
@@ -0,0 +1,44 @@
+package nu.nethome.coders.encoders;
+
+import nu.nethome.coders.CoderFactory;
+import nu.nethome.util.ps.ProtocolEncoder;
+import nu.nethome.util.ps.ProtocolInfo;
+import org.junit.Test;
+
+import java.util.Iterator;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class EncodersTest {
+
+    @Test
+    public void factoriesDescribeTheCreatedEncoders() {
+        for (CoderFactory<ProtocolEncoder> factory : Encoders.getFactories()) {
+            ProtocolInfo info = factory.create().getInfo();
+            assertThat(factory.getName(), is(info.getName()));
+            assertThat(factory.getType(), is(info.getType()));
+            assertThat(factory.getCompany(), is(info.getCompany()));
+            assertThat(factory.getLength(), is(info.getLength()));
+            assertThat(factory.getDefaultRepeatCount(), is(info.getDefaultRepeatCount()));
+        }
+    }
+
+    @Test
+    public void factoriesCreateSameTypesAsGetAllTypes() {
+        assertThat(Encoders.getFactories().size(), is(Encoders.getAllTypes().size()));
+        Iterator<Class<? extends ProtocolEncoder>> types = Encoders.getAllTypes().iterator();
+        for (CoderFactory<ProtocolEncoder> factory : Encoders.getFactories()) {
+            assertThat(factory.create().getClass().getName(), is(types.next().getName()));
+        }
+    }
+
+    @Test
+    public void findsFactoryByProtocolName() {
+        CoderFactory<ProtocolEncoder> factory = Encoders.getFactory("NexaL");
+
+        assertThat(factory.create(), instanceOf(NexaLEncoder.class));
+        assertThat(factory.create(), not(sameInstance(factory.create())));
+        assertThat(Encoders.getFactory("Unknown"), is(nullValue()));
+    }
+}
@@ -0,0 +1,137 @@
+package nu.nethome.coders.encoders;
+
+import nu.nethome.coders.RollerTrolG;
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.Message;
+import nu.nethome.util.ps.MessageRepeater;
+import nu.nethome.util.ps.ProtocolEncoder;
+import nu.nethome.util.ps.ProtocolMessage;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class PulseBuffersTest {
+
+    private static final String PRONTO_MESSAGE = "0000 006C 0002 0002 0156 00AB 0015 0040 0015 0015 0015 0E66";
+
+    @Test
+    public void encodeIntoGivesSamePulsesAsEncode() throws Exception {
+        verifyEncodeInto(new NexaEncoder(), NexaEncoder.buildMessage(1, 2, 3));
+        verifyEncodeInto(new NexaLEncoder(), NexaLEncoder.buildMessage(1, 2, 123456));
+        verifyEncodeInto(new NexaLEncoder(), NexaLEncoder.buildDimMessage(7, 2, 123456));
+        verifyEncodeInto(new NexaFireEncoder(), nexaFireMessage(0x12345));
+        verifyEncodeInto(new WavemanEncoder(), NexaEncoder.buildMessage(0, 2, 3));
+        verifyEncodeInto(new X10Encoder(), X10Encoder.buildAddressMessage(true, 3, 4));
+        verifyEncodeInto(new DeltronicEncoder(), DeltronicEncoder.buildCommandMessage(true, 2, 1));
+        verifyEncodeInto(new RisingSunEncoder(), RisingSunEncoder.buildMessage(1, 2, 3));
+        verifyEncodeInto(new ZhejiangEncoder(), ZhejiangEncoder.buildMessage(1, 2, 3));
+        verifyEncodeInto(new EmotivaEncoder(), EmotivaEncoder.buildMessage(0x12, 0x1234));
+        verifyEncodeInto(new RollerTrolEncoder(), RollerTrolEncoder.buildMessage(1, 12345, 9));
+        verifyEncodeInto(new RollerTrolGEncoder(), RollerTrolGEncoder.buildMessage(RollerTrolG.COMMAND_UP, 123456, 3));
+        verifyEncodeInto(new ProntoEncoder(), ProntoEncoder.createMessage(PRONTO_MESSAGE));
+        verifyEncodeInto(new CachingEncoder(new NexaEncoder()), NexaEncoder.buildMessage(1, 2, 3));
+    }
+
+    @Test
+    public void prontoEncodesBothSequences() throws Exception {
+        ProntoEncoder encoder = new ProntoEncoder();
+        Message message = ProntoEncoder.createMessage(PRONTO_MESSAGE);
+        assertThat(encoder.encodedLength(message, ProtocolEncoder.Phase.FIRST), is(4));
+        assertThat(encoder.encodedLength(message, ProtocolEncoder.Phase.REPEATED), is(4));
+    }
+
+    @Test
+    public void prontoGivesNoPulsesForTruncatedMessage() throws Exception {
+        ProntoEncoder encoder = new ProntoEncoder();
+        Message message = ProntoEncoder.createMessage("0000 006C 0002 0002 0156 00AB 0015");
+        assertThat(encoder.encodedLength(message, ProtocolEncoder.Phase.REPEATED), is(0));
+        assertThat(encoder.encode(message, ProtocolEncoder.Phase.REPEATED).length, is(0));
+    }
+
+    @Test
+    public void prontoLeavesBufferUntouchedForMessageTruncatedInSequence() throws Exception {
+        ProntoEncoder encoder = new ProntoEncoder();
+        Message message = ProntoEncoder.createMessage("0000 006C 0002 0002 0156");
+        int[] buffer = {-1, -1, -1, -1};
+        assertThat(encoder.encodedLength(message, ProtocolEncoder.Phase.FIRST), is(0));
+        assertThat(encoder.encode(message, ProtocolEncoder.Phase.FIRST).length, is(0));
+        assertThat(encoder.encodeInto(message, ProtocolEncoder.Phase.FIRST, buffer, 0), is(0));
+        assertThat(buffer, is(new int[]{-1, -1, -1, -1}));
+    }
+
+    @Test
+    public void canWriteAtOffset() throws Exception {
+        NexaEncoder encoder = new NexaEncoder();
+        Message message = NexaEncoder.buildMessage(1, 2, 3);
+        int[] buffer = new int[110];
+        int written = encoder.encodeInto(message, ProtocolEncoder.Phase.REPEATED, buffer, 10);
+        assertThat(written, is(50));
+        assertThat(buffer[9], is(0));
+        assertThat(buffer[60], is(0));
+        assertThat(Arrays.copyOfRange(buffer, 10, 60), is(encoder.encode(message, ProtocolEncoder.Phase.REPEATED)));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void tooSmallBufferIsRejected() throws Exception {
+        new X10Encoder().encodeInto(X10Encoder.buildAddressMessage(true, 3, 4), ProtocolEncoder.Phase.REPEATED, new int[67], 0);
+    }
+
+    @Test
+    public void canWriteToDirectIntBuffer() throws Exception {
+        NexaLEncoder encoder = new NexaLEncoder();
+        Message message = NexaLEncoder.buildMessage(1, 2, 123456);
+        IntBuffer buffer = ByteBuffer.allocateDirect(1000 * 4).asIntBuffer();
+        buffer.put(1);
+        int written = PulseBuffers.encodeInto(encoder, message, ProtocolEncoder.Phase.REPEATED, buffer);
+        assertThat(buffer.position(), is(1 + written));
+        int[] result = new int[written];
+        buffer.position(1);
+        buffer.get(result);
+        assertThat(result, is(encoder.encode(message, ProtocolEncoder.Phase.REPEATED)));
+    }
+
+    @Test
+    public void canWriteToHeapIntBuffer() throws Exception {
+        X10Encoder encoder = new X10Encoder();
+        Message message = X10Encoder.buildAddressMessage(true, 3, 4);
+        IntBuffer buffer = IntBuffer.allocate(200);
+        PulseBuffers.encodeInto(encoder, message, ProtocolEncoder.Phase.REPEATED, buffer);
+        PulseBuffers.encodeInto(encoder, message, ProtocolEncoder.Phase.REPEATED, buffer);
+        assertThat(buffer.position(), is(2 * 68));
+    }
+
+    @Test
+    public void repeatIntoGivesSamePulsesAsMessageRepeater() throws Exception {
+        verifyRepeat(new NexaEncoder(), NexaEncoder.buildMessage(1, 2, 3), 5);
+        verifyRepeat(new RollerTrolEncoder(), RollerTrolEncoder.buildMessage(1, 12345, 9), 3);
+        verifyRepeat(new ProntoEncoder(), ProntoEncoder.createMessage(PRONTO_MESSAGE), 4);
+    }
+
+    private void verifyEncodeInto(PulseBufferEncoder encoder, Message message) throws Exception {
+        for (ProtocolEncoder.Phase phase : ProtocolEncoder.Phase.values()) {
+            int[] expected = encoder.encode(message, phase);
+            assertThat(encoder.encodedLength(message, phase), is(expected.length));
+            int[] buffer = new int[expected.length];
+            assertThat(encoder.encodeInto(message, phase, buffer, 0), is(expected.length));
+            assertThat(buffer, is(expected));
+        }
+    }
+
+    private void verifyRepeat(PulseBufferEncoder encoder, Message message, int repeats) throws Exception {
+        int[] expected = MessageRepeater.repeat(encoder, message, repeats);
+        int[] buffer = new int[PulseBuffers.repeatedLength(encoder, message, repeats)];
+        assertThat(PulseBuffers.repeatInto(encoder, message, repeats, buffer, 0), is(expected.length));
+        assertThat(buffer, is(expected));
+    }
+
+    private static Message nexaFireMessage(int address) {
+        ProtocolMessage result = new ProtocolMessage("NexaFire", 1, address, 0);
+        result.addField(new FieldValue("Address", address));
+        return result;
+    }
+}
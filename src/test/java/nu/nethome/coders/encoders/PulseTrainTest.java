@@ -0,0 +1,100 @@
+package nu.nethome.coders.encoders;
+
+import nu.nethome.util.ps.Message;
+import nu.nethome.util.ps.MessageRepeater;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class PulseTrainTest {
+
+    private PulseTrain train;
+
+    @Before
+    public void setUp() throws Exception {
+        train = new PulseTrain(new int[]{1, 2}, new int[]{3, 4, 5, 6}, 3);
+    }
+
+    @Test
+    public void materializesPrefixAndRepeatedBody() throws Exception {
+        assertThat(train.length(), is(14));
+        assertThat(train.toArray(), is(new int[]{1, 2, 3, 4, 5, 6, 3, 4, 5, 6, 3, 4, 5, 6}));
+        assertThat(train.duration(), is(3L + 18 * 3));
+    }
+
+    @Test
+    public void iteratesSamePulsesAsArray() throws Exception {
+        PulseTrain.PulseIterator iterator = train.iterator();
+        int[] expected = train.toArray();
+        for (int i = 0; i < expected.length; i++) {
+            assertThat(iterator.hasNext(), is(true));
+            assertThat(iterator.next(), is(expected[i]));
+            assertThat(train.pulseAt(i), is(expected[i]));
+        }
+        assertThat(iterator.hasNext(), is(false));
+        iterator.reset();
+        assertThat(iterator.next(), is(1));
+    }
+
+    @Test
+    public void readsInChunks() throws Exception {
+        PulseTrain.PulseIterator iterator = train.iterator();
+        int[] buffer = new int[5];
+        assertThat(iterator.read(buffer, 0, 5), is(5));
+        assertThat(buffer, is(new int[]{1, 2, 3, 4, 5}));
+        assertThat(iterator.read(buffer, 0, 5), is(5));
+        assertThat(iterator.read(buffer, 0, 5), is(4));
+        assertThat(iterator.read(buffer, 0, 5), is(0));
+        assertThat(iterator.remaining(), is(0));
+    }
+
+    @Test
+    public void trailingGapReplacesLastPulse() throws Exception {
+        PulseTrain gapped = train.withTrailingGap(100);
+        assertThat(gapped.pulseAt(13), is(100));
+        assertThat(gapped.toArray()[13], is(100));
+        assertThat(gapped.duration(), is(train.duration() - 6 + 100));
+        PulseTrain.PulseIterator iterator = gapped.iterator();
+        int last = 0;
+        while (iterator.hasNext()) {
+            last = iterator.next();
+        }
+        assertThat(last, is(100));
+    }
+
+    @Test
+    public void legacyEncodersGiveSamePulsesAsEncode() throws Exception {
+        NexaEncoder nexa = new NexaEncoder();
+        nexa.setRepeatCount(7);
+        assertThat(nexa.encodeTrain().toArray(), is(nexa.encode()));
+        assertThat(nexa.encodeTrain().getBodyLength(), is(50));
+
+        NexaFireEncoder nexaFire = new NexaFireEncoder();
+        assertThat(nexaFire.encodeTrain().toArray(), is(nexaFire.encode()));
+
+        ProntoEncoder pronto = new ProntoEncoder();
+        pronto.setMessage("0000 006C 0002 0002 0156 00AB 0015 0040 0015 0015 0015 0E66");
+        PulseTrain prontoTrain = pronto.encodeTrain();
+        assertThat(prontoTrain.toArray(), is(pronto.encode()));
+        assertThat(prontoTrain.getModulationFrequency(), is(pronto.modulationFrequency(
+                ProntoEncoder.createMessage(pronto.getMessage()))));
+    }
+
+    @Test
+    public void prontoGivesEmptyTrainForTruncatedMessage() throws Exception {
+        ProntoEncoder pronto = new ProntoEncoder();
+        pronto.setMessage("0000 006C 0002 0002 0156 00AB 0015 0040 0015");
+        assertThat(pronto.encodeTrain().getBodyLength(), is(0));
+        pronto.setMessage("0000 006C 0002 0002 0156");
+        assertThat(pronto.encodeTrain().getBodyLength(), is(0));
+    }
+
+    @Test
+    public void encodesSameAsMessageRepeater() throws Exception {
+        Message message = RollerTrolEncoder.buildMessage(1, 12345, 9);
+        RollerTrolEncoder encoder = new RollerTrolEncoder();
+        assertThat(PulseTrain.encode(encoder, message, 4).toArray(), is(MessageRepeater.repeat(encoder, message, 4)));
+    }
+}
@@ -0,0 +1,160 @@
+package nu.nethome.coders.encoders;
+
+import nu.nethome.coders.RollerTrolG;
+import nu.nethome.coders.decoders.NexaDecoder;
+import nu.nethome.coders.decoders.NexaLDecoder;
+import nu.nethome.coders.decoders.RollerTrolDecoder;
+import nu.nethome.coders.decoders.RollerTrolGDecoder;
+import nu.nethome.util.ps.ProtocolMessage;
+import nu.nethome.util.ps.impl.ProtocolDecoderGroup;
+import nu.nethome.util.ps.impl.PulseTestPlayer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class TransmissionSchedulerTest {
+
+    private TransmissionScheduler scheduler;
+    private PulseTestPlayer player;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new TransmissionScheduler();
+        player = new PulseTestPlayer();
+        ProtocolDecoderGroup decoders = new ProtocolDecoderGroup();
+        decoders.add(new NexaDecoder());
+        decoders.add(new NexaLDecoder());
+        decoders.add(new RollerTrolDecoder());
+        decoders.setTarget(player);
+        player.setDecoder(decoders);
+    }
+
+    @Test
+    public void singleMessageGivesSamePulsesAsRepeater() throws Exception {
+        scheduler.add(NexaEncoder.buildMessage(1, 2, 3), 4);
+        TransmissionPlan plan = scheduler.schedule();
+        NexaEncoder encoder = new NexaEncoder();
+        encoder.setRepeatCount(4);
+        encoder.setButton(2);
+        encoder.setAddress(3);
+        assertThat(plan.getPulseTrain().toArray(), is(encoder.encode()));
+        assertThat(plan.getDuration(), is(plan.getSequentialDuration()));
+    }
+
+    @Test
+    public void interleavedTrainIsShorterAndDecodesAllMessages() throws Exception {
+        scheduler.add(NexaEncoder.buildMessage(1, 1, 1));
+        scheduler.add(NexaEncoder.buildMessage(1, 2, 5));
+        scheduler.add(NexaLEncoder.buildMessage(1, 3, 123456), "NexaL", 5);
+        scheduler.add(RollerTrolEncoder.buildMessage(1, 12345, 9), 3);
+        TransmissionPlan plan = scheduler.schedule();
+
+        assertThat(plan.getDuration(), lessThan(plan.getSequentialDuration()));
+        assertThat(plan.getDeviceTimings().size(), is(4));
+        assertThat(plan.getDeviceTimings().get(0).getFrameCount(), is(5));
+        // RollerTrol sends a first frame before the repeated ones
+        assertThat(plan.getDeviceTimings().get(3).getFrameCount(), is(4));
+        assertThat(plan.getLastDeviceLatency(), lessThanOrEqualTo(plan.getDuration()));
+
+        player.playMessage(plan.getPulseTrain().toArray());
+        Set<String> decoded = new HashSet<String>();
+        for (ProtocolMessage message : player.getMessages()) {
+            decoded.add(message.getProtocol() + ":" + message.getAddress());
+        }
+        assertThat(decoded.size(), is(4));
+    }
+
+    @Test
+    public void framesOfSameMessageKeepRepeatGap() throws Exception {
+        scheduler.add(NexaEncoder.buildMessage(1, 1, 1), 2);
+        scheduler.add(NexaEncoder.buildMessage(1, 2, 5), 2);
+        TransmissionPlan plan = scheduler.schedule();
+        TransmissionPlan.DeviceTiming first = plan.getDeviceTimings().get(0);
+        int frameWithGap = 0;
+        for (int pulse : new NexaEncoder().encode(NexaEncoder.buildMessage(1, 1, 1), NexaEncoder.Phase.REPEATED)) {
+            frameWithGap += pulse;
+        }
+        // Second frame may not start before the first frame and its repeat gap has passed
+        long burst = first.getAirtime() / 2;
+        assertThat(first.getLastFrameEnd() - first.getFirstFrameStart(), greaterThanOrEqualTo(frameWithGap + burst));
+    }
+
+    @Test
+    public void nexaRepeatsAreRecognizedWithFramesInTheirGaps() throws Exception {
+        scheduler.add(NexaEncoder.buildMessage(1, 1, 1), 3);
+        scheduler.add(NexaLEncoder.buildMessage(1, 3, 123456), "NexaL", 3);
+        TransmissionPlan plan = scheduler.schedule();
+
+        assertThat(plan.getDuration(), lessThan(plan.getSequentialDuration()));
+        player.playMessage(plan.getPulseTrain().toArray());
+        List<Integer> nexaRepeats = new ArrayList<Integer>();
+        for (ProtocolMessage message : player.getMessages()) {
+            if (message.getProtocol().equals("Nexa")) {
+                nexaRepeats.add(message.getRepeat());
+            }
+        }
+        assertThat(nexaRepeats, is(Arrays.asList(0, 1, 2)));
+    }
+
+    @Test
+    public void findsGapOfRollerTrolGFrames() throws Exception {
+        ProtocolDecoderGroup decoders = new ProtocolDecoderGroup();
+        decoders.add(new RollerTrolGDecoder());
+        decoders.setTarget(player);
+        player.setDecoder(decoders);
+        scheduler.add(RollerTrolGEncoder.buildMessage(RollerTrolG.COMMAND_UP, 123456, 3), 3);
+        scheduler.add(RollerTrolGEncoder.buildMessage(RollerTrolG.COMMAND_DOWN, 654321, 4), 3);
+        TransmissionPlan plan = scheduler.schedule();
+
+        int[] pulses = plan.getPulseTrain().toArray();
+        for (int pulse : pulses) {
+            assertThat(pulse, greaterThan(0));
+        }
+        player.playMessage(pulses);
+        Set<Integer> addresses = new HashSet<Integer>();
+        for (ProtocolMessage message : player.getMessages()) {
+            addresses.add(message.getAddress());
+        }
+        // RollerTrolG sends a first frame before the repeated ones
+        assertThat(player.getMessages().length, is(8));
+        assertThat(addresses.size(), is(2));
+    }
+
+    @Test
+    public void timingsMatchTrainSentInTurn() throws Exception {
+        // With the whole gap as guard time nothing fits in the gaps, so the frames are sent in turn
+        scheduler.setGuardTime("Nexa", 20000);
+        scheduler.setGuardTime("NexaL", 20000);
+        scheduler.add(NexaEncoder.buildMessage(1, 1, 1), 3);
+        scheduler.add(NexaLEncoder.buildMessage(1, 3, 123456), "NexaL", 2);
+        TransmissionPlan plan = scheduler.schedule();
+
+        TransmissionPlan.DeviceTiming nexa = plan.getDeviceTimings().get(0);
+        TransmissionPlan.DeviceTiming nexaL = plan.getDeviceTimings().get(1);
+        assertThat(nexaL.getFirstFrameStart(), is(0L));
+        assertThat(nexa.getFirstFrameStart(), greaterThanOrEqualTo(nexaL.getLastFrameEnd()));
+        assertThat(plan.getLastDeviceLatency(), is(nexa.getLastFrameEnd()));
+        // Scheduling again gives the same plan
+        assertThat(scheduler.schedule().getReport(), is(plan.getReport()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMixedModulationFrequencies() throws Exception {
+        scheduler.add(NexaEncoder.buildMessage(1, 1, 1));
+        scheduler.add(X10Encoder.buildAddressMessage(true, 3, 4));
+        scheduler.schedule();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownProtocol() throws Exception {
+        scheduler.add(new ProtocolMessage("NoSuchProtocol", 0, 0, 0));
+    }
+}
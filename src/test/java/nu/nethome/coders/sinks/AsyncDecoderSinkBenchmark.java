@@ -0,0 +1,89 @@
+package nu.nethome.coders.sinks;
+
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+
+/**
+ * Measures how long the decoding thread is held per message and how many messages per second reach the target,
+ * calling the target directly and through AsyncDecoderSink with each wait strategy. This is not a unit test,
+ * since the result depends on the machine and its load. Run it with the test classpath, optionally giving the
+ * number of messages and the micro seconds the target spends on each message.
+ */
+public class AsyncDecoderSinkBenchmark {
+
+    private static final String[] STRATEGY_NAMES = {"spin", "yield", "park"};
+
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int workMicros = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        for (int round = 0; round < 5; round++) {
+            runDirect(messages, workMicros);
+            for (int strategy = AsyncDecoderSink.SPIN; strategy <= AsyncDecoderSink.PARK; strategy++) {
+                runAsync(messages, workMicros, strategy);
+            }
+        }
+    }
+
+    private static void runDirect(int messages, int workMicros) {
+        BusySink target = new BusySink(workMicros);
+        long start = System.nanoTime();
+        long maxCall = feed(target, messages);
+        long elapsed = System.nanoTime() - start;
+        print("direct", messages, elapsed, maxCall, elapsed, target.count, 0);
+    }
+
+    private static void runAsync(int messages, int workMicros, int strategy) {
+        BusySink target = new BusySink(workMicros);
+        AsyncDecoderSink sink = new AsyncDecoderSink(target, AsyncDecoderSink.DEFAULT_SIZE,
+                AsyncDecoderSink.DEFAULT_BATCH_SIZE, strategy);
+        long start = System.nanoTime();
+        long maxCall = feed(sink, messages);
+        long feeding = System.nanoTime() - start;
+        sink.close();
+        long elapsed = System.nanoTime() - start;
+        print(STRATEGY_NAMES[strategy], messages, feeding, maxCall, elapsed, target.count, sink.getDroppedCount());
+    }
+
+    /**
+     * @return the longest time in nano seconds a single call held the calling thread
+     */
+    private static long feed(ProtocolDecoderSink sink, int messages) {
+        ProtocolMessage message = new ProtocolMessage("Nexa", 1, 0, 0);
+        long maxCall = 0;
+        for (int i = 0; i < messages; i++) {
+            long before = System.nanoTime();
+            sink.parsedMessage(message);
+            maxCall = Math.max(maxCall, System.nanoTime() - before);
+        }
+        return maxCall;
+    }
+
+    private static void print(String name, int messages, long feeding, long maxCall, long elapsed, long delivered,
+                              long dropped) {
+        System.out.println(name + ": " + feeding / messages + " ns/call, max " + maxCall / 1000 + " us, " +
+                delivered * 1000000000L / elapsed + " messages/s delivered, " + dropped + " dropped");
+    }
+
+    private static class BusySink implements ProtocolDecoderSink {
+        private final long workNanos;
+        long count;
+
+        BusySink(int workMicros) {
+            workNanos = workMicros * 1000L;
+        }
+
+        public void parsedMessage(ProtocolMessage message) {
+            long end = System.nanoTime() + workNanos;
+            while (System.nanoTime() < end) {
+                // Simulate the work of a sink, like formatting and writing the message
+            }
+            count++;
+        }
+
+        public void partiallyParsedMessage(String protocol, int bits) {
+        }
+
+        public void reportLevel(int level) {
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package nu.nethome.coders.sinks;
+
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class AsyncDecoderSinkTest {
+
+    @Test
+    public void passesAllCallsInOrderWithEachWaitStrategy() throws Exception {
+        for (int strategy : new int[]{AsyncDecoderSink.SPIN, AsyncDecoderSink.YIELD, AsyncDecoderSink.PARK}) {
+            Recorder target = new Recorder();
+            AsyncDecoderSink sink = new AsyncDecoderSink(target, 4096, 16, strategy);
+            for (int i = 0; i < 1000; i++) {
+                sink.parsedMessage(new ProtocolMessage("Nexa", i, 0, 0));
+                if (i % 100 == 0) {
+                    sink.partiallyParsedMessage("Nexa", i);
+                    sink.reportLevel(i);
+                }
+            }
+            sink.close();
+            assertThat(target.commands.size(), is(1000));
+            for (int i = 0; i < 1000; i++) {
+                assertThat(target.commands.get(i), is(i));
+            }
+            assertThat(target.partial.size(), is(10));
+            assertThat(target.levels.size(), is(10));
+            assertThat(sink.getDispatchedCount(), is(1020L));
+            assertThat(sink.getDroppedCount(), is(0L));
+            assertThat(sink.getBatchCount() >= 1020 / 16, is(true));
+        }
+    }
+
+    @Test
+    public void dropsWhenRingIsFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Recorder target = new Recorder() {
+            @Override
+            public void parsedMessage(ProtocolMessage message) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.parsedMessage(message);
+            }
+        };
+        AsyncDecoderSink sink = new AsyncDecoderSink(target, 8, 4, AsyncDecoderSink.PARK);
+        for (int i = 0; i < 20; i++) {
+            sink.parsedMessage(new ProtocolMessage("Nexa", i, 0, 0));
+        }
+        assertThat(sink.getDroppedCount(), is(12L));
+        release.countDown();
+        sink.close();
+        assertThat(target.commands.size(), is(8));
+    }
+
+    @Test(timeout = 10000)
+    public void decodingThreadDoesNotWaitForSlowSink() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Recorder slow = new Recorder() {
+            @Override
+            public void parsedMessage(ProtocolMessage message) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.parsedMessage(message);
+            }
+        };
+        AsyncDecoderSink sink = new AsyncDecoderSink(slow);
+        for (int i = 0; i < 50; i++) {
+            sink.parsedMessage(new ProtocolMessage("Nexa", i, 0, 0));
+        }
+        // All calls returned while the target is still blocked on the first message
+        assertThat(slow.commands.size(), is(0));
+        assertThat(sink.getDroppedCount(), is(0L));
+        release.countDown();
+        sink.close();
+        assertThat(slow.commands.size(), is(50));
+    }
+
+    @Test
+    public void continuesAfterFailingTarget() throws Exception {
+        Recorder failing = new Recorder() {
+            @Override
+            public void parsedMessage(ProtocolMessage message) {
+                super.parsedMessage(message);
+                if (message.getCommand() == 1) {
+                    throw new IllegalStateException("Failed");
+                }
+            }
+        };
+        AsyncDecoderSink sink = new AsyncDecoderSink(failing);
+        for (int i = 0; i < 3; i++) {
+            sink.parsedMessage(new ProtocolMessage("Nexa", i, 0, 0));
+        }
+        sink.close();
+        assertThat(failing.commands.toString(), is("[0, 1, 2]"));
+        assertThat(sink.getErrorCount(), is(1L));
+    }
+
+    private static class Recorder implements ProtocolDecoderSink {
+        List<Integer> commands = new ArrayList<Integer>();
+        List<Integer> partial = new ArrayList<Integer>();
+        List<Integer> levels = new ArrayList<Integer>();
+
+        public void parsedMessage(ProtocolMessage message) {
+            commands.add(message.getCommand());
+        }
+
+        public void partiallyParsedMessage(String protocol, int bits) {
+            partial.add(bits);
+        }
+
+        public void reportLevel(int level) {
+            levels.add(level);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package nu.nethome.coders.sinks;
+
+/**
+ * Measures how many meter readings per second EnergyDeltaStream handles with thousands of meters. This is not a
+ * unit test, since the result depends on the machine and its load. Run it with the test classpath, optionally
+ * giving the number of meters and passes.
+ */
+public class EnergyDeltaStreamBenchmark {
+
+    public static void main(String[] args) {
+        int meters = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        for (int round = 0; round < 5; round++) {
+            run(meters, passes);
+        }
+    }
+
+    private static void run(int meters, int passes) {
+        EnergyDeltaStream stream = new EnergyDeltaStream(new EnergyDeltaStream.Listener() {
+            public void energyDelta(int identity, long time, long elapsed, int pulses, double wattHours,
+                                    double watts) {
+            }
+        });
+        long start = System.nanoTime();
+        long readings = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            for (int meter = 0; meter < meters; meter++) {
+                for (int i = pass * 100; i < pass * 100 + 100; i++) {
+                    stream.addReading(meter, i * 3 + (meter << 8), i * 10000L);
+                    readings++;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(readings + " readings from " + meters + " meters in " + elapsed / 1000000 + " ms, " +
+                readings * 1000000000L / elapsed + " readings/s, " + stream.getDeltaCount() + " deltas");
+    }
+}
@@ -0,0 +1,130 @@
+package nu.nethome.coders.sinks;
+
+import nu.nethome.coders.decoders.CRC8Table;
+import nu.nethome.coders.decoders.FineOffsetDecoder;
+import nu.nethome.util.ps.BitString;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class EnergyDeltaStreamTest {
+
+    private static final int METER = 1092;
+
+    @Test
+    public void computesDeltasFromDecodedMessages() {
+        List<ProtocolMessage> messages = new ArrayList<ProtocolMessage>();
+        FineOffsetDecoder decoder = decoderFeeding(new ListSink(messages));
+        decoder.decodeMessage(frame(METER, 0x12345));
+        decoder.decodeMessage(frame(METER, 0x12345));
+        decoder.decodeMessage(frame(METER, 0x12345 + 100));
+        Recorder recorder = new Recorder();
+        EnergyDeltaStream stream = new EnergyDeltaStream(recorder);
+        stream.parsedMessage(messages.get(0), 0);
+        stream.parsedMessage(messages.get(1), 500);
+        stream.parsedMessage(messages.get(2), 60 * 60 * 1000L);
+
+        assertThat(stream.getRepeatCount(), is(1L));
+        assertThat(recorder.events.toString(), is("[1092:100:100.0:100.0]"));
+    }
+
+    @Test
+    public void handlesWrapOfCount() {
+        Recorder recorder = new Recorder();
+        EnergyDeltaStream stream = new EnergyDeltaStream(recorder);
+        stream.addReading(METER, 0xFFFF0, 0);
+        stream.addReading(METER, 0x00010, 60 * 1000L);
+
+        assertThat(recorder.events.toString(), is("[1092:32:32.0:1920.0]"));
+    }
+
+    @Test
+    public void restartsOnUnbelievableJump() {
+        Recorder recorder = new Recorder();
+        EnergyDeltaStream stream = new EnergyDeltaStream(recorder);
+        stream.addReading(METER, 1000, 0);
+        stream.addReading(METER, 500, 60 * 1000L);
+        stream.addReading(METER, 510, 120 * 1000L);
+
+        assertThat(stream.getRestartCount(), is(1L));
+        assertThat(recorder.events.toString(), is("[1092:10:10.0:600.0]"));
+    }
+
+    @Test
+    public void handlesThousandsOfMeters() {
+        EnergyDeltaStream stream = new EnergyDeltaStream(new EnergyDeltaStream.Listener() {
+            public void energyDelta(int identity, long time, long elapsed, int pulses, double wattHours,
+                                    double watts) {
+            }
+        });
+        List<ProtocolMessage> replay = new ArrayList<ProtocolMessage>();
+        FineOffsetDecoder decoder = decoderFeeding(new ListSink(replay));
+        for (int count = 0; count < 1000; count++) {
+            decoder.decodeMessage(frame(METER, count * 3));
+        }
+        int readings = 0;
+        for (int pass = 0; pass < 10; pass++) {
+            for (int meter = 0; meter < 4096; meter++) {
+                for (int i = pass * 100; i < pass * 100 + 100; i++) {
+                    stream.addReading(meter, replay.get(i).getCommand() + (meter << 8), i * 10000L);
+                    readings++;
+                }
+            }
+        }
+
+        assertThat(stream.getDeltaCount(), is(readings - 4096L));
+    }
+
+    private FineOffsetDecoder decoderFeeding(ProtocolDecoderSink sink) {
+        FineOffsetDecoder decoder = new FineOffsetDecoder();
+        decoder.setTarget(sink);
+        return decoder;
+    }
+
+    private BitString frame(int identity, int count) {
+        BitString frame = new BitString(40);
+        frame.insert(FineOffsetDecoder.IDENTITY, identity);
+        frame.insert(FineOffsetDecoder.ENERGY, count & 0xFFF);
+        frame.insert(FineOffsetDecoder.HUMIDITY, (count >> 12) & 0xFF);
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            bytes[i] = (byte) frame.extractInt(new BitString.Field(32 - 8 * i, 8));
+        }
+        frame.insert(FineOffsetDecoder.CHECKSUM, new CRC8Table(0x0131).calc(bytes));
+        return frame;
+    }
+
+    private static class Recorder implements EnergyDeltaStream.Listener {
+        final List<String> events = new ArrayList<String>();
+
+        public void energyDelta(int identity, long time, long elapsed, int pulses, double wattHours, double watts) {
+            events.add(identity + ":" + pulses + ":" + wattHours + ":" + watts);
+        }
+    }
+
+    private static class ListSink implements ProtocolDecoderSink {
+        private final List<ProtocolMessage> messages;
+
+        ListSink(List<ProtocolMessage> messages) {
+            this.messages = messages;
+        }
+
+        public void parsedMessage(ProtocolMessage message) {
+            if (message.getProtocol().equals("FooGadgetLegacy")) {
+                messages.add(message);
+            }
+        }
+
+        public void partiallyParsedMessage(String protocol, int bits) {
+        }
+
+        public void reportLevel(int level) {
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package nu.nethome.coders.sinks;
+
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.ProtocolMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class MessagePublisherTest {
+
+    private List<Runnable> tasks;
+    private MessagePublisher publisher;
+
+    @Before
+    public void setUp() throws Exception {
+        tasks = new ArrayList<Runnable>();
+        publisher = new MessagePublisher(new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+    }
+
+    @Test
+    public void deliversOnlyRequestedMessages() throws Exception {
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        for (int i = 0; i < 5; i++) {
+            publisher.parsedMessage(message(i));
+        }
+        runTasks();
+        assertThat(recorder.commands.size(), is(0));
+        recorder.subscription.request(2);
+        runTasks();
+        assertThat(recorder.commands.toString(), is("[0, 1]"));
+        recorder.subscription.request(10);
+        runTasks();
+        assertThat(recorder.commands.toString(), is("[0, 1, 2, 3, 4]"));
+        publisher.close();
+        runTasks();
+        assertThat(recorder.completed, is(true));
+        assertThat(publisher.getSubscriberCount(), is(0));
+    }
+
+    @Test
+    public void overflowPoliciesDropDifferentMessages() throws Exception {
+        Recorder oldest = new Recorder();
+        Recorder newest = new Recorder();
+        Recorder repeats = new Recorder();
+        MessagePublisher.MessageSubscription oldestSubscription =
+                publisher.subscribe(oldest, MessagePublisher.DROP_OLDEST, 4);
+        publisher.subscribe(newest, MessagePublisher.DROP_NEWEST, 4);
+        publisher.subscribe(repeats, MessagePublisher.COALESCE_REPEATS, 4);
+        int[] commands = {1, 1, 1, 2, 3, 3, 4, 5, 6};
+        for (int command : commands) {
+            publisher.parsedMessage(message(command));
+        }
+        for (Recorder recorder : new Recorder[]{oldest, newest, repeats}) {
+            recorder.subscription.request(100);
+        }
+        runTasks();
+
+        assertThat(oldest.commands.toString(), is("[3, 4, 5, 6]"));
+        assertThat(newest.commands.toString(), is("[1, 1, 1, 2]"));
+        assertThat(repeats.commands.toString(), is("[1, 2, 3, 4]"));
+        assertThat(oldestSubscription.getDroppedCount(), is(5L));
+        assertThat(publisher.getDroppedCount(MessagePublisher.DROP_OLDEST), is(5L));
+        assertThat(publisher.getDroppedCount(MessagePublisher.DROP_NEWEST), is(5L));
+        assertThat(publisher.getDroppedCount(MessagePublisher.COALESCE_REPEATS), is(5L));
+    }
+
+    @Test
+    public void repeatsAreOnlyCoalescedWhileQueued() throws Exception {
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder, MessagePublisher.COALESCE_REPEATS, 8);
+        recorder.subscription.request(100);
+        publisher.parsedMessage(message(1));
+        publisher.parsedMessage(message(1));
+        runTasks();
+        publisher.parsedMessage(message(1));
+        runTasks();
+        assertThat(recorder.commands.toString(), is("[1, 1]"));
+    }
+
+    @Test
+    public void badRequestFailsSubscription() throws Exception {
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.subscription.request(0);
+        runTasks();
+        assertThat(recorder.error instanceof IllegalArgumentException, is(true));
+        assertThat(publisher.getSubscriberCount(), is(0));
+    }
+
+    @Test
+    public void slowSubscriberDoesNotBlockDecoding() throws Exception {
+        MessagePublisher threaded = new MessagePublisher();
+        final CountDownLatch release = new CountDownLatch(1);
+        Recorder slow = new Recorder() {
+            @Override
+            public void onNext(ProtocolMessage item) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onNext(item);
+            }
+        };
+        threaded.subscribe(slow, MessagePublisher.DROP_OLDEST, 16);
+        slow.subscription.request(Long.MAX_VALUE);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10000; i++) {
+            threaded.parsedMessage(message(i));
+        }
+        assertThat(System.currentTimeMillis() - start < 2000, is(true));
+        release.countDown();
+        threaded.close();
+        assertThat(slow.done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(slow.commands.size() + threaded.getDroppedCount(MessagePublisher.DROP_OLDEST), is(10000L));
+        assertThat(slow.commands.get(slow.commands.size() - 1), is(9999));
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    private static ProtocolMessage message(int command) {
+        ProtocolMessage message = new ProtocolMessage("Nexa", command, 1, 0);
+        message.addField(new FieldValue("Command", command));
+        return message;
+    }
+
+    private static class Recorder implements Subscriber<ProtocolMessage> {
+        Subscription subscription;
+        List<Integer> commands = new ArrayList<Integer>();
+        boolean completed;
+        Throwable error;
+        CountDownLatch done = new CountDownLatch(1);
+
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(ProtocolMessage item) {
+            commands.add(item.getCommand());
+        }
+
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package nu.nethome.coders.sinks;
+
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.ProtocolMessage;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SensorHistoryTest {
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final String SENSOR = "Oregon:107:1";
+
+    @Test
+    public void recordsMeasurementFieldsPerSensor() {
+        SensorHistory history = new SensorHistory();
+        history.parsedMessage(oregon(0x6B, 1, 190, 45), 1000);
+        history.parsedMessage(oregon(0x6B, 2, 210, 50), 2000);
+        history.parsedMessage(new ProtocolMessage("Nexa", 1, 2, 0), 3000);
+
+        assertThat(history.getSensors().toString(), is("[Oregon:107:1, Oregon:107:2]"));
+        assertThat(history.getFields(SENSOR).toString(), is("[Moisture, Temp]"));
+        assertThat(history.getLatest(SENSOR, "Temp").getMin(), is(190));
+        assertThat(history.getLatest(SENSOR, "Temp").getTime(), is(1000L));
+        assertThat(history.getLatest(SENSOR, "Wind"), is(nullValue()));
+    }
+
+    @Test
+    public void downsamplesToMinutesAndHours() {
+        SensorHistory history = new SensorHistory();
+        for (int i = 0; i < 120; i++) {
+            history.record(SENSOR, "Temp", i * 30 * 1000L, i);
+        }
+
+        List<SensorHistory.Sample> minutes = history.getRange(SENSOR, "Temp", SensorHistory.MINUTE, 0, HOUR);
+        assertThat(minutes.size(), is(60));
+        assertThat(minutes.get(1).getTime(), is(MINUTE));
+        assertThat(minutes.get(1).getMin(), is(2));
+        assertThat(minutes.get(1).getMax(), is(3));
+        assertThat(minutes.get(1).getMean(), is(2.5));
+        assertThat(minutes.get(1).getCount(), is(2));
+
+        List<SensorHistory.Sample> hours = history.getRange(SENSOR, "Temp", SensorHistory.HOUR, 0, HOUR);
+        assertThat(hours.size(), is(1));
+        assertThat(hours.get(0).getMax(), is(119));
+        assertThat(hours.get(0).getMean(), is(59.5));
+        assertThat(hours.get(0).getCount(), is(120));
+    }
+
+    @Test
+    public void keepsOnlyTheNewestSamples() {
+        SensorHistory history = new SensorHistory(10, 5, 2, 10);
+        for (int i = 0; i < 100; i++) {
+            history.record(SENSOR, "Temp", i * 15 * MINUTE, i);
+        }
+
+        List<SensorHistory.Sample> raw = history.getRange(SENSOR, "Temp", SensorHistory.RAW, 0, Long.MAX_VALUE);
+        assertThat(raw.size(), is(10));
+        assertThat(raw.get(0).getMin(), is(90));
+        assertThat(raw.get(9).getMin(), is(99));
+        List<SensorHistory.Sample> hours = history.getRange(SENSOR, "Temp", SensorHistory.HOUR, 0, Long.MAX_VALUE);
+        assertThat(hours.size(), is(2));
+        assertThat(hours.get(0).getTime(), is(23 * HOUR));
+        assertThat(hours.get(0).getMean(), is(93.5));
+    }
+
+    @Test
+    public void aggregatesFromFinestCoveringResolution() {
+        SensorHistory history = new SensorHistory(10, 1000, 1000, 10);
+        for (int i = 0; i < 100; i++) {
+            history.record(SENSOR, "Temp", i * 10 * 1000L, i);
+        }
+
+        SensorHistory.Sample recent = history.getAggregate(SENSOR, "Temp", 905 * 1000L, 2 * HOUR);
+        assertThat(recent.getCount(), is(9));
+        assertThat(recent.getMin(), is(91));
+        SensorHistory.Sample old = history.getAggregate(SENSOR, "Temp", 125 * 1000L, 2 * HOUR);
+        assertThat(old.getCount(), is(88));
+        assertThat(old.getMin(), is(12));
+        assertThat(history.getAggregate(SENSOR, "Temp", 3 * HOUR, 4 * HOUR), is(nullValue()));
+    }
+
+    @Test
+    public void growsBuffersUpToTheirSize() {
+        SensorHistory history = new SensorHistory(100, 1000, 1000, 10);
+        for (int i = 0; i < 250; i++) {
+            history.record(SENSOR, "Temp", i * 1000L, i);
+        }
+
+        List<SensorHistory.Sample> raw = history.getRange(SENSOR, "Temp", SensorHistory.RAW, 0, Long.MAX_VALUE);
+        assertThat(raw.size(), is(100));
+        for (int i = 0; i < raw.size(); i++) {
+            assertThat(raw.get(i).getMin(), is(150 + i));
+        }
+        List<SensorHistory.Sample> minutes = history.getRange(SENSOR, "Temp", SensorHistory.MINUTE, 0, Long.MAX_VALUE);
+        assertThat(minutes.size(), is(5));
+        assertThat(minutes.get(4).getMin(), is(240));
+    }
+
+    @Test
+    public void dropsReadingsBeyondMaxSensors() {
+        SensorHistory history = new SensorHistory(10, 10, 10, 1);
+        history.record("A", "Temp", 0, 1);
+        history.record("A", "Moisture", 0, 1);
+        history.record("B", "Temp", 0, 1);
+        history.record("A", "Temp", 1, 2);
+
+        assertThat(history.getSensorCount(), is(1));
+        assertThat(history.getSeriesCount(), is(2));
+        assertThat(history.getDroppedReadings(), is(1L));
+        assertThat(history.getLatest("A", "Temp").getMin(), is(2));
+    }
+
+    @Test
+    public void readersNeverSeeHalfUpdatedSamples() throws Exception {
+        final SensorHistory history = new SensorHistory(100000, 16, 16, 1);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger inconsistent = new AtomicInteger();
+        history.record(SENSOR, "Temp", 0, 0);
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                while (running.get()) {
+                    SensorHistory.Sample sample = history.getLatest(SENSOR, "Temp");
+                    if (sample.getTime() != sample.getMin() * 1000L) {
+                        inconsistent.incrementAndGet();
+                    }
+                    long from = sample.getTime() - 10000L;
+                    List<SensorHistory.Sample> recent =
+                            history.getRange(SENSOR, "Temp", SensorHistory.RAW, from, Long.MAX_VALUE);
+                    if (recent.get(0).getTime() != recent.get(0).getMin() * 1000L) {
+                        inconsistent.incrementAndGet();
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (int i = 1; i < 200000; i++) {
+            history.record(SENSOR, "Temp", i * 1000L, i);
+        }
+        running.set(false);
+        reader.join();
+
+        assertThat(inconsistent.get(), is(0));
+    }
+
+    private ProtocolMessage oregon(int id, int channel, int temp, int moisture) {
+        ProtocolMessage message = new ProtocolMessage("Oregon", 0, id, 0);
+        message.addField(new FieldValue("SensorId", 0x1D20));
+        message.addField(new FieldValue("Channel", channel));
+        message.addField(new FieldValue("Id", id));
+        message.addField(new FieldValue("Temp", temp));
+        message.addField(new FieldValue("Moisture", moisture));
+        return message;
+    }
+}
@@ -0,0 +1,118 @@
+package nu.nethome.coders.sinks;
+
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.ProtocolMessage;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SensorStateCacheTest {
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final int THGR228 = 0x1D20;
+
+    @Test
+    public void keepsLatestStatePerSensor() {
+        SensorStateCache cache = new SensorStateCache();
+        cache.parsedMessage(oregon(THGR228, 1, 0x6B, 190), 1000);
+        cache.parsedMessage(oregon(THGR228, 2, 0x6B, 200), 2000);
+        cache.parsedMessage(oregon(THGR228, 1, 0x6B, 195), 3000);
+
+        SensorStateCache.SensorState state = cache.get("Oregon:7456:1:107");
+        assertThat(state.getField("Temp"), is(195));
+        assertThat(state.getCount(), is(2));
+        assertThat(state.getFirstSeen(), is(1000L));
+        assertThat(state.getLastSeen(), is(3000L));
+        assertThat(cache.getStates().size(), is(2));
+    }
+
+    @Test
+    public void linksNewRollingIdToVanishedSensor() {
+        SensorStateCache cache = new SensorStateCache();
+        cache.parsedMessage(oregon(THGR228, 1, 0x6B, 190), 0);
+        cache.parsedMessage(oregon(THGR228, 1, 0x21, 180), 5 * MINUTE);
+
+        assertThat(cache.getStates().size(), is(1));
+        SensorStateCache.SensorState state = cache.get("Oregon:7456:1:107");
+        assertThat(state.getId(), is(0x21));
+        assertThat(state.getField("Temp"), is(180));
+        assertThat(state.getFirstSeen(), is(0L));
+        assertThat(cache.getLinkCount(), is(1L));
+    }
+
+    @Test
+    public void doesNotLinkWhileOldIdIsActiveOrAmbiguous() {
+        SensorStateCache cache = new SensorStateCache();
+        cache.parsedMessage(oregon(THGR228, 1, 0x6B, 190), 0);
+        cache.parsedMessage(oregon(THGR228, 1, 0x21, 180), MINUTE);
+        cache.parsedMessage(oregon(THGR228, 1, 0x33, 170), 10 * MINUTE);
+        cache.parsedMessage(oregon(0xEC40, 1, 0x44, 160), 10 * MINUTE);
+
+        assertThat(cache.getStates().size(), is(4));
+        assertThat(cache.getLinkCount(), is(0L));
+    }
+
+    @Test
+    public void newSensorWithNameOfLinkedSensorKeepsBoth() {
+        SensorStateCache cache = new SensorStateCache();
+        cache.parsedMessage(oregon(THGR228, 1, 0x6B, 190), 0);
+        cache.parsedMessage(oregon(THGR228, 1, 0x21, 180), 5 * MINUTE);
+        cache.parsedMessage(oregon(THGR228, 1, 0x6B, 170), 6 * MINUTE);
+
+        assertThat(cache.getStates().size(), is(2));
+        assertThat(cache.get("Oregon:7456:1:107").getId(), is(0x21));
+        assertThat(cache.get("Oregon:7456:1:107#2").getId(), is(0x6B));
+        assertThat(cache.get("Oregon:7456:1:107#2").getField("Temp"), is(170));
+        cache.parsedMessage(oregon(THGR228, 1, 0x6B, 160), 7 * MINUTE);
+        assertThat(cache.get("Oregon:7456:1:107#2").getCount(), is(2));
+    }
+
+    @Test
+    public void listsStatesOrderedByName() {
+        SensorStateCache cache = new SensorStateCache();
+        cache.parsedMessage(oregon(THGR228, 3, 0x6B, 190), 0);
+        cache.parsedMessage(oregon(THGR228, 1, 0x6B, 190), 0);
+        cache.parsedMessage(oregon(THGR228, 2, 0x6B, 190), 0);
+
+        StringBuilder names = new StringBuilder();
+        for (SensorStateCache.SensorState state : cache.getStates()) {
+            names.append(state.getChannel());
+        }
+        assertThat(names.toString(), is("123"));
+    }
+
+    @Test
+    public void evictsSilentSensors() {
+        SensorStateCache cache = new SensorStateCache(MINUTE, 10 * MINUTE);
+        cache.parsedMessage(oregon(THGR228, 1, 0x6B, 190), 0);
+        cache.parsedMessage(oregon(THGR228, 2, 0x6B, 190), 5 * MINUTE);
+        cache.evictStale(11 * MINUTE);
+
+        assertThat(cache.getStates().size(), is(1));
+        assertThat(cache.get("Oregon:7456:1:107"), is(nullValue()));
+        assertThat(cache.getEvictCount(), is(1L));
+    }
+
+    @Test
+    public void splitsFineOffsetIdentityInTypeAndId() {
+        SensorStateCache cache = new SensorStateCache();
+        ProtocolMessage message = new ProtocolMessage("FineOffset", 225, 0x4B1, 0);
+        message.addField(new FieldValue("Temp", 225));
+        message.addField(new FieldValue("Identity", 0x4B1));
+        cache.parsedMessage(message, 0);
+
+        SensorStateCache.SensorState state = cache.getStates().iterator().next();
+        assertThat(state.getName(), is("FineOffset:4:0:177"));
+        assertThat(state.getSensorType(), is(4));
+    }
+
+    private ProtocolMessage oregon(int sensorType, int channel, int id, int temp) {
+        ProtocolMessage message = new ProtocolMessage("Oregon", 0, id, 0);
+        message.addField(new FieldValue("SensorId", sensorType));
+        message.addField(new FieldValue("Channel", channel));
+        message.addField(new FieldValue("Id", id));
+        message.addField(new FieldValue("Temp", temp));
+        return message;
+    }
+}